@@ -1,20 +1,36 @@
 package simpledb;
 
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * The Aggregation operator that computes an aggregate (e.g., sum, avg, max,
  * min). Note that we only support aggregates over a single column, grouped by a
  * single column.
+ * <p>
+ * When the child is a {@link SeqScan} of a {@link HeapFile}, the aggregate
+ * can be computed by several workers, run in the pool {@link Gather} runs its
+ * workers in: each one aggregates a range of pages of the table into its own
+ * {@link Aggregator}, and the partial aggregates are merged once all of them
+ * are done.
  */
 public class Aggregate extends Operator {
 
     private static final long serialVersionUID = 1L;
+
+    /**
+     * Minimum number of pages each worker of a parallel aggregate should read
+     */
+    public final static int MIN_PAGES_PER_WORKER = 64;
     private final int aggFieldId;
     private final int groupByFieldId;
     private final Aggregator.Op aggOp;
+    private final int workers;
     // private final Aggregator aggregator;
     private OpIterator it;
+    private TupleDesc td;
 
     private OpIterator child;
 
@@ -38,10 +54,26 @@ public class Aggregate extends Operator {
      */
     public Aggregate(OpIterator child, int afield, int gfield, Aggregator.Op aop) {
 	    // some code goes here
+        this(child, afield, gfield, aop, 1);
+    }
+
+    /**
+     * Constructor for an aggregate computed by several threads.
+     *
+     * @param workers
+     *            the number of threads aggregating the child in parallel, if
+     *            it is a SeqScan of a HeapFile; other children are aggregated
+     *            by the calling thread
+     */
+    public Aggregate(OpIterator child, int afield, int gfield, Aggregator.Op aop, int workers) {
+        if (workers < 1) {
+            throw new IllegalArgumentException("need at least one worker");
+        }
         this.child = child;
         this.aggFieldId = afield;
         this.groupByFieldId = gfield;
         this.aggOp = aop;
+        this.workers = workers;
     }
 
     private Aggregator getAggregator() {
@@ -111,23 +143,128 @@ public class Aggregate extends Operator {
 	return aop.toString();
     }
 
+    /**
+     * @return the number of workers worth aggregating a table of the given
+     *         number of pages: one per processor, as long as each has at least
+     *         {@link #MIN_PAGES_PER_WORKER} pages to read
+     */
+    public static int parallelism(int pages) {
+        return Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(),
+                pages / MIN_PAGES_PER_WORKER));
+    }
+
+    /**
+     * @return the number of threads the aggregate may be computed by
+     */
+    public int workers() {
+        return this.workers;
+    }
+
+    /**
+     * @return true if the child can be split into page ranges aggregated by
+     *         different threads
+     */
+    private boolean isPartitionable() {
+        return this.child instanceof SeqScan
+                && Database.getCatalog().getDatabaseFile(((SeqScan) this.child).getTableId()) instanceof HeapFile;
+    }
+
     public void open() throws NoSuchElementException, DbException,
 	    TransactionAbortedException {
 	// some code goes here
         Aggregator aggregator = this.getAggregator();
         super.open();
         if (this.it == null) {
-            child.open();
-            while (this.child.hasNext()) {
-                Tuple t = this.child.next();
-                aggregator.mergeTupleIntoGroup(t);
+            if (this.workers > 1 && this.isPartitionable()) {
+                this.aggregatePartitions(aggregator);
+            } else {
+                child.open();
+                while (this.child.hasNext()) {
+                    Tuple t = this.child.next();
+                    aggregator.mergeTupleIntoGroup(t);
+                }
+                child.close();
             }
-            child.close();
             this.it = aggregator.iterator();
         }
         this.it.open();
     }
 
+    /**
+     * Aggregate the pages of the scanned table in parallel, one range of
+     * pages per worker, and merge the partial aggregates into aggregator.
+     */
+    private void aggregatePartitions(Aggregator aggregator)
+            throws DbException, TransactionAbortedException {
+        SeqScan scan = (SeqScan) this.child;
+        Gather.lockForWorkers(scan);
+        int pages = ((HeapFile) Database.getCatalog().getDatabaseFile(scan.getTableId())).numPages();
+        int n = Math.max(1, Math.min(this.workers, pages));
+        final AtomicReference<Exception> failure = new AtomicReference<Exception>();
+        Aggregator[] partials = new Aggregator[n];
+        Future<?>[] tasks = new Future<?>[n];
+        for (int w = 0; w < n; w++) {
+            // the last range is open-ended, so it also covers pages
+            // appended since the table's size was read
+            final SeqScan part = new SeqScan(scan.getTransactionId(), scan.getTableId(),
+                    scan.getAlias(), (int) ((long) pages * w / n),
+                    w == n - 1 ? -1 : (int) ((long) pages * (w + 1) / n));
+            final Aggregator partial = this.getAggregator();
+            partials[w] = partial;
+            tasks[w] = Gather.pool().submit(new Runnable() {
+                public void run() {
+                    try {
+                        part.open();
+                        try {
+                            while (failure.get() == null && part.hasNext()) {
+                                partial.mergeTupleIntoGroup(part.next());
+                            }
+                        } finally {
+                            part.close();
+                        }
+                    } catch (Exception e) {
+                        failure.compareAndSet(null, e);
+                    }
+                }
+            });
+        }
+        // wait for every worker, even after a failure, so that none of them
+        // reads pages for the transaction afterwards; they stop early once
+        // a failure is recorded
+        boolean interrupted = false;
+        for (Future<?> task : tasks) {
+            while (true) {
+                try {
+                    task.get();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                    failure.compareAndSet(null, new TransactionAbortedException());
+                } catch (ExecutionException e) {
+                    failure.compareAndSet(null, new DbException("aggregate worker failed: " + e.getCause()));
+                    break;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+
+        Exception e = failure.get();
+        if (e instanceof TransactionAbortedException) {
+            throw (TransactionAbortedException) e;
+        } else if (e instanceof DbException) {
+            throw (DbException) e;
+        } else if (e instanceof RuntimeException) {
+            throw (RuntimeException) e;
+        } else if (e != null) {
+            throw new DbException("aggregate worker failed: " + e);
+        }
+        for (Aggregator partial : partials) {
+            aggregator.mergeAggregator(partial);
+        }
+    }
+
     /**
      * Returns the next tuple. If there is a group by field, then the first
      * field is the field by which we are grouping, and the second field is the
@@ -159,11 +296,21 @@ public class Aggregate extends Operator {
      */
     public TupleDesc getTupleDesc() {
 	// some code goes here
-        if (this.it != null) {
-            return this.it.getTupleDesc();
-        } else {
-            return this.getAggregator().iterator().getTupleDesc();
+        if (this.td == null) {
+            TupleDesc aggTd = this.getAggregator().iterator().getTupleDesc();
+            Type[] types = new Type[aggTd.numFields()];
+            String[] names = new String[types.length];
+            for (int i = 0; i < types.length; i++) {
+                types[i] = aggTd.getFieldType(i);
+            }
+            if (this.groupByFieldId != Aggregator.NO_GROUPING) {
+                names[0] = this.groupFieldName();
+            }
+            names[types.length - 1] = nameOfAggregatorOp(this.aggOp) + "("
+                    + this.aggregateFieldName() + ")";
+            this.td = new TupleDesc(types, names);
         }
+        return this.td;
     }
 
     public void close() {
@@ -184,6 +331,7 @@ public class Aggregate extends Operator {
 	// some code goes here
         assert children.length == 1;
         this.child = children[0];
+        this.td = null;
     }
     
 }
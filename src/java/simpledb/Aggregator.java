@@ -76,6 +76,18 @@ public interface Aggregator extends Serializable {
      */
     public void mergeTupleIntoGroup(Tuple tup);
 
+    /**
+     * Merge the groups of another aggregator into this one, as if the tuples
+     * merged into it had been merged into this one instead. Used to combine
+     * partial aggregates computed over disjoint parts of the input; AVG is
+     * carried as a sum and a count until the result is read.
+     *
+     * @param other an aggregator of the same class, computing the same
+     *            aggregate over the same fields
+     * @throws IllegalArgumentException if other computes a different aggregate
+     */
+    public void mergeAggregator(Aggregator other);
+
     /**
      * Create a OpIterator over group aggregate results.
      * @see simpledb.TupleIterator for a possible helper
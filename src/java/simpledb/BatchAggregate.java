@@ -0,0 +1,203 @@
+package simpledb;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * BatchAggregate is the batch counterpart of {@link Aggregate}: one aggregate
+ * over a single column, grouped by at most one column, with the same output
+ * schema. Values are folded straight from the child's column vectors into a
+ * running value and count per group.
+ * <p>
+ * As with {@link StringAggregator}, only COUNT is supported over a
+ * STRING_TYPE column.
+ */
+public class BatchAggregate implements BatchIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final BatchIterator child;
+    private final int aggFieldId;
+    private final int groupByFieldId;
+    private final Aggregator.Op aggOp;
+    private final TupleDesc td;
+    private final int batchSize;
+    /** the running value and count of each group; keyed by Integer or String */
+    private transient Map<Object, int[]> groups;
+    private transient Iterator<Map.Entry<Object, int[]>> it;
+    private transient TupleBatch batch;
+
+    /**
+     * Constructor.
+     *
+     * @param child
+     *            The BatchIterator that is feeding us batches.
+     * @param afield
+     *            The column over which we are computing an aggregate.
+     * @param gfield
+     *            The column over which we are grouping the result, or -1 if
+     *            there is no grouping
+     * @param aop
+     *            The aggregation operator to use
+     */
+    public BatchAggregate(BatchIterator child, int afield, int gfield, Aggregator.Op aop) {
+        this.child = child;
+        this.aggFieldId = afield;
+        this.groupByFieldId = gfield;
+        this.aggOp = aop;
+        this.batchSize = TupleBatch.DEFAULT_CAPACITY;
+
+        TupleDesc childtd = child.getTupleDesc();
+        switch (aop) {
+            case MIN:
+            case MAX:
+            case SUM:
+            case AVG:
+                if (childtd.getFieldType(afield) != Type.INT_TYPE) {
+                    throw new UnsupportedOperationException("operator " + aop + " is not supported.");
+                }
+                break;
+            case COUNT:
+                break;
+            default:
+                throw new UnsupportedOperationException("operator " + aop + " is not supported.");
+        }
+        if (gfield == Aggregator.NO_GROUPING) {
+            this.td = new TupleDesc(new Type[] { Type.INT_TYPE });
+        } else {
+            this.td = new TupleDesc(new Type[] { childtd.getFieldType(gfield), Type.INT_TYPE });
+        }
+    }
+
+    public int groupField() {
+        return this.groupByFieldId;
+    }
+
+    public int aggregateField() {
+        return this.aggFieldId;
+    }
+
+    public Aggregator.Op aggregateOp() {
+        return this.aggOp;
+    }
+
+    /**
+     * @return the TupleDesc of the output: the group by field, if any,
+     *         followed by the aggregate value, as in {@link Aggregate}
+     */
+    public TupleDesc getTupleDesc() {
+        return this.td;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        this.groups = new HashMap<>();
+        this.child.open();
+        TupleBatch in;
+        while ((in = this.child.nextBatch()) != null) {
+            this.mergeBatch(in);
+        }
+        this.child.close();
+        this.it = this.groups.entrySet().iterator();
+        this.batch = new TupleBatch(this.td, this.batchSize);
+    }
+
+    private void mergeBatch(TupleBatch in) {
+        int[] values = in.getTupleDesc().getFieldType(this.aggFieldId) == Type.INT_TYPE
+                ? in.intColumn(this.aggFieldId) : null;
+        int size = in.size();
+        if (this.groupByFieldId == Aggregator.NO_GROUPING) {
+            int[] state = this.groups.computeIfAbsent(Aggregator.noGroupingField, k -> this.newState());
+            for (int i = 0; i < size; i++) {
+                this.merge(state, values == null ? 0 : values[in.row(i)]);
+            }
+        } else if (in.getTupleDesc().getFieldType(this.groupByFieldId) == Type.INT_TYPE) {
+            int[] keys = in.intColumn(this.groupByFieldId);
+            for (int i = 0; i < size; i++) {
+                int row = in.row(i);
+                int[] state = this.groups.computeIfAbsent(keys[row], k -> this.newState());
+                this.merge(state, values == null ? 0 : values[row]);
+            }
+        } else {
+            String[] keys = in.stringColumn(this.groupByFieldId);
+            for (int i = 0; i < size; i++) {
+                int row = in.row(i);
+                int[] state = this.groups.computeIfAbsent(keys[row], k -> this.newState());
+                this.merge(state, values == null ? 0 : values[row]);
+            }
+        }
+    }
+
+    private int[] newState() {
+        switch (this.aggOp) {
+            case MIN:
+                return new int[] { Integer.MAX_VALUE, 0 };
+            case MAX:
+                return new int[] { Integer.MIN_VALUE, 0 };
+            default:
+                return new int[] { 0, 0 };
+        }
+    }
+
+    private void merge(int[] state, int value) {
+        switch (this.aggOp) {
+            case MIN:
+                state[0] = Math.min(state[0], value);
+                break;
+            case MAX:
+                state[0] = Math.max(state[0], value);
+                break;
+            case SUM:
+            case AVG:
+                state[0] += value;
+                break;
+            default:
+                break;
+        }
+        state[1]++;
+    }
+
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+        if (this.it == null) {
+            throw new IllegalStateException("Operator not yet open");
+        }
+        this.batch.clear();
+        while (!this.batch.isFull() && this.it.hasNext()) {
+            Map.Entry<Object, int[]> e = this.it.next();
+            int[] state = e.getValue();
+            int row = this.batch.addRow();
+            int col = 0;
+            if (this.groupByFieldId != Aggregator.NO_GROUPING) {
+                if (e.getKey() instanceof Integer) {
+                    this.batch.intColumn(col++)[row] = (Integer) e.getKey();
+                } else {
+                    this.batch.stringColumn(col++)[row] = (String) e.getKey();
+                }
+            }
+            int value;
+            switch (this.aggOp) {
+                case COUNT:
+                    value = state[1];
+                    break;
+                case AVG:
+                    value = state[0] / state[1];
+                    break;
+                default:
+                    value = state[0];
+                    break;
+            }
+            this.batch.intColumn(col)[row] = value;
+        }
+        return this.batch.size() > 0 ? this.batch : null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        this.it = this.groups.entrySet().iterator();
+    }
+
+    public void close() {
+        this.groups = null;
+        this.it = null;
+        this.batch = null;
+    }
+}
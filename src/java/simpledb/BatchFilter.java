@@ -0,0 +1,180 @@
+package simpledb;
+
+/**
+ * BatchFilter is the batch counterpart of {@link Filter}. It evaluates its
+ * predicate on the column vector of each batch and narrows the batch's
+ * selection to the rows that pass, comparing primitive ints (or strings)
+ * without creating a Field per row.
+ */
+public class BatchFilter implements BatchIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final Predicate p;
+    private BatchIterator child;
+    private transient int[] selection;
+
+    /**
+     * Constructor accepts a predicate to apply and a child operator to read
+     * batches to filter from.
+     *
+     * @param p
+     *            The predicate to filter tuples with
+     * @param child
+     *            The child operator
+     */
+    public BatchFilter(Predicate p, BatchIterator child) {
+        this.p = p;
+        this.child = child;
+    }
+
+    public Predicate getPredicate() {
+        return this.p;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return this.child.getTupleDesc();
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        this.child.open();
+    }
+
+    public void close() {
+        this.child.close();
+        this.selection = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        this.child.rewind();
+    }
+
+    /**
+     * Returns the next batch of the child with at least one row passing the
+     * predicate, with only those rows selected. The selection is written
+     * front to back, so it may safely overwrite the batch's own selection.
+     */
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+        TupleBatch batch;
+        while ((batch = this.child.nextBatch()) != null) {
+            if (this.selection == null || this.selection.length < batch.numRows()) {
+                this.selection = new int[batch.capacity()];
+            }
+            int count;
+            if (batch.getTupleDesc().getFieldType(this.p.getField()) == Type.INT_TYPE) {
+                count = this.selectInts(batch);
+            } else {
+                count = this.selectStrings(batch);
+            }
+            if (count > 0) {
+                batch.setSelection(this.selection, count);
+                return batch;
+            }
+        }
+        return null;
+    }
+
+    private int selectInts(TupleBatch batch) {
+        int[] values = batch.intColumn(this.p.getField());
+        int operand = ((IntField) this.p.getOperand()).getValue();
+        int[] out = this.selection;
+        int count = 0;
+        int size = batch.size();
+        // one loop per operator, so the comparison is not dispatched per row
+        switch (this.p.getOp()) {
+            case EQUALS:
+            case LIKE:
+                for (int i = 0; i < size; i++) {
+                    int row = batch.row(i);
+                    if (values[row] == operand) {
+                        out[count++] = row;
+                    }
+                }
+                break;
+            case NOT_EQUALS:
+                for (int i = 0; i < size; i++) {
+                    int row = batch.row(i);
+                    if (values[row] != operand) {
+                        out[count++] = row;
+                    }
+                }
+                break;
+            case GREATER_THAN:
+                for (int i = 0; i < size; i++) {
+                    int row = batch.row(i);
+                    if (values[row] > operand) {
+                        out[count++] = row;
+                    }
+                }
+                break;
+            case GREATER_THAN_OR_EQ:
+                for (int i = 0; i < size; i++) {
+                    int row = batch.row(i);
+                    if (values[row] >= operand) {
+                        out[count++] = row;
+                    }
+                }
+                break;
+            case LESS_THAN:
+                for (int i = 0; i < size; i++) {
+                    int row = batch.row(i);
+                    if (values[row] < operand) {
+                        out[count++] = row;
+                    }
+                }
+                break;
+            case LESS_THAN_OR_EQ:
+                for (int i = 0; i < size; i++) {
+                    int row = batch.row(i);
+                    if (values[row] <= operand) {
+                        out[count++] = row;
+                    }
+                }
+                break;
+        }
+        return count;
+    }
+
+    private int selectStrings(TupleBatch batch) {
+        String[] values = batch.stringColumn(this.p.getField());
+        String operand = ((StringField) this.p.getOperand()).getValue();
+        Predicate.Op op = this.p.getOp();
+        int[] out = this.selection;
+        int count = 0;
+        int size = batch.size();
+        for (int i = 0; i < size; i++) {
+            int row = batch.row(i);
+            boolean pass;
+            // same semantics as StringField.compare
+            if (op == Predicate.Op.LIKE) {
+                pass = values[row].indexOf(operand) >= 0;
+            } else {
+                int cmp = values[row].compareTo(operand);
+                switch (op) {
+                    case EQUALS:
+                        pass = cmp == 0;
+                        break;
+                    case NOT_EQUALS:
+                        pass = cmp != 0;
+                        break;
+                    case GREATER_THAN:
+                        pass = cmp > 0;
+                        break;
+                    case GREATER_THAN_OR_EQ:
+                        pass = cmp >= 0;
+                        break;
+                    case LESS_THAN:
+                        pass = cmp < 0;
+                        break;
+                    default:
+                        pass = cmp <= 0;
+                        break;
+                }
+            }
+            if (pass) {
+                out[count++] = row;
+            }
+        }
+        return count;
+    }
+}
@@ -0,0 +1,213 @@
+package simpledb;
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * BatchHashEquiJoin is the batch counterpart of {@link HashEquiJoin}. Rows of
+ * the left child are copied into column arrays and chained by join key, up to
+ * {@link HashEquiJoin#MAP_SIZE} rows at a time; the right child is then read
+ * batch by batch, and each right row is joined with the left rows on its
+ * chain. As in HashEquiJoin, the right child is rewound once per chunk of the
+ * left child.
+ * <p>
+ * Output rows are the left row followed by the right row, so the join
+ * attribute appears twice.
+ */
+public class BatchHashEquiJoin implements BatchIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final JoinPredicate pred;
+    private final BatchIterator child1, child2;
+    private final TupleDesc comboTD;
+    private final int batchSize;
+
+    // the rows of the left child in the current chunk, column by column
+    private transient int[][] buildInts;
+    private transient String[][] buildStrings;
+    private transient int buildRows;
+    /** the last left row with each key; earlier ones are found through chain */
+    private transient HashMap<Object, Integer> heads;
+    private transient int[] chain;
+    private transient TupleBatch pendingBuild;
+    private transient int pendingPos;
+    private transient boolean buildDone;
+
+    private transient TupleBatch probe;
+    private transient int probePos;
+    private transient int probeRow;
+    /** the next left row to join with probeRow, or -1 */
+    private transient int match = -1;
+    private transient boolean done;
+    private transient TupleBatch out;
+
+    /**
+     * Constructor. Accepts to children to join and the predicate to join them
+     * on
+     *
+     * @param p
+     *            The predicate to use to join the children; its operator
+     *            must be EQUALS
+     * @param child1
+     *            Iterator for the left(build) relation to join
+     * @param child2
+     *            Iterator for the right(probe) relation to join
+     */
+    public BatchHashEquiJoin(JoinPredicate p, BatchIterator child1, BatchIterator child2) {
+        if (p.getOperator() != Predicate.Op.EQUALS) {
+            throw new UnsupportedOperationException("operator " + p.getOperator() + " is not supported.");
+        }
+        this.pred = p;
+        this.child1 = child1;
+        this.child2 = child2;
+        this.comboTD = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+        this.batchSize = TupleBatch.DEFAULT_CAPACITY;
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return this.pred;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return this.comboTD;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        this.child1.open();
+        this.child2.open();
+        TupleDesc td1 = this.child1.getTupleDesc();
+        this.buildInts = new int[td1.numFields()][];
+        this.buildStrings = new String[td1.numFields()][];
+        this.chain = new int[0];
+        this.heads = new HashMap<>();
+        this.out = new TupleBatch(this.comboTD, this.batchSize);
+        this.start();
+    }
+
+    private void start() throws DbException, TransactionAbortedException {
+        this.pendingBuild = null;
+        this.buildDone = false;
+        this.probe = null;
+        this.match = -1;
+        this.done = !this.loadBuild();
+    }
+
+    public void close() {
+        this.child2.close();
+        this.child1.close();
+        this.buildInts = null;
+        this.buildStrings = null;
+        this.heads = null;
+        this.chain = null;
+        this.pendingBuild = null;
+        this.probe = null;
+        this.out = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        this.child1.rewind();
+        this.child2.rewind();
+        this.start();
+    }
+
+    /**
+     * Load the next chunk of at most MAP_SIZE rows of the left child.
+     *
+     * @return false if the left child has no more rows
+     */
+    private boolean loadBuild() throws DbException, TransactionAbortedException {
+        this.buildRows = 0;
+        this.heads.clear();
+        TupleDesc td1 = this.child1.getTupleDesc();
+        int key = this.pred.getField1();
+        while (this.buildRows < HashEquiJoin.MAP_SIZE && !this.buildDone) {
+            if (this.pendingBuild == null || this.pendingPos >= this.pendingBuild.size()) {
+                this.pendingBuild = this.child1.nextBatch();
+                this.pendingPos = 0;
+                if (this.pendingBuild == null) {
+                    this.buildDone = true;
+                    break;
+                }
+            }
+            int row = this.pendingBuild.row(this.pendingPos++);
+            int r = this.buildRows++;
+            if (r == this.chain.length) {
+                this.grow(td1);
+            }
+            for (int j = 0; j < td1.numFields(); j++) {
+                if (this.buildInts[j] != null) {
+                    this.buildInts[j][r] = this.pendingBuild.intColumn(j)[row];
+                } else {
+                    this.buildStrings[j][r] = this.pendingBuild.stringColumn(j)[row];
+                }
+            }
+            Object k = this.buildInts[key] != null ? (Object) this.buildInts[key][r] : this.buildStrings[key][r];
+            Integer prev = this.heads.put(k, r);
+            this.chain[r] = prev == null ? -1 : prev;
+        }
+        return this.buildRows > 0;
+    }
+
+    private void grow(TupleDesc td1) {
+        int capacity = Math.min(Math.max(this.chain.length * 2, this.batchSize), HashEquiJoin.MAP_SIZE);
+        this.chain = Arrays.copyOf(this.chain, capacity);
+        for (int j = 0; j < td1.numFields(); j++) {
+            if (td1.getFieldType(j) == Type.INT_TYPE) {
+                this.buildInts[j] = this.buildInts[j] == null ? new int[capacity]
+                        : Arrays.copyOf(this.buildInts[j], capacity);
+            } else {
+                this.buildStrings[j] = this.buildStrings[j] == null ? new String[capacity]
+                        : Arrays.copyOf(this.buildStrings[j], capacity);
+            }
+        }
+    }
+
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+        if (this.out == null) {
+            throw new IllegalStateException("Operator not yet open");
+        }
+        this.out.clear();
+        while (!this.done && !this.out.isFull()) {
+            if (this.match >= 0) {
+                this.emit(this.match);
+                this.match = this.chain[this.match];
+            } else if (this.probe != null && this.probePos < this.probe.size()) {
+                this.probeRow = this.probe.row(this.probePos++);
+                int key = this.pred.getField2();
+                Object k = this.probe.getTupleDesc().getFieldType(key) == Type.INT_TYPE
+                        ? (Object) this.probe.intColumn(key)[this.probeRow]
+                        : this.probe.stringColumn(key)[this.probeRow];
+                Integer head = this.heads.get(k);
+                this.match = head == null ? -1 : head;
+            } else if ((this.probe = this.child2.nextBatch()) != null) {
+                this.probePos = 0;
+            } else if (this.loadBuild()) {
+                this.child2.rewind();
+            } else {
+                this.done = true;
+            }
+        }
+        return this.out.size() > 0 ? this.out : null;
+    }
+
+    private void emit(int buildRow) {
+        int row = this.out.addRow();
+        int n1 = this.buildInts.length;
+        for (int j = 0; j < n1; j++) {
+            if (this.buildInts[j] != null) {
+                this.out.intColumn(j)[row] = this.buildInts[j][buildRow];
+            } else {
+                this.out.stringColumn(j)[row] = this.buildStrings[j][buildRow];
+            }
+        }
+        TupleDesc td2 = this.probe.getTupleDesc();
+        for (int j = 0; j < td2.numFields(); j++) {
+            if (td2.getFieldType(j) == Type.INT_TYPE) {
+                this.out.intColumn(n1 + j)[row] = this.probe.intColumn(j)[this.probeRow];
+            } else {
+                this.out.stringColumn(n1 + j)[row] = this.probe.stringColumn(j)[this.probeRow];
+            }
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package simpledb;
+
+import java.io.Serializable;
+
+/**
+ * BatchIterator is the iterator interface of operators that pass
+ * {@link TupleBatch}es between each other instead of one {@link Tuple} at a
+ * time. It mirrors {@link OpIterator}: the iterator must be opened before any
+ * of the other methods are called, and an iterator opens and closes its
+ * children.
+ * <p>
+ * Use {@link BatchToTupleIterator} to put a batch operator under a tuple
+ * operator, and {@link TupleToBatchIterator} for the other way round.
+ */
+public interface BatchIterator extends Serializable {
+    /**
+     * Opens the iterator. This must be called before any of the other methods.
+     * @throws DbException when there are problems opening/accessing the database.
+     */
+    public void open() throws DbException, TransactionAbortedException;
+
+    /**
+     * Returns the next batch. The batch has at least one selected row and is
+     * only valid until the next call; the caller may narrow its selection but
+     * must not change its values.
+     *
+     * @return the next batch, or null if there are no more rows.
+     * @throws IllegalStateException If the iterator has not been opened
+     */
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException;
+
+    /**
+     * Resets the iterator to the start.
+     * @throws DbException when rewind is unsupported.
+     * @throws IllegalStateException If the iterator has not been opened
+     */
+    public void rewind() throws DbException, TransactionAbortedException;
+
+    /**
+     * Returns the TupleDesc of the batches of this iterator.
+     */
+    public TupleDesc getTupleDesc();
+
+    /**
+     * Closes the iterator.
+     */
+    public void close();
+}
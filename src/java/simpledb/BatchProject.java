@@ -0,0 +1,61 @@
+package simpledb;
+
+import java.util.ArrayList;
+
+/**
+ * BatchProject is the batch counterpart of {@link Project}. Its batches are
+ * views of the child's batches sharing their column vectors, so no values are
+ * copied.
+ */
+public class BatchProject implements BatchIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final BatchIterator child;
+    private final TupleDesc td;
+    private final int[] outFieldIds;
+
+    /**
+     * Constructor accepts a child operator to read batches to apply
+     * projection to and a list of fields in output batches
+     *
+     * @param fieldList
+     *            The ids of the fields child's tupleDesc to project out
+     * @param types
+     *            the types of the fields in the final projection
+     * @param child
+     *            The child operator
+     */
+    public BatchProject(ArrayList<Integer> fieldList, Type[] types, BatchIterator child) {
+        this.child = child;
+        this.outFieldIds = new int[fieldList.size()];
+        String[] fieldAr = new String[fieldList.size()];
+        TupleDesc childtd = child.getTupleDesc();
+        for (int i = 0; i < fieldAr.length; i++) {
+            this.outFieldIds[i] = fieldList.get(i);
+            fieldAr[i] = childtd.getFieldName(fieldList.get(i));
+        }
+        this.td = new TupleDesc(types, fieldAr);
+    }
+
+    public TupleDesc getTupleDesc() {
+        return this.td;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        this.child.open();
+    }
+
+    public void close() {
+        this.child.close();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        this.child.rewind();
+    }
+
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+        TupleBatch batch = this.child.nextBatch();
+        return batch == null ? null : batch.project(this.td, this.outFieldIds);
+    }
+}
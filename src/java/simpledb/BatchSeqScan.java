@@ -0,0 +1,113 @@
+package simpledb;
+
+/**
+ * BatchSeqScan is the batch counterpart of {@link SeqScan}. Tuples of a
+ * {@link HeapFile} are decoded from each page straight into the column
+ * vectors of a batch; other files are read through their
+ * {@link DbFileIterator}.
+ */
+public class BatchSeqScan implements BatchIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final TransactionId tid;
+    private final int tableId;
+    private final String tableAlias;
+    private final int batchSize;
+    private transient TupleBatch batch;
+    private transient DbFileIterator it;
+    /** the page being read, or -1 if not open */
+    private int pageNo = -1;
+    /** the next slot to read on that page */
+    private int slot;
+
+    /**
+     * Creates a sequential scan over the specified table as a part of the
+     * specified transaction.
+     *
+     * @param tid
+     *            The transaction this scan is running as a part of.
+     * @param tableid
+     *            the table to scan.
+     * @param tableAlias
+     *            the alias of this table, see {@link SeqScan}
+     * @param batchSize
+     *            the number of rows in a batch
+     */
+    public BatchSeqScan(TransactionId tid, int tableid, String tableAlias, int batchSize) {
+        this.tid = tid;
+        this.tableId = tableid;
+        this.tableAlias = tableAlias;
+        this.batchSize = batchSize;
+    }
+
+    public BatchSeqScan(TransactionId tid, int tableid, String tableAlias) {
+        this(tid, tableid, tableAlias, TupleBatch.DEFAULT_CAPACITY);
+    }
+
+    public String getTableName() {
+        return Database.getCatalog().getTableName(this.tableId);
+    }
+
+    public String getAlias() {
+        return this.tableAlias;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        this.batch = new TupleBatch(this.getTupleDesc(), this.batchSize);
+        DbFile file = Database.getCatalog().getDatabaseFile(this.tableId);
+        if (file instanceof HeapFile) {
+            this.pageNo = 0;
+            this.slot = 0;
+        } else {
+            this.it = file.iterator(this.tid);
+            this.it.open();
+        }
+    }
+
+    /**
+     * @return the TupleDesc of the table with field names prefixed with the
+     *         alias, as in {@link SeqScan#getTupleDesc()}
+     */
+    public TupleDesc getTupleDesc() {
+        return new SeqScan(this.tid, this.tableId, this.tableAlias).getTupleDesc();
+    }
+
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+        if (this.batch == null) {
+            throw new IllegalStateException("Operator not yet open");
+        }
+        this.batch.clear();
+        if (this.it != null) {
+            while (!this.batch.isFull() && this.it.hasNext()) {
+                this.batch.addTuple(this.it.next());
+            }
+        } else if (this.pageNo >= 0) {
+            HeapFile file = (HeapFile) Database.getCatalog().getDatabaseFile(this.tableId);
+            while (!this.batch.isFull() && this.pageNo < file.numPages()) {
+                HeapPage page = (HeapPage) Database.getBufferPool().getPage(this.tid,
+                        new HeapPageId(this.tableId, this.pageNo), Permissions.READ_ONLY);
+                this.slot = page.readInto(this.batch, this.slot);
+                if (this.slot >= page.numSlots) {
+                    this.pageNo++;
+                    this.slot = 0;
+                }
+            }
+        }
+        return this.batch.size() > 0 ? this.batch : null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        this.close();
+        this.open();
+    }
+
+    public void close() {
+        if (this.it != null) {
+            this.it.close();
+            this.it = null;
+        }
+        this.batch = null;
+        this.pageNo = -1;
+    }
+}
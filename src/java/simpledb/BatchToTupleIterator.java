@@ -0,0 +1,65 @@
+package simpledb;
+
+import java.util.NoSuchElementException;
+
+/**
+ * BatchToTupleIterator turns the batches of a {@link BatchIterator} into
+ * tuples, so that a batch operator can feed a tuple operator or be the root
+ * of a plan.
+ */
+public class BatchToTupleIterator extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final BatchIterator child;
+    private transient TupleBatch batch;
+    private transient int pos;
+
+    public BatchToTupleIterator(BatchIterator child) {
+        this.child = child;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return this.child.getTupleDesc();
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        this.child.open();
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        this.child.close();
+        this.batch = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        this.child.rewind();
+        this.batch = null;
+    }
+
+    protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+        if (this.batch == null || this.pos >= this.batch.size()) {
+            this.batch = this.child.nextBatch();
+            this.pos = 0;
+            if (this.batch == null) {
+                return null;
+            }
+        }
+        return this.batch.getTuple(this.pos++);
+    }
+
+    /**
+     * @return no children; the batch child is not an OpIterator
+     */
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[0];
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+    }
+}
@@ -1,14 +1,14 @@
 package simpledb;
 
 import java.io.*;
-import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
-import java.util.Random;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.stream.Collectors;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * BufferPool manages the reading and writing of pages into memory from disk.
@@ -27,10 +27,113 @@ public class BufferPool {
 
     private static int pageSize = DEFAULT_PAGE_SIZE;
 
-    private Map<PageId, Page> pages = new HashMap<>();
-    private Map<PageId, ReadWritePageLock> pageLocks = new HashMap<>();
+    /** Number of latches the page table is striped over. */
+    private static final int NUM_STRIPES = 64;
 
-    private int numPages = 0;
+    /** Number of buffered hits after which a thread tries to replay them into the policy. */
+    private static final int ACCESS_DRAIN_THRESHOLD = 64;
+
+    /**
+     * A slot of the buffer pool holding one resident page.
+     * <p>
+     * A frame is pinned while a thread is looking at it, which keeps it from
+     * being evicted underneath the thread. A pin count of -1 means the frame
+     * has been claimed for eviction or is on the free list, and cannot be
+     * pinned until it has been filled again.
+     */
+    private static class Frame {
+        volatile PageId pid;
+        volatile Page page;
+        /** the page was read ahead of its use, and has not been requested yet */
+        volatile boolean prefetched;
+        /** the scan ring the frame belongs to, or null if the eviction policy manages it */
+        volatile ScanRing ring;
+        final AtomicInteger pins = new AtomicInteger(-1);
+
+        boolean pin() {
+            for (;;) {
+                int n = this.pins.get();
+                if (n < 0) {
+                    return false;
+                }
+                if (this.pins.compareAndSet(n, n + 1)) {
+                    return true;
+                }
+            }
+        }
+
+        void unpin() {
+            this.pins.decrementAndGet();
+        }
+
+        boolean claim() {
+            return this.pins.compareAndSet(0, -1);
+        }
+    }
+
+    /**
+     * A small ring of frames private to one bulk scan, after PostgreSQL's
+     * buffer access strategies. Pages the scan reads through the ring are not
+     * reported to the eviction policy. Once the ring is full, the scan
+     * recycles the frame of its oldest page for its next page. So the scan
+     * displaces at most as many pages from the pool as the ring holds,
+     * however large the table is.
+     * <p>
+     * A page in a ring is handed over to the eviction policy when anything
+     * else requests or modifies it, and when it is dirty or in use as its
+     * frame comes up for reuse. When the policy has no page left to evict,
+     * clean pages are taken out of rings instead, so a scan that is never
+     * released does not keep its frames.
+     *
+     * @see BufferPool#newScanRing
+     * @see BufferPool#getPage(TransactionId, PageId, Permissions, ScanRing)
+     */
+    public static final class ScanRing {
+        private final BufferPool pool;
+        /** guarded by the pool's policyLock */
+        private final Frame[] frames;
+        private int next;
+        private boolean released;
+
+        private ScanRing(BufferPool pool, int size) {
+            this.pool = pool;
+            this.frames = new Frame[size];
+        }
+
+        /**
+         * @return the maximum number of pages in the ring
+         */
+        public int size() {
+            return this.frames.length;
+        }
+    }
+
+    /**
+     * The pages one transaction may have dirtied, so that committing or
+     * aborting it costs time in proportion to its own footprint rather than to
+     * the size of the pool. Its locks are tracked by the LockManager.
+     */
+    private static class TransactionPages {
+        /** pages the transaction may have dirtied: write-locked or modified through the pool */
+        final Set<PageId> dirtied = ConcurrentHashMap.newKeySet();
+    }
+
+    private final ConcurrentHashMap<PageId, Frame> pageTable = new ConcurrentHashMap<>();
+    private final ConcurrentLinkedQueue<Frame> freeFrames = new ConcurrentLinkedQueue<>();
+    private final Object[] stripes = new Object[NUM_STRIPES];
+    private final LockManager lockManager = new LockManager();
+    private final ConcurrentHashMap<TransactionId, TransactionPages> transactionPages = new ConcurrentHashMap<>();
+
+    private final int numPages;
+    private final EvictionPolicy evictionPolicy;
+    /**
+     * Guards the eviction policy and every change to the set of resident
+     * pages. Hits do not take it; they are queued in accessBuffer and
+     * replayed into the policy by whichever thread holds the lock next.
+     */
+    private final ReentrantLock policyLock = new ReentrantLock();
+    private final ConcurrentLinkedQueue<PageId> accessBuffer = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger bufferedAccesses = new AtomicInteger();
 
     /**
      * Default number of pages passed to the constructor. This is used by other
@@ -39,6 +142,12 @@ public class BufferPool {
      */
     public static final int DEFAULT_PAGES = 50;
 
+    /**
+     * Maximum number of pages in a scan ring. Rings are also limited to an
+     * eighth of the pool.
+     */
+    public static final int SCAN_RING_PAGES = 32;
+
     /**
      * Creates a BufferPool that caches up to numPages pages.
      *
@@ -46,7 +155,34 @@ public class BufferPool {
      */
     public BufferPool(int numPages) {
         // some code goes here
+        this(numPages, new LruKEvictionPolicy(numPages));
+    }
+
+    /**
+     * Creates a BufferPool that caches up to numPages pages and picks pages to
+     * evict with the given policy.
+     *
+     * @param numPages       maximum number of pages in this buffer pool.
+     * @param evictionPolicy the replacement policy; must not be shared with
+     *                       another BufferPool.
+     */
+    public BufferPool(int numPages, EvictionPolicy evictionPolicy) {
         this.numPages = numPages;
+        this.evictionPolicy = evictionPolicy;
+        for (int i = 0; i < numPages; i++) {
+            this.freeFrames.add(new Frame());
+        }
+        for (int i = 0; i < NUM_STRIPES; i++) {
+            this.stripes[i] = new Object();
+        }
+    }
+
+    /**
+     * Returns the lock manager that grants this pool's page and table locks,
+     * for configuring lock escalation and how deadlocks are handled.
+     */
+    public LockManager getLockManager() {
+        return this.lockManager;
     }
 
     public static int getPageSize() {
@@ -79,16 +215,139 @@ public class BufferPool {
     public Page getPage(TransactionId tid, PageId pid, Permissions perm)
             throws TransactionAbortedException, DbException {
         // some code goes here
+        return this.getPage(tid, pid, perm, null);
+    }
+
+    /**
+     * Retrieve the specified page with the associated permissions, on behalf
+     * of a bulk scan. Like {@link #getPage(TransactionId, PageId, Permissions)},
+     * but if the page is not resident, it is read into the scan's ring rather
+     * than into the pool at large.
+     *
+     * @param tid  the ID of the transaction requesting the page
+     * @param pid  the ID of the requested page
+     * @param perm the requested permissions on the page
+     * @param ring the scan's ring, or null to read the page into the pool
+     * @see #newScanRing
+     */
+    public Page getPage(TransactionId tid, PageId pid, Permissions perm, ScanRing ring)
+            throws TransactionAbortedException, DbException {
         this.lockPage(tid, pid, perm);
-        Page page = this.pages.get(pid);
-        if (page == null) {
-            if (this.pages.size() == this.numPages) {
-                this.evictPage();
+        Page page = this.lookup(pid, true, ring);
+        if (page != null) {
+            return page;
+        }
+        synchronized (this.stripeFor(pid)) {
+            // another thread may have loaded the page while we waited
+            page = this.lookup(pid, true, ring);
+            if (page != null) {
+                return page;
+            }
+            page = Database.getCatalog().getDatabaseFile(pid.getTableId()).readPage(pid);
+            this.install(pid, page, false, ring);
+            return page;
+        }
+    }
+
+    /**
+     * Returns a ring for a bulk scan of the given number of pages, or null if
+     * the scan is small enough to go through the pool at large. Scans of more
+     * pages than the pool holds get a ring: their pages cannot all stay
+     * cached anyway, and without a ring they would flush the pages other
+     * transactions are working with.
+     * <p>
+     * The ring must be released with {@link #releaseScanRing} when the scan
+     * is done.
+     *
+     * @param scanPages the number of pages the scan reads
+     */
+    public ScanRing newScanRing(int scanPages) {
+        if (scanPages <= this.numPages) {
+            return null;
+        }
+        return new ScanRing(this, Math.max(1, Math.min(SCAN_RING_PAGES, this.numPages / 8)));
+    }
+
+    /**
+     * Releases a scan ring. The clean pages in the ring are dropped from the
+     * pool, so that their frames are free for other pages; the others are
+     * handed over to the eviction policy.
+     *
+     * @param ring the ring to release; may be null
+     */
+    public void releaseScanRing(ScanRing ring) {
+        if (ring == null || ring.pool != this) {
+            return;
+        }
+        this.policyLock.lock();
+        try {
+            this.drainAccesses();
+            ring.released = true;
+            for (int i = 0; i < ring.frames.length; i++) {
+                Frame frame = ring.frames[i];
+                ring.frames[i] = null;
+                if (frame == null || !this.ownedBy(frame, ring)) {
+                    continue;
+                }
+                PageId pid = frame.pid;
+                if (frame.page.isDirty() == null && frame.claim()) {
+                    this.pageTable.remove(pid);
+                    this.freeFrame(frame);
+                } else {
+                    frame.ring = null;
+                    this.evictionPolicy.pageLoaded(pid);
+                }
+            }
+        } finally {
+            this.policyLock.unlock();
+        }
+    }
+
+    /**
+     * Reads a page into the pool ahead of a scan that is about to request it
+     * (see {@link ReadAhead}). No lock is taken: the page is only cached, and
+     * the scan locks it when it requests it.
+     * <p>
+     * The load is reported to the eviction policy, but the scan's first
+     * request for the page is not, so that a page read ahead looks to the
+     * policy just like a page the scan read itself.
+     *
+     * @param pid the ID of the page to read
+     * @param ring the scan's ring, or null to read the page into the pool
+     * @return the resident page, or null if it could not be made resident
+     *         because all pages in the pool are dirty
+     */
+    Page prefetchPage(PageId pid, ScanRing ring) {
+        Page page = this.lookup(pid, false, ring);
+        if (page != null) {
+            return page;
+        }
+        synchronized (this.stripeFor(pid)) {
+            page = this.lookup(pid, false, ring);
+            if (page != null) {
+                return page;
             }
             page = Database.getCatalog().getDatabaseFile(pid.getTableId()).readPage(pid);
-            this.pages.put(pid, page);
+            if (page == null) {
+                return null;
+            }
+            try {
+                this.install(pid, page, true, ring);
+            } catch (DbException e) {
+                return null;
+            }
+            return page;
         }
-        return page;
+    }
+
+    /** Return true if the specified page is resident in the pool */
+    boolean isResident(PageId pid) {
+        return this.pageTable.containsKey(pid);
+    }
+
+    /** Return the maximum number of pages in the pool */
+    int capacity() {
+        return this.numPages;
     }
 
     /**
@@ -102,8 +361,23 @@ public class BufferPool {
     public void releasePage(TransactionId tid, PageId pid) {
         // some code goes here
         // not necessary for lab1|lab2
-        ReadWritePageLock pageLock = this.pageLocks.get(pid);
-        pageLock.release(tid);
+        this.lockManager.release(tid, pid);
+        TransactionPages touched = this.transactionPages.get(tid);
+        if (touched != null && !this.isDirtiedBy(pid, tid)) {
+            // the page was locked for writing but left alone
+            touched.dirtied.remove(pid);
+        }
+    }
+
+    /**
+     * Return true if the resident version of the page has been modified by
+     * the transaction. Dirty pages are never evicted, so a page that is not
+     * resident is clean.
+     */
+    private boolean isDirtiedBy(PageId pid, TransactionId tid) {
+        Frame frame = this.pageTable.get(pid);
+        Page page = frame == null ? null : frame.page;
+        return page != null && tid.equals(page.isDirty());
     }
 
     /**
@@ -117,13 +391,27 @@ public class BufferPool {
         transactionComplete(tid, true);
     }
 
+    /**
+     * Lock a whole table for the transaction, so that its later requests for
+     * the table's pages with the given permissions never wait for a lock.
+     * Threads working on behalf of a transaction take it beforehand: a lock
+     * wait is aborted per transaction, not per thread.
+     *
+     * @param tid the ID of the transaction requesting the lock
+     * @param tableId the table to lock
+     * @param perm the permissions the pages will be requested with
+     */
+    public void lockTable(TransactionId tid, int tableId, Permissions perm)
+            throws TransactionAbortedException {
+        this.lockManager.acquireTable(tid, tableId, perm);
+    }
+
     /** Return true if the specified transaction has a lock on the specified page */
     public boolean holdsLock(TransactionId tid, PageId pid) {
         // some code goes here
         // not necessary for lab1|lab2
 
-        ReadWritePageLock pageLock = this.pageLocks.get(pid);
-        return pageLock.holdsLock(tid);
+        return this.lockManager.holdsLock(tid, pid);
         // return false;
     }
 
@@ -137,27 +425,25 @@ public class BufferPool {
     public void transactionComplete(TransactionId tid, boolean commit) throws IOException {
         // some code goes here
         // not necessary for lab1|lab2
-        Set<PageId> pids = new HashSet<>();
-        for (Page page : this.pages.values()) {
-            PageId pid = page.getId();
-            ReadWritePageLock pageLock = this.pageLocks.get(pid);
-            if (pageLock.getTransactions().contains(tid)) {
-                pids.add(pid);
+        TransactionPages touched = this.transactionPages.remove(tid);
+        if (touched != null) {
+            Set<Integer> tables = new HashSet<>();
+            for (PageId pid : touched.dirtied) {
+                if (commit) {
+                    // flush to disk
+                    this.flushPage(pid, tid);
+                    tables.add(pid.getTableId());
+                } else {
+                    // retrieve old state
+                    this.restorePage(pid, tid);
+                    // this.discardPage(pid);
+                }
             }
-        }
-
-        for (PageId pid : pids) {
-            if (commit) {
-                // flush to disk
-                this.flushPage(pid);
-            } else {
-                // retrieve old state
-                Page page = Database.getCatalog().getDatabaseFile(pid.getTableId()).readPage(pid);
-                this.pages.replace(pid, page);
-                // this.discardPage(pid);
+            for (int tableId : tables) {
+                Database.getCatalog().getDatabaseFile(tableId).saveMetadata();
             }
-            this.releasePage(tid, pid);
         }
+        this.lockManager.releaseAll(tid);
 
     }
 
@@ -182,9 +468,34 @@ public class BufferPool {
         // not necessary for lab1
         DbFile dbFile = Database.getCatalog().getDatabaseFile(tableId);
         List<Page> pages = dbFile.insertTuple(tid, t);
+        TransactionPages touched = this.pagesOf(tid);
+        for (Page page : pages) {
+            page.markDirty(true, tid);
+            touched.dirtied.add(page.getId());
+            this.cachePage(page);
+        }
+    }
+
+    /**
+     * Add every tuple of the iterator to the specified table on behalf of
+     * transaction tid. Like calling {@link #insertTuple} for each tuple, but
+     * the table fills its pages in bulk, and each modified page is marked
+     * dirty and cached once.
+     *
+     * @param tid     the transaction adding the tuples
+     * @param tableId the table to add the tuples to
+     * @param tuples  the tuples to add
+     * @see DbFile#insertTuples
+     */
+    public void insertTuples(TransactionId tid, int tableId, Iterator<Tuple> tuples)
+            throws DbException, IOException, TransactionAbortedException {
+        DbFile dbFile = Database.getCatalog().getDatabaseFile(tableId);
+        List<Page> pages = dbFile.insertTuples(tid, tuples);
+        TransactionPages touched = this.pagesOf(tid);
         for (Page page : pages) {
-            Database.getBufferPool().pages.put(page.getId(), page);
             page.markDirty(true, tid);
+            touched.dirtied.add(page.getId());
+            this.cachePage(page);
         }
     }
 
@@ -207,8 +518,10 @@ public class BufferPool {
         RecordId rid = t.getRecordId();
         DbFile dbFile = Database.getCatalog().getDatabaseFile(rid.getPageId().getTableId());
         List<Page> pages = dbFile.deleteTuple(tid, t);
+        TransactionPages touched = this.pagesOf(tid);
         for (Page page : pages) {
             page.markDirty(true, tid);
+            touched.dirtied.add(page.getId());
         }
     }
 
@@ -216,13 +529,16 @@ public class BufferPool {
      * Flush all dirty pages to disk. NB: Be careful using this routine -- it writes
      * dirty data to disk so will break simpledb if running in NO STEAL mode.
      */
-    public synchronized void flushAllPages() throws IOException {
+    public void flushAllPages() throws IOException {
         // some code goes here
         // not necessary for lab1
-        for (PageId pid : this.pages.keySet()) {
+        for (PageId pid : this.pageTable.keySet()) {
             this.flushPage(pid);
         }
-
+        Iterator<Integer> tableIds = Database.getCatalog().tableIdIterator();
+        while (tableIds.hasNext()) {
+            Database.getCatalog().getDatabaseFile(tableIds.next()).saveMetadata();
+        }
     }
 
     /**
@@ -233,11 +549,258 @@ public class BufferPool {
      * Also used by B+ tree files to ensure that deleted pages are removed from the
      * cache so they can be reused safely
      */
-    public synchronized void discardPage(PageId pid) {
+    public void discardPage(PageId pid) {
         // some code goes here
         // not necessary for lab1
         // this.flushPage(pid);
-        this.pages.remove(pid);
+        synchronized (this.stripeFor(pid)) {
+            Frame frame;
+            this.policyLock.lock();
+            try {
+                frame = this.pageTable.remove(pid);
+                if (frame == null) {
+                    return;
+                }
+                this.evictionPolicy.pageRemoved(pid);
+            } finally {
+                this.policyLock.unlock();
+            }
+            // pins are only held for the duration of a lookup
+            while (!frame.claim()) {
+                Thread.yield();
+            }
+            this.freeFrame(frame);
+        }
+    }
+
+    /**
+     * Puts a page into the pool, replacing any cached version of it. Evicts a
+     * page first if the pool is full and the page is not resident yet.
+     */
+    private void cachePage(Page page) throws DbException {
+        PageId pid = page.getId();
+        synchronized (this.stripeFor(pid)) {
+            Frame frame = this.pageTable.get(pid);
+            if (frame != null && frame.pin()) {
+                try {
+                    if (pid.equals(frame.pid)) {
+                        frame.page = page;
+                        this.recordAccess(pid);
+                        return;
+                    }
+                } finally {
+                    frame.unpin();
+                }
+            }
+            this.install(pid, page, false, null);
+        }
+    }
+
+    /**
+     * Returns the resident version of a page without taking any latch, or null
+     * if the page is not resident.
+     */
+    private Page lookup(PageId pid) {
+        return this.lookup(pid, true, null);
+    }
+
+    /**
+     * Returns the resident version of a page without taking any latch, or null
+     * if the page is not resident. A request reports a hit to the eviction
+     * policy, unless it is the first request for a page read ahead, or a
+     * request from the scan whose ring holds the page.
+     */
+    private Page lookup(PageId pid, boolean request, ScanRing ring) {
+        Frame frame = this.pageTable.get(pid);
+        if (frame == null || !frame.pin()) {
+            return null;
+        }
+        try {
+            // the frame may have been recycled between the lookup and the pin
+            if (!pid.equals(frame.pid)) {
+                return null;
+            }
+            if (request) {
+                if (frame.ring != null && frame.ring == ring) {
+                    // the scan's own page stays in its ring
+                } else if (frame.prefetched) {
+                    frame.prefetched = false;
+                } else {
+                    this.recordAccess(pid);
+                }
+            }
+            return frame.page;
+        } finally {
+            frame.unpin();
+        }
+    }
+
+    /**
+     * Makes a page that is not resident yet resident, taking a free frame or
+     * evicting a page for it. The caller must hold the page's stripe.
+     *
+     * @param prefetched true if the page is read ahead of its use
+     * @param ring the ring to put the page in, or null to put it in the pool
+     */
+    private void install(PageId pid, Page page, boolean prefetched, ScanRing ring) throws DbException {
+        if (ring != null && ring.pool == this) {
+            this.installInRing(pid, page, ring);
+            return;
+        }
+        Frame frame = this.freeFrames.poll();
+        if (frame == null) {
+            frame = this.evictPage();
+        }
+        frame.page = page;
+        frame.pid = pid;
+        frame.prefetched = prefetched;
+        frame.ring = null;
+        frame.pins.set(0);
+
+        this.policyLock.lock();
+        try {
+            this.drainAccesses();
+            this.pageTable.put(pid, frame);
+            this.evictionPolicy.pageLoaded(pid);
+        } finally {
+            this.policyLock.unlock();
+        }
+    }
+
+    /**
+     * Makes a page that is not resident yet resident in a scan ring, reusing
+     * the frame of the ring's oldest page once the ring is full. The caller
+     * must hold the page's stripe.
+     */
+    private void installInRing(PageId pid, Page page, ScanRing ring) throws DbException {
+        Frame frame = null;
+        int slot;
+        this.policyLock.lock();
+        try {
+            // pages requested by others since are handed over to the policy first
+            this.drainAccesses();
+            slot = ring.next;
+            ring.next = (slot + 1) % ring.frames.length;
+            Frame old = ring.frames[slot];
+            ring.frames[slot] = null;
+            if (old != null && this.ownedBy(old, ring)) {
+                if (old.page.isDirty() == null && old.claim()) {
+                    this.pageTable.remove(old.pid);
+                    frame = old;
+                } else {
+                    // dirtied or in use: let the policy deal with it
+                    old.ring = null;
+                    this.evictionPolicy.pageLoaded(old.pid);
+                }
+            }
+        } finally {
+            this.policyLock.unlock();
+        }
+        if (frame == null) {
+            frame = this.freeFrames.poll();
+        }
+        if (frame == null) {
+            frame = this.evictPage();
+        }
+        frame.page = page;
+        frame.pid = pid;
+        frame.prefetched = false;
+        frame.pins.set(0);
+
+        this.policyLock.lock();
+        try {
+            if (ring.released) {
+                // read ahead for a scan that has ended meanwhile
+                frame.ring = null;
+                this.pageTable.put(pid, frame);
+                this.evictionPolicy.pageLoaded(pid);
+            } else {
+                frame.ring = ring;
+                ring.frames[slot] = frame;
+                this.pageTable.put(pid, frame);
+            }
+        } finally {
+            this.policyLock.unlock();
+        }
+    }
+
+    /**
+     * Return true if a frame still holds the page a ring put in it. Requires
+     * policyLock.
+     */
+    private boolean ownedBy(Frame frame, ScanRing ring) {
+        PageId pid = frame.pid;
+        return frame.ring == ring && pid != null && this.pageTable.get(pid) == frame;
+    }
+
+    /**
+     * Replaces the resident version of a page with its version on disk, unless
+     * another transaction than the given one has dirtied it since. Pages are
+     * restored even if they are not marked dirty, since an operation that
+     * failed halfway may have changed pages it had not marked yet.
+     */
+    private void restorePage(PageId pid, TransactionId tid) {
+        synchronized (this.stripeFor(pid)) {
+            Frame frame = this.pageTable.get(pid);
+            if (frame == null || !frame.pin()) {
+                return;
+            }
+            try {
+                TransactionId dirtier = frame.page.isDirty();
+                if (dirtier != null && !dirtier.equals(tid)) {
+                    return;
+                }
+                frame.page = Database.getCatalog().getDatabaseFile(pid.getTableId()).readPage(pid);
+            } finally {
+                frame.unpin();
+            }
+        }
+    }
+
+    private void freeFrame(Frame frame) {
+        frame.pid = null;
+        frame.page = null;
+        frame.ring = null;
+        this.freeFrames.add(frame);
+    }
+
+    private Object stripeFor(PageId pid) {
+        return this.stripes[(pid.hashCode() & Integer.MAX_VALUE) % NUM_STRIPES];
+    }
+
+    /**
+     * Tells the eviction policy about a hit. The hit is queued rather than
+     * reported right away, so concurrent hits never wait for each other.
+     */
+    private void recordAccess(PageId pid) {
+        this.accessBuffer.add(pid);
+        if (this.bufferedAccesses.incrementAndGet() >= ACCESS_DRAIN_THRESHOLD && this.policyLock.tryLock()) {
+            try {
+                this.drainAccesses();
+            } finally {
+                this.policyLock.unlock();
+            }
+        }
+    }
+
+    /** Replays queued hits into the eviction policy. Requires policyLock. */
+    private void drainAccesses() {
+        PageId pid;
+        while ((pid = this.accessBuffer.poll()) != null) {
+            this.bufferedAccesses.decrementAndGet();
+            // skip hits on pages that have been evicted since
+            Frame frame = this.pageTable.get(pid);
+            if (frame == null) {
+                continue;
+            }
+            if (frame.ring != null) {
+                // a page in a scan ring is used by others too: hand it over
+                frame.ring = null;
+                this.evictionPolicy.pageLoaded(pid);
+            } else {
+                this.evictionPolicy.pageAccessed(pid);
+            }
+        }
     }
 
     /**
@@ -245,50 +808,125 @@ public class BufferPool {
      *
      * @param pid an ID indicating the page to flush
      */
-    private synchronized void flushPage(PageId pid) throws IOException {
+    private void flushPage(PageId pid) throws IOException {
         // some code goes here
         // not necessary for lab1
-        Page page = pages.get(pid);
-        DbFile dbFile = Database.getCatalog().getDatabaseFile(pid.getTableId());
-        dbFile.writePage(page);
-        page.markDirty(false, null);
+        this.flushPage(pid, null);
+    }
+
+    /**
+     * Flushes a page to disk if it is resident and, when owner is not null,
+     * not dirtied by any transaction other than the owner.
+     */
+    private void flushPage(PageId pid, TransactionId owner) throws IOException {
+        synchronized (this.stripeFor(pid)) {
+            Frame frame = this.pageTable.get(pid);
+            if (frame == null || !frame.pin()) {
+                return;
+            }
+            try {
+                Page page = frame.page;
+                TransactionId dirtier = page.isDirty();
+                if (owner != null && dirtier != null && !dirtier.equals(owner)) {
+                    return;
+                }
+                DbFile dbFile = Database.getCatalog().getDatabaseFile(pid.getTableId());
+                dbFile.writePage(page);
+                page.markDirty(false, null);
+            } finally {
+                frame.unpin();
+            }
+        }
     }
 
     /**
      * Write all pages of the specified transaction to disk.
      */
-    public synchronized void flushPages(TransactionId tid) throws IOException {
+    public void flushPages(TransactionId tid) throws IOException {
         // some code goes here
         // not necessary for lab1|lab2
+        TransactionPages touched = this.transactionPages.get(tid);
+        if (touched == null) {
+            return;
+        }
+        for (PageId pid : touched.dirtied) {
+            this.flushPage(pid, tid);
+        }
     }
 
     /**
-     * Discards a page from the buffer pool. Flushes the page to disk to ensure
-     * dirty pages are updated on disk.
+     * Discards a page from the buffer pool to make room for another one. Only
+     * clean pages are evicted, so nothing needs to be written back.
+     *
+     * @return the frame the page was in, claimed for the caller
      */
-    private synchronized void evictPage() throws DbException {
+    private Frame evictPage() throws DbException {
         // some code goes here
         // not necessary for lab1
-        List<Page> cleanPages = pages.values().stream().filter(page -> page.isDirty() == null)
-                .collect(Collectors.toList());
-        if (cleanPages.isEmpty()) {
-            throw new DbException("all pages in buffer is dirty");
+        this.policyLock.lock();
+        try {
+            this.drainAccesses();
+            // claiming the frame in the callback makes the choice atomic with
+            // respect to threads that are about to pin it
+            PageId pid = this.evictionPolicy.chooseVictim(victim -> {
+                Frame frame = this.pageTable.get(victim);
+                return frame != null && frame.page.isDirty() == null && frame.claim();
+            });
+            if (pid == null) {
+                // everything the policy manages is dirty or in use; fall back
+                // to the rings, including those of scans that were never closed
+                Frame frame = this.claimRingFrame();
+                if (frame == null) {
+                    throw new DbException("all pages in buffer is dirty");
+                }
+                return frame;
+            }
+            Frame frame = this.pageTable.remove(pid);
+            frame.pid = null;
+            frame.page = null;
+            return frame;
+        } finally {
+            this.policyLock.unlock();
         }
-        Page page = cleanPages.get(new Random().nextInt(cleanPages.size()));
-        PageId pid = page.getId();
+    }
 
-        this.discardPage(pid);
+    /**
+     * Takes a clean page that is not in use out of its scan ring and evicts
+     * it. Requires policyLock.
+     *
+     * @return the frame the page was in, claimed for the caller, or null if
+     *         no ring holds such a page
+     */
+    private Frame claimRingFrame() {
+        for (Frame frame : this.pageTable.values()) {
+            ScanRing ring = frame.ring;
+            if (ring == null || !this.ownedBy(frame, ring) || frame.page.isDirty() != null || !frame.claim()) {
+                continue;
+            }
+            for (int i = 0; i < ring.frames.length; i++) {
+                if (ring.frames[i] == frame) {
+                    ring.frames[i] = null;
+                }
+            }
+            this.pageTable.remove(frame.pid);
+            frame.pid = null;
+            frame.page = null;
+            frame.ring = null;
+            return frame;
+        }
+        return null;
     }
 
-    private synchronized void lockPage(TransactionId tid, PageId pid, Permissions perm)
+    private void lockPage(TransactionId tid, PageId pid, Permissions perm)
             throws TransactionAbortedException {
-        ReadWritePageLock pageLock = this.pageLocks.getOrDefault(pid, new ReadWritePageLock());
-        pageLock.acquireLock(tid, perm);
-        this.pageLocks.put(pid, pageLock);
+        this.lockManager.acquire(tid, pid, perm);
+        if (perm == Permissions.READ_WRITE) {
+            this.pagesOf(tid).dirtied.add(pid);
+        }
+    }
 
-        // Set<PageId> pages = transactionIdSetMap.getOrDefault(tid, new HashSet<>());
-        // pages.add(pid);
-        // transactionIdSetMap.put(tid, pages);
+    private TransactionPages pagesOf(TransactionId tid) {
+        return this.transactionPages.computeIfAbsent(tid, t -> new TransactionPages());
     }
 
 }
@@ -19,11 +19,13 @@ import java.util.concurrent.ConcurrentHashMap;
 public class Catalog {
     private ConcurrentHashMap<Integer, Table> tables = new ConcurrentHashMap<>();
     private ConcurrentHashMap<String, Integer> tableNames = new ConcurrentHashMap<>();
+    private final FileChannelPool fileChannels = new FileChannelPool();
 
     private class Table {
         private final DbFile file;
         private final String name;
         private final String pKeyField;
+        private volatile boolean memoryMapped;
 
         public Table(DbFile file, String name, String pKeyField) {
             this.file = file;
@@ -50,7 +52,10 @@ public class Catalog {
      */
     public void addTable(DbFile file, String name, String pkeyField) {
         // some code goes here
-        this.tables.put(file.getId(), new Table(file, name, pkeyField));
+        if (this.tables.put(file.getId(), new Table(file, name, pkeyField)) != null) {
+            // the replaced DbFile's channel may point to a stale file
+            this.fileChannels.close(file.getId());
+        }
         this.tableNames.put(name, file.getId());
     }
 
@@ -108,6 +113,31 @@ public class Catalog {
 //        return null;
     }
 
+    /**
+     * Set whether the pages of the specified table are read through a memory
+     * mapping of its file instead of being copied in with read calls. Meant
+     * for large tables that are scanned often and rarely written.
+     * @param tableid The id of the table, as specified by the DbFile.getId()
+     *     function passed to addTable
+     * @throws NoSuchElementException if the table doesn't exist
+     */
+    public void setMemoryMapped(int tableid, boolean memoryMapped) throws NoSuchElementException {
+        Table table = this.tables.get(tableid);
+        if (table == null) {
+            throw new NoSuchElementException();
+        }
+        table.memoryMapped = memoryMapped;
+    }
+
+    /**
+     * @return true if the specified table is read through a memory mapping;
+     *     false if it is not, or is not in the catalog
+     */
+    public boolean isMemoryMapped(int tableid) {
+        Table table = this.tables.get(tableid);
+        return table != null && table.memoryMapped;
+    }
+
     public String getPrimaryKey(int tableid) {
         // some code goes here
         return null;
@@ -130,6 +160,15 @@ public class Catalog {
         // some code goes here
         this.tables.clear();
         this.tableNames.clear();
+        this.fileChannels.closeAll();
+    }
+
+    /**
+     * Returns the open file channels of the tables' files. They are closed
+     * when their table is replaced or the catalog is cleared.
+     */
+    public FileChannelPool getFileChannelPool() {
+        return this.fileChannels;
     }
     
     /**
@@ -176,6 +215,14 @@ public class Catalog {
                 TupleDesc t = new TupleDesc(typeAr, namesAr);
                 HeapFile tabHf = new HeapFile(new File(baseFolder+"/"+name + ".dat"), t);
                 addTable(tabHf,name,primaryKey);
+                // table options follow the field list, e.g. "name (f int) mmap"
+                String options = line.substring(line.indexOf(")") + 1).trim();
+                if (options.equals("mmap"))
+                    setMemoryMapped(tabHf.getId(), true);
+                else if (!options.isEmpty()) {
+                    System.out.println("Unknown table option " + options);
+                    System.exit(0);
+                }
                 System.out.println("Added table : " + name + " with schema " + t);
             }
         } catch (IOException e) {
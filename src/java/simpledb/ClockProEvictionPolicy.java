@@ -0,0 +1,269 @@
+package simpledb;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * CLOCK-Pro page replacement (Jiang, Chen and Zhang, USENIX 2005).
+ * <p>
+ * Resident pages are either hot or cold, and all of them sit on one circular
+ * list together with "non-resident" entries that remember recently evicted
+ * cold pages. A page that is re-referenced while it is still in its test
+ * period (resident or not) has a short reuse distance and becomes hot; only
+ * cold pages are ever evicted. Three hands sweep the list:
+ * <ul>
+ * <li>the cold hand looks for a cold page to evict,</li>
+ * <li>the hot hand demotes unreferenced hot pages to cold and ends the test
+ * period of the entries it passes,</li>
+ * <li>the test hand ends test periods once there are too many non-resident
+ * entries.</li>
+ * </ul>
+ * The share of the pool given to cold pages adapts: it grows when a
+ * non-resident page is reused and shrinks when a test period runs out without
+ * a reuse. A hit only sets a reference bit, and each hand move is O(1), so
+ * the cost per access is O(1) amortized.
+ */
+public class ClockProEvictionPolicy implements EvictionPolicy {
+
+    private static class Entry {
+        final PageId pid;
+        boolean hot;
+        boolean resident = true;
+        boolean test;
+        boolean ref;
+        Entry prev, next;
+
+        Entry(PageId pid) {
+            this.pid = pid;
+        }
+    }
+
+    private static final int MIN_COLD_TARGET = 1;
+
+    private final int capacity;
+    private final Map<PageId, Entry> entries = new HashMap<>();
+    private Entry handHot, handCold, handTest;
+    private int numHot, numCold, numTest;
+    private int coldTarget;
+
+    /**
+     * Creates a CLOCK-Pro policy for a pool of the given size.
+     *
+     * @param numPages the capacity of the buffer pool; also bounds the number
+     *                 of non-resident entries kept on the clock
+     */
+    public ClockProEvictionPolicy(int numPages) {
+        this.capacity = Math.max(numPages, 1);
+        this.coldTarget = MIN_COLD_TARGET;
+    }
+
+    public void pageLoaded(PageId pid) {
+        Entry e = this.entries.get(pid);
+        if (e != null && e.resident) {
+            e.ref = true;
+            return;
+        }
+        boolean reused = e != null;
+        if (reused) {
+            // a non-resident page came back within its test period: it has a
+            // short reuse distance, and cold pages deserve more room
+            this.coldTarget = Math.min(this.coldTarget + 1, this.maxColdTarget());
+            this.remove(e);
+        }
+
+        e = new Entry(pid);
+        if (reused || this.numHot < this.hotTarget()) {
+            e.hot = true;
+            this.numHot++;
+        } else {
+            e.test = true;
+            this.numCold++;
+        }
+        this.entries.put(pid, e);
+        this.insertAtHead(e);
+        this.balanceHot();
+    }
+
+    public void pageAccessed(PageId pid) {
+        Entry e = this.entries.get(pid);
+        if (e == null || !e.resident) {
+            this.pageLoaded(pid);
+            return;
+        }
+        e.ref = true;
+    }
+
+    public void pageRemoved(PageId pid) {
+        Entry e = this.entries.get(pid);
+        if (e != null) {
+            this.remove(e);
+        }
+    }
+
+    public PageId chooseVictim(Evictable evictable) {
+        int budget = (this.numHot + 2) * (this.entries.size() + 1);
+        int idle = 0;
+        while (budget-- > 0 && this.numHot + this.numCold > 0) {
+            if (this.numCold == 0 || idle > this.entries.size()) {
+                // a full sweep found nothing to evict: turn a hot page into a
+                // candidate
+                if (this.numHot == 0) {
+                    break;
+                }
+                this.runHandHot();
+                idle = 0;
+                continue;
+            }
+            Entry e = this.handCold;
+            this.handCold = e.next;
+            idle++;
+            if (e.hot || !e.resident) {
+                continue;
+            }
+            if (e.ref) {
+                e.ref = false;
+                idle = 0;
+                if (e.test) {
+                    // re-referenced during its test period
+                    e.hot = true;
+                    e.test = false;
+                    this.numCold--;
+                    this.numHot++;
+                    this.balanceHot();
+                } else {
+                    e.test = true;
+                    this.moveToHead(e);
+                }
+                continue;
+            }
+            if (!evictable.canEvict(e.pid)) {
+                continue;
+            }
+
+            e.resident = false;
+            this.numCold--;
+            if (e.test) {
+                this.numTest++;
+                while (this.numTest > this.capacity) {
+                    this.runHandTest();
+                }
+            } else {
+                this.entries.remove(e.pid);
+                this.unlink(e);
+            }
+            return e.pid;
+        }
+        return null;
+    }
+
+    private int maxColdTarget() {
+        return Math.max(this.capacity - 1, MIN_COLD_TARGET);
+    }
+
+    private int hotTarget() {
+        return this.capacity - this.coldTarget;
+    }
+
+    private void balanceHot() {
+        while (this.numHot > 0 && this.numHot > this.hotTarget()) {
+            this.runHandHot();
+        }
+    }
+
+    /**
+     * Moves the hot hand until one hot page has been demoted to cold. Cold
+     * entries passed on the way end their test period.
+     */
+    private void runHandHot() {
+        int budget = 2 * this.entries.size() + 1;
+        while (this.numHot > 0 && budget-- > 0) {
+            Entry e = this.handHot;
+            this.handHot = e.next;
+            if (e.hot) {
+                if (e.ref) {
+                    e.ref = false;
+                } else {
+                    e.hot = false;
+                    this.numHot--;
+                    this.numCold++;
+                    return;
+                }
+            } else if (e.test) {
+                this.endTestPeriod(e);
+            }
+        }
+    }
+
+    /** Moves the test hand until one non-resident entry has been dropped. */
+    private void runHandTest() {
+        int budget = this.entries.size() + 1;
+        while (this.numTest > 0 && budget-- > 0) {
+            Entry e = this.handTest;
+            this.handTest = e.next;
+            if (!e.hot && e.test) {
+                boolean dropped = !e.resident;
+                this.endTestPeriod(e);
+                if (dropped) {
+                    return;
+                }
+            }
+        }
+    }
+
+    private void endTestPeriod(Entry e) {
+        e.test = false;
+        this.coldTarget = Math.max(this.coldTarget - 1, MIN_COLD_TARGET);
+        if (!e.resident) {
+            this.remove(e);
+        }
+    }
+
+    private void remove(Entry e) {
+        this.entries.remove(e.pid);
+        if (!e.resident) {
+            this.numTest--;
+        } else if (e.hot) {
+            this.numHot--;
+        } else {
+            this.numCold--;
+        }
+        this.unlink(e);
+    }
+
+    /** Inserts an entry at the list head, i.e. just behind the hot hand. */
+    private void insertAtHead(Entry e) {
+        if (this.handHot == null) {
+            e.prev = e.next = e;
+            this.handHot = this.handCold = this.handTest = e;
+            return;
+        }
+        e.next = this.handHot;
+        e.prev = this.handHot.prev;
+        e.prev.next = e;
+        this.handHot.prev = e;
+    }
+
+    private void moveToHead(Entry e) {
+        this.unlink(e);
+        this.insertAtHead(e);
+    }
+
+    private void unlink(Entry e) {
+        if (e.next == e) {
+            this.handHot = this.handCold = this.handTest = null;
+        } else {
+            if (this.handHot == e) {
+                this.handHot = e.next;
+            }
+            if (this.handCold == e) {
+                this.handCold = e.next;
+            }
+            if (this.handTest == e) {
+                this.handTest = e.next;
+            }
+            e.prev.next = e.next;
+            e.next.prev = e.prev;
+        }
+        e.prev = e.next = null;
+    }
+}
@@ -75,7 +75,8 @@ public class Database {
 
     // reset the database, used for unit tests only.
     public static void reset() {
-        _instance.set(new Database());
+        Database old = _instance.getAndSet(new Database());
+        old._catalog.getFileChannelPool().closeAll();
     }
 
 }
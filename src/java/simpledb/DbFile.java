@@ -43,6 +43,33 @@ public interface DbFile {
     public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
         throws DbException, IOException, TransactionAbortedException;
 
+    /**
+     * Inserts every tuple of the iterator to the file on behalf of
+     * transaction, like repeated calls to {@link #insertTuple} but letting the
+     * file fill each page with as many tuples as fit at once.
+     * <p>
+     * The modified pages are marked dirty as soon as they are modified, so
+     * that the buffer pool cannot evict them before the batch is done.
+     *
+     * @param tid The transaction performing the update
+     * @param tuples The tuples to add.  Each tuple should be updated to reflect
+     *          that it is now stored in this file.
+     * @return An ArrayList containing each page that was modified, once
+     * @throws DbException if a tuple cannot be added
+     * @throws IOException if the needed file can't be read/written
+     */
+    public default ArrayList<Page> insertTuples(TransactionId tid, Iterator<Tuple> tuples)
+        throws DbException, IOException, TransactionAbortedException {
+        LinkedHashMap<PageId, Page> modified = new LinkedHashMap<PageId, Page>();
+        while (tuples.hasNext()) {
+            for (Page page : insertTuple(tid, tuples.next())) {
+                page.markDirty(true, tid);
+                modified.put(page.getId(), page);
+            }
+        }
+        return new ArrayList<Page>(modified.values());
+    }
+
     /**
      * Removes the specified tuple from the file on behalf of the specified
      * transaction.
@@ -88,4 +115,13 @@ public interface DbFile {
      * @return TupleDesc of this DbFile.
      */
     public TupleDesc getTupleDesc();
+
+    /**
+     * Writes any structure the file keeps besides its pages (e.g. a
+     * free-space map) to disk. The buffer pool calls this once per file
+     * after flushing the pages of a committing transaction, and after
+     * flushing all pages; page writes alone do not persist it.
+     */
+    public default void saveMetadata() throws IOException {
+    }
 }
@@ -0,0 +1,155 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * DeadlockDetector keeps the wait-for graph of the transactions blocked in a
+ * {@link LockManager} and finds cycles in it.
+ * <p>
+ * The graph is maintained incrementally: the LockManager replaces the
+ * outgoing edges of a waiting transaction whenever the lock queue it waits
+ * in changes, and drops them once the transaction stops waiting. Only
+ * blocked transactions have outgoing edges, so a search costs time in the
+ * number of blocked transactions, no matter how many pages are locked.
+ * <p>
+ * Not thread-safe; the LockManager calls it with its latch held.
+ */
+public class DeadlockDetector {
+
+    /**
+     * Picks the transaction to abort in a cycle. Every transaction in the
+     * cycle is blocked, so any of them breaks the cycle; the one with the
+     * lowest cost is chosen, and ties go to the youngest.
+     */
+    public enum VictimPolicy {
+        /** abort the transaction that started last */
+        YOUNGEST {
+            long cost(TransactionId tid, LockManager lockManager) {
+                return 0;
+            }
+        },
+        /** abort the transaction that holds the fewest locks */
+        FEWEST_LOCKS {
+            long cost(TransactionId tid, LockManager lockManager) {
+                return lockManager.numLocksHeld(tid);
+            }
+        },
+        /** abort the transaction that has written the least to the log */
+        LEAST_LOG_WRITTEN {
+            long cost(TransactionId tid, LockManager lockManager) {
+                return Database.getLogFile().getLogBytesWritten(tid);
+            }
+        };
+
+        abstract long cost(TransactionId tid, LockManager lockManager);
+
+        TransactionId chooseVictim(Collection<TransactionId> cycle, LockManager lockManager) {
+            TransactionId victim = null;
+            long victimCost = 0;
+            for (TransactionId tid : cycle) {
+                long cost = this.cost(tid, lockManager);
+                if (victim == null || cost < victimCost
+                        || (cost == victimCost && tid.getId() > victim.getId())) {
+                    victim = tid;
+                    victimCost = cost;
+                }
+            }
+            return victim;
+        }
+    }
+
+    /** edges of the wait-for graph: waiter -> transactions it waits for */
+    private final Map<TransactionId, Set<TransactionId>> waitsFor = new HashMap<>();
+
+    /**
+     * Replace the transactions a blocked transaction waits for.
+     *
+     * @param waiter   the blocked transaction
+     * @param blockers the transactions it has to wait for
+     */
+    public void setEdges(TransactionId waiter, Collection<TransactionId> blockers) {
+        Set<TransactionId> edges = this.waitsFor.get(waiter);
+        if (edges == null) {
+            edges = new HashSet<>();
+            this.waitsFor.put(waiter, edges);
+        } else {
+            edges.clear();
+        }
+        edges.addAll(blockers);
+    }
+
+    /**
+     * Forget the edges of a transaction that is no longer blocked.
+     */
+    public void removeWaiter(TransactionId waiter) {
+        this.waitsFor.remove(waiter);
+    }
+
+    /**
+     * Find a cycle through the given transaction.
+     *
+     * @param start a blocked transaction
+     * @return the transactions on a cycle through start, or null if there is
+     *         none
+     */
+    public List<TransactionId> findCycle(TransactionId start) {
+        LinkedHashSet<TransactionId> path = new LinkedHashSet<>();
+        path.add(start);
+        if (this.search(start, start, path, new HashSet<>())) {
+            return new ArrayList<>(path);
+        }
+        return null;
+    }
+
+    /**
+     * Find cycles anywhere in the graph, at most one through each blocked
+     * transaction.
+     *
+     * @return the cycles found, each as the list of transactions on it
+     */
+    public List<List<TransactionId>> findCycles() {
+        List<List<TransactionId>> cycles = new ArrayList<>();
+        Set<TransactionId> seen = new HashSet<>();
+        for (TransactionId tid : new ArrayList<>(this.waitsFor.keySet())) {
+            if (seen.contains(tid)) {
+                continue;
+            }
+            List<TransactionId> cycle = this.findCycle(tid);
+            if (cycle != null) {
+                cycles.add(cycle);
+                seen.addAll(cycle);
+            }
+        }
+        return cycles;
+    }
+
+    private boolean search(TransactionId start, TransactionId tid, LinkedHashSet<TransactionId> path,
+            Set<TransactionId> done) {
+        Set<TransactionId> edges = this.waitsFor.get(tid);
+        if (edges == null) {
+            return false;
+        }
+        for (TransactionId next : edges) {
+            if (next.equals(start)) {
+                return true;
+            }
+            if (path.contains(next) || done.contains(next)) {
+                continue;
+            }
+            path.add(next);
+            if (this.search(start, next, path, done)) {
+                return true;
+            }
+            path.remove(next);
+            done.add(next);
+        }
+        return false;
+    }
+}
@@ -0,0 +1,61 @@
+package simpledb;
+
+/**
+ * EvictionPolicy decides which resident page the BufferPool gives up when it
+ * needs room for a new one. The BufferPool reports every page it loads, every
+ * hit on a page that is already resident, and every page it drops for reasons
+ * of its own (see {@link BufferPool#discardPage}); the policy keeps whatever
+ * bookkeeping it needs to rank the resident pages.
+ * <p>
+ * Implementations are not thread-safe; the BufferPool serializes all calls
+ * into its policy.
+ *
+ * @see BufferPool#BufferPool(int, EvictionPolicy)
+ * @see LruKEvictionPolicy
+ * @see ClockProEvictionPolicy
+ */
+public interface EvictionPolicy {
+
+    /**
+     * Callback used by {@link #chooseVictim} to ask the BufferPool whether a
+     * resident page may be evicted right now (for example, dirty pages may not
+     * be evicted under NO STEAL, and pinned pages may not be evicted at all).
+     * A true answer reserves the page for eviction, so the policy must return
+     * the first page it gets a true answer for.
+     */
+    interface Evictable {
+        boolean canEvict(PageId pid);
+    }
+
+    /**
+     * Called after a page that was not resident has been read into the pool.
+     *
+     * @param pid the page that became resident
+     */
+    void pageLoaded(PageId pid);
+
+    /**
+     * Called on every request for a page that is already resident.
+     *
+     * @param pid the page that was referenced
+     */
+    void pageAccessed(PageId pid);
+
+    /**
+     * Called when the BufferPool drops a page on its own accord. The policy
+     * should forget everything it knows about the page.
+     *
+     * @param pid the page that is no longer resident
+     */
+    void pageRemoved(PageId pid);
+
+    /**
+     * Choose a resident page to evict. The returned page is no longer
+     * considered resident by the policy, so the caller must not report it
+     * through {@link #pageRemoved}.
+     *
+     * @param evictable tells which resident pages may be chosen
+     * @return the page to evict, or null if no resident page can be evicted
+     */
+    PageId chooseVictim(Evictable evictable);
+}
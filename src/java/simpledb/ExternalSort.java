@@ -0,0 +1,314 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * ExternalSort sorts tuples using a bounded amount of memory.
+ * <p>
+ * Tuples are added one at a time. As long as they fit in the memory budget
+ * they are kept in memory and sorted there. Past that, a replacement-selection
+ * heap of budget size writes them to sorted runs in {@link SpillFile}s; each
+ * run is on average twice the budget, and a presorted input is a single run.
+ * The runs are then merged {@link #MERGE_FAN_IN} at a time with a loser tree
+ * until few enough are left to be merged as the sorted output is read.
+ */
+public class ExternalSort {
+
+    /**
+     * Default number of tuples kept in memory
+     */
+    public final static int DEFAULT_MEMORY_TUPLES = 20000;
+
+    /**
+     * Maximum number of runs merged at once
+     */
+    public final static int MERGE_FAN_IN = 64;
+
+    private final TupleDesc td;
+    private final Comparator<Tuple> cmp;
+    private final int memoryTuples;
+
+    /* input that fits in memory; null once the sort spills */
+    private ArrayList<Tuple> buffer = new ArrayList<Tuple>();
+    private int bufferPos;
+
+    /* replacement selection state */
+    private PriorityQueue<RunEntry> heap;
+    private int currentRun;
+    private SpillFile currentFile;
+    private final ArrayList<SpillFile> runs = new ArrayList<SpillFile>();
+    private int runsGenerated;
+
+    private boolean sorted;
+    private LoserTree merge;
+
+    /**
+     * Create an empty sort.
+     *
+     * @param td
+     *            the schema of the tuples to sort
+     * @param cmp
+     *            the order to sort them in
+     * @param memoryTuples
+     *            the number of tuples that may be kept in memory; at least 1
+     */
+    public ExternalSort(TupleDesc td, Comparator<Tuple> cmp, int memoryTuples) {
+        if (memoryTuples < 1) {
+            throw new IllegalArgumentException("memory budget must be positive");
+        }
+        this.td = td;
+        this.cmp = cmp;
+        this.memoryTuples = memoryTuples;
+    }
+
+    /**
+     * A tuple in the replacement-selection heap, tagged with the run it
+     * belongs to.
+     */
+    private static class RunEntry {
+        final int run;
+        final Tuple tuple;
+
+        RunEntry(int run, Tuple tuple) {
+            this.run = run;
+            this.tuple = tuple;
+        }
+    }
+
+    /**
+     * Add a tuple to be sorted. Tuples can only be added until {@link #sort()}
+     * is called.
+     */
+    public void add(Tuple t) throws DbException {
+        if (this.sorted) {
+            throw new IllegalStateException("tuples cannot be added once sorted");
+        }
+        if (this.buffer != null) {
+            if (this.buffer.size() < this.memoryTuples) {
+                this.buffer.add(t);
+                return;
+            }
+            startRuns();
+        }
+        RunEntry smallest = this.heap.poll();
+        write(smallest);
+        // t can extend the current run only if it does not sort before the
+        // tuple just written to it
+        int run = this.cmp.compare(t, smallest.tuple) >= 0 ? smallest.run : smallest.run + 1;
+        this.heap.add(new RunEntry(run, t));
+    }
+
+    /**
+     * Move the buffered tuples into the replacement-selection heap.
+     */
+    private void startRuns() {
+        this.heap = new PriorityQueue<RunEntry>(this.memoryTuples, new Comparator<RunEntry>() {
+            public int compare(RunEntry a, RunEntry b) {
+                if (a.run != b.run) {
+                    return a.run < b.run ? -1 : 1;
+                }
+                return cmp.compare(a.tuple, b.tuple);
+            }
+        });
+        for (Tuple t : this.buffer) {
+            this.heap.add(new RunEntry(0, t));
+        }
+        this.buffer = null;
+        this.currentRun = -1;
+    }
+
+    private void write(RunEntry e) throws DbException {
+        if (e.run != this.currentRun) {
+            this.currentFile = new SpillFile(this.td);
+            this.runs.add(this.currentFile);
+            this.currentRun = e.run;
+            this.runsGenerated++;
+        }
+        this.currentFile.add(e.tuple);
+    }
+
+    /**
+     * Finish adding tuples, and sort them. Spilled runs are merged down to at
+     * most {@link #MERGE_FAN_IN}.
+     */
+    public void sort() throws DbException {
+        if (this.sorted) {
+            return;
+        }
+        this.sorted = true;
+        if (this.buffer != null) {
+            Collections.sort(this.buffer, this.cmp);
+            this.bufferPos = 0;
+            return;
+        }
+        while (!this.heap.isEmpty()) {
+            write(this.heap.poll());
+        }
+        this.heap = null;
+        this.currentFile = null;
+
+        ArrayList<SpillFile> level = new ArrayList<SpillFile>(this.runs);
+        while (level.size() > MERGE_FAN_IN) {
+            ArrayList<SpillFile> next = new ArrayList<SpillFile>();
+            for (int i = 0; i < level.size(); i += MERGE_FAN_IN) {
+                List<SpillFile> group = level.subList(i, Math.min(level.size(), i + MERGE_FAN_IN));
+                SpillFile out = new SpillFile(this.td);
+                LoserTree tree = new LoserTree(group);
+                Tuple t;
+                while ((t = tree.next()) != null) {
+                    out.add(t);
+                }
+                tree.close();
+                for (SpillFile f : group) {
+                    f.delete();
+                }
+                next.add(out);
+            }
+            level = next;
+        }
+        this.runs.clear();
+        this.runs.addAll(level);
+        this.merge = new LoserTree(this.runs);
+    }
+
+    /**
+     * @return the next tuple in sorted order, or null if there are no more
+     */
+    public Tuple next() throws DbException {
+        if (!this.sorted) {
+            throw new IllegalStateException("tuples are not sorted yet");
+        }
+        if (this.buffer != null) {
+            return this.bufferPos < this.buffer.size() ? this.buffer.get(this.bufferPos++) : null;
+        }
+        return this.merge.next();
+    }
+
+    /**
+     * Start reading the sorted tuples from the beginning again.
+     */
+    public void rewind() throws DbException {
+        if (!this.sorted) {
+            throw new IllegalStateException("tuples are not sorted yet");
+        }
+        if (this.buffer != null) {
+            this.bufferPos = 0;
+        } else {
+            this.merge.close();
+            this.merge = new LoserTree(this.runs);
+        }
+    }
+
+    /**
+     * @return the number of sorted runs written to disk, 0 if the tuples were
+     *         sorted in memory
+     */
+    public int numRuns() {
+        return this.runsGenerated;
+    }
+
+    /**
+     * Release the memory and the files used by the sort. It cannot be used
+     * afterwards.
+     */
+    public void close() {
+        if (this.merge != null) {
+            this.merge.close();
+            this.merge = null;
+        }
+        for (SpillFile f : this.runs) {
+            f.delete();
+        }
+        this.runs.clear();
+        this.buffer = null;
+        this.heap = null;
+    }
+
+    /**
+     * A tournament tree of losers merging sorted runs. tree[0] holds the run
+     * whose head is smallest, and each internal node the run that lost the
+     * match played there, so replacing the smallest head takes one comparison
+     * per level of the tree instead of one per run.
+     */
+    private class LoserTree {
+        private final SpillFile.Reader[] readers;
+        private final Tuple[] heads;
+        private final int[] tree;
+
+        LoserTree(List<SpillFile> files) throws DbException {
+            int k = files.size();
+            this.readers = new SpillFile.Reader[k];
+            this.heads = new Tuple[k];
+            this.tree = new int[Math.max(1, k)];
+            for (int i = 0; i < k; i++) {
+                this.readers[i] = files.get(i).reader();
+                this.heads[i] = this.readers[i].next();
+            }
+            if (k > 0) {
+                this.tree[0] = build(1);
+            }
+        }
+
+        /**
+         * Play the matches of the subtree rooted at node, storing the losers.
+         *
+         * @return the winner of the subtree
+         */
+        private int build(int node) {
+            int k = this.readers.length;
+            if (node >= k) {
+                return node - k;
+            }
+            int a = build(2 * node);
+            int b = build(2 * node + 1);
+            if (beats(a, b)) {
+                this.tree[node] = b;
+                return a;
+            }
+            this.tree[node] = a;
+            return b;
+        }
+
+        /**
+         * @return true if run a's head sorts before run b's; exhausted runs
+         *         sort last
+         */
+        private boolean beats(int a, int b) {
+            if (this.heads[b] == null) {
+                return true;
+            }
+            if (this.heads[a] == null) {
+                return false;
+            }
+            int c = cmp.compare(this.heads[a], this.heads[b]);
+            return c < 0 || (c == 0 && a < b);
+        }
+
+        Tuple next() throws DbException {
+            if (this.readers.length == 0) {
+                return null;
+            }
+            int winner = this.tree[0];
+            Tuple t = this.heads[winner];
+            if (t == null) {
+                return null;
+            }
+            this.heads[winner] = this.readers[winner].next();
+            for (int node = (winner + this.readers.length) / 2; node > 0; node /= 2) {
+                if (beats(this.tree[node], winner)) {
+                    int loser = winner;
+                    winner = this.tree[node];
+                    this.tree[node] = loser;
+                }
+            }
+            this.tree[0] = winner;
+            return t;
+        }
+
+        void close() {
+            for (SpillFile.Reader r : this.readers) {
+                r.close();
+            }
+        }
+    }
+}
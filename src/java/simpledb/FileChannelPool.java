@@ -0,0 +1,205 @@
+package simpledb;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * FileChannelPool keeps one open FileChannel per table file, so that DbFiles
+ * read and write pages with positional I/O instead of opening the file for
+ * every page.
+ * <p>
+ * Positional reads and writes do not move a shared file pointer, so any
+ * number of threads can use the same channel at once. A channel is opened the
+ * first time its table is accessed and stays open until the {@link Catalog}
+ * that owns the pool drops the table or is cleared. A channel closed under a
+ * reader (e.g. because another thread was interrupted in the middle of an
+ * operation on it) is reopened transparently.
+ * <p>
+ * Tables can also be read through read-only memory mappings of their files
+ * (see {@link #mapPage}). Files are mapped in chunks of whole pages, and the
+ * last chunk is remapped when a page past its end is asked for after the file
+ * has grown. Writes still go through the channel; the mappings share the
+ * operating system's page cache with it, so they see every write.
+ *
+ * @Threadsafe
+ */
+public class FileChannelPool {
+
+    /** Size of the regions tables are mapped in, rounded down to whole pages. */
+    public static final int MAP_CHUNK_SIZE = 64 * 1024 * 1024;
+
+    /** The mapped chunks of one table's file, for one page size. */
+    private static class Mapping {
+        final int pageSize;
+        final int chunkPages;
+        final ConcurrentHashMap<Integer, MappedByteBuffer> chunks = new ConcurrentHashMap<>();
+
+        Mapping(int pageSize) {
+            this.pageSize = pageSize;
+            this.chunkPages = Math.max(1, MAP_CHUNK_SIZE / pageSize);
+        }
+    }
+
+    private final ConcurrentHashMap<Integer, FileChannel> channels = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Integer, Mapping> mappings = new ConcurrentHashMap<>();
+
+    /**
+     * Read from the table's file at the given position until the buffer is
+     * full or the end of the file is reached.
+     *
+     * @param tableId  the id of the DbFile the file belongs to
+     * @param file     the file backing the table
+     * @param buf      the buffer to fill
+     * @param position the offset in the file to read from
+     * @return the number of bytes read
+     */
+    public int read(int tableId, File file, ByteBuffer buf, long position) throws IOException {
+        for (int attempt = 0; ; attempt++) {
+            FileChannel channel = this.channel(tableId, file);
+            int start = buf.position();
+            try {
+                while (buf.hasRemaining()) {
+                    int n = channel.read(buf, position + buf.position() - start);
+                    if (n < 0) {
+                        break;
+                    }
+                }
+                return buf.position() - start;
+            } catch (ClosedChannelException e) {
+                if (e instanceof ClosedByInterruptException || attempt > 0) {
+                    throw e;
+                }
+                buf.position(start);
+            }
+        }
+    }
+
+    /**
+     * Write the whole buffer to the table's file at the given position,
+     * extending the file if needed.
+     *
+     * @param tableId  the id of the DbFile the file belongs to
+     * @param file     the file backing the table
+     * @param buf      the bytes to write
+     * @param position the offset in the file to write at
+     */
+    public void write(int tableId, File file, ByteBuffer buf, long position) throws IOException {
+        for (int attempt = 0; ; attempt++) {
+            FileChannel channel = this.channel(tableId, file);
+            int start = buf.position();
+            try {
+                while (buf.hasRemaining()) {
+                    channel.write(buf, position + buf.position() - start);
+                }
+                return;
+            } catch (ClosedChannelException e) {
+                if (e instanceof ClosedByInterruptException || attempt > 0) {
+                    throw e;
+                }
+                buf.position(start);
+            }
+        }
+    }
+
+    /**
+     * Return a read-only view of one page of the table's file, backed by a
+     * memory mapping of the file.
+     *
+     * @param tableId  the id of the DbFile the file belongs to
+     * @param file     the file backing the table
+     * @param pageNo   the number of the page
+     * @param pageSize the size of the table's pages, in bytes
+     * @return a buffer of pageSize bytes holding the page, or null if the page
+     *         lies past the end of the file
+     */
+    public ByteBuffer mapPage(int tableId, File file, int pageNo, int pageSize) throws IOException {
+        Mapping mapping = this.mappings.get(tableId);
+        if (mapping == null || mapping.pageSize != pageSize) {
+            mapping = new Mapping(pageSize);
+            this.mappings.put(tableId, mapping);
+        }
+        int chunkNo = pageNo / mapping.chunkPages;
+        int offset = (pageNo % mapping.chunkPages) * pageSize;
+
+        MappedByteBuffer chunk = mapping.chunks.get(chunkNo);
+        if (chunk == null || chunk.capacity() < offset + pageSize) {
+            synchronized (mapping) {
+                chunk = mapping.chunks.get(chunkNo);
+                if (chunk == null || chunk.capacity() < offset + pageSize) {
+                    // map the chunk again, to cover what the file has grown by
+                    FileChannel channel = this.channel(tableId, file);
+                    long start = (long) chunkNo * mapping.chunkPages * pageSize;
+                    long length = Math.min((long) mapping.chunkPages * pageSize, channel.size() - start);
+                    if (length < offset + pageSize) {
+                        return null;
+                    }
+                    chunk = channel.map(FileChannel.MapMode.READ_ONLY, start, length);
+                    mapping.chunks.put(chunkNo, chunk);
+                }
+            }
+        }
+        ByteBuffer page = chunk.duplicate();
+        page.position(offset);
+        page.limit(offset + pageSize);
+        return page.slice();
+    }
+
+    /**
+     * Close the channel of one table, if it is open, and drop its mappings.
+     */
+    public void close(int tableId) {
+        this.mappings.remove(tableId);
+        FileChannel channel = this.channels.remove(tableId);
+        if (channel != null) {
+            closeQuietly(channel);
+        }
+    }
+
+    /**
+     * Close every open channel.
+     */
+    public void closeAll() {
+        this.mappings.clear();
+        for (Integer tableId : this.channels.keySet()) {
+            this.close(tableId);
+        }
+    }
+
+    private FileChannel channel(int tableId, File file) throws IOException {
+        FileChannel channel = this.channels.get(tableId);
+        if (channel != null && channel.isOpen()) {
+            return channel;
+        }
+        try {
+            return this.channels.compute(tableId, (id, current) -> {
+                if (current != null && current.isOpen()) {
+                    return current;
+                }
+                try {
+                    return FileChannel.open(file.toPath(), StandardOpenOption.READ,
+                            StandardOpenOption.WRITE, StandardOpenOption.CREATE);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    private static void closeQuietly(FileChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // nothing left to release
+        }
+    }
+}
@@ -0,0 +1,154 @@
+package simpledb;
+
+import java.io.*;
+import java.util.BitSet;
+
+/**
+ * FreeSpaceMap records which pages of a {@link HeapFile} have at least one
+ * free slot, so that an insert finds a page to put its tuple on without
+ * reading the full pages ahead of it.
+ * <p>
+ * The map is a hint, not part of the transactional state: a page marked free
+ * may turn out to be full (the caller then marks it full and asks again), and
+ * space freed by an aborted insert is only found again once a tuple on the
+ * page is deleted. The bitmap is kept in a file next to the table's
+ * (see {@link #fileFor}), holding the length and modification time of the
+ * table file when the map was saved, the number of pages covered and one bit
+ * per page. It is saved when a transaction that changed the table commits and
+ * when all pages are flushed (see {@link DbFile#saveMetadata}), and is
+ * ignored once the table file no longer has that length and modification
+ * time, e.g. because it was rewritten.
+ *
+ * @Threadsafe
+ */
+public class FreeSpaceMap {
+
+    private final File tableFile;
+    private final File file;
+    private final BitSet free = new BitSet();
+    /** length and modification time of the table file as of the last save */
+    private long savedLength = -1;
+    private long savedModified = -1;
+    private int numPages;
+    /** no page below the cursor has a free slot */
+    private int cursor;
+    private boolean dirty;
+
+    private FreeSpaceMap(File tableFile) {
+        this.tableFile = tableFile;
+        this.file = fileFor(tableFile);
+    }
+
+    /**
+     * @return the file the free-space map of the given table file is kept in
+     */
+    public static File fileFor(File tableFile) {
+        return new File(tableFile.getPath() + ".fsm");
+    }
+
+    /**
+     * Delete the map of the given table file, e.g. because the table file is
+     * created anew.
+     */
+    public static void delete(File tableFile) {
+        fileFor(tableFile).delete();
+    }
+
+    /**
+     * Load the map saved for the given table file, or start an empty one if
+     * there is none or it was saved for another version of the table file.
+     *
+     * @param tableFile the file of the table the map is for
+     */
+    public static FreeSpaceMap load(File tableFile) throws IOException {
+        FreeSpaceMap map = new FreeSpaceMap(tableFile);
+        if (map.file.length() >= 20) {
+            try (DataInputStream dis = new DataInputStream(new BufferedInputStream(new FileInputStream(map.file)))) {
+                long length = dis.readLong();
+                long modified = dis.readLong();
+                if (length == tableFile.length() && modified == tableFile.lastModified()) {
+                    map.numPages = dis.readInt();
+                    byte[] bits = new byte[(map.numPages + 7) / 8];
+                    dis.readFully(bits);
+                    map.free.or(BitSet.valueOf(bits));
+                    map.savedLength = length;
+                    map.savedModified = modified;
+                }
+            } catch (EOFException e) {
+                // truncated: start over
+                map.numPages = 0;
+                map.free.clear();
+            }
+        }
+        return map;
+    }
+
+    /**
+     * @return the number of pages the map knows about
+     */
+    public synchronized int numPages() {
+        return this.numPages;
+    }
+
+    /**
+     * Forget every page, e.g. because the map does not match its table.
+     */
+    public synchronized void clear() {
+        this.free.clear();
+        this.numPages = 0;
+        this.cursor = 0;
+        this.dirty = true;
+    }
+
+    /**
+     * Record whether a page has a free slot. Pages past the ones the map
+     * knows about are added to it.
+     */
+    public synchronized void setFree(int pageNo, boolean hasFreeSlot) {
+        if (pageNo >= this.numPages) {
+            this.numPages = pageNo + 1;
+            this.dirty = true;
+        }
+        if (this.free.get(pageNo) != hasFreeSlot) {
+            this.free.set(pageNo, hasFreeSlot);
+            this.dirty = true;
+        }
+        if (hasFreeSlot && pageNo < this.cursor) {
+            this.cursor = pageNo;
+        }
+    }
+
+    /**
+     * @return the number of the first page marked free, or -1 if every page
+     *         is full
+     */
+    public synchronized int nextFree() {
+        int pageNo = this.free.nextSetBit(this.cursor);
+        this.cursor = pageNo < 0 ? this.numPages : pageNo;
+        return pageNo;
+    }
+
+    /**
+     * Write the map to its file if it or the table file changed since it was
+     * last written.
+     */
+    public synchronized void save() throws IOException {
+        long length = this.tableFile.length();
+        long modified = this.tableFile.lastModified();
+        if (!this.dirty && length == this.savedLength && modified == this.savedModified) {
+            return;
+        }
+        byte[] bits = new byte[(this.numPages + 7) / 8];
+        byte[] set = this.free.toByteArray();
+        System.arraycopy(set, 0, bits, 0, Math.min(set.length, bits.length));
+        try (DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(this.file)))) {
+            dos.writeLong(length);
+            dos.writeLong(modified);
+            dos.writeInt(this.numPages);
+            dos.write(bits);
+        }
+        this.savedLength = length;
+        this.savedModified = modified;
+        this.dirty = false;
+    }
+}
@@ -0,0 +1,340 @@
+package simpledb;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Gather is an exchange operator that runs a scan pipeline in parallel and
+ * feeds its tuples back into the calling thread's OpIterator tree.
+ * <p>
+ * The pipeline is a {@link SeqScan} of a {@link HeapFile}, possibly under
+ * {@link Filter}s and {@link Project}s. The table is split into ranges of
+ * {@link #MORSEL_PAGES} pages; each of the degree of parallelism workers,
+ * running in a shared work-stealing {@link ForkJoinPool}, repeatedly claims
+ * the next range and runs its own copy of the pipeline over it, so workers
+ * that find fewer matching tuples simply scan more ranges. Tuples are handed
+ * over in batches through a bounded queue, and come out in no particular
+ * order.
+ * <p>
+ * The table is locked for reading by the consumer thread before the workers
+ * start, so that workers never wait for locks (see {@link #lockForWorkers}).
+ * The pool is shared with the other operators that run workers, such as a
+ * parallel {@link Aggregate}, so that concurrent queries never run more
+ * workers at a time than there are processors.
+ */
+public class Gather extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Number of pages a worker claims at a time
+     */
+    public final static int MORSEL_PAGES = 16;
+
+    /**
+     * Number of tuples handed over to the consumer at a time
+     */
+    final static int BATCH_TUPLES = 256;
+
+    /**
+     * Number of batches that can wait for the consumer before workers block
+     */
+    final static int QUEUE_BATCHES = 64;
+
+    private static ForkJoinPool pool;
+
+    /** marks the end of the tuples in the queue */
+    private static final List<Tuple> END = Collections.emptyList();
+
+    private OpIterator child;
+    private final int parallelism;
+
+    private transient BlockingQueue<List<Tuple>> queue;
+    private transient volatile boolean cancelled;
+    private transient AtomicReference<Exception> failure;
+    private transient CountDownLatch done;
+    private transient List<Tuple> batch;
+    private transient int batchPos;
+
+    /**
+     * Constructor.
+     *
+     * @param child
+     *            the pipeline to run in parallel: a SeqScan of a HeapFile,
+     *            under any number of Filters and Projects
+     * @param parallelism
+     *            the number of workers running the pipeline
+     * @throws IllegalArgumentException
+     *             if child cannot be run in parallel
+     */
+    public Gather(OpIterator child, int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("need at least one worker");
+        }
+        if (!isParallelizable(child)) {
+            throw new IllegalArgumentException("cannot run " + child.getClass().getSimpleName()
+                    + " in parallel");
+        }
+        this.child = child;
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * @return true if plan is a scan pipeline that can be run by a Gather
+     */
+    public static boolean isParallelizable(OpIterator plan) {
+        while (plan instanceof Filter || plan instanceof Project) {
+            plan = ((Operator) plan).getChildren()[0];
+        }
+        return plan instanceof SeqScan
+                && Database.getCatalog().getDatabaseFile(((SeqScan) plan).getTableId()) instanceof HeapFile;
+    }
+
+    /**
+     * @return the pool the workers of parallel operators run in, with one
+     *         thread per processor
+     */
+    static synchronized ForkJoinPool pool() {
+        if (pool == null) {
+            pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors(),
+                    ForkJoinPool.defaultForkJoinWorkerThreadFactory, null, true);
+        }
+        return pool;
+    }
+
+    public int getParallelism() {
+        return this.parallelism;
+    }
+
+    public String getName() {
+        return "gather(" + this.parallelism + ")";
+    }
+
+    public TupleDesc getTupleDesc() {
+        return this.child.getTupleDesc();
+    }
+
+    /**
+     * Lock the table a scan reads for the scan's transaction, before workers
+     * running under that transaction start reading it. The workers must not
+     * wait for locks: a deadlock abort wakes one waiter of the transaction
+     * only, and the operator could not wake the others.
+     */
+    static void lockForWorkers(SeqScan scan) throws TransactionAbortedException {
+        Database.getBufferPool().lockTable(scan.getTransactionId(), scan.getTableId(),
+                Permissions.READ_ONLY);
+    }
+
+    /**
+     * @return the scan at the bottom of the pipeline
+     */
+    private SeqScan scan() {
+        OpIterator plan = this.child;
+        while (!(plan instanceof SeqScan)) {
+            plan = ((Operator) plan).getChildren()[0];
+        }
+        return (SeqScan) plan;
+    }
+
+    /**
+     * @return a copy of the pipeline plan, scanning pages [firstPage, endPage)
+     */
+    private static OpIterator copy(OpIterator plan, int firstPage, int endPage) {
+        if (plan instanceof Filter) {
+            Filter f = (Filter) plan;
+            return new Filter(f.getPredicate(), copy(f.getChildren()[0], firstPage, endPage));
+        } else if (plan instanceof Project) {
+            Project p = (Project) plan;
+            TupleDesc td = p.getTupleDesc();
+            Type[] types = new Type[td.numFields()];
+            for (int i = 0; i < types.length; i++) {
+                types[i] = td.getFieldType(i);
+            }
+            return new Project(p.getFieldList(), types, copy(p.getChildren()[0], firstPage, endPage));
+        } else {
+            SeqScan s = (SeqScan) plan;
+            return new SeqScan(s.getTransactionId(), s.getTableId(), s.getAlias(), firstPage, endPage);
+        }
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        this.start();
+        super.open();
+    }
+
+    private void start() throws TransactionAbortedException {
+        SeqScan scan = this.scan();
+        lockForWorkers(scan);
+        final int pages = ((HeapFile) Database.getCatalog().getDatabaseFile(scan.getTableId())).numPages();
+        final int morsels = Math.max(1, (pages + MORSEL_PAGES - 1) / MORSEL_PAGES);
+        int workers = Math.min(this.parallelism, morsels);
+
+        this.queue = new ArrayBlockingQueue<List<Tuple>>(QUEUE_BATCHES);
+        this.cancelled = false;
+        this.failure = new AtomicReference<Exception>();
+        this.done = new CountDownLatch(workers);
+        this.batch = null;
+        this.batchPos = 0;
+
+        final AtomicInteger nextMorsel = new AtomicInteger();
+        final AtomicInteger running = new AtomicInteger(workers);
+        final OpIterator plan = this.child;
+        for (int w = 0; w < workers; w++) {
+            pool().execute(new Runnable() {
+                public void run() {
+                    try {
+                        int m;
+                        while (!stopping() && (m = nextMorsel.getAndIncrement()) < morsels) {
+                            // the last morsel is open-ended, so it also covers
+                            // pages appended since the table's size was read
+                            runMorsel(copy(plan, m * MORSEL_PAGES,
+                                    m == morsels - 1 ? -1 : (m + 1) * MORSEL_PAGES));
+                        }
+                    } catch (Exception e) {
+                        failure.compareAndSet(null, e);
+                    } finally {
+                        try {
+                            if (running.decrementAndGet() == 0 || failure.get() != null) {
+                                put(END);
+                            }
+                        } catch (InterruptedException e) {
+                            // the consumer is closing the operator
+                        }
+                        done.countDown();
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * @return true if workers should stop: the operator is being closed, or
+     *         a worker failed
+     */
+    private boolean stopping() {
+        return this.cancelled || this.failure.get() != null;
+    }
+
+    private void runMorsel(OpIterator pipeline) throws Exception {
+        pipeline.open();
+        try {
+            List<Tuple> out = new ArrayList<Tuple>(BATCH_TUPLES);
+            while (!stopping() && pipeline.hasNext()) {
+                out.add(pipeline.next());
+                if (out.size() == BATCH_TUPLES) {
+                    put(out);
+                    out = new ArrayList<Tuple>(BATCH_TUPLES);
+                }
+            }
+            if (!out.isEmpty()) {
+                put(out);
+            }
+        } finally {
+            pipeline.close();
+        }
+    }
+
+    /**
+     * Hand a batch to the consumer, waiting for room in the queue. The wait
+     * is managed, so that the pool can run other workers meanwhile, and ends
+     * if the operator is closed.
+     */
+    private void put(final List<Tuple> tuples) throws InterruptedException {
+        final BlockingQueue<List<Tuple>> q = this.queue;
+        ForkJoinPool.managedBlock(new ForkJoinPool.ManagedBlocker() {
+            private boolean added;
+
+            public boolean block() throws InterruptedException {
+                while (!isReleasable()) {
+                    this.added = q.offer(tuples, 10, TimeUnit.MILLISECONDS);
+                }
+                return true;
+            }
+
+            public boolean isReleasable() {
+                if (!this.added && !cancelled) {
+                    this.added = q.offer(tuples);
+                }
+                return this.added || cancelled;
+            }
+        });
+    }
+
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        while (this.batch == null || this.batchPos == this.batch.size()) {
+            if (this.batch == END) {
+                return null;
+            }
+            try {
+                this.batch = this.queue.take();
+            } catch (InterruptedException e) {
+                throw new TransactionAbortedException();
+            }
+            this.batchPos = 0;
+            if (this.batch == END) {
+                Exception e = this.failure.get();
+                if (e instanceof TransactionAbortedException) {
+                    throw (TransactionAbortedException) e;
+                } else if (e instanceof DbException) {
+                    throw (DbException) e;
+                } else if (e instanceof RuntimeException) {
+                    throw (RuntimeException) e;
+                } else if (e != null) {
+                    throw new DbException("scan worker failed: " + e);
+                }
+            }
+        }
+        return this.batch.get(this.batchPos++);
+    }
+
+    /**
+     * Stop the workers and wait for them to finish, so that none of them
+     * reads pages for the transaction afterwards.
+     */
+    private void stop() {
+        if (this.done == null) {
+            return;
+        }
+        this.cancelled = true;
+        this.queue.clear();
+        boolean interrupted = false;
+        while (true) {
+            try {
+                this.done.await();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        this.done = null;
+        this.queue = null;
+        this.batch = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        this.stop();
+        this.start();
+    }
+
+    public void close() {
+        super.close();
+        this.stop();
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[] { this.child };
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        this.child = children[0];
+    }
+
+}
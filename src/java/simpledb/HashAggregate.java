@@ -0,0 +1,467 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * HashAggregate computes any number of aggregates, grouped by any number of
+ * fields, in a single pass over its child.
+ * <p>
+ * Groups are kept in an open-addressing hash table whose keys and running
+ * aggregates are stored in primitive arrays, rather than one boxed entry per
+ * group. At most a given number of groups are kept in memory: once the table
+ * is full, the tuples of groups it does not hold are written to
+ * {@link SpillFile} partitions by hash, and each partition is aggregated
+ * after the in-memory groups have been returned, spilling again if needed.
+ * <p>
+ * Aggregates are computed as {@link IntegerAggregator} and
+ * {@link StringAggregator} do: every aggregate is an integer, AVG is rounded
+ * down, and only COUNT can be computed over a string field.
+ */
+public class HashAggregate extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Default number of groups kept in memory
+     */
+    public final static int DEFAULT_MEMORY_GROUPS = 100000;
+
+    /**
+     * Number of partitions the groups that do not fit in memory are split
+     * into, as a power of 2
+     */
+    final static int PARTITION_BITS = 4;
+
+    private OpIterator child;
+    private final int[] groupFields;
+    private final int[] aggFields;
+    private final Aggregator.Op[] ops;
+    private final int memoryGroups;
+    private final TupleDesc td;
+
+    /* where each group field is stored: an index into the int or the string
+     * keys of a group */
+    private final boolean[] keyIsInt;
+    private final int[] keyIndex;
+    private final int intKeys;
+    private final int stringKeys;
+    /* where the running state of each aggregate starts; AVG takes two longs,
+     * its sum and its count */
+    private final int[] stateOffset;
+    private final int stateWidth;
+
+    private transient GroupTable table;
+    private transient int pos;
+    private transient ArrayDeque<Partition> pending;
+    private transient int spills;
+
+    /**
+     * Constructor.
+     *
+     * @param child
+     *            The OpIterator that is feeding us tuples.
+     * @param gfields
+     *            The fields to group by, possibly none
+     * @param afields
+     *            The fields to compute aggregates over
+     * @param aops
+     *            The aggregation operator for each field of afields
+     */
+    public HashAggregate(OpIterator child, int[] gfields, int[] afields, Aggregator.Op[] aops) {
+        this(child, gfields, afields, aops, DEFAULT_MEMORY_GROUPS);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param memoryGroups
+     *            the number of groups that may be kept in memory; at least 1
+     */
+    public HashAggregate(OpIterator child, int[] gfields, int[] afields, Aggregator.Op[] aops,
+            int memoryGroups) {
+        if (afields.length == 0 || afields.length != aops.length) {
+            throw new IllegalArgumentException("need one operator per aggregate field");
+        }
+        if (memoryGroups < 1) {
+            throw new IllegalArgumentException("memory budget must be positive");
+        }
+        this.child = child;
+        this.groupFields = gfields;
+        this.aggFields = afields;
+        this.ops = aops;
+        this.memoryGroups = memoryGroups;
+
+        TupleDesc childTd = child.getTupleDesc();
+        this.keyIsInt = new boolean[gfields.length];
+        this.keyIndex = new int[gfields.length];
+        int ints = 0, strings = 0;
+        Type[] types = new Type[gfields.length + afields.length];
+        String[] names = new String[types.length];
+        for (int i = 0; i < gfields.length; i++) {
+            types[i] = childTd.getFieldType(gfields[i]);
+            names[i] = childTd.getFieldName(gfields[i]);
+            this.keyIsInt[i] = types[i] == Type.INT_TYPE;
+            this.keyIndex[i] = this.keyIsInt[i] ? ints++ : strings++;
+        }
+        this.intKeys = ints;
+        this.stringKeys = strings;
+
+        this.stateOffset = new int[afields.length];
+        int width = 0;
+        for (int j = 0; j < afields.length; j++) {
+            switch (aops[j]) {
+            case MIN:
+            case MAX:
+            case SUM:
+            case AVG:
+                if (childTd.getFieldType(afields[j]) != Type.INT_TYPE) {
+                    throw new IllegalArgumentException("cannot compute " + aops[j]
+                            + " over a string field");
+                }
+                break;
+            case COUNT:
+                break;
+            default:
+                throw new IllegalArgumentException("operator " + aops[j] + " is not supported");
+            }
+            this.stateOffset[j] = width;
+            width += aops[j] == Aggregator.Op.AVG ? 2 : 1;
+            types[gfields.length + j] = Type.INT_TYPE;
+            names[gfields.length + j] = Aggregate.nameOfAggregatorOp(aops[j]) + "("
+                    + childTd.getFieldName(afields[j]) + ")";
+        }
+        this.stateWidth = width;
+        this.td = new TupleDesc(types, names);
+    }
+
+    /**
+     * @return the fields grouped by, in the <b>INPUT</b> tuples
+     */
+    public int[] groupFields() {
+        return this.groupFields;
+    }
+
+    /**
+     * @return the fields aggregated, in the <b>INPUT</b> tuples
+     */
+    public int[] aggregateFields() {
+        return this.aggFields;
+    }
+
+    /**
+     * @return the aggregate operators, one per aggregate field
+     */
+    public Aggregator.Op[] aggregateOps() {
+        return this.ops;
+    }
+
+    /**
+     * @return the number of partitions written to disk since the operator was
+     *         opened, 0 if all the groups fit in memory
+     */
+    public int numSpills() {
+        return this.spills;
+    }
+
+    /**
+     * Returns the TupleDesc of this HashAggregate: the group by fields, named
+     * as in the child, followed by one INT_TYPE field per aggregate, named
+     * like "sum(t.f)".
+     */
+    public TupleDesc getTupleDesc() {
+        return this.td;
+    }
+
+    public void open() throws NoSuchElementException, DbException,
+            TransactionAbortedException {
+        this.child.open();
+        this.pending = new ArrayDeque<Partition>();
+        this.spills = 0;
+        this.aggregateChild();
+        super.open();
+    }
+
+    private void aggregateChild() throws DbException, TransactionAbortedException {
+        this.table = new GroupTable(0);
+        while (this.child.hasNext()) {
+            this.table.add(this.child.next());
+        }
+        this.table.finish();
+        this.pos = 0;
+    }
+
+    /**
+     * Replace the table with the groups of a spilled partition.
+     */
+    private void aggregatePartition(Partition p) throws DbException {
+        this.table = new GroupTable(p.level);
+        SpillFile.Reader r = p.file.reader();
+        try {
+            Tuple t;
+            while ((t = r.next()) != null) {
+                this.table.add(t);
+            }
+        } finally {
+            r.close();
+        }
+        p.file.delete();
+        this.table.finish();
+        this.pos = 0;
+    }
+
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        while (this.table != null) {
+            if (this.pos < this.table.size) {
+                return this.table.tuple(this.pos++);
+            }
+            Partition p = this.pending.poll();
+            if (p == null) {
+                return null;
+            }
+            aggregatePartition(p);
+        }
+        return null;
+    }
+
+    private void release() {
+        this.table = null;
+        if (this.pending != null) {
+            for (Partition p : this.pending) {
+                p.file.delete();
+            }
+            this.pending.clear();
+        }
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        this.release();
+        this.spills = 0;
+        this.child.rewind();
+        this.aggregateChild();
+    }
+
+    public void close() {
+        super.close();
+        this.child.close();
+        this.release();
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[] { this.child };
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        this.child = children[0];
+    }
+
+    /**
+     * A spilled partition, holding the tuples of the groups that did not fit
+     * in the table at level - 1.
+     */
+    private static class Partition {
+        final SpillFile file;
+        final int level;
+
+        Partition(SpillFile file, int level) {
+            this.file = file;
+            this.level = level;
+        }
+    }
+
+    /**
+     * An open-addressing hash table of groups, probed linearly. Group g has
+     * its keys at intKeys[g * intKeys ...] and stringKeys[g * stringKeys ...],
+     * and its aggregates at state[g * stateWidth ...]; slots hold g + 1, or 0
+     * for an empty slot.
+     */
+    private class GroupTable {
+        private final int level;
+        private final int seed;
+        private int[] slots;
+        private int[] hashes;
+        private int[] ints;
+        private String[] strings;
+        private long[] state;
+        int size;
+        private SpillFile[] partitions;
+
+        GroupTable(int level) {
+            this.level = level;
+            this.seed = level * 0x9E3779B9;
+            int groups = Math.min(memoryGroups, 1024);
+            this.slots = new int[Integer.highestOneBit(groups) * 4];
+            this.hashes = new int[groups];
+            this.ints = new int[groups * intKeys];
+            this.strings = new String[groups * stringKeys];
+            this.state = new long[groups * stateWidth];
+        }
+
+        private int hash(Tuple t) {
+            int h = this.seed;
+            for (int i = 0; i < groupFields.length; i++) {
+                h = 31 * h + (keyIsInt[i] ? t.getInt(groupFields[i])
+                        : t.getString(groupFields[i]).hashCode());
+            }
+            // spread the bits, so that both the low bits used for slots and
+            // the high bits used for partitions vary with every field
+            h ^= h >>> 16;
+            h *= 0x85EBCA6B;
+            h ^= h >>> 13;
+            h *= 0xC2B2AE35;
+            return h ^ (h >>> 16);
+        }
+
+        private boolean keyEquals(int g, Tuple t) {
+            for (int i = 0; i < groupFields.length; i++) {
+                if (keyIsInt[i]) {
+                    if (this.ints[g * intKeys + keyIndex[i]] != t.getInt(groupFields[i])) {
+                        return false;
+                    }
+                } else if (!this.strings[g * stringKeys + keyIndex[i]]
+                        .equals(t.getString(groupFields[i]))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Aggregate a tuple into its group, or spill it if the group is not
+         * in the table and the table is full.
+         */
+        void add(Tuple t) throws DbException {
+            int h = hash(t);
+            int mask = this.slots.length - 1;
+            int i = h & mask;
+            while (this.slots[i] != 0) {
+                int g = this.slots[i] - 1;
+                if (this.hashes[g] == h && keyEquals(g, t)) {
+                    update(g, t);
+                    return;
+                }
+                i = (i + 1) & mask;
+            }
+            if (this.size == memoryGroups) {
+                spill(h, t);
+                return;
+            }
+            int g = insert(h, t);
+            this.slots[i] = g + 1;
+            if (this.size * 4 > this.slots.length * 3) {
+                rehash();
+            }
+            update(g, t);
+        }
+
+        private int insert(int h, Tuple t) {
+            int g = this.size++;
+            if (g == this.hashes.length) {
+                int groups = (int) Math.min((long) memoryGroups, 2L * g);
+                this.hashes = Arrays.copyOf(this.hashes, groups);
+                this.ints = Arrays.copyOf(this.ints, groups * intKeys);
+                this.strings = Arrays.copyOf(this.strings, groups * stringKeys);
+                this.state = Arrays.copyOf(this.state, groups * stateWidth);
+            }
+            this.hashes[g] = h;
+            for (int i = 0; i < groupFields.length; i++) {
+                if (keyIsInt[i]) {
+                    this.ints[g * intKeys + keyIndex[i]] = t.getInt(groupFields[i]);
+                } else {
+                    this.strings[g * stringKeys + keyIndex[i]] = t.getString(groupFields[i]);
+                }
+            }
+            for (int j = 0; j < ops.length; j++) {
+                int s = g * stateWidth + stateOffset[j];
+                if (ops[j] == Aggregator.Op.MIN) {
+                    this.state[s] = Long.MAX_VALUE;
+                } else if (ops[j] == Aggregator.Op.MAX) {
+                    this.state[s] = Long.MIN_VALUE;
+                }
+            }
+            return g;
+        }
+
+        private void rehash() {
+            this.slots = new int[this.slots.length * 2];
+            int mask = this.slots.length - 1;
+            for (int g = 0; g < this.size; g++) {
+                int i = this.hashes[g] & mask;
+                while (this.slots[i] != 0) {
+                    i = (i + 1) & mask;
+                }
+                this.slots[i] = g + 1;
+            }
+        }
+
+        private void update(int g, Tuple t) {
+            for (int j = 0; j < ops.length; j++) {
+                int s = g * stateWidth + stateOffset[j];
+                switch (ops[j]) {
+                case MIN:
+                    this.state[s] = Math.min(this.state[s], t.getInt(aggFields[j]));
+                    break;
+                case MAX:
+                    this.state[s] = Math.max(this.state[s], t.getInt(aggFields[j]));
+                    break;
+                case SUM:
+                    this.state[s] += t.getInt(aggFields[j]);
+                    break;
+                case AVG:
+                    this.state[s] += t.getInt(aggFields[j]);
+                    this.state[s + 1]++;
+                    break;
+                default:
+                    this.state[s]++;
+                    break;
+                }
+            }
+        }
+
+        private void spill(int h, Tuple t) throws DbException {
+            if (this.partitions == null) {
+                this.partitions = new SpillFile[1 << PARTITION_BITS];
+            }
+            int p = h >>> (32 - PARTITION_BITS);
+            if (this.partitions[p] == null) {
+                this.partitions[p] = new SpillFile(child.getTupleDesc());
+                spills++;
+            }
+            this.partitions[p].add(t);
+        }
+
+        /**
+         * Queue the partitions spilled while filling the table.
+         */
+        void finish() {
+            if (this.partitions != null) {
+                for (SpillFile f : this.partitions) {
+                    if (f != null) {
+                        pending.add(new Partition(f, this.level + 1));
+                    }
+                }
+                this.partitions = null;
+            }
+            this.slots = null;
+        }
+
+        Tuple tuple(int g) {
+            Tuple t = new Tuple(td);
+            for (int i = 0; i < groupFields.length; i++) {
+                if (keyIsInt[i]) {
+                    t.setInt(i, this.ints[g * intKeys + keyIndex[i]]);
+                } else {
+                    t.setString(i, this.strings[g * stringKeys + keyIndex[i]]);
+                }
+            }
+            for (int j = 0; j < ops.length; j++) {
+                int s = g * stateWidth + stateOffset[j];
+                long v = ops[j] == Aggregator.Op.AVG ? this.state[s] / this.state[s + 1]
+                        : this.state[s];
+                t.setInt(groupFields.length + j, (int) v);
+            }
+            return t;
+        }
+    }
+}
@@ -4,6 +4,17 @@ import java.util.*;
 
 /**
  * The Join operator implements the relational join operation.
+ * <p>
+ * HashEquiJoin builds a hash table on the left child and probes it with the
+ * right child. If the left child has more than the memory budget's worth of
+ * tuples, it becomes a hybrid Grace hash join: both children are split by the
+ * hash of the join field into {@link #FANOUT} partitions, all but one of
+ * which are written to {@link SpillFile}s. The partition kept in memory is
+ * joined while the right child is read; each spilled pair of partitions is
+ * joined afterwards. A spilled partition that is still too large is split
+ * again with a different hash, up to {@link #MAX_DEPTH} times; past that
+ * (e.g. when most tuples share one key) it is joined a budget's worth of left
+ * tuples at a time.
  */
 public class HashEquiJoin extends Operator {
 
@@ -11,13 +22,14 @@ public class HashEquiJoin extends Operator {
     private JoinPredicate pred;
     private OpIterator child1, child2;
     private TupleDesc comboTD;
+    private final int memoryBudget;
     transient private Tuple t1 = null;
     transient private Tuple t2 = null;
 
     /**
      * Constructor. Accepts to children to join and the predicate to join them
      * on
-     * 
+     *
      * @param p
      *            The predicate to use to join the children
      * @param child1
@@ -26,9 +38,20 @@ public class HashEquiJoin extends Operator {
      *            Iterator for the right(inner) relation to join
      */
     public HashEquiJoin(JoinPredicate p, OpIterator child1, OpIterator child2) {
+        this(p, child1, child2, MAP_SIZE);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param memoryBudget
+     *            the number of left tuples the join may keep in memory
+     */
+    public HashEquiJoin(JoinPredicate p, OpIterator child1, OpIterator child2, int memoryBudget) {
         this.pred = p;
         this.child1 = child1;
         this.child2 = child2;
+        this.memoryBudget = memoryBudget;
         comboTD = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
     }
 
@@ -39,7 +62,7 @@ public class HashEquiJoin extends Operator {
     public TupleDesc getTupleDesc() {
         return comboTD;
     }
-    
+
     public String getJoinField1Name()
     {
 	return this.child1.getTupleDesc().getFieldName(this.pred.getField1());
@@ -49,49 +72,198 @@ public class HashEquiJoin extends Operator {
     {
 	return this.child2.getTupleDesc().getFieldName(this.pred.getField2());
     }
-    
-    HashMap<Object, ArrayList<Tuple>> map = new HashMap<Object, ArrayList<Tuple>>();
+
+    /** The default memory budget, in left tuples */
     public final static int MAP_SIZE = 20000;
+    /** The number of partitions the inputs are split into when they spill */
+    public final static int FANOUT = 16;
+    /** The number of times a partition is split again before giving up */
+    public final static int MAX_DEPTH = 3;
 
-    private boolean loadMap() throws DbException, TransactionAbortedException {
-        int cnt = 0;
+    /** A spilled partition of both children and the depth it was split at */
+    private static class Partition {
+        final SpillFile build;
+        final SpillFile probe;
+        final int depth;
+
+        Partition(SpillFile build, SpillFile probe, int depth) {
+            this.build = build;
+            this.probe = probe;
+            this.depth = depth;
+        }
+
+        void delete() {
+            build.delete();
+            probe.delete();
+        }
+    }
+
+    transient HashMap<Field, ArrayList<Tuple>> map = new HashMap<Field, ArrayList<Tuple>>();
+    /** the number of left tuples in map */
+    transient private int mapCount;
+    /** the partitions of the current split of the children, or null if nothing spilled */
+    transient private Partition[] partitions;
+    /** the partition of the first split that is joined in memory, or -1 */
+    transient private int memPartition;
+    /** spilled partitions still to be joined */
+    transient private Deque<Partition> pending;
+    /** the partition being joined, once the right child has been read */
+    transient private Partition current;
+    transient private SpillFile.Reader probeReader;
+    /** the left tuples of current not loaded yet, when it is joined in chunks */
+    transient private SpillFile.Reader buildReader;
+
+    private static int partitionOf(Field key, int depth) {
+        int h = key.hashCode() ^ (depth * 0x9E3779B9);
+        h ^= h >>> 16;
+        h *= 0x85EBCA6B;
+        h ^= h >>> 13;
+        h *= 0xC2B2AE35;
+        h ^= h >>> 16;
+        return Math.floorMod(h, FANOUT);
+    }
+
+    private void addToMap(Tuple t) {
+        map.computeIfAbsent(t.getField(pred.getField1()), k -> new ArrayList<Tuple>()).add(t);
+        mapCount++;
+    }
+
+    private void clearMap() {
         map.clear();
+        mapCount = 0;
+    }
+
+    /**
+     * Read the left child into the hash table, partitioning it if it does
+     * not fit.
+     */
+    private void build() throws DbException, TransactionAbortedException {
+        this.clearMap();
         while (child1.hasNext()) {
             t1 = child1.next();
-            ArrayList<Tuple> list = map.get(t1.getField(pred.getField1()));
-            if (list == null) {
-                list = new ArrayList<Tuple>();
-                map.put(t1.getField(pred.getField1()), list);
+            if (mapCount == memoryBudget) {
+                this.spill();
+                this.partitionBuild(t1);
+                while (child1.hasNext()) {
+                    this.partitionBuild(child1.next());
+                }
+                break;
             }
-            list.add(t1);
-            if (cnt++ == MAP_SIZE)
-                return true;
+            this.addToMap(t1);
         }
-        return cnt > 0;
+    }
 
+    /**
+     * Switch to partitioning, keeping in memory only the tuples of the hash
+     * table that fall in the first partition.
+     */
+    private void spill() throws DbException {
+        partitions = new Partition[FANOUT];
+        for (int i = 0; i < FANOUT; i++) {
+            partitions[i] = new Partition(new SpillFile(child1.getTupleDesc()),
+                    new SpillFile(child2.getTupleDesc()), 0);
+        }
+        memPartition = 0;
+        HashMap<Field, ArrayList<Tuple>> old = map;
+        map = new HashMap<Field, ArrayList<Tuple>>();
+        mapCount = 0;
+        for (ArrayList<Tuple> list : old.values()) {
+            for (Tuple t : list) {
+                this.partitionBuild(t);
+            }
+        }
+    }
+
+    private void partitionBuild(Tuple t) throws DbException {
+        int p = partitionOf(t.getField(pred.getField1()), 0);
+        if (p != memPartition) {
+            partitions[p].build.add(t);
+            return;
+        }
+        this.addToMap(t);
+        if (mapCount > memoryBudget) {
+            // the kept partition does not fit either: spill it too
+            for (ArrayList<Tuple> list : map.values()) {
+                for (Tuple kept : list) {
+                    partitions[p].build.add(kept);
+                }
+            }
+            this.clearMap();
+            memPartition = -1;
+        }
     }
 
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
         child1.open();
         child2.open();
-        loadMap();
+        this.start();
         super.open();
     }
 
+    private void start() throws DbException, TransactionAbortedException {
+        map = new HashMap<Field, ArrayList<Tuple>>();
+        mapCount = 0;
+        partitions = null;
+        memPartition = -1;
+        pending = new ArrayDeque<Partition>();
+        current = null;
+        this.build();
+        if (partitions != null) {
+            for (int i = 0; i < FANOUT; i++) {
+                if (i != memPartition) {
+                    pending.add(partitions[i]);
+                }
+            }
+        }
+    }
+
+    private void cleanUp() {
+        if (probeReader != null) {
+            probeReader.close();
+            probeReader = null;
+        }
+        if (buildReader != null) {
+            buildReader.close();
+            buildReader = null;
+        }
+        if (current != null) {
+            current.delete();
+            current = null;
+        }
+        if (partitions != null) {
+            for (Partition p : partitions) {
+                p.delete();
+            }
+            partitions = null;
+        }
+        if (pending != null) {
+            for (Partition p : pending) {
+                p.delete();
+            }
+            pending.clear();
+        }
+    }
+
     public void close() {
         super.close();
         child2.close();
         child1.close();
+        this.cleanUp();
         this.t1=null;
         this.t2=null;
         this.listIt=null;
-        this.map.clear();
+        this.clearMap();
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
+        this.cleanUp();
+        this.t1 = null;
+        this.t2 = null;
+        this.listIt = null;
         child1.rewind();
         child2.rewind();
+        this.start();
     }
 
     transient Iterator<Tuple> listIt = null;
@@ -110,7 +282,7 @@ public class HashEquiJoin extends Operator {
      * <p>
      * For example, if one tuple is {1,2,3} and the other tuple is {1,5,6},
      * joined on equality of the first column, then this returns {1,2,3,1,5,6}.
-     * 
+     *
      * @return The next matching tuple.
      * @see JoinPredicate#filter
      */
@@ -120,43 +292,144 @@ public class HashEquiJoin extends Operator {
         int td1n = t1.getTupleDesc().numFields();
         int td2n = t2.getTupleDesc().numFields();
 
-        // set fields in combined tuple
         Tuple t = new Tuple(comboTD);
         for (int i = 0; i < td1n; i++)
-            t.setField(i, t1.getField(i));
+            t.copyField(i, t1, i);
         for (int i = 0; i < td2n; i++)
-            t.setField(td1n + i, t2.getField(i));
+            t.copyField(td1n + i, t2, i);
         return t;
 
     }
 
     protected Tuple fetchNext() throws TransactionAbortedException, DbException {
-        if (listIt != null && listIt.hasNext()) {
-            return processList();
+        while (true) {
+            if (listIt != null && listIt.hasNext()) {
+                return processList();
+            }
+            listIt = null;
+
+            Tuple probe = this.nextProbe();
+            if (probe != null) {
+                ArrayList<Tuple> l = map.get(probe.getField(pred.getField2()));
+                if (l != null) {
+                    t2 = probe;
+                    listIt = l.iterator();
+                }
+            } else if (!this.nextPass()) {
+                return null;
+            }
         }
+    }
 
-        // loop around child2
+    /**
+     * @return the next right tuple to look up in the hash table, or null once
+     *         the current pass is done. While the right child is read, its
+     *         tuples that belong to spilled partitions are written out.
+     */
+    private Tuple nextProbe() throws TransactionAbortedException, DbException {
+        if (current != null) {
+            return probeReader.next();
+        }
         while (child2.hasNext()) {
-            t2 = child2.next();
+            Tuple t = child2.next();
+            if (partitions == null) {
+                return t;
+            }
+            int p = partitionOf(t.getField(pred.getField2()), 0);
+            if (p == memPartition) {
+                return t;
+            }
+            if (partitions[p].build.size() > 0) {
+                partitions[p].probe.add(t);
+            }
+        }
+        return null;
+    }
 
-            // if match, create a combined tuple and fill it with the values
-            // from both tuples
-            ArrayList<Tuple> l = map.get(t2.getField(pred.getField2()));
-            if (l == null)
+    /**
+     * Set up the next pass: the next chunk of the current partition, or the
+     * next spilled partition.
+     *
+     * @return false if there is nothing left to join
+     */
+    private boolean nextPass() throws TransactionAbortedException, DbException {
+        if (buildReader != null && this.loadChunk()) {
+            probeReader.close();
+            probeReader = current.probe.reader();
+            return true;
+        }
+        this.clearMap();
+        if (probeReader != null) {
+            probeReader.close();
+            probeReader = null;
+        }
+        if (current != null) {
+            current.delete();
+            current = null;
+        }
+        while (!pending.isEmpty()) {
+            Partition p = pending.poll();
+            if (p.build.size() == 0 || p.probe.size() == 0) {
+                p.delete();
                 continue;
-            listIt = l.iterator();
-
-            return processList();
-
+            }
+            if (p.build.size() > memoryBudget && p.depth < MAX_DEPTH) {
+                this.repartition(p);
+                continue;
+            }
+            current = p;
+            buildReader = p.build.reader();
+            this.loadChunk();
+            probeReader = p.probe.reader();
+            return true;
         }
+        return false;
+    }
 
-        // child2 is done: advance child1
-        child2.rewind();
-        if (loadMap()) {
-            return fetchNext();
+    /**
+     * Load up to the memory budget's worth of the current partition's left
+     * tuples into the hash table.
+     *
+     * @return false if they had all been loaded already
+     */
+    private boolean loadChunk() throws DbException {
+        this.clearMap();
+        Tuple t;
+        while (mapCount < memoryBudget && (t = buildReader.next()) != null) {
+            this.addToMap(t);
         }
+        if (mapCount < memoryBudget) {
+            buildReader.close();
+            buildReader = null;
+        }
+        return mapCount > 0;
+    }
 
-        return null;
+    /**
+     * Split a partition that does not fit in memory with the hash of the
+     * next depth.
+     */
+    private void repartition(Partition p) throws DbException {
+        Partition[] parts = new Partition[FANOUT];
+        for (int i = 0; i < FANOUT; i++) {
+            parts[i] = new Partition(new SpillFile(child1.getTupleDesc()),
+                    new SpillFile(child2.getTupleDesc()), p.depth + 1);
+        }
+        Tuple t;
+        try (SpillFile.Reader r = p.build.reader()) {
+            while ((t = r.next()) != null) {
+                parts[partitionOf(t.getField(pred.getField1()), p.depth + 1)].build.add(t);
+            }
+        }
+        try (SpillFile.Reader r = p.probe.reader()) {
+            while ((t = r.next()) != null) {
+                parts[partitionOf(t.getField(pred.getField2()), p.depth + 1)].probe.add(t);
+            }
+        }
+        p.delete();
+        for (Partition part : parts) {
+            pending.push(part);
+        }
     }
 
     @Override
@@ -169,5 +442,5 @@ public class HashEquiJoin extends Operator {
         this.child1 = children[0];
         this.child2 = children[1];
     }
-    
+
 }
@@ -1,6 +1,7 @@
 package simpledb;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.util.*;
 
 /**
@@ -15,8 +16,13 @@ import java.util.*;
  */
 public class HeapFile implements DbFile {
 
+    /** Largest number of pages a batch insert extends the file by at once. */
+    public static final int MAX_EXTENT_PAGES = 16;
+
     private final File file;
     private final TupleDesc td;
+    /** loaded on the first insert or delete */
+    private volatile FreeSpaceMap freeSpace;
 
     /**
      * Constructs a heap file backed by the specified file.
@@ -73,12 +79,18 @@ public class HeapFile implements DbFile {
             throw new IllegalArgumentException();
         }
         try {
-            RandomAccessFile raf = new RandomAccessFile(this.file, "r");
-            raf.seek(pid.getPageNumber() * BufferPool.getPageSize());
+            HeapPageId hpid = new HeapPageId(pid.getTableId(), pid.getPageNumber());
+            if (Database.getCatalog().isMemoryMapped(this.getId())) {
+                ByteBuffer mapped = Database.getCatalog().getFileChannelPool().mapPage(this.getId(), this.file,
+                        pid.getPageNumber(), BufferPool.getPageSize());
+                if (mapped != null) {
+                    return new HeapPage(hpid, mapped);
+                }
+            }
             byte[] pageBuf = HeapPage.createEmptyPageData();
-            raf.read(pageBuf, 0, BufferPool.getPageSize());
-            raf.close();
-            return new HeapPage(new HeapPageId(pid.getTableId(), pid.getPageNumber()), pageBuf);
+            Database.getCatalog().getFileChannelPool().read(this.getId(), this.file, ByteBuffer.wrap(pageBuf),
+                    (long) pid.getPageNumber() * BufferPool.getPageSize());
+            return new HeapPage(hpid, pageBuf);
         } catch (IOException e) {
             e.printStackTrace();
         }
@@ -90,10 +102,20 @@ public class HeapFile implements DbFile {
         // some code goes here
         // not necessary for lab1
         PageId pid = page.getId();
-        RandomAccessFile raf = new RandomAccessFile(this.file, "rw");
-        raf.seek(pid.getPageNumber() * BufferPool.getPageSize());
-        raf.write(page.getPageData());
-        raf.close();
+        Database.getCatalog().getFileChannelPool().write(this.getId(), this.file, ByteBuffer.wrap(page.getPageData()),
+                (long) pid.getPageNumber() * BufferPool.getPageSize());
+    }
+
+    /**
+     * Writes the free-space map to disk if it changed since it was last
+     * written.
+     */
+    @Override
+    public void saveMetadata() throws IOException {
+        FreeSpaceMap fsm = this.freeSpace;
+        if (fsm != null) {
+            fsm.save();
+        }
     }
 
     /**
@@ -110,25 +132,132 @@ public class HeapFile implements DbFile {
             throws DbException, IOException, TransactionAbortedException {
         // some code goes here
         // not necessary for lab1
-        HeapPage page;
-        int i;
-        for (i = 0; i < this.numPages(); ++i) {
-            PageId pid = new HeapPageId(this.getId(), i);
-            page = (HeapPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_ONLY);
-            if (page.getNumEmptySlots() == 0) {
+        FreeSpaceMap fsm = this.freeSpaceMap();
+        for (int i = fsm.nextFree(); i >= 0; i = fsm.nextFree()) {
+            HeapPage page = this.pageWithFreeSlot(tid, i);
+            if (page == null) {
+                fsm.setFree(i, false);
                 continue;
             }
-            page = (HeapPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_WRITE);
             page.insertTuple(t);
+            fsm.setFree(i, page.getNumEmptySlots() > 0);
             return new ArrayList<>(Collections.singletonList(page));
         }
-        page = new HeapPage(new HeapPageId(getId(), i), HeapPage.createEmptyPageData());
-        page.insertTuple(t);
-        this.writePage(page);
+        HeapPage page;
+        synchronized (fsm) {
+            // concurrent inserts must not append the same page
+            int i = this.numPages();
+            page = new HeapPage(new HeapPageId(getId(), i), HeapPage.createEmptyPageData());
+            page.insertTuple(t);
+            fsm.setFree(i, page.getNumEmptySlots() > 0);
+            this.writePage(page);
+        }
         return new ArrayList<>(Collections.singletonList(page));
         // return null;
     }
 
+    /**
+     * Inserts the tuples into the pages with free slots, filling each page
+     * before moving to the next one. When no page has room left, the file is
+     * extended by an extent of empty pages written at once; extents double in
+     * size up to {@link #MAX_EXTENT_PAGES} while the batch lasts.
+     */
+    @Override
+    public ArrayList<Page> insertTuples(TransactionId tid, Iterator<Tuple> tuples)
+            throws DbException, IOException, TransactionAbortedException {
+        FreeSpaceMap fsm = this.freeSpaceMap();
+        ArrayList<Page> modified = new ArrayList<>();
+        int extentPages = 1;
+        while (tuples.hasNext()) {
+            int i = fsm.nextFree();
+            if (i < 0) {
+                this.allocateExtent(fsm, extentPages);
+                extentPages = Math.min(2 * extentPages, MAX_EXTENT_PAGES);
+                continue;
+            }
+            HeapPage page = this.pageWithFreeSlot(tid, i);
+            if (page == null) {
+                fsm.setFree(i, false);
+                continue;
+            }
+            while (page.getNumEmptySlots() > 0 && tuples.hasNext()) {
+                page.insertTuple(tuples.next());
+            }
+            // keep the pool from evicting it while the next pages load
+            page.markDirty(true, tid);
+            modified.add(page);
+            fsm.setFree(i, page.getNumEmptySlots() > 0);
+        }
+        return modified;
+    }
+
+    /**
+     * Fetches a page the free-space map suggests for an insert, for writing.
+     * If the page turns out to be full, the lock taken on it is released
+     * again, so that concurrent inserters do not queue up behind pages none
+     * of them modifies.
+     *
+     * @return the page, or null if it has no free slot
+     */
+    private HeapPage pageWithFreeSlot(TransactionId tid, int pageNo)
+            throws DbException, TransactionAbortedException {
+        BufferPool pool = Database.getBufferPool();
+        PageId pid = new HeapPageId(this.getId(), pageNo);
+        boolean locked = pool.holdsLock(tid, pid);
+        HeapPage page = (HeapPage) pool.getPage(tid, pid, Permissions.READ_WRITE);
+        if (page.getNumEmptySlots() > 0) {
+            return page;
+        }
+        if (!locked) {
+            // nothing was read from or written to the page
+            pool.releasePage(tid, pid);
+        }
+        return null;
+    }
+
+    /**
+     * Append empty pages to the file with a single write, and mark them free.
+     */
+    private void allocateExtent(FreeSpaceMap fsm, int extentPages) throws IOException {
+        synchronized (fsm) {
+            int first = this.numPages();
+            byte[] extent = new byte[extentPages * BufferPool.getPageSize()];
+            Database.getCatalog().getFileChannelPool().write(this.getId(), this.file, ByteBuffer.wrap(extent),
+                    (long) first * BufferPool.getPageSize());
+            for (int i = first; i < first + extentPages; i++) {
+                fsm.setFree(i, true);
+            }
+        }
+    }
+
+    /**
+     * Returns the free-space map of this file, loading it on first use. Pages
+     * the saved map does not know about are read from disk to find out
+     * whether they are full.
+     */
+    private FreeSpaceMap freeSpaceMap() throws IOException {
+        FreeSpaceMap fsm = this.freeSpace;
+        if (fsm != null) {
+            return fsm;
+        }
+        synchronized (this) {
+            if (this.freeSpace == null) {
+                fsm = FreeSpaceMap.load(this.file);
+                int numPages = this.numPages();
+                if (fsm.numPages() > numPages) {
+                    // saved for an older version of the file
+                    fsm.clear();
+                }
+                for (int i = fsm.numPages(); i < numPages; i++) {
+                    HeapPage page = (HeapPage) this.readPage(new HeapPageId(this.getId(), i));
+                    fsm.setFree(i, page.getNumEmptySlots() > 0);
+                }
+                this.freeSpace = fsm;
+            }
+            return this.freeSpace;
+        }
+    }
+
     // see DbFile.java for javadocs
     public ArrayList<Page> deleteTuple(TransactionId tid, Tuple t) throws DbException, TransactionAbortedException {
         // some code goes here
@@ -137,6 +266,11 @@ public class HeapFile implements DbFile {
         RecordId rid = t.getRecordId();
         HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid, rid.getPageId(), Permissions.READ_WRITE);
         page.deleteTuple(t);
+        try {
+            this.freeSpaceMap().setFree(rid.getPageId().getPageNumber(), true);
+        } catch (IOException e) {
+            throw new DbException("could not load the free-space map: " + e.getMessage());
+        }
         return new ArrayList<>(Collections.singletonList(page));
     }
 
@@ -147,4 +281,17 @@ public class HeapFile implements DbFile {
         // return null;
     }
 
+    /**
+     * Returns an iterator over the tuples of a range of pages of this file.
+     * Scans of disjoint ranges can run concurrently to read the file in
+     * parallel.
+     *
+     * @param firstPage the first page to read
+     * @param endPage the page after the last one to read; pages past the end
+     *            of the file are ignored
+     */
+    public DbFileIterator iterator(TransactionId tid, int firstPage, int endPage) {
+        return new HeapFileIterator(this, tid, firstPage, endPage);
+    }
+
 }
@@ -106,6 +106,8 @@ public class HeapFileEncoder {
 
     BufferedReader br = new BufferedReader(new FileReader(inFile));
     FileOutputStream os = new FileOutputStream(outFile);
+    // a map saved for an earlier file at this path does not describe this one
+    FreeSpaceMap.delete(outFile);
 
     // our numbers probably won't be much larger than 1024 digits
     char buf[] = new char[1024];
@@ -1,27 +1,51 @@
 package simpledb;
 
+import java.util.Collections;
 import java.util.Iterator;
 
 public class HeapFileIterator extends AbstractDbFileIterator {
     private final HeapFile heapFile;
     private final TransactionId tid;
+    private final int firstPage;
+    /** the page after the last one to read, or -1 to read to the end of the file */
+    private final int endPage;
     private Iterator<Tuple> it = null;
     private Integer currentPageNo = null;
+    private BufferPool.ScanRing ring = null;
+    private ReadAhead readAhead = null;
 
     HeapFileIterator(HeapFile heapFile, TransactionId tid) {
+        this(heapFile, tid, 0, -1);
+    }
+
+    HeapFileIterator(HeapFile heapFile, TransactionId tid, int firstPage, int endPage) {
         this.heapFile = heapFile;
         this.tid = tid;
+        this.firstPage = firstPage;
+        this.endPage = endPage;
+    }
+
+    private int endPage() {
+        return this.endPage < 0 ? this.heapFile.numPages() : Math.min(this.endPage, this.heapFile.numPages());
     }
 
     private Iterator<Tuple> getCurrentPageIterator(int pageNo) throws TransactionAbortedException, DbException {
         HeapPageId pid = new HeapPageId(this.heapFile.getId(), pageNo);
-        return ((HeapPage) Database.getBufferPool().getPage(this.tid, pid, Permissions.READ_ONLY)).iterator();
+        this.readAhead.advance(pid);
+        return ((HeapPage) Database.getBufferPool().getPage(this.tid, pid, Permissions.READ_ONLY, this.ring))
+                .iterator();
     }
 
     @Override
     public void open() throws DbException, TransactionAbortedException {
-        this.currentPageNo = 0;
-        this.it = this.getCurrentPageIterator(this.currentPageNo);
+        this.currentPageNo = this.firstPage;
+        // scans of more pages than the pool holds read through a ring, so that
+        // they do not flush the pool; a range gets one only if it is that long
+        this.ring = Database.getBufferPool().newScanRing(this.endPage() - this.firstPage);
+        this.readAhead = ReadAhead.heapScan(this.heapFile, this.endPage, this.ring);
+        this.it = this.currentPageNo < this.endPage()
+                ? this.getCurrentPageIterator(this.currentPageNo)
+                : Collections.<Tuple>emptyIterator();
     }
 
     @Override
@@ -42,7 +66,7 @@ public class HeapFileIterator extends AbstractDbFileIterator {
         }
 
         // next page
-        while (!this.it.hasNext() && ++this.currentPageNo < this.heapFile.numPages()) {
+        while (!this.it.hasNext() && ++this.currentPageNo < this.endPage()) {
             this.it = this.getCurrentPageIterator(this.currentPageNo);
         }
         return this.it.hasNext() ? this.it.next() : null;
@@ -55,6 +79,12 @@ public class HeapFileIterator extends AbstractDbFileIterator {
         super.close();
         this.it = null;
         this.currentPageNo = null;
+        if (this.readAhead != null) {
+            this.readAhead.close();
+            this.readAhead = null;
+        }
+        Database.getBufferPool().releaseScanRing(this.ring);
+        this.ring = null;
     }
 
 }
@@ -3,6 +3,7 @@ package simpledb;
 import java.util.*;
 import java.util.stream.Stream;
 import java.io.*;
+import java.nio.ByteBuffer;
 
 /**
  * Each instance of HeapPage stores data for one page of HeapFiles and
@@ -16,11 +17,26 @@ public class HeapPage implements Page {
 
     final HeapPageId pid;
     final TupleDesc td;
-    final byte header[];
-    final Tuple tuples[];
     final int numSlots;
+    final int headerSize;
 
-    byte[] oldData;
+    /**
+     * The page's bytes: the header followed by the slots. Tuples are decoded
+     * from it on demand, and inserts and deletes write to it in place. It may
+     * be shared with the buffer the page was created from and with the before
+     * image, so it is copied before the first write to it (see
+     * {@link #writableData}).
+     */
+    private volatile ByteBuffer data;
+    /** whether data is this page's private copy, which may be written */
+    private boolean ownsData;
+    /**
+     * whether data is still the buffer the page was created from (a region of
+     * a mapped file or the caller's bytes) rather than one the page allocated
+     */
+    private boolean borrowed;
+
+    volatile ByteBuffer oldData;
     private final Byte oldDataLock = Byte.valueOf((byte) 0);
     private TransactionId isDirty;
 
@@ -44,25 +60,31 @@ public class HeapPage implements Page {
      * @see BufferPool#getPageSize()
      */
     public HeapPage(HeapPageId id, byte[] data) throws IOException {
+        this(id, ByteBuffer.wrap(data));
+    }
+
+    /**
+     * Create a HeapPage from a buffer holding the page's bytes, e.g. a region
+     * of a memory-mapped table file. Nothing is decoded up front: the page
+     * keeps the buffer and decodes a tuple when it is asked for. The buffer
+     * must not be modified while the page uses it; the page itself copies it
+     * before writing to it.
+     *
+     * @see #HeapPage(HeapPageId, byte[])
+     */
+    public HeapPage(HeapPageId id, ByteBuffer data) throws IOException {
         this.pid = id;
         this.td = Database.getCatalog().getTupleDesc(id.getTableId());
         this.numSlots = getNumTuples();
-        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
-
-        // allocate and read the header slots of this page
-        header = new byte[getHeaderSize()];
-        for (int i = 0; i < header.length; i++)
-            header[i] = dis.readByte();
-
-        tuples = new Tuple[numSlots];
-        try {
-            // allocate and read the actual records of this page
-            for (int i = 0; i < tuples.length; i++)
-                tuples[i] = readNextTuple(dis, i);
-        } catch (NoSuchElementException e) {
-            e.printStackTrace();
+        this.headerSize = getHeaderSize();
+        if (data.remaining() < BufferPool.getPageSize()) {
+            throw new EOFException("page " + id.getPageNumber() + " is truncated");
         }
-        dis.close();
+        ByteBuffer view = data.duplicate();
+        view.limit(view.position() + BufferPool.getPageSize());
+        this.data = view.slice();
+        this.ownsData = false;
+        this.borrowed = true;
 
         setBeforeImage();
     }
@@ -99,7 +121,7 @@ public class HeapPage implements Page {
      */
     public HeapPage getBeforeImage() {
         try {
-            byte[] oldDataRef = null;
+            ByteBuffer oldDataRef = null;
             synchronized (oldDataLock) {
                 oldDataRef = oldData;
             }
@@ -112,9 +134,20 @@ public class HeapPage implements Page {
         return null;
     }
 
+    /**
+     * Remember the current contents as the before image. No bytes are
+     * copied: the page stops owning its buffer and copies it on the next
+     * write instead, which leaves the before image untouched. If the page
+     * still reads the buffer it was created from, the before image keeps a
+     * copy of its own from the first write on, since the file or the caller
+     * may change that buffer once the page is written back.
+     */
     public void setBeforeImage() {
         synchronized (oldDataLock) {
-            oldData = getPageData().clone();
+            synchronized (this) {
+                oldData = data;
+                ownsData = false;
+            }
         }
     }
 
@@ -128,110 +161,132 @@ public class HeapPage implements Page {
     }
 
     /**
-     * Suck up tuples from the source file.
+     * Decode the tuple in a used slot from the page's bytes.
+     *
+     * @param buf a buffer over the page's bytes
      */
-    private Tuple readNextTuple(DataInputStream dis, int slotId) throws NoSuchElementException {
-        // if associated bit is not set, read forward to the next tuple, and
-        // return null.
-        if (!isSlotUsed(slotId)) {
-            for (int i = 0; i < td.getSize(); i++) {
-                try {
-                    dis.readByte();
-                } catch (IOException e) {
-                    throw new NoSuchElementException("error reading empty tuple");
-                }
-            }
-            return null;
-        }
-
-        // read fields in the tuple
+    private Tuple readTuple(ByteBuffer buf, int slotId) throws NoSuchElementException {
+        int base = this.slotOffset(slotId);
         Tuple t = new Tuple(td);
         RecordId rid = new RecordId(pid, slotId);
         t.setRecordId(rid);
-        try {
-            for (int j = 0; j < td.numFields(); j++) {
-                Field f = td.getFieldType(j).parse(dis);
-                t.setField(j, f);
+        for (int j = 0; j < td.numFields(); j++) {
+            int off = base + td.getFieldOffset(j);
+            if (td.getFieldType(j) == Type.INT_TYPE) {
+                t.setInt(j, buf.getInt(off));
+            } else {
+                t.setString(j, readString(buf, off));
             }
-        } catch (java.text.ParseException e) {
-            e.printStackTrace();
+        }
+        return t;
+    }
+
+    /**
+     * Decode the STRING_TYPE field stored at the given offset.
+     */
+    private static String readString(ByteBuffer buf, int off) throws NoSuchElementException {
+        int len = buf.getInt(off);
+        if (len < 0 || len > Type.STRING_LEN) {
             throw new NoSuchElementException("parsing error!");
         }
+        byte[] bs = new byte[len];
+        ByteBuffer d = buf.duplicate();
+        d.position(off + 4);
+        d.get(bs, 0, len);
+        return new String(bs);
+    }
 
-        return t;
+    /**
+     * @return the tuple in the given slot, decoded from the page's bytes, or
+     *         null if the slot is empty
+     */
+    public Tuple getTuple(int slotId) {
+        ByteBuffer buf = this.data.duplicate();
+        if (slotId < 0 || slotId >= numSlots || !isSlotUsed(buf, slotId)) {
+            return null;
+        }
+        return readTuple(buf, slotId);
     }
 
     /**
-     * Generates a byte array representing the contents of this page. Used to
-     * serialize this page to disk.
-     * <p>
-     * The invariant here is that it should be possible to pass the byte array
-     * generated by getPageData to the HeapPage constructor and have it produce an
-     * identical HeapPage object.
+     * Decode the tuples in used slots, starting from the given slot, straight
+     * into the column vectors of a batch until the batch is full. No Tuple or
+     * Field objects are created.
      *
-     * @see #HeapPage
-     * @return A byte array correspond to the bytes of this page.
+     * @param batch a batch with this page's TupleDesc and no selection
+     * @param fromSlot the first slot to look at
+     * @return the slot to continue from, or the number of slots on the page
+     *         if every tuple from fromSlot on has been read
      */
-    public byte[] getPageData() {
-        int len = BufferPool.getPageSize();
-        ByteArrayOutputStream baos = new ByteArrayOutputStream(len);
-        DataOutputStream dos = new DataOutputStream(baos);
-
-        // create the header of the page
-        for (int i = 0; i < header.length; i++) {
-            try {
-                dos.writeByte(header[i]);
-            } catch (IOException e) {
-                // this really shouldn't happen
-                e.printStackTrace();
+    public int readInto(TupleBatch batch, int fromSlot) throws NoSuchElementException {
+        ByteBuffer buf = this.data;
+        int numFields = td.numFields();
+        int[][] ints = new int[numFields][];
+        String[][] strings = new String[numFields][];
+        for (int j = 0; j < numFields; j++) {
+            if (td.getFieldType(j) == Type.INT_TYPE) {
+                ints[j] = batch.intColumn(j);
+            } else {
+                strings[j] = batch.stringColumn(j);
             }
         }
-
-        // create the tuples
-        for (int i = 0; i < tuples.length; i++) {
-
-            // empty slot
-            if (!isSlotUsed(i)) {
-                for (int j = 0; j < td.getSize(); j++) {
-                    try {
-                        dos.writeByte(0);
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                    }
-
-                }
+        int slot = fromSlot;
+        for (; slot < numSlots && !batch.isFull(); slot++) {
+            if (!isSlotUsed(buf, slot)) {
                 continue;
             }
-
-            // non-empty slot
-            for (int j = 0; j < td.numFields(); j++) {
-                Field f = tuples[i].getField(j);
-                try {
-                    f.serialize(dos);
-
-                } catch (IOException e) {
-                    e.printStackTrace();
+            int row = batch.addRow();
+            int base = this.slotOffset(slot);
+            for (int j = 0; j < numFields; j++) {
+                int off = base + td.getFieldOffset(j);
+                if (ints[j] != null) {
+                    ints[j][row] = buf.getInt(off);
+                } else {
+                    strings[j][row] = readString(buf, off);
                 }
             }
         }
+        return slot;
+    }
 
-        // padding
-        int zerolen = BufferPool.getPageSize() - (header.length + td.getSize() * tuples.length); // - numSlots *
-        // td.getSize();
-        byte[] zeroes = new byte[zerolen];
-        try {
-            dos.write(zeroes, 0, zerolen);
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
+    private int slotOffset(int slotId) {
+        return headerSize + slotId * td.getSize();
+    }
 
-        try {
-            dos.flush();
-        } catch (IOException e) {
-            e.printStackTrace();
+    /**
+     * Returns the page's bytes for writing, copying them first if they are
+     * still shared.
+     */
+    private synchronized ByteBuffer writableData() {
+        if (!ownsData) {
+            byte[] copy = new byte[BufferPool.getPageSize()];
+            data.duplicate().get(copy);
+            if (borrowed) {
+                // the before image is the borrowed buffer; detach it first
+                oldData = ByteBuffer.wrap(copy.clone());
+            }
+            data = ByteBuffer.wrap(copy);
+            ownsData = true;
+            borrowed = false;
         }
+        return data;
+    }
 
-        return baos.toByteArray();
+    /**
+     * Generates a byte array representing the contents of this page. Used to
+     * serialize this page to disk.
+     * <p>
+     * The invariant here is that it should be possible to pass the byte array
+     * generated by getPageData to the HeapPage constructor and have it produce an
+     * identical HeapPage object.
+     *
+     * @see #HeapPage
+     * @return A byte array correspond to the bytes of this page.
+     */
+    public byte[] getPageData() {
+        byte[] pageData = new byte[BufferPool.getPageSize()];
+        data.duplicate().get(pageData);
+        return pageData;
     }
 
     /**
@@ -267,6 +322,11 @@ public class HeapPage implements Page {
             throw new DbException("this tuple is already empty!");
         }
         this.markSlotUsed(pno, false);
+        // empty slots are all zeroes on disk
+        ByteBuffer buf = this.writableData();
+        for (int i = this.slotOffset(pno); i < this.slotOffset(pno + 1); i++) {
+            buf.put(i, (byte) 0);
+        }
     }
 
     /**
@@ -286,14 +346,18 @@ public class HeapPage implements Page {
             throw new DbException("tuple description mismatch");
         }
         int i;
-        for (i = 0; i < getNumTuples(); ++i) {
+        for (i = 0; i < numSlots; ++i) {
             if (!this.isSlotUsed(i)) {
                 break;
             }
         }
+        ByteBuffer buf = this.writableData().duplicate();
+        buf.position(this.slotOffset(i));
+        for (int j = 0; j < td.numFields(); j++) {
+            t.getField(j).serialize(buf);
+        }
         this.markSlotUsed(i, true);
         t.setRecordId(new RecordId(this.pid, i));
-        this.tuples[i] = t;
     }
 
     /**
@@ -325,13 +389,15 @@ public class HeapPage implements Page {
      */
     public int getNumEmptySlots() {
         // some code goes here
-        int cnt = 0;
-        for (int i = 0; i < numSlots; ++i) {
-            if (!isSlotUsed(i)) {
-                cnt += 1;
-            }
+        int used = 0;
+        for (int i = 0; i < numSlots / 8; ++i) {
+            used += Integer.bitCount(data.get(i) & 0xff);
         }
-        return cnt;
+        if (numSlots % 8 != 0) {
+            // ignore the padding bits of the last header byte
+            used += Integer.bitCount(data.get(numSlots / 8) & ((1 << (numSlots % 8)) - 1));
+        }
+        return numSlots - used;
         // return 0;
     }
 
@@ -344,12 +410,18 @@ public class HeapPage implements Page {
             return true;
         }
 
-        byte offset = (byte) (i % 8);
-        byte bit = (byte) (this.header[i / 8] & 1 << offset);
-        return bit != (byte) 0;
+        return isSlotUsed(this.data, i);
         // return false;
     }
 
+    /**
+     * @return true if the header in the given buffer over the page's bytes
+     *         marks the slot as used
+     */
+    private static boolean isSlotUsed(ByteBuffer buf, int i) {
+        return (buf.get(i / 8) & 1 << (i % 8)) != 0;
+    }
+
     /**
      * Abstraction to fill or clear a slot on this page.
      */
@@ -359,13 +431,14 @@ public class HeapPage implements Page {
         if (i > this.getNumTuples()) {
             throw new IndexOutOfBoundsException();
         }
-        byte offset = (byte) (i % 8);
-
+        ByteBuffer buf = this.writableData();
+        byte header = buf.get(i / 8);
         if (value) {
-            this.header[i / 8] |= (1 << offset);
+            header |= (1 << (i % 8));
         } else {
-            this.header[i / 8] &= ~(1 << offset);
+            header &= ~(1 << (i % 8));
         }
+        buf.put(i / 8, header);
     }
 
     /**
@@ -375,14 +448,41 @@ public class HeapPage implements Page {
      */
     public Iterator<Tuple> iterator() {
         // some code goes here
-        List<Tuple> tuples = new LinkedList<>();
-        for (int i = 0; i < this.getNumTuples(); ++i) {
-            if (this.isSlotUsed(i)) {
-                tuples.add(this.tuples[i]);
-            }
+        // tuples are decoded one at a time, as the iterator reaches them, from
+        // the bytes the page had when the iterator was created: the page stops
+        // owning them, so that the next write goes to a copy
+        final ByteBuffer buf;
+        synchronized (this) {
+            buf = this.data.duplicate();
+            this.ownsData = false;
         }
-        return tuples.iterator();
-        // return null;
+        return new Iterator<Tuple>() {
+            private int next = nextUsed(0);
+
+            private int nextUsed(int from) {
+                while (from < numSlots && !isSlotUsed(buf, from)) {
+                    from++;
+                }
+                return from;
+            }
+
+            public boolean hasNext() {
+                return next < numSlots;
+            }
+
+            public Tuple next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                Tuple t = readTuple(buf, next);
+                next = nextUsed(next + 1);
+                return t;
+            }
+
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
     }
 
 }
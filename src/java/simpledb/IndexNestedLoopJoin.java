@@ -0,0 +1,227 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * IndexNestedLoopJoin joins its left child with a table stored in a
+ * {@link BTreeFile} keyed on the join field, by probing the B+ tree with
+ * {@link BTreeFile#indexIterator} for each left tuple instead of scanning the
+ * table.
+ * <p>
+ * Left tuples are read a batch at a time and probed in order of their join
+ * field, so consecutive probes descend to the same or neighbouring leaf pages,
+ * and left tuples with the same key share one probe. The right tuples a probe
+ * matches are read from the index as they are joined, not collected first.
+ */
+public class IndexNestedLoopJoin extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Default number of left tuples sorted and probed together
+     */
+    public final static int DEFAULT_BATCH_SIZE = 1024;
+
+    private final JoinPredicate pred;
+    private OpIterator child1;
+    private SeqScan child2;
+    private final TupleDesc comboTD;
+    private final int batchSize;
+
+    private transient BTreeFile index;
+    private transient Predicate.Op probeOp;
+    private transient ArrayList<Tuple> batch;
+    private transient int batchPos;
+    private transient Tuple current;
+    /** the right tuples matching the key of current, read from the index as they are joined */
+    private transient DbFileIterator matches;
+
+    /**
+     * Constructor.
+     *
+     * @param p
+     *            The predicate to use to join the children; its operator
+     *            cannot be NOT_EQUALS or LIKE
+     * @param child1
+     *            Iterator for the left relation to join
+     * @param child2
+     *            A scan of the right relation, which must be a BTreeFile
+     *            keyed on field p.getField2()
+     */
+    public IndexNestedLoopJoin(JoinPredicate p, OpIterator child1, SeqScan child2) {
+        this(p, child1, child2, DEFAULT_BATCH_SIZE);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param batchSize
+     *            the number of left tuples to sort and probe together
+     */
+    public IndexNestedLoopJoin(JoinPredicate p, OpIterator child1, SeqScan child2, int batchSize) {
+        if (p.getOperator() == Predicate.Op.NOT_EQUALS
+                || p.getOperator() == Predicate.Op.LIKE) {
+            throw new IllegalArgumentException("cannot probe an index on "
+                    + p.getOperator());
+        }
+        this.pred = p;
+        this.child1 = child1;
+        this.child2 = child2;
+        this.batchSize = batchSize;
+        this.comboTD = TupleDesc.merge(child1.getTupleDesc(),
+                child2.getTupleDesc());
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return this.pred;
+    }
+
+    public String getJoinField1Name() {
+        return this.child1.getTupleDesc().getFieldName(this.pred.getField1());
+    }
+
+    public String getJoinField2Name() {
+        return this.child2.getTupleDesc().getFieldName(this.pred.getField2());
+    }
+
+    public TupleDesc getTupleDesc() {
+        return this.comboTD;
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        DbFile f = Database.getCatalog().getDatabaseFile(this.child2.getTableId());
+        if (!(f instanceof BTreeFile)
+                || ((BTreeFile) f).keyField() != this.pred.getField2()) {
+            throw new DbException("table " + this.child2.getTableName()
+                    + " is not a B+ tree keyed on the join field");
+        }
+        this.index = (BTreeFile) f;
+        this.probeOp = reverse(this.pred.getOperator());
+        this.child1.open();
+        this.batch = new ArrayList<Tuple>();
+        this.reset();
+        super.open();
+    }
+
+    private void reset() {
+        this.batch.clear();
+        this.batchPos = 0;
+        this.current = null;
+        this.closeMatches();
+    }
+
+    private void closeMatches() {
+        if (this.matches != null) {
+            this.matches.close();
+            this.matches = null;
+        }
+    }
+
+    /**
+     * @return the operator op2 such that <tt>a op b</tt> if and only if
+     *         <tt>b op2 a</tt>
+     */
+    private static Predicate.Op reverse(Predicate.Op op) {
+        switch (op) {
+        case LESS_THAN:
+            return Predicate.Op.GREATER_THAN;
+        case LESS_THAN_OR_EQ:
+            return Predicate.Op.GREATER_THAN_OR_EQ;
+        case GREATER_THAN:
+            return Predicate.Op.LESS_THAN;
+        case GREATER_THAN_OR_EQ:
+            return Predicate.Op.LESS_THAN_OR_EQ;
+        default:
+            return op;
+        }
+    }
+
+    public void close() {
+        super.close();
+        this.child1.close();
+        this.closeMatches();
+        this.batch = null;
+        this.current = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        this.child1.rewind();
+        this.reset();
+    }
+
+    /**
+     * Returns the next tuple generated by the join, or null if there are no
+     * more tuples. The tuples returned are the concatenation of joining tuples
+     * from the left and right relation, as for {@link Join}.
+     */
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        while (true) {
+            if (this.current != null && this.matches.hasNext()) {
+                return joinTuples(this.current, this.matches.next());
+            }
+            if (this.batchPos == this.batch.size() && !nextBatch()) {
+                return null;
+            }
+            Tuple previous = this.current;
+            this.current = this.batch.get(this.batchPos++);
+            Field key = this.current.getField(this.pred.getField1());
+            if (previous == null
+                    || !previous.getField(this.pred.getField1()).equals(key)) {
+                probe(key);
+            } else {
+                this.matches.rewind();
+            }
+        }
+    }
+
+    /**
+     * Read the next batch of left tuples, sorted on their join field.
+     *
+     * @return false if there are no more left tuples
+     */
+    private boolean nextBatch() throws TransactionAbortedException, DbException {
+        this.batch.clear();
+        this.batchPos = 0;
+        while (this.batch.size() < this.batchSize && this.child1.hasNext()) {
+            this.batch.add(this.child1.next());
+        }
+        Collections.sort(this.batch, new TupleComparator(this.pred.getField1(), true));
+        return !this.batch.isEmpty();
+    }
+
+    /**
+     * Start reading the right tuples whose key satisfies the predicate
+     * against the given left key.
+     */
+    private void probe(Field key) throws TransactionAbortedException, DbException {
+        this.closeMatches();
+        this.matches = this.index.indexIterator(this.child2.getTransactionId(),
+                new IndexPredicate(this.probeOp, key));
+        this.matches.open();
+    }
+
+    private Tuple joinTuples(Tuple t1, Tuple t2) {
+        Tuple t = new Tuple(this.comboTD);
+        int n1 = t1.getTupleDesc().numFields();
+        for (int i = 0; i < n1; i++) {
+            t.copyField(i, t1, i);
+        }
+        for (int i = 0; i < t2.getTupleDesc().numFields(); i++) {
+            t.copyField(n1 + i, t2, i);
+        }
+        return t;
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[] { this.child1, this.child2 };
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        this.child1 = children[0];
+        this.child2 = (SeqScan) children[1];
+    }
+
+}
@@ -1,6 +1,8 @@
 package simpledb;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.NoSuchElementException;
 
 /**
@@ -11,6 +13,9 @@ public class Insert extends Operator {
 
     private static final long serialVersionUID = 1L;
 
+    /** Number of child tuples from which on they are inserted in batches. */
+    public static final int BATCH_SIZE = 1024;
+
     private final TransactionId tid;
     private boolean returned;
     private OpIterator child;
@@ -79,14 +84,31 @@ public class Insert extends Operator {
             return null;
         }
         int cnt = 0;
-        while (child.hasNext()) {
-            try {
-                Database.getBufferPool().insertTuple(tid, tableId, child.next());
-            } catch (IOException e) {
-                throw new TransactionAbortedException();
-                // e.printStackTrace();
+        // small inserts go tuple by tuple; once the child has produced a
+        // full batch, the rest is handed to the table a batch at a time
+        List<Tuple> batch = new ArrayList<>(BATCH_SIZE);
+        boolean bulk = false;
+        try {
+            while (child.hasNext()) {
+                batch.add(child.next());
+                if (batch.size() == BATCH_SIZE) {
+                    Database.getBufferPool().insertTuples(tid, tableId, batch.iterator());
+                    cnt += batch.size();
+                    batch.clear();
+                    bulk = true;
+                }
+            }
+            if (bulk) {
+                Database.getBufferPool().insertTuples(tid, tableId, batch.iterator());
+            } else {
+                for (Tuple t : batch) {
+                    Database.getBufferPool().insertTuple(tid, tableId, t);
+                }
             }
-            ++cnt;
+            cnt += batch.size();
+        } catch (IOException e) {
+            throw new TransactionAbortedException();
+            // e.printStackTrace();
         }
         Tuple tuple = new Tuple(this.getTupleDesc());
         tuple.setField(0, new IntField(cnt));
@@ -56,7 +56,7 @@ public class IntegerAggregator implements Aggregator {
                 : tup.getField(this.groupByFieldId);
 
         this.aggedCounts.merge(field, 1, Integer::sum);
-        int curValue = ((IntField) tup.getField(this.aggFieldId)).getValue();
+        int curValue = tup.getInt(this.aggFieldId);
 
         switch (this.aggOp) {
             case MIN:
@@ -77,6 +77,35 @@ public class IntegerAggregator implements Aggregator {
         }
     }
 
+    public void mergeAggregator(Aggregator other) {
+        if (!(other instanceof IntegerAggregator)) {
+            throw new IllegalArgumentException("cannot merge a " + other.getClass().getSimpleName());
+        }
+        IntegerAggregator o = (IntegerAggregator) other;
+        if (o.groupByFieldId != this.groupByFieldId || o.aggFieldId != this.aggFieldId
+                || o.aggOp != this.aggOp) {
+            throw new IllegalArgumentException("cannot merge a different aggregate");
+        }
+
+        for (Map.Entry<Field, Integer> e : o.aggedCounts.entrySet()) {
+            this.aggedCounts.merge(e.getKey(), e.getValue(), Integer::sum);
+        }
+        for (Map.Entry<Field, Integer> e : o.aggedFields.entrySet()) {
+            switch (this.aggOp) {
+                case MIN:
+                    this.aggedFields.merge(e.getKey(), e.getValue(), Math::min);
+                    break;
+                case MAX:
+                    this.aggedFields.merge(e.getKey(), e.getValue(), Math::max);
+                    break;
+                default:
+                    // sums and counts, including the sum of an AVG
+                    this.aggedFields.merge(e.getKey(), e.getValue(), Integer::sum);
+                    break;
+            }
+        }
+    }
+
     /**
      * Create a OpIterator over group aggregate results.
      * 
@@ -4,18 +4,34 @@ import java.util.*;
 
 /**
  * The Join operator implements the relational join operation.
+ * <p>
+ * It is a block nested-loop join: it reads a block of tuples from the left
+ * (outer) child into memory, and joins each tuple of one scan of the right
+ * (inner) child with all of them, so the inner child is scanned once per
+ * block rather than once per outer tuple. With a block size of 1 it is a
+ * plain nested-loop join.
  */
 public class Join extends Operator {
 
     private static final long serialVersionUID = 1L;
 
+    /**
+     * Default number of outer tuples buffered per scan of the inner child
+     */
+    public final static int DEFAULT_BLOCK_SIZE = 10000;
+
     private final JoinPredicate joinPredicate;
     private OpIterator childOp1;
     private OpIterator childOp2;
-    private Tuple left;
+    private final int blockSize;
+
+    private transient ArrayList<Tuple> block;
+    private transient int blockPos;
+    private transient Tuple right;
 
     /**
-     * Constructor. Accepts two children to join and the predicate to join them on
+     * Constructor. Accepts two children to join and the predicate to join them
+     * on, and joins them with a nested-loop join.
      *
      * @param p      The predicate to use to join the children
      * @param child1 Iterator for the left(outer) relation to join
@@ -23,9 +39,43 @@ public class Join extends Operator {
      */
     public Join(JoinPredicate p, OpIterator child1, OpIterator child2) {
         // some code goes here
+        this(p, child1, child2, 1);
+    }
+
+    /**
+     * Constructor. Accepts two children to join and the predicate to join them
+     * on, and the number of outer tuples to buffer per scan of the inner child.
+     *
+     * @param p         The predicate to use to join the children
+     * @param child1    Iterator for the left(outer) relation to join
+     * @param child2    Iterator for the right(inner) relation to join
+     * @param blockSize The number of tuples of child1 to join with each scan of
+     *                  child2
+     * @see #blockSizeForPages(TupleDesc, int)
+     */
+    public Join(JoinPredicate p, OpIterator child1, OpIterator child2, int blockSize) {
+        if (blockSize < 1) {
+            throw new IllegalArgumentException("block size must be positive");
+        }
         this.joinPredicate = p;
         this.childOp1 = child1;
         this.childOp2 = child2;
+        this.blockSize = blockSize;
+    }
+
+    /**
+     * @return the number of tuples of the given schema that fit in the given
+     *         number of heap pages, for use as a block size
+     */
+    public static int blockSizeForPages(TupleDesc td, int pages) {
+        return Math.max(1, pages * ((BufferPool.getPageSize() * 8) / (td.getSize() * 8 + 1)));
+    }
+
+    /**
+     * @return the number of outer tuples buffered per scan of the inner child
+     */
+    public int getBlockSize() {
+        return this.blockSize;
     }
 
     public JoinPredicate getJoinPredicate() {
@@ -71,13 +121,17 @@ public class Join extends Operator {
         super.open();
         this.childOp1.open();
         this.childOp2.open();
-        this.left = this.childOp1.hasNext() ? this.childOp1.next() : null;
+        this.block = new ArrayList<Tuple>();
+        this.blockPos = 0;
+        this.right = null;
     }
 
     public void close() {
         // some code goes here
         this.childOp1.close();
         this.childOp2.close();
+        this.block = null;
+        this.right = null;
         super.close();
     }
 
@@ -107,29 +161,55 @@ public class Join extends Operator {
      */
     protected Tuple fetchNext() throws TransactionAbortedException, DbException {
         // some code goes here
-        while (this.left != null) {
-            while (this.childOp2.hasNext()) {
-                Tuple right = childOp2.next();
-                if (this.joinPredicate.filter(left, right)) {
-                    return this.joinTuples(left, right);
+        while (true) {
+            if (this.right != null) {
+                while (this.blockPos < this.block.size()) {
+                    Tuple left = this.block.get(this.blockPos++);
+                    if (this.joinPredicate.filter(left, this.right)) {
+                        return this.joinTuples(left, this.right);
+                    }
                 }
+                this.right = null;
+            }
+            if (!this.block.isEmpty() && this.childOp2.hasNext()) {
+                this.right = this.childOp2.next();
+                this.blockPos = 0;
+            } else if (!this.nextBlock()) {
+                return null;
             }
+        }
+    }
+
+    /**
+     * Read the next block of outer tuples, and rewind the inner child if it
+     * was scanned for the previous block.
+     *
+     * @return false if there are no more outer tuples
+     */
+    private boolean nextBlock() throws TransactionAbortedException, DbException {
+        boolean scanned = !this.block.isEmpty();
+        this.block.clear();
+        while (this.block.size() < this.blockSize && this.childOp1.hasNext()) {
+            this.block.add(this.childOp1.next());
+        }
+        if (this.block.isEmpty()) {
+            return false;
+        }
+        if (scanned) {
             this.childOp2.rewind();
-            this.left = this.childOp1.hasNext() ? this.childOp1.next() : null;
         }
-        return null;
+        return true;
     }
 
     private Tuple joinTuples(Tuple t1, Tuple t2) {
         TupleDesc td = this.getTupleDesc();
         Tuple tp = new Tuple(td);
-        int cnt = 0;
-
-        for (Tuple t : Arrays.asList(t1, t2)) {
-            Iterator<Field> it = t.fields();
-            while (it.hasNext() && cnt < td.numFields()) {
-                tp.setField(cnt++, it.next());
-            }
+        int n1 = t1.getTupleDesc().numFields();
+        for (int i = 0; i < n1; i++) {
+            tp.copyField(i, t1, i);
+        }
+        for (int i = n1; i < td.numFields(); i++) {
+            tp.copyField(i, t2, i - n1);
         }
         return tp;
     }
@@ -0,0 +1,64 @@
+package simpledb;
+
+/**
+ * The physical algorithms a logical join can be executed with. The
+ * {@link JoinOptimizer} estimates the cost of each for a given join and
+ * instantiates the cheapest one; when estimates tie, the one declared first
+ * wins.
+ */
+public enum JoinAlgorithm {
+    /**
+     * Builds a hash table on the left input and probes it with the right one,
+     * partitioning both to disk when the left input does not fit in memory.
+     * Equality predicates only.
+     */
+    HASH("hash"),
+
+    /**
+     * Probes a B+ tree on the join field of the right (base) table once per
+     * tuple of the left input.
+     */
+    INDEX_NESTED_LOOP("index nested-loop"),
+
+    /**
+     * Scans the right input once per block of tuples of the left input.
+     */
+    BLOCK_NESTED_LOOP("block nested-loop"),
+
+    /**
+     * Sorts the inputs on the join fields, unless they are already ordered,
+     * and merges them.
+     */
+    SORT_MERGE("sort-merge"),
+
+    /**
+     * Scans the right input once per tuple of the left input.
+     */
+    NESTED_LOOP("nested-loop");
+
+    private final String name;
+
+    JoinAlgorithm(String name) {
+        this.name = name;
+    }
+
+    /**
+     * @return true if this algorithm can evaluate a join predicate with the
+     *         given operator
+     */
+    public boolean supports(Predicate.Op op) {
+        switch (this) {
+        case HASH:
+            return op == Predicate.Op.EQUALS;
+        case INDEX_NESTED_LOOP:
+        case SORT_MERGE:
+            return op != Predicate.Op.NOT_EQUALS && op != Predicate.Op.LIKE;
+        default:
+            return true;
+        }
+    }
+
+    public String toString() {
+        return this.name;
+    }
+}
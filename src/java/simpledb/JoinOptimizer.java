@@ -27,6 +27,27 @@ public class JoinOptimizer {
         this.joins = joins;
     }
 
+    /**
+     * The join algorithms there is an operator for; only these are chosen by
+     * {@link #instantiateJoin(LogicalJoinNode, OpIterator, OpIterator, Map, boolean)}.
+     */
+    static final EnumSet<JoinAlgorithm> RUNNABLE = EnumSet.of(
+            JoinAlgorithm.HASH, JoinAlgorithm.INDEX_NESTED_LOOP,
+            JoinAlgorithm.BLOCK_NESTED_LOOP, JoinAlgorithm.SORT_MERGE,
+            JoinAlgorithm.NESTED_LOOP);
+
+    /**
+     * Number of tuples that can be hashed in memory; larger inputs are
+     * written to and read back from disk once more.
+     */
+    static final int IN_MEMORY_TUPLES = HashEquiJoin.MAP_SIZE;
+
+    /**
+     * The estimated cost of each join instantiated so far, so that joining its
+     * output again accounts for producing it.
+     */
+    private final IdentityHashMap<OpIterator, Double> joinCosts = new IdentityHashMap<OpIterator, Double>();
+
     /**
      * Return best iterator for computing a given logical join, given the
      * specified statistics, and the provided left and right subplans. Note that
@@ -41,9 +62,82 @@ public class JoinOptimizer {
      *            The left join node's child
      * @param plan2
      *            The right join node's child
+     * @param stats
+     *            Statistics for the base tables, referenced by table name
+     * @param explain
+     *            Whether to print the algorithm chosen for the join
+     */
+    public OpIterator instantiateJoin(LogicalJoinNode lj, OpIterator plan1,
+            OpIterator plan2, Map<String, TableStats> stats, boolean explain)
+            throws ParsingException {
+        if (lj instanceof LogicalSubplanJoinNode) {
+            return instantiateJoin(lj, plan1, plan2);
+        }
+
+        int card1 = estimatePlanCardinality(plan1, stats);
+        int card2 = estimatePlanCardinality(plan2, stats);
+        double cost1 = estimatePlanCost(plan1, stats);
+        double cost2 = estimatePlanCost(plan2, stats);
+
+        JoinAlgorithm best = null;
+        double bestCost = 0;
+        for (JoinAlgorithm a : RUNNABLE) {
+            if (a == JoinAlgorithm.INDEX_NESTED_LOOP && !(plan2 instanceof SeqScan)) {
+                // the index can only stand in for a plain scan of the table
+                continue;
+            }
+            double cost = estimateJoinCost(lj, a, card1, card2, cost1, cost2);
+            if (cost >= 0 && (best == null || cost < bestCost)) {
+                best = a;
+                bestCost = cost;
+            }
+        }
+
+        OpIterator j = instantiateJoin(lj, plan1, plan2, best);
+        this.joinCosts.put(j, bestCost);
+        if (explain) {
+            System.out.println("Join " + lj.f1QuantifiedName + " " + lj.p
+                    + " " + lj.f2QuantifiedName + " using " + best
+                    + " join (cost = " + bestCost + ", card1 = " + card1
+                    + ", card2 = " + card2 + ")");
+        }
+        return j;
+    }
+
+    /**
+     * Return an iterator computing a given logical join when no statistics
+     * are available: a hash join for equality predicates, and a block
+     * nested-loop join otherwise.
+     * 
+     * @param lj
+     *            The join being considered
+     * @param plan1
+     *            The left join node's child
+     * @param plan2
+     *            The right join node's child
      */
     public static OpIterator instantiateJoin(LogicalJoinNode lj,
                                              OpIterator plan1, OpIterator plan2) throws ParsingException {
+        return instantiateJoin(lj, plan1, plan2,
+                lj.p == Predicate.Op.EQUALS ? JoinAlgorithm.HASH : JoinAlgorithm.BLOCK_NESTED_LOOP);
+    }
+
+    /**
+     * Return an iterator computing a given logical join with the given
+     * algorithm.
+     * 
+     * @param lj
+     *            The join being considered
+     * @param plan1
+     *            The left join node's child
+     * @param plan2
+     *            The right join node's child
+     * @param algorithm
+     *            The algorithm to use, one of {@link #RUNNABLE}
+     */
+    public static OpIterator instantiateJoin(LogicalJoinNode lj,
+            OpIterator plan1, OpIterator plan2, JoinAlgorithm algorithm)
+            throws ParsingException {
 
         int t1id = 0, t2id = 0;
         OpIterator j;
@@ -68,7 +162,29 @@ public class JoinOptimizer {
 
         JoinPredicate p = new JoinPredicate(t1id, lj.p, t2id);
 
-        j = new Join(p,plan1,plan2);
+        switch (algorithm) {
+        case HASH:
+            j = new HashEquiJoin(p, plan1, plan2);
+            break;
+        case BLOCK_NESTED_LOOP:
+            j = new Join(p, plan1, plan2, Join.DEFAULT_BLOCK_SIZE);
+            break;
+        case SORT_MERGE:
+            j = new SortMergeJoin(p, plan1, plan2);
+            break;
+        case INDEX_NESTED_LOOP:
+            if (!(plan2 instanceof SeqScan)) {
+                throw new ParsingException("index nested-loop join needs a scan of "
+                        + lj.t2Alias);
+            }
+            j = new IndexNestedLoopJoin(p, plan1, (SeqScan) plan2);
+            break;
+        case NESTED_LOOP:
+            j = new Join(p, plan1, plan2);
+            break;
+        default:
+            throw new IllegalStateException("Unexpected value: " + algorithm);
+        }
 
         return j;
 
@@ -83,6 +199,8 @@ public class JoinOptimizer {
      * well as the number of CPU opertions performed by your join. Assume that
      * the cost of a single predicate application is roughly 1.
      * 
+     * This is the cost of the cheapest algorithm in {@link #RUNNABLE} that
+     * supports the join.
      * 
      * @param j
      *            A LogicalJoinNode representing the join operation being
@@ -107,12 +225,163 @@ public class JoinOptimizer {
             // You do not need to implement proper support for these for Lab 3.
             return card1 + cost1 + cost2;
         } else {
-            // Insert your code here.
-            // HINT: You may need to use the variable "j" if you implemented
-            // a join algorithm that's more complicated than a basic
-            // nested-loops join.
+            double best = -1.0;
+            for (JoinAlgorithm a : RUNNABLE) {
+                double cost = estimateJoinCost(j, a, card1, card2, cost1, cost2);
+                if (cost >= 0 && (best < 0 || cost < best)) {
+                    best = cost;
+                }
+            }
+            return best;
+        }
+    }
+
+    /**
+     * Estimate the cost of a join executed with a given algorithm, counting
+     * the scans of its inputs and one unit per tuple comparison or hash
+     * operation:
+     * <ul>
+     * <li>nested-loop: cost1 + card1 * cost2 + card1 * card2</li>
+     * <li>block nested-loop: cost1 + blocks(card1) * cost2 + card1 * card2</li>
+     * <li>hash: cost1 + cost2 + card1 + card2, and each input written and read
+     * once more if the left input does not fit in memory</li>
+     * <li>sort-merge: cost1 + cost2 + the cost of sorting each input +
+     * card1 + card2 for an equality predicate; for a range predicate only one
+     * input is sorted, and about half of all pairs of tuples are read</li>
+     * <li>index nested-loop: cost1 + card1 * (one page read + a search of the
+     * index + the matching tuples)</li>
+     * </ul>
+     * 
+     * @param j
+     *            the join
+     * @param algorithm
+     *            the algorithm to cost
+     * @return the estimated cost, or -1 if the algorithm cannot compute the
+     *         join
+     */
+    public double estimateJoinCost(LogicalJoinNode j, JoinAlgorithm algorithm,
+            int card1, int card2, double cost1, double cost2) {
+        if (!algorithm.supports(j.p)) {
             return -1.0;
         }
+        switch (algorithm) {
+        case NESTED_LOOP:
+            return cost1 + (double) card1 * cost2 + (double) card1 * card2;
+        case BLOCK_NESTED_LOOP: {
+            int blocks = Math.max(1, (card1 + Join.DEFAULT_BLOCK_SIZE - 1)
+                    / Join.DEFAULT_BLOCK_SIZE);
+            return cost1 + blocks * cost2 + (double) card1 * card2;
+        }
+        case HASH: {
+            double cost = cost1 + cost2 + card1 + card2;
+            if (card1 > IN_MEMORY_TUPLES) {
+                cost += 2 * (cost1 + cost2);
+            }
+            return cost;
+        }
+        case SORT_MERGE:
+            if (j.p == Predicate.Op.EQUALS) {
+                return cost1 + cost2 + sortCost(card1, cost1)
+                        + sortCost(card2, cost2) + card1 + card2;
+            } else if (j.p == Predicate.Op.GREATER_THAN
+                    || j.p == Predicate.Op.GREATER_THAN_OR_EQ) {
+                return cost1 + cost2 + sortCost(card2, cost2) + card1
+                        + (double) card1 * card2 / 2;
+            } else {
+                return cost1 + cost2 + sortCost(card1, cost1) + card2
+                        + (double) card1 * card2 / 2;
+            }
+        case INDEX_NESTED_LOOP: {
+            BTreeFile index = indexOn(j);
+            if (index == null) {
+                return -1.0;
+            }
+            double pageCost = cost2 / Math.max(1, index.numPages());
+            double matches = j.p == Predicate.Op.EQUALS ? 1 : card2 / 2.0;
+            return cost1 + card1
+                    * (pageCost + log2(card2 + 1) + matches);
+        }
+        default:
+            return -1.0;
+        }
+    }
+
+    /**
+     * @return the cost of sorting card tuples whose scan costs cost: the
+     *         comparisons, plus writing and reading them once more if they do
+     *         not fit in memory
+     */
+    private static double sortCost(int card, double cost) {
+        double sort = card * log2(card);
+        if (card > ExternalSort.DEFAULT_MEMORY_TUPLES) {
+            sort += 2 * cost;
+        }
+        return sort;
+    }
+
+    private static double log2(double x) {
+        return x > 1 ? Math.log(x) / Math.log(2) : 0;
+    }
+
+    /**
+     * @return the B+ tree the right-hand table of j is stored in, if it is
+     *         keyed on the join field, or null otherwise
+     */
+    private BTreeFile indexOn(LogicalJoinNode j) {
+        Integer tableId = j.t2Alias == null ? null : this.p.getTableId(j.t2Alias);
+        if (tableId == null) {
+            return null;
+        }
+        DbFile f = Database.getCatalog().getDatabaseFile(tableId);
+        if (!(f instanceof BTreeFile)) {
+            return null;
+        }
+        BTreeFile index = (BTreeFile) f;
+        String keyName = Database.getCatalog().getTupleDesc(tableId)
+                .getFieldName(index.keyField());
+        return j.f2PureName.equals(keyName) ? index : null;
+    }
+
+    /**
+     * @return the estimated number of tuples produced by a subplan
+     */
+    private int estimatePlanCardinality(OpIterator plan,
+            Map<String, TableStats> stats) {
+        if (plan instanceof SeqScan) {
+            return stats.get(((SeqScan) plan).getTableName())
+                    .estimateTableCardinality(1.0);
+        } else if (plan instanceof Operator) {
+            Operator o = (Operator) plan;
+            OperatorCardinality.updateOperatorCardinality(o,
+                    this.p.getTableAliasToIdMapping(), stats);
+            return o.getEstimatedCardinality();
+        }
+        return 0;
+    }
+
+    /**
+     * @return the estimated cost of running a subplan once: the scans of its
+     *         tables, or for a join instantiated by this optimizer, the
+     *         estimated cost of the join
+     */
+    private double estimatePlanCost(OpIterator plan,
+            Map<String, TableStats> stats) {
+        Double cost = this.joinCosts.get(plan);
+        if (cost != null) {
+            return cost;
+        } else if (plan instanceof SeqScan) {
+            return stats.get(((SeqScan) plan).getTableName())
+                    .estimateScanCost();
+        } else if (plan instanceof Operator) {
+            double sum = 0;
+            for (OpIterator child : ((Operator) plan).getChildren()) {
+                if (child != null) {
+                    sum += estimatePlanCost(child, stats);
+                }
+            }
+            return sum;
+        }
+        return 0;
     }
 
     /**
@@ -40,6 +40,9 @@ public class JoinPredicate implements Serializable {
      * @return true if the tuples satisfy the predicate.
      */
     public boolean filter(Tuple t1, Tuple t2) {
+        if (t1.getTupleDesc().getFieldType(this.fieldId1) == Type.INT_TYPE) {
+            return IntField.compare(this.op, t1.getInt(this.fieldId1), t2.getInt(this.fieldId2));
+        }
         // some code goes here
         Field field1 = t1.getField(this.fieldId1);
         Field field2 = t2.getField(this.fieldId2);
@@ -0,0 +1,95 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * Limit is an operator that implements a relational LIMIT ... OFFSET: it
+ * skips the first offset tuples of its child and returns at most limit of the
+ * ones after them. It stops reading its child once it has returned limit
+ * tuples.
+ */
+public class Limit extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int limit;
+    private final int offset;
+    private OpIterator child;
+    private transient int returned;
+    private transient boolean skipped;
+
+    /**
+     * Constructor.
+     *
+     * @param limit
+     *            the maximum number of tuples to return
+     * @param offset
+     *            the number of tuples of the child to skip first
+     * @param child
+     *            the child operator
+     */
+    public Limit(int limit, int offset, OpIterator child) {
+        if (limit < 0 || offset < 0) {
+            throw new IllegalArgumentException("limit and offset cannot be negative");
+        }
+        this.limit = limit;
+        this.offset = offset;
+        this.child = child;
+    }
+
+    public int getLimit() {
+        return this.limit;
+    }
+
+    public int getOffset() {
+        return this.offset;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return this.child.getTupleDesc();
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        super.open();
+        this.child.open();
+        this.returned = 0;
+        this.skipped = false;
+    }
+
+    public void close() {
+        this.child.close();
+        super.close();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        this.child.rewind();
+        this.returned = 0;
+        this.skipped = false;
+    }
+
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        if (!this.skipped) {
+            for (int i = 0; i < this.offset && this.child.hasNext(); i++) {
+                this.child.next();
+            }
+            this.skipped = true;
+        }
+        if (this.returned < this.limit && this.child.hasNext()) {
+            this.returned++;
+            return this.child.next();
+        }
+        return null;
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[] { this.child };
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        this.child = children[0];
+    }
+
+}
@@ -1,270 +1,595 @@
 package simpledb;
 
-import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 
+/**
+ * LockManager grants multi-granularity locks to transactions: shared
+ * (READ_ONLY) and exclusive (READ_WRITE) locks on pages, and the
+ * {@link LockMode}s IS, IX, S, SIX and X on the tables the pages belong to.
+ * <p>
+ * Before a page is locked, its table is locked in the matching intention
+ * mode. Once a transaction holds more than {@link #setEscalationThreshold
+ * the escalation threshold} page locks on one table, they are escalated: the
+ * transaction locks the whole table in S (or X if any of the pages was
+ * write-locked) and its page locks on the table are released. Later requests
+ * on pages the table lock already covers are granted without touching the
+ * lock table, so a scan over a large table needs a bounded number of locks.
+ * <p>
+ * The locks each transaction holds are also kept in a map of their own, which
+ * is only changed under the latch but read without it. A request that a
+ * lock of the transaction already covers, such as a buffer pool hit on a
+ * page it has read before, is granted without taking the latch.
+ * <p>
+ * Every locked page or table has a queue of the transactions holding it and a
+ * FIFO queue of the requests waiting for it. A request that cannot be granted
+ * right away sleeps on the queue's Condition until a release hands the lock
+ * to it; waiters are granted strictly in arrival order, except that a holder
+ * upgrading its mode goes ahead of everybody else. Queues are dropped as soon
+ * as nobody holds or waits for them.
+ * <p>
+ * Deadlocks are found by a {@link DeadlockDetector}, either each time a
+ * request blocks or periodically on a background thread (see
+ * {@link #startPeriodicDetection}). The victim of a deadlock is picked by the
+ * configured {@link DeadlockDetector.VictimPolicy}, and its pending request
+ * fails with a TransactionAbortedException.
+ *
+ * @Threadsafe
+ */
 public class LockManager {
 
+    /**
+     * Default number of page locks a transaction may hold on one table before
+     * they are escalated to a table lock.
+     */
+    public static final int DEFAULT_ESCALATION_THRESHOLD = 1000;
+
+    /** The lockable resource standing for a whole table. */
+    private static final class TableResource {
+        final int tableId;
+
+        TableResource(int tableId) {
+            this.tableId = tableId;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof TableResource && ((TableResource) o).tableId == this.tableId;
+        }
+
+        @Override
+        public int hashCode() {
+            return Integer.hashCode(this.tableId);
+        }
+
+        @Override
+        public String toString() {
+            return "table " + this.tableId;
+        }
+    }
+
+    /** The locks one transaction holds on one table and on its pages. */
+    private static class TableLocks {
+        final TableResource table;
+        /** pages locked individually, i.e. not yet covered by the table lock */
+        final Set<PageId> pages = new HashSet<>();
+        /** whether any of those pages is locked exclusively */
+        boolean write;
+
+        TableLocks(int tableId) {
+            this.table = new TableResource(tableId);
+        }
+    }
+
+    /** A lock request of one transaction on one page or table. */
+    private static class Request {
+        final TransactionId tid;
+        final Object resource;
+        final LockMode mode;
+        boolean granted;
+        boolean aborted;
 
-    private Map<PageId, List<LockState>> lockStatesByPgId;
+        Request(TransactionId tid, Object resource, LockMode mode) {
+            this.tid = tid;
+            this.resource = resource;
+            this.mode = mode;
+        }
+    }
 
-    private Map<TransactionId, PageId> waitingInfo;//事务在某页加载失败，加载事务是阻塞的，因此一个tid最多映射一个pid
+    /** The holders of and the requests waiting for one page or table. */
+    private static class LockQueue {
+        final Map<TransactionId, LockMode> holders = new LinkedHashMap<>();
+        final LinkedList<Request> waiters = new LinkedList<>();
+        final Condition changed;
 
-    public static final long SLEEP_MILLIS = 500;
+        LockQueue(Condition changed) {
+            this.changed = changed;
+        }
 
-    public LockManager() {
-        lockStatesByPgId = new ConcurrentHashMap<>();
-        waitingInfo = new ConcurrentHashMap<>();
+        boolean isFree() {
+            return this.holders.isEmpty() && this.waiters.isEmpty();
+        }
     }
 
+    private final ReentrantLock latch = new ReentrantLock();
+
+    /** lock queues by resource: a PageId or a TableResource */
+    private final Map<Object, LockQueue> lockQueues = new HashMap<>();
+
+    /** the locks of each transaction, by table id */
+    private final Map<TransactionId, Map<Integer, TableLocks>> tableLocksByTid = new HashMap<>();
+
+    /** the request each blocked transaction waits on; a transaction blocks on one resource at a time */
+    private final Map<TransactionId, Request> waitingInfo = new HashMap<>();
 
     /**
-     * grant share-lock on the Page to the Transaction
+     * the mode each transaction holds each of its pages and tables in;
+     * written under the latch only, read without it
+     */
+    private final ConcurrentHashMap<TransactionId, Map<Object, LockMode>> heldLocks = new ConcurrentHashMap<>();
+
+    private final DeadlockDetector detector = new DeadlockDetector();
+    private DeadlockDetector.VictimPolicy victimPolicy = DeadlockDetector.VictimPolicy.YOUNGEST;
+    private Thread detectorThread = null;
+    private int escalationThreshold = DEFAULT_ESCALATION_THRESHOLD;
+
+    /**
+     * Acquire a lock on the page for the transaction, blocking until it is
+     * granted. The page's table is locked in the matching intention mode
+     * first, unless the transaction's table lock already covers the page.
      *
-     * @param tid the Transaction that asks for s-lock.
-     * @param pid the Page that need to be locked.
-     * @return <p>true</p> if (lock and) grant, or <p>false</p> if wait and deny.
+     * @param tid  the Transaction that asks for the lock.
+     * @param pid  the Page that needs to be locked.
+     * @param perm READ_ONLY for a shared lock, READ_WRITE for an exclusive one
+     * @throws TransactionAbortedException if the transaction was chosen as the
+     *                                     victim of a deadlock, or the thread
+     *                                     is interrupted while waiting
      */
-    public synchronized boolean grantSLock(TransactionId tid, PageId pid) {
-        ArrayList<LockState> list = (ArrayList<LockState>) lockStatesByPgId.get(pid);
-        if (list != null && list.size() != 0) {
-            if (list.size() == 1) {
-                // there exists only 1 lock:
-                LockState ls = list.iterator().next();
-                if (ls.getTid().equals(tid)) {
-                    // if there exists a lock of this tid:
-                    // grant (what exists is  a s-lock) or lock and grant
-                    return ls.getPerm() == Permissions.READ_ONLY
-                            || lock(pid, tid, Permissions.READ_ONLY);
-                } else {
-                    // What exists is not belong to this tid:
-                    // lock and grant (what exists is a s-lock) or wait and deny
-                    return ls.getPerm() == Permissions.READ_ONLY
-                            ? lock(pid, tid, Permissions.READ_ONLY)
-                            : wait(tid, pid);
-                }
-            } else {
-                // there exists more than one lock:
-                // there are four situations:
-                // 1. one s-lock and one x-lock, either of them belongs to tid => grant
-                // 2. one s-lock and one x-lock, neither of them belongs to tid => wait and deny
-                // 3. more than one s-lock and among them there is one belongs to tid => grant
-                // 4. more than one s-lock and among them there is no one belongs to tid => lock and grant
-                for (LockState ls : list) {
-                    if (ls.getPerm() == Permissions.READ_WRITE) {
-                        // situation 1 or 2
-                        return ls.getTid().equals(tid) || wait(tid, pid);
-                    } else if (ls.getTid().equals(tid)) {
-                        // situation 1 or 3
-                        return true;
-                    }
-                }
-                // situation 4
-                return lock(pid, tid, Permissions.READ_ONLY);
+    public void acquire(TransactionId tid, PageId pid, Permissions perm) throws TransactionAbortedException {
+        if (this.covered(tid, pid, LockMode.forPage(perm))) {
+            return;
+        }
+        this.latch.lock();
+        try {
+            TableLocks locks = this.tableLocksByTid
+                    .computeIfAbsent(tid, t -> new HashMap<>())
+                    .computeIfAbsent(pid.getTableId(), TableLocks::new);
+            LockMode mode = LockMode.forPage(perm);
+            LockMode tableMode = this.heldMode(tid, locks.table);
+            if (tableMode != null && tableMode.covers(mode)) {
+                return;
             }
-        } else {
-            // no lock before:
-            return lock(pid, tid, Permissions.READ_ONLY);
+
+            this.lock(tid, locks.table, LockMode.intentionFor(perm));
+            this.lock(tid, pid, mode);
+            locks.pages.add(pid);
+            locks.write |= mode == LockMode.X;
+            if (locks.pages.size() > this.escalationThreshold) {
+                this.escalate(tid, locks);
+            }
+        } finally {
+            this.latch.unlock();
         }
     }
 
     /**
-     * grant exclusive-lock on the Page to the Transaction
+     * @return true if the transaction holds a lock on the page or its table
+     *         that covers the mode. Does not take the latch: only the
+     *         transaction itself gives up its locks, so a lock seen here stays
+     *         held for as long as its caller relies on it.
+     */
+    private boolean covered(TransactionId tid, PageId pid, LockMode mode) {
+        Map<Object, LockMode> held = this.heldLocks.get(tid);
+        if (held == null) {
+            return false;
+        }
+        LockMode pageMode = held.get(pid);
+        if (pageMode != null && pageMode.covers(mode)) {
+            return true;
+        }
+        LockMode tableMode = held.get(new TableResource(pid.getTableId()));
+        return tableMode != null && tableMode.covers(mode);
+    }
+
+    /**
+     * Lock a whole table for the transaction, blocking until the lock is
+     * granted: in S for READ_ONLY, or X for READ_WRITE. Page locks the table
+     * lock covers are granted from then on without waiting.
      *
-     * @param tid the Transaction that asks for x-lock.
-     * @param pid the Page that need to be locked.
-     * @return <p>true</p> if (lock and) grant, or <p>false</p> if wait and deny.
+     * @throws TransactionAbortedException if the transaction was chosen as the
+     *                                     victim of a deadlock, or the thread
+     *                                     is interrupted while waiting
      */
-    public synchronized boolean grantXLock(TransactionId tid, PageId pid) {
-        ArrayList<LockState> list = (ArrayList<LockState>) lockStatesByPgId.get(pid);
-        if (list != null && list.size() != 0) {
-            if (list.size() == 1) {
-                // there exists only 1 lock:
-                LockState ls = list.iterator().next();
-                return ls.getTid().equals(tid)
-                        ? ls.getPerm() == Permissions.READ_WRITE || lock(pid, tid, Permissions.READ_WRITE)
-                        : wait(tid, pid);
-            } else {
-                // there exists more than one lock:
-                // there are four situations:
-                // 1. one s-lock and one x-lock, either of them belongs to tid => grant
-                // 2. one s-lock and one x-lock, either of them belongs to tid => wait and deny
-                // 3. more than one s-lock => wait and deny
-                if (list.size() == 2) {
-                    for (LockState ls : list) {
-                        if (ls.getTid().equals(tid) && ls.getPerm() == Permissions.READ_WRITE) {
-                            // situation 1
-                            return true;
-                        }
-                    }
+    public void acquireTable(TransactionId tid, int tableId, Permissions perm) throws TransactionAbortedException {
+        this.latch.lock();
+        try {
+            TableLocks locks = this.tableLocksByTid
+                    .computeIfAbsent(tid, t -> new HashMap<>())
+                    .computeIfAbsent(tableId, TableLocks::new);
+            this.lock(tid, locks.table, LockMode.forPage(perm));
+        } finally {
+            this.latch.unlock();
+        }
+    }
+
+    /**
+     * Remove the lock on the Page held by the Transaction, and hand it to the
+     * requests that can now be granted. The intention lock on the page's table
+     * is kept until {@link #releaseAll}.
+     *
+     * @param tid the lock's holder
+     * @param pid the locked Page
+     * @return <p>false</p> if no lock of Transaction is on the Page, or <p>true</p> if removed successfully
+     */
+    public boolean release(TransactionId tid, PageId pid) {
+        this.latch.lock();
+        try {
+            Map<Integer, TableLocks> tables = this.tableLocksByTid.get(tid);
+            TableLocks locks = tables == null ? null : tables.get(pid.getTableId());
+            if (locks != null) {
+                locks.pages.remove(pid);
+            }
+            return this.unlock(tid, pid);
+        } finally {
+            this.latch.unlock();
+        }
+    }
+
+    /**
+     * Release every page and table lock the Transaction holds.
+     *
+     * @param tid the transaction that completed
+     */
+    public void releaseAll(TransactionId tid) {
+        this.latch.lock();
+        try {
+            Map<Integer, TableLocks> tables = this.tableLocksByTid.remove(tid);
+            if (tables == null) {
+                return;
+            }
+            for (TableLocks locks : tables.values()) {
+                for (PageId pid : locks.pages) {
+                    this.unlock(tid, pid);
                 }
-                return wait(tid, pid);
+                this.unlock(tid, locks.table);
             }
-        } else {//pid上没有锁，可以加写锁
-            return lock(pid, tid, Permissions.READ_WRITE);
+        } finally {
+            this.latch.unlock();
         }
     }
 
+    /**
+     * @return true if the Transaction holds a lock of any kind on the Page,
+     *         either directly or through a lock on its table
+     */
+    public boolean holdsLock(TransactionId tid, PageId pid) {
+        this.latch.lock();
+        try {
+            if (this.heldMode(tid, pid) != null) {
+                return true;
+            }
+            LockMode tableMode = this.heldMode(tid, new TableResource(pid.getTableId()));
+            return tableMode != null && tableMode.covers(LockMode.S);
+        } finally {
+            this.latch.unlock();
+        }
+    }
 
     /**
-     * grant lock of Page to Transaction
-     * @param pid the Page to be locked
-     * @param tid the Transaction to hold the lock
-     * @param perm the perm of the lock
-     * @return <p>true</p>
+     * @return the mode the Transaction holds the table in, or null if it holds
+     *         no lock on it
      */
-    private synchronized boolean lock(PageId pid, TransactionId tid, Permissions perm) {
-        LockState nls = new LockState(tid, perm);
-        ArrayList<LockState> list = (ArrayList<LockState>) lockStatesByPgId.get(pid);
-        if (list == null) {
-            list = new ArrayList<>();
-        }
-        list.add(nls);
-        lockStatesByPgId.put(pid, list);
-        waitingInfo.remove(tid);
-        return true;
+    public LockMode tableLockMode(TransactionId tid, int tableId) {
+        this.latch.lock();
+        try {
+            return this.heldMode(tid, new TableResource(tableId));
+        } finally {
+            this.latch.unlock();
+        }
     }
 
     /**
-     * To demonstrate that the Transaction is waiting for pid.
-     * @param pid the Page waited to be locked
-     * @param tid the Transaction waiting the lock
-     * @return <p>false</p>
+     * @return the number of pages and tables the Transaction holds a lock on
      */
-    private synchronized boolean wait(TransactionId tid, PageId pid) {
-        waitingInfo.put(tid, pid);
-        return false;
+    public int numLocksHeld(TransactionId tid) {
+        Map<Object, LockMode> held = this.heldLocks.get(tid);
+        return held == null ? 0 : held.size();
     }
 
+    /**
+     * Set how many page locks a transaction may hold on one table before they
+     * are escalated to a lock on the whole table.
+     */
+    public void setEscalationThreshold(int escalationThreshold) {
+        this.latch.lock();
+        try {
+            this.escalationThreshold = escalationThreshold;
+        } finally {
+            this.latch.unlock();
+        }
+    }
 
     /**
-     * remove the lock on the Page held by the Transaction
-     * @param tid the lock's holder
-     * @param pid the locked Page
-     * @return <p>false</p> if no lock of Transaction is on the Page, or <p>true</p> if remove successfully
+     * Set how the victim of a deadlock is chosen.
      */
-    public synchronized boolean unlock(TransactionId tid, PageId pid) {
-        ArrayList<LockState> list = (ArrayList<LockState>) lockStatesByPgId.get(pid);
-        if (list == null || list.size() == 0) return false;
-        LockState ls = getLockState(tid, pid);
-        if (ls == null) return false;
-        list.remove(ls);
-        lockStatesByPgId.put(pid, list);
-        return true;
+    public void setVictimPolicy(DeadlockDetector.VictimPolicy victimPolicy) {
+        this.latch.lock();
+        try {
+            this.victimPolicy = victimPolicy;
+        } finally {
+            this.latch.unlock();
+        }
     }
 
     /**
-     * remove all locks held by the Transaction
-     * @param tid the lock's holder
+     * Look for deadlocks on a background thread every intervalMillis instead
+     * of each time a request blocks. Blocking is then cheaper, at the price
+     * of deadlocked transactions waiting up to one interval.
+     *
+     * @param intervalMillis time between two searches
      */
-    public synchronized void releaseTransactionLocks(TransactionId tid) {
-        List<PageId> toRelease = getAllLocksByTid(tid);
-        for (PageId pid : toRelease) {
-            unlock(tid, pid);
+    public void startPeriodicDetection(final long intervalMillis) {
+        this.latch.lock();
+        try {
+            if (this.detectorThread != null) {
+                return;
+            }
+            this.detectorThread = new Thread(() -> {
+                try {
+                    while (!Thread.currentThread().isInterrupted()) {
+                        Thread.sleep(intervalMillis);
+                        this.latch.lock();
+                        try {
+                            this.resolveDeadlocks(null);
+                        } finally {
+                            this.latch.unlock();
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    // stopped
+                }
+            }, "deadlock-detector");
+            this.detectorThread.setDaemon(true);
+            this.detectorThread.start();
+        } finally {
+            this.latch.unlock();
         }
     }
 
     /**
-     * check whether deadlock occurred when the Transaction is waiting for the Page.
-     * @param tid the Transaction trapped into waiting.
-     * @param pid the Page that being waiting for.
-     * @return <p>true</p> if deadlock occurred <p>false</p> or not
+     * Go back to looking for deadlocks each time a request blocks.
      */
-    public synchronized boolean deadlockOccurred(TransactionId tid, PageId pid) {
-        List<LockState> lockStates = lockStatesByPgId.get(pid);
-        if (lockStates == null || lockStates.size() == 0) {
-            return false;
+    public void stopPeriodicDetection() {
+        Thread thread;
+        this.latch.lock();
+        try {
+            thread = this.detectorThread;
+            this.detectorThread = null;
+            this.resolveDeadlocks(null);
+        } finally {
+            this.latch.unlock();
         }
-        List<PageId> pids = getAllLocksByTid(tid); // find all pages tid has locked.
-        // traverse the holders of pid to find
-        // whether one of them is waiting for some page
-        // that is being held by tid
-        for (LockState ls : lockStates) {
-            TransactionId holder = ls.getTid(); // the transaction that hold the pid.
-            if (!holder.equals(tid)) {
-                boolean isWaiting = isWaitingResources(holder, pids, tid);
-                if (isWaiting) {
-                    return true;
-                }
-            }
+        if (thread != null) {
+            thread.interrupt();
         }
-        return false;
     }
 
     /**
-     * Recursively judge whether Tranaction tid is waiting for some page that held by tid2
-     *
-     * @param tid the Transaction that may hold some page needed by tid2.
-     * @param pids the Pages being held by tid2.
-     * @param tid2 the Transaction that may hold some Page needed by tid.
-     * @return
+     * Lock the resource in the given mode, blocking until the lock is
+     * granted. If the transaction already holds the resource, its mode is
+     * upgraded to one covering both.
      */
-    private synchronized boolean isWaitingResources(TransactionId tid, List<PageId> pids, TransactionId tid2) {
-        PageId waitingPage = waitingInfo.get(tid);
-        if (waitingPage == null) {
-            return false;
+    private void lock(TransactionId tid, Object resource, LockMode mode) throws TransactionAbortedException {
+        LockQueue queue = this.lockQueues.get(resource);
+        if (queue == null) {
+            queue = new LockQueue(this.latch.newCondition());
+            this.lockQueues.put(resource, queue);
         }
-        for (PageId pid : pids) {
-            if (pid.equals(waitingPage)) {
-                return true;
+
+        LockMode held = queue.holders.get(tid);
+        if (held != null && held.covers(mode)) {
+            return;
+        }
+        Request request = new Request(tid, resource, held == null ? mode : held.combine(mode));
+        if ((held != null || queue.waiters.isEmpty()) && this.compatible(queue, request)) {
+            this.grant(queue, request);
+            return;
+        }
+
+        if (held != null) {
+            // upgrades go first: everybody queued behind would wait for
+            // this transaction's current lock anyway
+            queue.waiters.addFirst(request);
+        } else {
+            queue.waiters.addLast(request);
+        }
+        this.waitingInfo.put(tid, request);
+        this.updateWaitsFor(queue);
+        if (this.detectorThread == null) {
+            this.resolveDeadlocks(tid);
+        }
+
+        while (!request.granted && !request.aborted) {
+            try {
+                queue.changed.await();
+            } catch (InterruptedException e) {
+                this.cancel(queue, request);
+                throw new TransactionAbortedException();
             }
         }
+        if (request.aborted) {
+            throw new TransactionAbortedException();
+        }
+    }
 
-        List<LockState> lockStates = lockStatesByPgId.get(waitingPage);
-        if (lockStates == null || lockStates.size() == 0)
+    /** Drop the transaction's lock on the resource, granting waiters it blocked. */
+    private boolean unlock(TransactionId tid, Object resource) {
+        LockQueue queue = this.lockQueues.get(resource);
+        if (queue == null || queue.holders.remove(tid) == null) {
             return false;
-        for (LockState ls : lockStates) {
-            TransactionId holder = ls.getTid();
-            if (!holder.equals(tid2)) {
-                boolean isWaiting = isWaitingResources(holder, pids, tid2);
-                if (isWaiting) return true;
+        }
+        Map<Object, LockMode> held = this.heldLocks.get(tid);
+        held.remove(resource);
+        if (held.isEmpty()) {
+            this.heldLocks.remove(tid);
+        }
+        this.grantWaiters(queue);
+        this.updateWaitsFor(queue);
+        if (queue.isFree()) {
+            this.lockQueues.remove(resource);
+        }
+        return true;
+    }
+
+    /**
+     * Replace the transaction's page locks on a table by a table lock
+     * covering them all.
+     */
+    private void escalate(TransactionId tid, TableLocks locks) throws TransactionAbortedException {
+        this.lock(tid, locks.table, locks.write ? LockMode.X : LockMode.S);
+        for (PageId pid : locks.pages) {
+            this.unlock(tid, pid);
+        }
+        locks.pages.clear();
+        locks.write = false;
+    }
+
+    private LockMode heldMode(TransactionId tid, Object resource) {
+        LockQueue queue = this.lockQueues.get(resource);
+        return queue == null ? null : queue.holders.get(tid);
+    }
+
+    /**
+     * Whether the request could hold its lock together with the current
+     * holders of the resource. A transaction never conflicts with itself.
+     */
+    private boolean compatible(LockQueue queue, Request request) {
+        for (Map.Entry<TransactionId, LockMode> holder : queue.holders.entrySet()) {
+            if (!holder.getKey().equals(request.tid) && !request.mode.compatibleWith(holder.getValue())) {
+                return false;
             }
         }
-        return false;
+        return true;
     }
 
+    private void grant(LockQueue queue, Request request) {
+        queue.holders.put(request.tid, request.mode);
+        this.heldLocks.computeIfAbsent(request.tid, t -> new ConcurrentHashMap<>())
+                .put(request.resource, request.mode);
+        request.granted = true;
+    }
 
-//==========================查询与修改两个map信息的相关方法 begin=========================
+    /** Grant waiting requests in FIFO order until one has to keep waiting. */
+    private void grantWaiters(LockQueue queue) {
+        boolean granted = false;
+        Iterator<Request> it = queue.waiters.iterator();
+        while (it.hasNext()) {
+            Request request = it.next();
+            if (!this.compatible(queue, request)) {
+                break;
+            }
+            it.remove();
+            this.grant(queue, request);
+            this.waitingInfo.remove(request.tid);
+            this.detector.removeWaiter(request.tid);
+            granted = true;
+        }
+        if (granted) {
+            queue.changed.signalAll();
+        }
+    }
+
+    /** Withdraw a request that will not be granted. */
+    private void cancel(LockQueue queue, Request request) {
+        queue.waiters.remove(request);
+        this.waitingInfo.remove(request.tid);
+        this.detector.removeWaiter(request.tid);
+        // requests queued behind this one may be grantable now
+        this.grantWaiters(queue);
+        this.updateWaitsFor(queue);
+        if (queue.isFree()) {
+            this.lockQueues.remove(request.resource);
+        }
+    }
+
+    /**
+     * Refresh the wait-for edges of the requests queued on one resource after
+     * its queue has changed. Other resources' waiters are not affected.
+     */
+    private void updateWaitsFor(LockQueue queue) {
+        for (Request waiter : queue.waiters) {
+            this.detector.setEdges(waiter.tid, this.blockers(queue, waiter));
+        }
+    }
 
     /**
-     * get the lock on the specified page held by the specified transaction
-     * @param tid the specified transaction
-     * @param pid the specified page
-     * @return the lock or null
+     * The transactions a waiting request has to wait for: the holders it
+     * conflicts with and the conflicting requests queued ahead of it.
      */
-    public synchronized LockState getLockState(TransactionId tid, PageId pid) {
-        ArrayList<LockState> list = (ArrayList<LockState>) lockStatesByPgId.get(pid);
-        if (list == null || list.size() == 0) {
-            return null;
-        }
-        for (LockState ls : list) {
-            if (ls.getTid().equals(tid)) {
-                return ls;
+    private List<TransactionId> blockers(LockQueue queue, Request request) {
+        List<TransactionId> blockers = new LinkedList<>();
+        for (Map.Entry<TransactionId, LockMode> holder : queue.holders.entrySet()) {
+            if (!holder.getKey().equals(request.tid) && !request.mode.compatibleWith(holder.getValue())) {
+                blockers.add(holder.getKey());
+            }
+        }
+        for (Request ahead : queue.waiters) {
+            if (ahead == request) {
+                break;
+            }
+            if (!ahead.tid.equals(request.tid) && !request.mode.compatibleWith(ahead.mode)) {
+                blockers.add(ahead.tid);
             }
         }
-        return null;
+        return blockers;
     }
 
     /**
-     * 得到tid所拥有的所有锁，以锁所在的资源pid的形式返回
+     * Break deadlocks by aborting victims until none is left.
      *
-     * @param tid
-     * @return
+     * @param tid the transaction that just blocked, in which case only
+     *            cycles through it are looked for (there can be no other new
+     *            ones); or null to search the whole graph
      */
-    private synchronized List<PageId> getAllLocksByTid(TransactionId tid) {
-        ArrayList<PageId> pids = new ArrayList<>();
-        for (Map.Entry<PageId, List<LockState>> entry : lockStatesByPgId.entrySet()) {
-            for (LockState ls : entry.getValue()) {
-                if (ls.getTid().equals(tid)) {
-                    pids.add(entry.getKey());
+    private void resolveDeadlocks(TransactionId tid) {
+        for (;;) {
+            List<List<TransactionId>> cycles = new LinkedList<>();
+            if (tid == null) {
+                cycles.addAll(this.detector.findCycles());
+            } else if (this.waitingInfo.containsKey(tid)) {
+                List<TransactionId> cycle = this.detector.findCycle(tid);
+                if (cycle != null) {
+                    cycles.add(cycle);
                 }
             }
+            if (cycles.isEmpty()) {
+                return;
+            }
+            for (List<TransactionId> cycle : cycles) {
+                this.abortWaiter(this.victimPolicy.chooseVictim(cycle, this));
+            }
         }
-        return pids;
     }
 
-//==========================查询与修改两个map信息的相关方法 end=========================
+    /** Fail the pending request of a blocked transaction. */
+    private void abortWaiter(TransactionId tid) {
+        Request request = this.waitingInfo.get(tid);
+        if (request == null) {
+            return;
+        }
+        LockQueue queue = this.lockQueues.get(request.resource);
+        request.aborted = true;
+        this.cancel(queue, request);
+        queue.changed.signalAll();
+    }
 
-}
\ No newline at end of file
+}
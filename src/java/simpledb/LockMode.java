@@ -0,0 +1,76 @@
+package simpledb;
+
+/**
+ * Lock modes of the multi-granularity locking protocol (Gray et al., 1976).
+ * <p>
+ * Pages are only ever locked in S or X. Tables are locked in one of the
+ * intention modes first (IS before a shared page lock, IX before an exclusive
+ * one), or in S or X as a whole once a transaction's page locks on them have
+ * been escalated. SIX is what a transaction holding S on a table ends up with
+ * when it also needs to write some of its pages.
+ */
+public enum LockMode {
+    IS, IX, S, SIX, X;
+
+    private static final boolean[][] COMPATIBLE = {
+            //           IS     IX     S      SIX    X
+            /* IS  */ { true, true, true, true, false },
+            /* IX  */ { true, true, false, false, false },
+            /* S   */ { true, false, true, false, false },
+            /* SIX */ { true, false, false, false, false },
+            /* X   */ { false, false, false, false, false },
+    };
+
+    /**
+     * @return true if one transaction may hold this mode while another one
+     *         holds the other mode on the same resource
+     */
+    public boolean compatibleWith(LockMode other) {
+        return COMPATIBLE[this.ordinal()][other.ordinal()];
+    }
+
+    /**
+     * @return true if holding this mode grants everything the other mode does
+     */
+    public boolean covers(LockMode other) {
+        return this.combine(other) == this;
+    }
+
+    /**
+     * @return the weakest mode that grants both this mode and the other one
+     */
+    public LockMode combine(LockMode other) {
+        if (this == other) {
+            return this;
+        }
+        if (this == X || other == X) {
+            return X;
+        }
+        if (this == SIX || other == SIX) {
+            return SIX;
+        }
+        if (this == IS) {
+            return other;
+        }
+        if (other == IS) {
+            return this;
+        }
+        // IX and S
+        return SIX;
+    }
+
+    /**
+     * @return the mode a page is locked in for the given permissions
+     */
+    public static LockMode forPage(Permissions perm) {
+        return perm == Permissions.READ_ONLY ? S : X;
+    }
+
+    /**
+     * @return the intention mode a table is locked in before one of its pages
+     *         is locked with the given permissions
+     */
+    public static LockMode intentionFor(Permissions perm) {
+        return perm == Permissions.READ_ONLY ? IS : IX;
+    }
+}
@@ -93,6 +93,9 @@ public class LogFile {
 
     HashMap<Long,Long> tidToFirstLogRecord = new HashMap<Long,Long>();
 
+    /** bytes of log written by each live transaction, protected by this */
+    HashMap<Long,Long> tidToLogBytes = new HashMap<Long,Long>();
+
     /** Constructor.
         Initialize and back the log file with the specified file.
         We're not sure yet whether the caller is creating a brand new DB,
@@ -164,6 +167,7 @@ public class LogFile {
                 currentOffset = raf.getFilePointer();
                 force();
                 tidToFirstLogRecord.remove(tid.getId());
+                tidToLogBytes.remove(tid.getId());
             }
         }
     }
@@ -184,6 +188,7 @@ public class LogFile {
         currentOffset = raf.getFilePointer();
         force();
         tidToFirstLogRecord.remove(tid.getId());
+        tidToLogBytes.remove(tid.getId());
     }
 
     /** Write an UPDATE record to disk for the specified tid and page
@@ -207,6 +212,7 @@ public class LogFile {
            after page data
            start offset
         */
+        long start = raf.getFilePointer();
         raf.writeInt(UPDATE_RECORD);
         raf.writeLong(tid.getId());
 
@@ -214,6 +220,7 @@ public class LogFile {
         writePageData(raf,after);
         raf.writeLong(currentOffset);
         currentOffset = raf.getFilePointer();
+        addLogBytes(tid, currentOffset - start);
 
         Debug.log("WRITE OFFSET = " + currentOffset);
     }
@@ -311,11 +318,27 @@ public class LogFile {
         raf.writeLong(tid.getId());
         raf.writeLong(currentOffset);
         tidToFirstLogRecord.put(tid.getId(), currentOffset);
+        addLogBytes(tid, raf.getFilePointer() - currentOffset);
         currentOffset = raf.getFilePointer();
 
         Debug.log("BEGIN OFFSET = " + currentOffset);
     }
 
+    private void addLogBytes(TransactionId tid, long bytes) {
+        Long written = tidToLogBytes.get(tid.getId());
+        tidToLogBytes.put(tid.getId(), written == null ? bytes : written + bytes);
+    }
+
+    /** Return the number of bytes of log written so far by the specified
+        live transaction, which is roughly the work that would be lost by
+        aborting it.
+        @param tid The transaction
+    */
+    public synchronized long getLogBytesWritten(TransactionId tid) {
+        Long written = tidToLogBytes.get(tid.getId());
+        return written == null ? 0 : written;
+    }
+
     /** Checkpoint the log and write a checkpoint record. */
     public void logCheckpoint() throws IOException {
         //make sure we have buffer pool lock before proceeding
@@ -13,8 +13,8 @@ import java.util.NoSuchElementException;
  * <p>
  * A LogicalPlan consits of a collection of table scan nodes, join
  * nodes, filter nodes, a select list, and a group by field.
- * LogicalPlans can only represent queries with one aggregation field
- * and one group by field.
+ * The aggregates of a LogicalPlan are all computed in one pass, grouped
+ * by the same GROUP BY fields.
  * <p>
  * LogicalPlans can be converted to physical (optimized) plans using
  * the {@link #physicalPlan} method, which uses the
@@ -29,12 +29,16 @@ public class LogicalPlan {
     private HashMap<String,Integer> tableMap;
 
     private Vector<LogicalSelectListNode> selectList;
-    private String groupByField = null;
+    private Vector<String> groupByFields = new Vector<String>();
     private boolean hasAgg = false;
-    private String aggOp;
-    private String aggField;
-    private boolean oByAsc, hasOrderBy = false;
-    private String oByField;
+    private Vector<String> aggOps = new Vector<String>();
+    private Vector<String> aggFields = new Vector<String>();
+    private boolean hasOrderBy = false;
+    private Vector<String> oByFields = new Vector<String>();
+    private Vector<Boolean> oByAscs = new Vector<Boolean>();
+    private int limit = -1;
+    private int offset = 0;
+    private int parallelism = 1;
     private String query;
 //    private Query owner;
 
@@ -186,36 +190,72 @@ public class LogicalPlan {
     }
     
     /** Add an aggregate over the field with the specified grouping to
-        the query.  SimpleDb only supports a single aggregate
-        expression and GROUP BY field.
+        the query.  All the aggregates of a query are grouped by the same
+        fields, those added by this method and by {@link #addGroupBy}.
         @param op the aggregation operator
         @param afield the field to aggregate over
-        @param gfield the field to group by
+        @param gfield the field to group by, or null
      * @throws ParsingException 
     */
     public void addAggregate(String op, String afield, String gfield) throws ParsingException {
         afield=disambiguateName(afield);
+        aggOps.addElement(op);
+        aggFields.addElement(afield);
         if (gfield!=null)
-            gfield=disambiguateName(gfield);
-        aggOp = op;
-        aggField = afield;
-        groupByField = gfield;
+            addGroupBy(gfield);
         hasAgg = true;
     }
 
-    /** Add an ORDER BY expression in the specified order on the specified field.  SimpleDb only supports
-        a single ORDER BY field.
+    /** Add a field to group the aggregates of the query by.
+        @param gfield the field to group by
+     * @throws ParsingException 
+    */
+    public void addGroupBy(String gfield) throws ParsingException {
+        gfield=disambiguateName(gfield);
+        if (!groupByFields.contains(gfield))
+            groupByFields.addElement(gfield);
+    }
+
+    /** Add an ORDER BY expression in the specified order on the specified field.  Fields added
+        later break ties between tuples equal on the fields added before them.
         @param field the field to order by
         @param asc true if should be ordered in ascending order, false for descending order
      * @throws ParsingException 
     */
     public void addOrderBy(String field, boolean asc) throws ParsingException {
         field=disambiguateName(field);
-        oByField = field;
-        oByAsc = asc;
+        oByFields.addElement(field);
+        oByAscs.addElement(asc);
         hasOrderBy = true;
     }
 
+    /** Add a LIMIT clause to the query: only return limit tuples, after skipping
+        the first offset ones.  Combined with an ORDER BY, a small enough limit + offset
+        is computed with a {@link TopN} rather than by sorting the whole input.
+        @param limit the maximum number of tuples to return
+        @param offset the number of tuples to skip first
+     * @throws ParsingException if limit or offset is negative
+    */
+    public void addLimit(int limit, int offset) throws ParsingException {
+        if (limit < 0 || offset < 0)
+            throw new ParsingException("LIMIT and OFFSET cannot be negative");
+        this.limit = limit;
+        this.offset = offset;
+    }
+
+    /** Set the degree of parallelism of the query: the number of threads
+        that may scan a table, along with its filters, and compute an
+        aggregate over it.  Only tables stored in a {@link HeapFile} spanning
+        more than {@link Gather#MORSEL_PAGES} pages are scanned in parallel.
+        @param parallelism the number of threads; 1 to run the query on the
+        calling thread only
+    */
+    public void setParallelism(int parallelism) {
+        if (parallelism < 1)
+            throw new IllegalArgumentException("degree of parallelism must be positive");
+        this.parallelism = parallelism;
+    }
+
     /** Given a name of a field, try to figure out what table it belongs to by looking
      *   through all of the tables added via {@link #addScan}. 
      *  @return A fully qualified name of the form tableAlias.name.  If the name parameter is already qualified
@@ -344,6 +384,16 @@ public class LogicalPlan {
             //s.addSelectivityFactor(estimateFilterSelectivity(lf,statsMap));
         }
         
+        // scan large tables and apply their filters in parallel
+        if (parallelism > 1) {
+            for (Map.Entry<String, OpIterator> e : subplanMap.entrySet()) {
+                DbFile f = Database.getCatalog().getDatabaseFile(this.getTableId(e.getKey()));
+                if (f instanceof HeapFile && ((HeapFile) f).numPages() > Gather.MORSEL_PAGES
+                        && Gather.isParallelizable(e.getValue()))
+                    e.setValue(new Gather(e.getValue(), parallelism));
+            }
+        }
+
         if (!joins.isEmpty()) {
             JoinOptimizer jo = new JoinOptimizer(this,joins);
 
@@ -383,7 +433,7 @@ public class LogicalPlan {
                     throw new ParsingException("Unknown table in WHERE clause " + lj.t2Alias);
                 
                 OpIterator j;
-                j = jo.instantiateJoin(lj,plan1,plan2);
+                j = jo.instantiateJoin(lj,plan1,plan2,statsMap,explain);
                 subplanMap.put(t1name, j);
 
                 if (!isSubqueryJoin) {
@@ -415,29 +465,46 @@ public class LogicalPlan {
         for (int i = 0; i < selectList.size(); i++) {
             LogicalSelectListNode si = selectList.elementAt(i);
             if (si.aggOp != null) {
-                outFields.add(groupByField!=null?1:0);
                 TupleDesc td = node.getTupleDesc();
-//                int  id;
+                int  id;
                 try {
-//                    id = 
-                    td.fieldNameToIndex(si.fname);
+                    id = td.fieldNameToIndex(si.fname);
                 } catch (NoSuchElementException e) {
                     throw new ParsingException("Unknown field " +  si.fname + " in SELECT list");
                 }
+                int agg = -1;
+                for (int j = 0; j < aggOps.size() && agg < 0; j++) {
+                    if (aggOps.elementAt(j).equals(si.aggOp)
+                            && td.fieldNameToIndex(aggFields.elementAt(j)) == id)
+                        agg = j;
+                }
+                if (agg < 0) {
+                    throw new ParsingException("Aggregate " + si.aggOp + "(" + si.fname + ") was not added to the query");
+                }
+                outFields.add(groupByFields.size() + agg);
                 outTypes.add(Type.INT_TYPE);  //the type of all aggregate functions is INT
 
             } else if (hasAgg) {
-                    if (groupByField == null) {
-                        throw new ParsingException("Field " + si.fname + " does not appear in GROUP BY list");
-                    }
-                    outFields.add(0);
                     TupleDesc td = node.getTupleDesc();
                     int  id;
                     try {
-                        id = td.fieldNameToIndex(groupByField);
+                        id = td.fieldNameToIndex(si.fname);
                     } catch (NoSuchElementException e) {
-                        throw new ParsingException("Unknown field " +  groupByField + " in GROUP BY statement");
+                        throw new ParsingException("Unknown field " +  si.fname + " in SELECT list");
+                    }
+                    int group = -1;
+                    for (int k = 0; k < groupByFields.size() && group < 0; k++) {
+                        try {
+                            if (td.fieldNameToIndex(groupByFields.elementAt(k)) == id)
+                                group = k;
+                        } catch (NoSuchElementException e) {
+                            throw new ParsingException("Unknown field " +  groupByFields.elementAt(k) + " in GROUP BY statement");
+                        }
+                    }
+                    if (group < 0) {
+                        throw new ParsingException("Field " + si.fname + " does not appear in GROUP BY list");
                     }
+                    outFields.add(group);
                     outTypes.add(td.getFieldType(id));
             } else if (si.fname.equals("null.*")) {
                     TupleDesc td = node.getTupleDesc();
@@ -461,12 +528,37 @@ public class LogicalPlan {
 
         if (hasAgg) {
             TupleDesc td = node.getTupleDesc();
-            Aggregate aggNode;
+            Operator aggNode;
             try {
-                aggNode = new Aggregate(node,
-                                        td.fieldNameToIndex(aggField),
-                                        groupByField == null?Aggregator.NO_GROUPING:td.fieldNameToIndex(groupByField),
-                                getAggOp(aggOp));
+                int[] gfields = new int[groupByFields.size()];
+                for (int i = 0; i < gfields.length; i++)
+                    gfields[i] = td.fieldNameToIndex(groupByFields.elementAt(i));
+                int[] afields = new int[aggFields.size()];
+                Aggregator.Op[] aops = new Aggregator.Op[aggOps.size()];
+                for (int i = 0; i < afields.length; i++) {
+                    afields[i] = td.fieldNameToIndex(aggFields.elementAt(i));
+                    aops[i] = getAggOp(aggOps.elementAt(i));
+                }
+                // a single aggregate over a heap file scan, gathered or not, is
+                // computed by up to the query's degree of parallelism of threads,
+                // as many as the table is large enough to keep busy
+                OpIterator scan = node;
+                if (node instanceof Gather && ((Gather) node).getChildren()[0] instanceof SeqScan)
+                    scan = ((Gather) node).getChildren()[0];
+                int workers = 1;
+                if (afields.length == 1 && gfields.length <= 1 && scan instanceof SeqScan
+                        && (aops[0] == Aggregator.Op.COUNT || td.getFieldType(afields[0]) == Type.INT_TYPE)) {
+                    DbFile f = Database.getCatalog().getDatabaseFile(((SeqScan) scan).getTableId());
+                    if (scan != node)
+                        workers = ((Gather) node).getParallelism();
+                    else if (f instanceof HeapFile)
+                        workers = Math.min(parallelism, Aggregate.parallelism(((HeapFile) f).numPages()));
+                }
+                if (workers > 1)
+                    aggNode = new Aggregate(scan, afields[0],
+                            gfields.length == 0 ? Aggregator.NO_GROUPING : gfields[0], aops[0], workers);
+                else
+                    aggNode = new HashAggregate(node, gfields, afields, aops);
             } catch (NoSuchElementException e) {
                 throw new simpledb.ParsingException(e);
             } catch (IllegalArgumentException e) {
@@ -476,9 +568,29 @@ public class LogicalPlan {
         }
 
         if (hasOrderBy) {
-            node = new OrderBy(node.getTupleDesc().fieldNameToIndex(oByField), oByAsc, node);
+            int[] fields = new int[oByFields.size()];
+            boolean[] ascs = new boolean[oByFields.size()];
+            for (int i = 0; i < fields.length; i++) {
+                fields[i] = node.getTupleDesc().fieldNameToIndex(oByFields.elementAt(i));
+                ascs[i] = oByAscs.elementAt(i);
+            }
+            // a heap of the first limit + offset tuples, unless it would not
+            // fit in the memory the external sort is allowed
+            if (limit >= 0 && (long) limit + offset <= ExternalSort.DEFAULT_MEMORY_TUPLES)
+                node = new TopN(fields, ascs, limit + offset, node);
+            else
+                node = new OrderBy(fields, ascs, node);
+        }
+
+        if (limit >= 0) {
+            node = new Limit(limit, offset, node);
         }
 
+        if (node instanceof Gather) {
+            // only the projection is left, and it can run in the workers too
+            Gather g = (Gather) node;
+            return new Gather(new Project(outFields, outTypes, g.getChildren()[0]), g.getParallelism());
+        }
         return new Project(outFields, outTypes, node);
     }
 
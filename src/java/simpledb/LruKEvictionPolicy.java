@@ -0,0 +1,166 @@
+package simpledb;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * LRU-K page replacement (O'Neil, O'Neil and Weikum, 1993).
+ * <p>
+ * Pages that have been referenced fewer than K times have an infinite
+ * backward K-distance and are always evicted before pages that have been
+ * referenced at least K times, so a page touched only once by a large scan
+ * never pushes out a page that is used over and over. Reference counts of
+ * evicted pages are retained for a while (up to one pool's worth of page
+ * ids), so a page that comes back soon after eviction is still recognized.
+ * <p>
+ * Exact LRU-K needs a priority queue keyed on the K-th most recent
+ * reference. To keep every operation O(1), pages with K or more references
+ * are kept in plain LRU order instead, which is how LRU-2 is usually
+ * approximated in practice (cf. 2Q).
+ */
+public class LruKEvictionPolicy implements EvictionPolicy {
+
+    /** Default number of references that make a page "hot". */
+    public static final int DEFAULT_K = 2;
+
+    private static class Node {
+        final PageId pid;
+        int refs;
+        Node prev, next;
+
+        Node(PageId pid, int refs) {
+            this.pid = pid;
+            this.refs = refs;
+        }
+    }
+
+    /** Doubly-linked list with O(1) append and unlink. */
+    private static class NodeList {
+        private Node head, tail;
+
+        void append(Node n) {
+            n.prev = tail;
+            n.next = null;
+            if (tail == null) {
+                head = n;
+            } else {
+                tail.next = n;
+            }
+            tail = n;
+        }
+
+        void unlink(Node n) {
+            if (n.prev == null) {
+                head = n.next;
+            } else {
+                n.prev.next = n.next;
+            }
+            if (n.next == null) {
+                tail = n.prev;
+            } else {
+                n.next.prev = n.prev;
+            }
+            n.prev = n.next = null;
+        }
+    }
+
+    private final int k;
+    private final int historyCapacity;
+
+    private final Map<PageId, Node> resident = new HashMap<>();
+    /** pages with fewer than k references, least recently used first */
+    private final NodeList cold = new NodeList();
+    /** pages with at least k references, least recently used first */
+    private final NodeList hot = new NodeList();
+    /** reference counts of recently evicted pages, oldest first */
+    private final LinkedHashMap<PageId, Integer> history = new LinkedHashMap<>();
+
+    /**
+     * Creates an LRU-K policy for a pool of the given size.
+     *
+     * @param numPages the capacity of the buffer pool; also bounds how many
+     *                 evicted pages have their reference counts retained
+     * @param k        number of references after which a page is protected
+     *                 from single-use pages
+     */
+    public LruKEvictionPolicy(int numPages, int k) {
+        if (k < 1) {
+            throw new IllegalArgumentException("k must be positive");
+        }
+        this.k = k;
+        this.historyCapacity = numPages;
+    }
+
+    public LruKEvictionPolicy(int numPages) {
+        this(numPages, DEFAULT_K);
+    }
+
+    public void pageLoaded(PageId pid) {
+        if (this.resident.containsKey(pid)) {
+            this.pageAccessed(pid);
+            return;
+        }
+        Integer retained = this.history.remove(pid);
+        Node n = new Node(pid, retained == null ? 1 : Math.min(retained + 1, this.k));
+        this.resident.put(pid, n);
+        (n.refs >= this.k ? this.hot : this.cold).append(n);
+    }
+
+    public void pageAccessed(PageId pid) {
+        Node n = this.resident.get(pid);
+        if (n == null) {
+            this.pageLoaded(pid);
+            return;
+        }
+        (n.refs >= this.k ? this.hot : this.cold).unlink(n);
+        if (n.refs < this.k) {
+            n.refs++;
+        }
+        (n.refs >= this.k ? this.hot : this.cold).append(n);
+    }
+
+    public void pageRemoved(PageId pid) {
+        Node n = this.resident.remove(pid);
+        if (n != null) {
+            (n.refs >= this.k ? this.hot : this.cold).unlink(n);
+        }
+        this.history.remove(pid);
+    }
+
+    public PageId chooseVictim(Evictable evictable) {
+        Node victim = this.firstEvictable(this.cold, evictable);
+        if (victim == null) {
+            victim = this.firstEvictable(this.hot, evictable);
+        }
+        if (victim == null) {
+            return null;
+        }
+        (victim.refs >= this.k ? this.hot : this.cold).unlink(victim);
+        this.resident.remove(victim.pid);
+        this.remember(victim);
+        return victim.pid;
+    }
+
+    private Node firstEvictable(NodeList list, Evictable evictable) {
+        for (Node n = list.head; n != null; n = n.next) {
+            if (evictable.canEvict(n.pid)) {
+                return n;
+            }
+        }
+        return null;
+    }
+
+    private void remember(Node n) {
+        if (this.historyCapacity <= 0) {
+            return;
+        }
+        this.history.put(n.pid, n.refs);
+        if (this.history.size() > this.historyCapacity) {
+            Iterator<PageId> it = this.history.keySet().iterator();
+            it.next();
+            it.remove();
+        }
+    }
+}
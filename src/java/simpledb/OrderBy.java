@@ -4,17 +4,20 @@ import java.util.*;
 
 /**
  * OrderBy is an operator that implements a relational ORDER BY.
+ * <p>
+ * It sorts with an {@link ExternalSort}, so it needs memory for only a
+ * bounded number of tuples however many the child returns.
  */
 public class OrderBy extends Operator {
 
     private static final long serialVersionUID = 1L;
     private OpIterator child;
     private TupleDesc td;
-    private ArrayList<Tuple> childTups = new ArrayList<Tuple>();
-    private int orderByField;
+    private final int[] orderByFields;
+    private final boolean[] ascs;
     private String orderByFieldName;
-    private Iterator<Tuple> it;
-    private boolean asc;
+    private final int memoryTuples;
+    private transient ExternalSort sort;
 
     /**
      * Creates a new OrderBy node over the tuples from the iterator.
@@ -27,27 +30,71 @@ public class OrderBy extends Operator {
      *            the tuples to sort.
      */
     public OrderBy(int orderbyField, boolean asc, OpIterator child) {
+        this(new int[] { orderbyField }, new boolean[] { asc }, child);
+    }
+
+    /**
+     * Creates a new OrderBy node over the tuples from the iterator, sorting
+     * on several fields.
+     * 
+     * @param orderbyFields
+     *            the fields to which the sort is applied, most significant
+     *            first.
+     * @param ascs
+     *            for each field, true if its sort order is ascending.
+     * @param child
+     *            the tuples to sort.
+     */
+    public OrderBy(int[] orderbyFields, boolean[] ascs, OpIterator child) {
+        this(orderbyFields, ascs, child, ExternalSort.DEFAULT_MEMORY_TUPLES);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param memoryTuples
+     *            the number of tuples the sort may keep in memory
+     */
+    public OrderBy(int[] orderbyFields, boolean[] ascs, OpIterator child, int memoryTuples) {
+        if (orderbyFields.length == 0 || orderbyFields.length != ascs.length) {
+            throw new IllegalArgumentException("need one sort order per sort field");
+        }
         this.child = child;
         td = child.getTupleDesc();
-        this.orderByField = orderbyField;
-        this.orderByFieldName = td.getFieldName(orderbyField);
-        this.asc = asc;
+        this.orderByFields = orderbyFields;
+        this.ascs = ascs;
+        this.orderByFieldName = td.getFieldName(orderbyFields[0]);
+        this.memoryTuples = memoryTuples;
     }
     
     public boolean isASC()
     {
-	return this.asc;
+	return this.ascs[0];
     }
     
     public int getOrderByField()
     {
-        return this.orderByField;
+        return this.orderByFields[0];
     }
     
     public String getOrderFieldName()
     {
 	return this.orderByFieldName;
     }
+
+    /**
+     * @return the fields to which the sort is applied, most significant first
+     */
+    public int[] getOrderByFields() {
+        return this.orderByFields.clone();
+    }
+
+    /**
+     * @return for each sort field, true if its sort order is ascending
+     */
+    public boolean[] getAscs() {
+        return this.ascs.clone();
+    }
     
     public TupleDesc getTupleDesc() {
         return td;
@@ -56,21 +103,29 @@ public class OrderBy extends Operator {
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
         child.open();
-        // load all the tuples in a collection, and sort it
+        if (sort != null) {
+            // opened again without a close; drop the runs of the last sort
+            sort.close();
+        }
+        // sort all the tuples of the child, spilling to disk if needed
+        sort = new ExternalSort(td, new TupleComparator(orderByFields, ascs), memoryTuples);
         while (child.hasNext())
-            childTups.add((Tuple) child.next());
-        Collections.sort(childTups, new TupleComparator(orderByField, asc));
-        it = childTups.iterator();
+            sort.add(child.next());
+        sort.sort();
         super.open();
     }
 
     public void close() {
         super.close();
-        it = null;
+        child.close();
+        if (sort != null) {
+            sort.close();
+            sort = null;
+        }
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
-        it = childTups.iterator();
+        sort.rewind();
     }
 
     /**
@@ -82,8 +137,8 @@ public class OrderBy extends Operator {
      */
     protected Tuple fetchNext() throws NoSuchElementException,
             TransactionAbortedException, DbException {
-        if (it != null && it.hasNext()) {
-            return it.next();
+        if (sort != null) {
+            return sort.next();
         } else
             return null;
     }
@@ -100,24 +155,37 @@ public class OrderBy extends Operator {
 
 }
 
+/**
+ * Orders tuples on one or more fields, each ascending or descending, in the
+ * order of Field.compare.
+ */
 class TupleComparator implements Comparator<Tuple> {
-    int field;
-    boolean asc;
+    int[] fields;
+    boolean[] ascs;
 
     public TupleComparator(int field, boolean asc) {
-        this.field = field;
-        this.asc = asc;
+        this(new int[] { field }, new boolean[] { asc });
+    }
+
+    public TupleComparator(int[] fields, boolean[] ascs) {
+        this.fields = fields;
+        this.ascs = ascs;
     }
 
     public int compare(Tuple o1, Tuple o2) {
-        Field t1 = (o1).getField(field);
-        Field t2 = (o2).getField(field);
-        if (t1.compare(Predicate.Op.EQUALS, t2))
-            return 0;
-        if (t1.compare(Predicate.Op.GREATER_THAN, t2))
-            return asc ? 1 : -1;
-        else
-            return asc ? -1 : 1;
+        for (int i = 0; i < fields.length; i++) {
+            int f = fields[i];
+            int c;
+            if (o1.getTupleDesc().getFieldType(f) == Type.INT_TYPE) {
+                c = Integer.compare(o1.getInt(f), o2.getInt(f));
+            } else {
+                c = o1.getString(f).compareTo(o2.getString(f));
+            }
+            if (c != 0) {
+                return ascs[i] ? c : -c;
+            }
+        }
+        return 0;
     }
     
 }
@@ -4,6 +4,7 @@ import Zql.*;
 import java.io.*;
 import java.lang.reflect.InvocationTargetException;
 import java.util.*;
+import java.util.regex.*;
 
 import jline.ArgumentCompletor;
 import jline.ConsoleReader;
@@ -132,12 +133,119 @@ public class Parser {
 
     }
 
+    /**
+     * Zql does not know about LIMIT, so a trailing
+     * <tt>LIMIT n [OFFSET m]</tt> or <tt>LIMIT m, n</tt> clause is removed
+     * from statements before they are handed to it, and applied to the next
+     * query planned by {@link #parseQueryLogicalPlan}.
+     */
+    private static final Pattern LIMIT_CLAUSE = Pattern.compile(
+            "^(.*)\\s+LIMIT\\s+(\\d+)(?:\\s*,\\s*(\\d+)|\\s+OFFSET\\s+(\\d+))?\\s*(;?)\\s*$",
+            Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+
+    private int limit = -1;
+    private int offset = 0;
+
+    /**
+     * <tt>SET PARALLELISM n</tt> sets the degree of parallelism of the
+     * queries that follow it, which Zql does not know about either.
+     */
+    private static final Pattern SET_PARALLELISM = Pattern.compile(
+            "^\\s*SET\\s+PARALLELISM\\s*(?:=|TO)?\\s*(\\d+)\\s*;?\\s*$",
+            Pattern.CASE_INSENSITIVE);
+
+    private int parallelism = 1;
+
+    /**
+     * Set the degree of parallelism of the queries planned from now on.
+     *
+     * @see LogicalPlan#setParallelism
+     */
+    public void setParallelism(int parallelism) {
+        if (parallelism < 1)
+            throw new IllegalArgumentException("degree of parallelism must be positive");
+        this.parallelism = parallelism;
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * Remove the LIMIT clause of a statement, if it has one, remembering its
+     * limit and offset for the next query.
+     *
+     * @return the statement without its LIMIT clause
+     */
+    String stripLimit(String s) throws simpledb.ParsingException {
+        limit = -1;
+        offset = 0;
+        Matcher m = LIMIT_CLAUSE.matcher(s);
+        if (!m.matches())
+            return s;
+        try {
+            if (m.group(3) != null) {
+                // MySQL style LIMIT offset, count
+                offset = Integer.parseInt(m.group(2));
+                limit = Integer.parseInt(m.group(3));
+            } else {
+                limit = Integer.parseInt(m.group(2));
+                if (m.group(4) != null)
+                    offset = Integer.parseInt(m.group(4));
+            }
+        } catch (NumberFormatException e) {
+            throw new simpledb.ParsingException("LIMIT out of range: " + e.getMessage());
+        }
+        return m.group(1) + m.group(5);
+    }
+
+    private static String readScript(InputStream is) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        byte[] buf = new byte[4096];
+        int n;
+        while ((n = is.read(buf)) != -1)
+            bos.write(buf, 0, n);
+        return bos.toString("UTF-8");
+    }
+
+    /**
+     * Split a script into its statements at the semicolons outside quoted
+     * strings, so that each statement's LIMIT clause is found at its end.
+     * Statements keep their semicolon; empty ones are dropped.
+     */
+    static List<String> splitStatements(String script) {
+        List<String> statements = new ArrayList<String>();
+        char quote = 0;
+        int start = 0;
+        for (int i = 0; i < script.length(); i++) {
+            char c = script.charAt(i);
+            if (quote != 0) {
+                if (c == quote)
+                    quote = 0;
+            } else if (c == '\'' || c == '"') {
+                quote = c;
+            } else if (c == ';') {
+                if (!script.substring(start, i).trim().isEmpty())
+                    statements.add(script.substring(start, i + 1));
+                start = i + 1;
+            }
+        }
+        if (!script.substring(start).trim().isEmpty())
+            statements.add(script.substring(start));
+        return statements;
+    }
+
     public LogicalPlan parseQueryLogicalPlan(TransactionId tid, ZQuery q)
             throws IOException, Zql.ParseException, simpledb.ParsingException {
+        // the LIMIT belongs to this query, not to its subqueries
+        int qLimit = limit, qOffset = offset;
+        limit = -1;
+        offset = 0;
         @SuppressWarnings("unchecked")
         Vector<ZFromItem> from = q.getFrom();
         LogicalPlan lp = new LogicalPlan();
         lp.setQuery(q.toString());
+        lp.setParallelism(parallelism);
         // walk through tables in the FROM clause
         for (int i = 0; i < from.size(); i++) {
             ZFromItem fromIt = from.elementAt(i);
@@ -182,23 +290,19 @@ public class Parser {
 
         // now look for group by fields
         ZGroupBy gby = q.getGroupBy();
-        String groupByField = null;
+        Vector<String> groupByFields = new Vector<String>();
         if (gby != null) {
             @SuppressWarnings("unchecked")
             Vector<ZExp> gbs = gby.getGroupBy();
-            if (gbs.size() > 1) {
-                throw new simpledb.ParsingException(
-                        "At most one grouping field expression supported.");
-            }
-            if (gbs.size() == 1) {
-                ZExp gbe = gbs.elementAt(0);
+            for (ZExp gbe : gbs) {
                 if (!(gbe instanceof ZConstant)) {
                     throw new simpledb.ParsingException(
                             "Complex grouping expressions (" + gbe
                                     + ") not supported.");
                 }
-                groupByField = ((ZConstant) gbe).getValue();
+                String groupByField = ((ZConstant) gbe).getValue();
                 System.out.println("GROUP BY FIELD : " + groupByField);
+                groupByFields.addElement(groupByField);
             }
 
         }
@@ -207,8 +311,7 @@ public class Parser {
         // validity
         @SuppressWarnings("unchecked")
         Vector<ZSelectItem> selectList = q.getSelect();
-        String aggField = null;
-        String aggFun = null;
+        boolean hasAgg = false;
 
         for (int i = 0; i < selectList.size(); i++) {
             ZSelectItem si = selectList.elementAt(i);
@@ -218,20 +321,18 @@ public class Parser {
                         "Expressions in SELECT list are not supported.");
             }
             if (si.getAggregate() != null) {
-                if (aggField != null) {
-                    throw new simpledb.ParsingException(
-                            "Aggregates over multiple fields not supported.");
-                }
-                aggField = ((ZConstant) ((ZExpression) si.getExpression())
+                String aggField = ((ZConstant) ((ZExpression) si.getExpression())
                         .getOperand(0)).getValue();
-                aggFun = si.getAggregate();
+                String aggFun = si.getAggregate();
                 System.out.println("Aggregate field is " + aggField
                         + ", agg fun is : " + aggFun);
                 lp.addProjectField(aggField, aggFun);
+                lp.addAggregate(aggFun, aggField, null);
+                hasAgg = true;
             } else {
-                if (groupByField != null
-                        && !(groupByField.equals(si.getTable() + "."
-                                + si.getColumn()) || groupByField.equals(si
+                if (!groupByFields.isEmpty()
+                        && !(groupByFields.contains(si.getTable() + "."
+                                + si.getColumn()) || groupByFields.contains(si
                                 .getColumn()))) {
                     throw new simpledb.ParsingException("Non-aggregate field "
                             + si.getColumn()
@@ -241,32 +342,31 @@ public class Parser {
             }
         }
 
-        if (groupByField != null && aggFun == null) {
+        if (!groupByFields.isEmpty() && !hasAgg) {
             throw new simpledb.ParsingException("GROUP BY without aggregation.");
         }
 
-        if (aggFun != null) {
-            lp.addAggregate(aggFun, aggField, groupByField);
+        for (String groupByField : groupByFields) {
+            lp.addGroupBy(groupByField);
         }
         // sort the data
 
         if (q.getOrderBy() != null) {
             @SuppressWarnings("unchecked")
             Vector<ZOrderBy> obys = q.getOrderBy();
-            if (obys.size() > 1) {
-                throw new simpledb.ParsingException(
-                        "Multi-attribute ORDER BY is not supported.");
-            }
-            ZOrderBy oby = obys.elementAt(0);
-            if (!(oby.getExpression() instanceof ZConstant)) {
-                throw new simpledb.ParsingException(
-                        "Complex ORDER BY's are not supported");
-            }
-            ZConstant f = (ZConstant) oby.getExpression();
+            for (ZOrderBy oby : obys) {
+                if (!(oby.getExpression() instanceof ZConstant)) {
+                    throw new simpledb.ParsingException(
+                            "Complex ORDER BY's are not supported");
+                }
+                ZConstant f = (ZConstant) oby.getExpression();
 
-            lp.addOrderBy(f.getValue(), oby.getAscOrder());
+                lp.addOrderBy(f.getValue(), oby.getAscOrder());
+            }
 
         }
+        if (qLimit >= 0)
+            lp.addLimit(qLimit, qOffset);
         return lp;
     }
 
@@ -465,7 +565,7 @@ public class Parser {
 
     public LogicalPlan generateLogicalPlan(TransactionId tid, String s)
             throws simpledb.ParsingException {
-        ByteArrayInputStream bis = new ByteArrayInputStream(s.getBytes());
+        ByteArrayInputStream bis = new ByteArrayInputStream(stripLimit(s).getBytes());
         ZqlParser p = new ZqlParser(bis);
         try {
             ZStatement stmt = p.readStatement();
@@ -501,10 +601,40 @@ public class Parser {
         }
     }
 
+    /**
+     * Process the statements read from the stream, one after the other.
+     */
     public void processNextStatement(InputStream is) {
+        String script;
         try {
-            ZqlParser p = new ZqlParser(is);
+            script = readScript(is);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return;
+        }
+        for (String statement : splitStatements(script))
+            processStatement(statement);
+    }
+
+    private void processStatement(String statement) {
+        try {
+            Matcher set = SET_PARALLELISM.matcher(statement);
+            if (set.matches()) {
+                try {
+                    setParallelism(Integer.parseInt(set.group(1)));
+                    System.out.println("Degree of parallelism set to " + parallelism);
+                } catch (IllegalArgumentException e) {
+                    System.out.println("Invalid degree of parallelism: " + set.group(1));
+                }
+                return;
+            }
+            ZqlParser p = new ZqlParser(new ByteArrayInputStream(
+                    stripLimit(statement).getBytes("UTF-8")));
             ZStatement s = p.readStatement();
+            if (limit >= 0 && !(s instanceof ZQuery
+                    || (s instanceof ZInsert && ((ZInsert) s).getQuery() != null)))
+                throw new simpledb.ParsingException(
+                        "LIMIT is only supported on queries and INSERT ... SELECT");
 
             Query query = null;
             if (s instanceof ZTransactStmt)
@@ -97,6 +97,9 @@ public class Predicate implements Serializable {
      */
     public boolean filter(Tuple t) {
         // some code goes here
+        if (this.operand instanceof IntField) {
+            return IntField.compare(this.op, t.getInt(this.fieldId), ((IntField) this.operand).getValue());
+        }
         Field field = t.getField(this.fieldId);
         return field.compare(this.op, this.operand);
         // return false;
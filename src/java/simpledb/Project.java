@@ -41,6 +41,13 @@ public class Project extends Operator {
         td = new TupleDesc(types, fieldAr);
     }
 
+    /**
+     * @return the ids of the fields of the child's tupleDesc projected out
+     */
+    public ArrayList<Integer> getFieldList() {
+        return outFieldIds;
+    }
+
     public TupleDesc getTupleDesc() {
         return td;
     }
@@ -73,7 +80,7 @@ public class Project extends Operator {
             Tuple newTuple = new Tuple(td);
             newTuple.setRecordId(t.getRecordId());
             for (int i = 0; i < td.numFields(); i++) {
-                newTuple.setField(i, t.getField(outFieldIds.get(i)));
+                newTuple.copyField(i, t, outFieldIds.get(i));
             }
             return newTuple;
         }
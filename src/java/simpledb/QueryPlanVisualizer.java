@@ -9,11 +9,16 @@ public class QueryPlanVisualizer {
 
     static final String JOIN = "⨝";
     static final String HASH_JOIN = "⨝(hash)";
+    static final String BLOCK_JOIN = "⨝(block)";
+    static final String MERGE_JOIN = "⨝(merge)";
+    static final String INDEX_JOIN = "⨝(index)";
     static final String SELECT = "σ";
     static final String PROJECT = "π";
     static final String RENAME = "ρ";
     static final String SCAN = "scan";
     static final String ORDERBY = "o";
+    static final String TOPN = "o(top)";
+    static final String LIMIT = "limit";
     static final String GROUPBY = "g";
     static final String SPACE = "  ";
 
@@ -26,7 +31,8 @@ public class QueryPlanVisualizer {
         Operator o = (Operator) root;
         OpIterator[] children = o.getChildren();
 
-        if (o instanceof Join || o instanceof HashEquiJoin) {
+        if (o instanceof Join || o instanceof HashEquiJoin
+                || o instanceof SortMergeJoin || o instanceof IndexNestedLoopJoin) {
             int d1 = this.calculateQueryPlanTreeDepth(children[0]);
             int d2 = this.calculateQueryPlanTreeDepth(children[1]);
             return Math.max(d1, d2) + 3;
@@ -56,6 +62,74 @@ public class QueryPlanVisualizer {
 
     }
 
+    /**
+     * Lay out the node of a join of any algorithm over its two children.
+     *
+     * @param thisNode the node to fill in
+     * @param symbol the symbol of the join algorithm
+     * @param jp the join predicate
+     * @param j the join, whose children are its two inputs
+     */
+    private void buildJoinNode(SubTreeDescriptor thisNode, String symbol,
+                               JoinPredicate jp, Operator j, int queryPlanDepth,
+                               int currentDepth, int adjustDepth,
+                               int currentStartPosition, int parentUpperBarStartShift) {
+        OpIterator[] children = j.getChildren();
+        TupleDesc td = j.getTupleDesc();
+        String field1 = td.getFieldName(jp.getField1());
+        String field2 = td.getFieldName(jp.getField2()
+                + children[0].getTupleDesc().numFields());
+        thisNode.text = String.format("%1$s(%2$s),card:%3$d", symbol,
+                field1 + jp.getOperator() + field2, j.getEstimatedCardinality());
+        int upBarShift = parentUpperBarStartShift;
+        if (symbol.length() / 2 > parentUpperBarStartShift)
+            upBarShift = symbol.length() / 2;
+
+        SubTreeDescriptor left = this.buildTree(queryPlanDepth,
+                currentDepth + 3 + adjustDepth, children[0],
+                currentStartPosition, upBarShift);
+        SubTreeDescriptor right = this.buildTree(queryPlanDepth,
+                currentDepth + 3 + adjustDepth, children[1],
+                currentStartPosition + left.width + SPACE.length(), 0);
+        thisNode.upBarPosition = (left.upBarPosition + right.upBarPosition) / 2;
+        thisNode.textStartPosition = thisNode.upBarPosition
+                - symbol.length() / 2;
+        thisNode.width = Math.max(
+                left.width + right.width + SPACE.length(),
+                thisNode.textStartPosition + thisNode.text.length()
+                        - currentStartPosition);
+        thisNode.leftChild = left;
+        thisNode.rightChild = right;
+        thisNode.height = currentDepth;
+    }
+
+    /**
+     * Lay out the node of an operator with one child, whose text has been set.
+     *
+     * @param thisNode the node to fill in
+     * @param symbol the symbol of the operator, which the child is aligned to
+     * @param child the operator's child
+     */
+    private void buildUnaryNode(SubTreeDescriptor thisNode, String symbol,
+                                OpIterator child, int queryPlanDepth,
+                                int currentDepth, int adjustDepth,
+                                int currentStartPosition, int parentUpperBarStartShift) {
+        int upBarShift = parentUpperBarStartShift;
+        if (symbol.length() / 2 > parentUpperBarStartShift)
+            upBarShift = symbol.length() / 2;
+        SubTreeDescriptor childNode = this.buildTree(queryPlanDepth,
+                currentDepth + 2 + adjustDepth, child,
+                currentStartPosition, upBarShift);
+        thisNode.upBarPosition = childNode.upBarPosition;
+        thisNode.textStartPosition = thisNode.upBarPosition
+                - symbol.length() / 2;
+        thisNode.width = Math.max(childNode.width,
+                thisNode.textStartPosition + thisNode.text.length()
+                        - currentStartPosition);
+        thisNode.leftChild = childNode;
+        thisNode.height = currentDepth;
+    }
+
     private SubTreeDescriptor buildTree(int queryPlanDepth, int currentDepth,
                                         OpIterator queryPlan, int currentStartPosition,
                                         int parentUpperBarStartShift) {
@@ -109,63 +183,26 @@ public class QueryPlanVisualizer {
 
             if (plan instanceof Join) {
                 Join j = (Join) plan;
-                TupleDesc td = j.getTupleDesc();
-                JoinPredicate jp = j.getJoinPredicate();
-                String field1 = td.getFieldName(jp.getField1());
-                String field2 = td.getFieldName(jp.getField2()
-                        + children[0].getTupleDesc().numFields());
-                thisNode.text = String.format("%1$s(%2$s),card:%3$d", JOIN,
-                        field1 + jp.getOperator() + field2,j.getEstimatedCardinality());
-                int upBarShift = parentUpperBarStartShift;
-                if (JOIN.length() / 2 > parentUpperBarStartShift)
-                    upBarShift = JOIN.length() / 2;
-
-                SubTreeDescriptor left = this.buildTree(queryPlanDepth,
-                        currentDepth + adjustDepth + 3, children[0],
-                        currentStartPosition, upBarShift);
-                SubTreeDescriptor right = this.buildTree(queryPlanDepth,
-                        currentDepth + adjustDepth + 3, children[1],
-                        currentStartPosition + left.width + SPACE.length(), 0);
-                thisNode.upBarPosition = (left.upBarPosition + right.upBarPosition) / 2;
-                thisNode.textStartPosition = thisNode.upBarPosition
-                        - JOIN.length() / 2;
-                thisNode.width = Math.max(
-                        left.width + right.width + SPACE.length(),
-                        thisNode.textStartPosition + thisNode.text.length()
-                                - currentStartPosition);
-                thisNode.leftChild = left;
-                thisNode.rightChild = right;
-                thisNode.height = currentDepth;
+                String symbol = j.getBlockSize() > 1 ? BLOCK_JOIN : JOIN;
+                this.buildJoinNode(thisNode, symbol, j.getJoinPredicate(), plan,
+                        queryPlanDepth, currentDepth, adjustDepth,
+                        currentStartPosition, parentUpperBarStartShift);
             } else if (plan instanceof HashEquiJoin) {
-                HashEquiJoin j = (HashEquiJoin) plan;
-                JoinPredicate jp = j.getJoinPredicate();
-                TupleDesc td = j.getTupleDesc();
-                String field1 = td.getFieldName(jp.getField1());
-                String field2 = td.getFieldName(jp.getField2()
-                        + children[0].getTupleDesc().numFields());
-                thisNode.text = String.format("%1$s(%2$s),card:%3$d", HASH_JOIN, field1
-                        + jp.getOperator() + field2,j.getEstimatedCardinality());
-                int upBarShift = parentUpperBarStartShift;
-                if (HASH_JOIN.length() / 2 > parentUpperBarStartShift)
-                    upBarShift = HASH_JOIN.length() / 2;
-                SubTreeDescriptor left = this.buildTree(queryPlanDepth,
-                        currentDepth + 3 + adjustDepth, children[0],
-                        currentStartPosition, upBarShift);
-                SubTreeDescriptor right = this.buildTree(queryPlanDepth,
-                        currentDepth + 3 + adjustDepth, children[1],
-                        currentStartPosition + left.width + SPACE.length(), 0);
-                thisNode.upBarPosition = (left.upBarPosition + right.upBarPosition) / 2;
-                thisNode.textStartPosition = thisNode.upBarPosition
-                        - HASH_JOIN.length() / 2;
-                thisNode.width = Math.max(
-                        left.width + right.width + SPACE.length(),
-                        thisNode.textStartPosition + thisNode.text.length()
-                                - currentStartPosition);
-                thisNode.leftChild = left;
-                thisNode.rightChild = right;
-                thisNode.height = currentDepth;
-            }
-            else if (plan instanceof Aggregate) {
+                this.buildJoinNode(thisNode, HASH_JOIN,
+                        ((HashEquiJoin) plan).getJoinPredicate(), plan,
+                        queryPlanDepth, currentDepth, adjustDepth,
+                        currentStartPosition, parentUpperBarStartShift);
+            } else if (plan instanceof SortMergeJoin) {
+                this.buildJoinNode(thisNode, MERGE_JOIN,
+                        ((SortMergeJoin) plan).getJoinPredicate(), plan,
+                        queryPlanDepth, currentDepth, adjustDepth,
+                        currentStartPosition, parentUpperBarStartShift);
+            } else if (plan instanceof IndexNestedLoopJoin) {
+                this.buildJoinNode(thisNode, INDEX_JOIN,
+                        ((IndexNestedLoopJoin) plan).getJoinPredicate(), plan,
+                        queryPlanDepth, currentDepth, adjustDepth,
+                        currentStartPosition, parentUpperBarStartShift);
+            } else if (plan instanceof Aggregate) {
                 Aggregate a = (Aggregate) plan;
                 int upBarShift = parentUpperBarStartShift;
                 String alignTxt;
@@ -196,27 +233,54 @@ public class QueryPlanVisualizer {
                                 - currentStartPosition);
                 thisNode.leftChild = child;
                 thisNode.height = currentDepth;
-            } else if (plan instanceof Filter) {
-                Filter f = (Filter) plan;
-                Predicate p = f.getPredicate();
-                thisNode.text = String.format("%1$s(%2$s),card:%3$d", SELECT, children[0]
-                        .getTupleDesc().getFieldName(p.getField())
-                        + p.getOp()
-                        + p.getOperand(),f.getEstimatedCardinality());
+            } else if (plan instanceof HashAggregate) {
+                HashAggregate a = (HashAggregate) plan;
                 int upBarShift = parentUpperBarStartShift;
-                if (SELECT.length() / 2 > parentUpperBarStartShift)
-                    upBarShift = SELECT.length() / 2;
+                String alignTxt;
+                TupleDesc td = a.getTupleDesc();
+                int groups = a.groupFields().length;
+                String aggs = "";
+                for (int i = groups; i < td.numFields(); i++)
+                    aggs += td.getFieldName(i) + ",";
+                aggs = aggs.substring(0, aggs.length() - 1);
+
+                if (groups == 0) {
+                    thisNode.text = String.format("%1$s,card:%2$d",
+                            aggs, a.getEstimatedCardinality());
+                    alignTxt = td.getFieldName(0);
+                } else {
+                    String fields = "";
+                    for (int i = 0; i < groups; i++)
+                        fields += td.getFieldName(i) + ",";
+                    fields = fields.substring(0, fields.length() - 1);
+                    thisNode.text = String.format("%1$s(%2$s), %3$s,card:%4$d",
+                            GROUPBY, fields, aggs, a.getEstimatedCardinality());
+                    alignTxt = GROUPBY;
+                }
+                if (alignTxt.length() / 2 > parentUpperBarStartShift)
+                    upBarShift = alignTxt.length() / 2;
+
                 SubTreeDescriptor child = this.buildTree(queryPlanDepth,
                         currentDepth + 2 + adjustDepth, children[0],
                         currentStartPosition, upBarShift);
                 thisNode.upBarPosition = child.upBarPosition;
                 thisNode.textStartPosition = thisNode.upBarPosition
-                        - SELECT.length() / 2;
+                        - alignTxt.length() / 2;
                 thisNode.width = Math.max(child.width,
                         thisNode.textStartPosition + thisNode.text.length()
                                 - currentStartPosition);
                 thisNode.leftChild = child;
                 thisNode.height = currentDepth;
+            } else if (plan instanceof Filter) {
+                Filter f = (Filter) plan;
+                Predicate p = f.getPredicate();
+                thisNode.text = String.format("%1$s(%2$s),card:%3$d", SELECT, children[0]
+                        .getTupleDesc().getFieldName(p.getField())
+                        + p.getOp()
+                        + p.getOperand(),f.getEstimatedCardinality());
+                this.buildUnaryNode(thisNode, SELECT, children[0], queryPlanDepth,
+                        currentDepth, adjustDepth, currentStartPosition,
+                        parentUpperBarStartShift);
             } else if (plan instanceof OrderBy) {
                 OrderBy o = (OrderBy) plan;
                 thisNode.text = String.format(
@@ -224,20 +288,28 @@ public class QueryPlanVisualizer {
                         ORDERBY,
                         children[0].getTupleDesc().getFieldName(
                                 o.getOrderByField()),o.getEstimatedCardinality());
-                int upBarShift = parentUpperBarStartShift;
-                if (ORDERBY.length() / 2 > parentUpperBarStartShift)
-                    upBarShift = ORDERBY.length() / 2;
-                SubTreeDescriptor child = this.buildTree(queryPlanDepth,
-                        currentDepth + 2 + adjustDepth, children[0],
-                        currentStartPosition, upBarShift);
-                thisNode.upBarPosition = child.upBarPosition;
-                thisNode.textStartPosition = thisNode.upBarPosition
-                        - ORDERBY.length() / 2;
-                thisNode.width = Math.max(child.width,
-                        thisNode.textStartPosition + thisNode.text.length()
-                                - currentStartPosition);
-                thisNode.leftChild = child;
-                thisNode.height = currentDepth;
+                this.buildUnaryNode(thisNode, ORDERBY, children[0], queryPlanDepth,
+                        currentDepth, adjustDepth, currentStartPosition,
+                        parentUpperBarStartShift);
+            } else if (plan instanceof TopN) {
+                TopN o = (TopN) plan;
+                thisNode.text = String.format(
+                        "%1$s(%2$s,%3$d),card:%4$d",
+                        TOPN,
+                        children[0].getTupleDesc().getFieldName(
+                                o.getOrderByField()),o.getN(),o.getEstimatedCardinality());
+                this.buildUnaryNode(thisNode, TOPN, children[0], queryPlanDepth,
+                        currentDepth, adjustDepth, currentStartPosition,
+                        parentUpperBarStartShift);
+            } else if (plan instanceof Limit) {
+                Limit l = (Limit) plan;
+                thisNode.text = String.format(
+                        "%1$s(%2$d,%3$d),card:%4$d",
+                        LIMIT, l.getLimit(), l.getOffset(),
+                        l.getEstimatedCardinality());
+                this.buildUnaryNode(thisNode, LIMIT, children[0], queryPlanDepth,
+                        currentDepth, adjustDepth, currentStartPosition,
+                        parentUpperBarStartShift);
             } else if (plan instanceof Project) {
                 Project p = (Project) plan;
                 String fields = "";
@@ -246,22 +318,12 @@ public class QueryPlanVisualizer {
                     fields += it.next().fieldName + ",";
                 fields = fields.substring(0, fields.length() - 1);
                 thisNode.text = String.format("%1$s(%2$s),card:%3$d", PROJECT, fields,p.getEstimatedCardinality());
-                int upBarShift = parentUpperBarStartShift;
-                if (PROJECT.length() / 2 > parentUpperBarStartShift)
-                    upBarShift = PROJECT.length() / 2;
-                SubTreeDescriptor child = this.buildTree(queryPlanDepth,
-                        currentDepth + 2 + adjustDepth, children[0],
-                        currentStartPosition, upBarShift);
-                thisNode.upBarPosition = child.upBarPosition;
-                thisNode.textStartPosition = thisNode.upBarPosition
-                        - PROJECT.length() / 2;
-                thisNode.width = Math.max(child.width,
-                        thisNode.textStartPosition + thisNode.text.length()
-                                - currentStartPosition);
-                thisNode.leftChild = child;
-                thisNode.height = currentDepth;
+                this.buildUnaryNode(thisNode, PROJECT, children[0], queryPlanDepth,
+                        currentDepth, adjustDepth, currentStartPosition,
+                        parentUpperBarStartShift);
             }
-            else if (plan.getClass().getSuperclass().getSuperclass().getSimpleName().equals("Exchange")) {
+            else if (plan instanceof Gather
+                    || plan.getClass().getSuperclass().getSuperclass().getSimpleName().equals("Exchange")) {
                 String name="Exchange";
                 int card=0;
                 try {
@@ -0,0 +1,306 @@
+package simpledb;
+
+import java.util.Iterator;
+import java.util.concurrent.*;
+
+/**
+ * ReadAhead reads the pages a sequential scan is about to ask for into the
+ * BufferPool in the background, so that the scan finds them resident instead
+ * of waiting for each one in turn.
+ * <p>
+ * A scan reports every page it moves to through {@link #advance}. Once it has
+ * moved through {@link #TRIGGER} pages in a row in scan order, the next pages
+ * are read by a shared pool of reader threads, in batches that keep up to a
+ * window of pages ahead of the scan. The window starts at
+ * {@link #MIN_WINDOW} pages and doubles whenever the scan catches up with a
+ * batch still being read, up to {@link #MAX_WINDOW} pages or a quarter of the
+ * pool (half the scan's ring, if it reads through one); it is halved whenever
+ * a page read ahead has been evicted again before the scan got to it. Short
+ * scans and point lookups never read ahead.
+ * <p>
+ * Pages are read with {@link BufferPool#prefetchPage}, which takes no locks
+ * and reports the scan's first request for a page read ahead as the load,
+ * not as a reuse.
+ * <p>
+ * A ReadAhead is used by the thread running its scan only.
+ */
+abstract class ReadAhead {
+
+    /** Number of pages a scan moves through in scan order before reading ahead */
+    static final int TRIGGER = 2;
+
+    static final int MIN_WINDOW = 4;
+
+    static final int MAX_WINDOW = 64;
+
+    static final int READER_THREADS = 4;
+
+    private static ExecutorService readers;
+
+    private static volatile boolean enabled = true;
+
+    private final BufferPool pool;
+    private final BufferPool.ScanRing ring;
+    private final int maxWindow;
+    private int window;
+
+    private PageId last;
+    private int run;
+    /** number of pages requested from the readers that the scan has not reached */
+    private int ahead;
+    /** the last page read ahead, where the next batch starts */
+    private PageId frontier;
+    private Future<PageId> pending;
+    private volatile boolean closed;
+
+    /**
+     * @param ring the ring the scan reads its pages into, or null
+     */
+    ReadAhead(BufferPool.ScanRing ring) {
+        this.pool = Database.getBufferPool();
+        this.ring = ring;
+        // pages read ahead into a ring must not recycle each other before use
+        int limit = ring == null ? this.pool.capacity() / 4 : ring.size() / 2;
+        this.maxWindow = Math.max(1, Math.min(MAX_WINDOW, limit));
+        this.window = Math.min(MIN_WINDOW, this.maxWindow);
+    }
+
+    /**
+     * Create a ReadAhead for a scan of the pages of a HeapFile in order.
+     *
+     * @param f the file scanned
+     * @param endPage the page after the last one scanned, or -1 if the scan
+     *        goes to the end of the file
+     * @param ring the ring the scan reads its pages into, or null
+     */
+    static ReadAhead heapScan(final HeapFile f, final int endPage, BufferPool.ScanRing ring) {
+        return new ReadAhead(ring) {
+            protected boolean follows(PageId prev, PageId pid) {
+                return pid.getPageNumber() == prev.getPageNumber() + 1;
+            }
+
+            protected PageId next(PageId pid, Page page) {
+                int n = pid.getPageNumber() + 1;
+                int end = endPage < 0 ? f.numPages() : Math.min(endPage, f.numPages());
+                return n < end ? new HeapPageId(pid.getTableId(), n) : null;
+            }
+        };
+    }
+
+    /**
+     * Create a ReadAhead for a scan of the leaf pages of a BTreeFile, which
+     * follows the sibling pointers of the leaves.
+     *
+     * @param right true if the scan follows right siblings, false if it
+     *        follows left siblings
+     * @param ring the ring the scan reads its leaves into, or null
+     */
+    static ReadAhead leafScan(boolean right, BufferPool.ScanRing ring) {
+        return leafScan(right, null, 0, ring);
+    }
+
+    /**
+     * Create a ReadAhead for a search of a BTreeFile, which follows the
+     * sibling pointers of the leaves until it finds a key past the end of
+     * the range searched. Leaves past that one are not read.
+     *
+     * @param right true if the search follows right siblings, false if it
+     *        follows left siblings
+     * @param ipred the predicate searched for, or null to scan all leaves
+     * @param keyField the index of the key field
+     * @param ring the ring the search reads its leaves into, or null
+     */
+    static ReadAhead leafScan(final boolean right, final IndexPredicate ipred, final int keyField,
+            BufferPool.ScanRing ring) {
+        return new ReadAhead(ring) {
+            protected boolean follows(PageId prev, PageId pid) {
+                return true;
+            }
+
+            protected PageId next(PageId pid, Page page) {
+                // a dirty leaf is being changed by a writer; do not trust its pointers
+                if (!(page instanceof BTreeLeafPage) || page.isDirty() != null) {
+                    return null;
+                }
+                BTreeLeafPage leaf = (BTreeLeafPage) page;
+                if (ipred != null && this.endsIn(leaf)) {
+                    return null;
+                }
+                return right ? leaf.getRightSiblingId() : leaf.getLeftSiblingId();
+            }
+
+            /**
+             * @return true if the search stops at a tuple of the leaf, like
+             *         the BTreeFile search iterators do
+             */
+            private boolean endsIn(BTreeLeafPage leaf) {
+                Iterator<Tuple> it = right ? leaf.iterator() : leaf.reverseIterator();
+                Predicate.Op op = ipred.getOp();
+                while (it.hasNext()) {
+                    Field key = it.next().getField(keyField);
+                    if (key.compare(op, ipred.getField())) {
+                        continue;
+                    }
+                    if (op == Predicate.Op.LESS_THAN || op == Predicate.Op.LESS_THAN_OR_EQ
+                            || (op == Predicate.Op.EQUALS
+                                    && key.compare(Predicate.Op.GREATER_THAN, ipred.getField()))) {
+                        return true;
+                    }
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * @return true if the scan moving from page prev to page pid is a step
+     *         in scan order
+     */
+    protected abstract boolean follows(PageId prev, PageId pid);
+
+    /**
+     * @param pid a page of the scan
+     * @param page the resident version of the page
+     * @return the page the scan moves to after pid, or null if pid is the last
+     */
+    protected abstract PageId next(PageId pid, Page page);
+
+    // THIS FUNCTION SHOULD ONLY BE USED FOR TESTING!!
+    static void setEnabled(boolean enabled) {
+        ReadAhead.enabled = enabled;
+    }
+
+    private static synchronized ExecutorService readers() {
+        if (readers == null) {
+            readers = Executors.newFixedThreadPool(READER_THREADS, new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "read-ahead");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        }
+        return readers;
+    }
+
+    /**
+     * @return the number of pages currently kept ahead of the scan
+     */
+    int window() {
+        return this.window;
+    }
+
+    /**
+     * Report that the scan is about to request a page.
+     *
+     * @param pid the page the scan moves to
+     */
+    void advance(PageId pid) {
+        if (this.closed || !enabled) {
+            return;
+        }
+        this.run = this.last != null && this.follows(this.last, pid) ? this.run + 1 : 1;
+        this.last = pid;
+        if (this.run < TRIGGER) {
+            if (this.run == 1) {
+                // the scan jumped; whatever was read ahead is of no use
+                this.cancel();
+            }
+            return;
+        }
+
+        if (this.ahead > 0) {
+            this.ahead--;
+            if (!this.pool.isResident(pid)) {
+                if (this.pending != null && !this.pending.isDone()) {
+                    // the scan is waiting for pages that are still being read
+                    this.window = Math.min(this.window * 2, this.maxWindow);
+                } else {
+                    // the page was read and evicted again before its use
+                    this.window = Math.max(this.window / 2, 1);
+                }
+            }
+        }
+        if (this.ahead > this.window / 2) {
+            return;
+        }
+        if (this.pending != null) {
+            if (!this.pending.isDone()) {
+                return;
+            }
+            try {
+                this.frontier = this.pending.get();
+            } catch (Exception e) {
+                this.frontier = null;
+            }
+            this.pending = null;
+            if (this.frontier == null) {
+                // the end of the scan was reached, or the pool is full of dirty pages
+                this.closed = true;
+                return;
+            }
+        } else if (this.frontier == null) {
+            this.frontier = pid;
+        }
+        final int n = this.window - this.ahead;
+        final PageId from = this.frontier;
+        this.ahead += n;
+        this.pending = readers().submit(new Callable<PageId>() {
+            public PageId call() {
+                return read(from, n);
+            }
+        });
+    }
+
+    /**
+     * Read the n pages that follow a page of the scan.
+     *
+     * @return the last page read, or null if the scan ends before it or the
+     *         pages cannot be read
+     */
+    private PageId read(PageId from, int n) {
+        try {
+            Page page = this.pool.prefetchPage(from, this.ring);
+            PageId pid = from;
+            for (int i = 0; i < n; i++) {
+                if (page == null || this.closed) {
+                    return null;
+                }
+                pid = this.next(pid, page);
+                if (pid == null) {
+                    return null;
+                }
+                page = this.pool.prefetchPage(pid, this.ring);
+            }
+            return page == null ? null : pid;
+        } catch (RuntimeException e) {
+            // e.g. the table was dropped under the scan; the scan itself will
+            // run into the problem, if there is one
+            return null;
+        }
+    }
+
+    private void cancel() {
+        if (this.pending != null) {
+            this.pending.cancel(false);
+            this.pending = null;
+        }
+        this.frontier = null;
+        this.ahead = 0;
+    }
+
+    // THIS FUNCTION SHOULD ONLY BE USED FOR TESTING!!
+    void await() throws InterruptedException, ExecutionException {
+        if (this.pending != null) {
+            this.pending.get();
+        }
+    }
+
+    /**
+     * Stop reading ahead. Pages being read are still read, but no more.
+     */
+    void close() {
+        this.closed = true;
+        this.cancel();
+    }
+}
@@ -14,6 +14,8 @@ public class SeqScan implements OpIterator {
     private final TransactionId tid;
     private int tableId;
     private String tableAlias;
+    private final int firstPage;
+    private final int endPage;
     private DbFileIterator it = null;
 
     /**
@@ -34,7 +36,24 @@ public class SeqScan implements OpIterator {
      */
     public SeqScan(TransactionId tid, int tableid, String tableAlias) {
         // some code goes here
+        this(tid, tableid, tableAlias, 0, -1);
+    }
+
+    /**
+     * Creates a sequential scan over a range of pages of the specified
+     * table, which must be a {@link HeapFile}. Scans of disjoint ranges can be
+     * run by different threads of the same transaction.
+     *
+     * @param firstPage
+     *            the first page to scan
+     * @param endPage
+     *            the page after the last one to scan, or -1 to scan to the end
+     *            of the table
+     */
+    public SeqScan(TransactionId tid, int tableid, String tableAlias, int firstPage, int endPage) {
         this.tid = tid;
+        this.firstPage = firstPage;
+        this.endPage = endPage;
         this.reset(tableid, tableAlias);
     }
 
@@ -48,6 +67,20 @@ public class SeqScan implements OpIterator {
 //        return null;
     }
 
+    /**
+     * @return the id of the table this operator scans
+     */
+    public int getTableId() {
+        return this.tableId;
+    }
+
+    /**
+     * @return the transaction this scan is running as a part of
+     */
+    public TransactionId getTransactionId() {
+        return this.tid;
+    }
+
     /**
      * @return Return the alias of the table this operator scans.
      * */
@@ -83,7 +116,14 @@ public class SeqScan implements OpIterator {
 
     public void open() throws DbException, TransactionAbortedException {
         // some code goes here
-        this.it = Database.getCatalog().getDatabaseFile(this.tableId).iterator(this.tid);
+        DbFile file = Database.getCatalog().getDatabaseFile(this.tableId);
+        if (this.firstPage == 0 && this.endPage < 0) {
+            this.it = file.iterator(this.tid);
+        } else if (file instanceof HeapFile) {
+            this.it = ((HeapFile) file).iterator(this.tid, this.firstPage, this.endPage);
+        } else {
+            throw new DbException("cannot scan a range of pages of table " + this.getTableName());
+        }
         this.it.open();
     }
 
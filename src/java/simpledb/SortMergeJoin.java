@@ -0,0 +1,268 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * SortMergeJoin joins two children on an equality or range predicate by
+ * reading them in order of their join fields.
+ * <p>
+ * A child that is not already ordered on its join field is sorted by an
+ * {@link OrderBy}. Children are already ordered if they are an ascending
+ * OrderBy on the join field, or a scan of a B+ tree keyed on it, possibly
+ * under a {@link Filter}.
+ * <p>
+ * For an equality predicate both children are merged, buffering the run of
+ * right tuples that share a key. For <tt>&gt;</tt> and <tt>&gt;=</tt>, the
+ * right tuples matching a left tuple are a prefix of the ordered right child,
+ * which is read from the start for each left tuple and only up to the first
+ * tuple that does not match; only the right child needs to be ordered. For
+ * <tt>&lt;</tt> and <tt>&lt;=</tt> the children swap roles.
+ */
+public class SortMergeJoin extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final JoinPredicate pred;
+    private OpIterator child1, child2;
+    private final TupleDesc comboTD;
+
+    /*
+     * The children read by the join: the children themselves, or OrderBys
+     * over them. driver is read once; for each of its tuples, the matches are
+     * found in other.
+     */
+    private transient OpIterator input1, input2;
+    private transient OpIterator driver, other;
+    private transient boolean leftDrives;
+
+    private transient Tuple current;
+    private transient Tuple lookahead;
+    private transient ArrayList<Tuple> run;
+    private transient int runPos;
+    private transient boolean otherDone;
+
+    /**
+     * Constructor. Accepts two children to join and the predicate to join them
+     * on.
+     *
+     * @param p
+     *            The predicate to use to join the children; its operator
+     *            cannot be NOT_EQUALS or LIKE
+     * @param child1
+     *            Iterator for the left relation to join
+     * @param child2
+     *            Iterator for the right relation to join
+     */
+    public SortMergeJoin(JoinPredicate p, OpIterator child1, OpIterator child2) {
+        if (p.getOperator() == Predicate.Op.NOT_EQUALS
+                || p.getOperator() == Predicate.Op.LIKE) {
+            throw new IllegalArgumentException("cannot merge join on "
+                    + p.getOperator());
+        }
+        this.pred = p;
+        this.child1 = child1;
+        this.child2 = child2;
+        this.comboTD = TupleDesc.merge(child1.getTupleDesc(),
+                child2.getTupleDesc());
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return this.pred;
+    }
+
+    public String getJoinField1Name() {
+        return this.child1.getTupleDesc().getFieldName(this.pred.getField1());
+    }
+
+    public String getJoinField2Name() {
+        return this.child2.getTupleDesc().getFieldName(this.pred.getField2());
+    }
+
+    public TupleDesc getTupleDesc() {
+        return this.comboTD;
+    }
+
+    /**
+     * @return true if the tuples of it come in ascending order of the given
+     *         field
+     */
+    static boolean isOrderedOn(OpIterator it, int field) {
+        if (it instanceof OrderBy) {
+            OrderBy o = (OrderBy) it;
+            return o.isASC() && o.getOrderByField() == field;
+        } else if (it instanceof Filter) {
+            return isOrderedOn(((Filter) it).getChildren()[0], field);
+        }
+        String tableName;
+        if (it instanceof BTreeScan) {
+            tableName = ((BTreeScan) it).getTableName();
+        } else if (it instanceof SeqScan) {
+            tableName = ((SeqScan) it).getTableName();
+        } else {
+            return false;
+        }
+        DbFile f = Database.getCatalog().getDatabaseFile(
+                Database.getCatalog().getTableId(tableName));
+        return f instanceof BTreeFile && ((BTreeFile) f).keyField() == field;
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        Predicate.Op op = this.pred.getOperator();
+        this.leftDrives = op != Predicate.Op.LESS_THAN
+                && op != Predicate.Op.LESS_THAN_OR_EQ;
+        boolean sortLeft = op == Predicate.Op.EQUALS || !this.leftDrives;
+        boolean sortRight = op == Predicate.Op.EQUALS || this.leftDrives;
+
+        this.input1 = sortLeft && !isOrderedOn(this.child1, this.pred.getField1())
+                ? new OrderBy(this.pred.getField1(), true, this.child1)
+                : this.child1;
+        this.input2 = sortRight && !isOrderedOn(this.child2, this.pred.getField2())
+                ? new OrderBy(this.pred.getField2(), true, this.child2)
+                : this.child2;
+        this.input1.open();
+        this.input2.open();
+        this.driver = this.leftDrives ? this.input1 : this.input2;
+        this.other = this.leftDrives ? this.input2 : this.input1;
+        this.run = new ArrayList<Tuple>();
+        this.reset();
+        super.open();
+    }
+
+    private void reset() throws DbException, TransactionAbortedException {
+        this.current = null;
+        this.run.clear();
+        this.runPos = 0;
+        this.otherDone = false;
+        this.lookahead = this.pred.getOperator() == Predicate.Op.EQUALS
+                ? readOther() : null;
+    }
+
+    public void close() {
+        super.close();
+        this.input1.close();
+        this.input2.close();
+        this.run = null;
+        this.current = null;
+        this.lookahead = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        this.input1.rewind();
+        this.input2.rewind();
+        this.reset();
+    }
+
+    /**
+     * Returns the next tuple generated by the join, or null if there are no
+     * more tuples. The tuples returned are the concatenation of joining tuples
+     * from the left and right relation, as for {@link Join}.
+     */
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        if (this.pred.getOperator() == Predicate.Op.EQUALS) {
+            return fetchNextEquals();
+        } else {
+            return fetchNextRange();
+        }
+    }
+
+    private Tuple fetchNextEquals() throws TransactionAbortedException,
+            DbException {
+        while (true) {
+            if (this.current != null && this.runPos < this.run.size()) {
+                return joinTuples(this.current, this.run.get(this.runPos++));
+            }
+            if (this.run.isEmpty() && this.lookahead == null) {
+                // no right tuples left to match
+                return null;
+            }
+            if (!this.driver.hasNext()) {
+                return null;
+            }
+            this.current = this.driver.next();
+            this.runPos = 0;
+            if (!this.run.isEmpty() && compare(this.current, this.run.get(0)) == 0) {
+                continue;
+            }
+
+            // collect the run of right tuples with the key of the new left
+            // tuple, if there is one
+            this.run.clear();
+            while (this.lookahead != null && compare(this.current, this.lookahead) > 0) {
+                this.lookahead = readOther();
+            }
+            while (this.lookahead != null && compare(this.current, this.lookahead) == 0) {
+                this.run.add(this.lookahead);
+                this.lookahead = readOther();
+            }
+        }
+    }
+
+    private Tuple fetchNextRange() throws TransactionAbortedException,
+            DbException {
+        Predicate.Op op = this.pred.getOperator();
+        boolean strict = op == Predicate.Op.GREATER_THAN
+                || op == Predicate.Op.LESS_THAN;
+        while (true) {
+            if (this.current != null && !this.otherDone) {
+                Tuple o = readOther();
+                if (o != null) {
+                    int c = compare(this.current, o);
+                    if (strict ? c > 0 : c >= 0) {
+                        return this.leftDrives ? joinTuples(this.current, o)
+                                : joinTuples(o, this.current);
+                    }
+                }
+                // other is ordered, so no later tuple of it matches either
+                this.otherDone = true;
+            }
+            if (!this.driver.hasNext()) {
+                return null;
+            }
+            this.current = this.driver.next();
+            this.other.rewind();
+            this.otherDone = false;
+        }
+    }
+
+    private Tuple readOther() throws TransactionAbortedException, DbException {
+        return this.other.hasNext() ? this.other.next() : null;
+    }
+
+    /**
+     * Compare the join field of a driver tuple with the join field of an
+     * other tuple.
+     */
+    private int compare(Tuple d, Tuple o) {
+        int fd = this.leftDrives ? this.pred.getField1() : this.pred.getField2();
+        int fo = this.leftDrives ? this.pred.getField2() : this.pred.getField1();
+        if (d.getTupleDesc().getFieldType(fd) == Type.INT_TYPE) {
+            return Integer.compare(d.getInt(fd), o.getInt(fo));
+        }
+        return d.getString(fd).compareTo(o.getString(fo));
+    }
+
+    private Tuple joinTuples(Tuple t1, Tuple t2) {
+        Tuple t = new Tuple(this.comboTD);
+        int n1 = t1.getTupleDesc().numFields();
+        for (int i = 0; i < n1; i++) {
+            t.copyField(i, t1, i);
+        }
+        for (int i = 0; i < t2.getTupleDesc().numFields(); i++) {
+            t.copyField(n1 + i, t2, i);
+        }
+        return t;
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[] { this.child1, this.child2 };
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        this.child1 = children[0];
+        this.child2 = children[1];
+    }
+
+}
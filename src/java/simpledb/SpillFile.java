@@ -0,0 +1,141 @@
+package simpledb;
+
+import java.io.*;
+
+/**
+ * SpillFile is a temporary file of tuples that an operator writes when its
+ * input does not fit in memory, and reads back later, in the order the tuples
+ * were added. Tuples are stored compactly: an INT_TYPE field as 4 bytes and a
+ * STRING_TYPE field as its length followed by its bytes. RecordIds are not
+ * kept, and a field that is not set is written as 0 or the empty string.
+ * <p>
+ * The file is removed by {@link #delete()}, which its user must call.
+ */
+public class SpillFile {
+
+    private final TupleDesc td;
+    private final File file;
+    private DataOutputStream out;
+    private int size;
+
+    /**
+     * Create an empty spill file for tuples of the given schema.
+     */
+    public SpillFile(TupleDesc td) throws DbException {
+        this.td = td;
+        try {
+            this.file = File.createTempFile("spill", ".tmp");
+            this.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(this.file)));
+        } catch (IOException e) {
+            throw new DbException("could not create spill file: " + e.getMessage());
+        }
+    }
+
+    /**
+     * @return the number of tuples added to this file
+     */
+    public int size() {
+        return this.size;
+    }
+
+    /**
+     * Append a tuple to the file. Tuples can only be added until the file is
+     * first read.
+     */
+    public void add(Tuple t) throws DbException {
+        if (this.out == null) {
+            throw new IllegalStateException("spill file is already being read");
+        }
+        try {
+            for (int i = 0; i < this.td.numFields(); i++) {
+                if (this.td.getFieldType(i) == Type.INT_TYPE) {
+                    this.out.writeInt(t.getInt(i));
+                } else {
+                    String s = t.getString(i);
+                    byte[] bytes = s == null ? new byte[0] : s.getBytes();
+                    this.out.writeInt(bytes.length);
+                    this.out.write(bytes);
+                }
+            }
+        } catch (IOException e) {
+            throw new DbException("could not write spill file: " + e.getMessage());
+        }
+        this.size++;
+    }
+
+    /**
+     * Start reading the file from the beginning. The file can be read any
+     * number of times, but no more tuples can be added once it is.
+     */
+    public Reader reader() throws DbException {
+        try {
+            if (this.out != null) {
+                this.out.close();
+                this.out = null;
+            }
+            return new Reader(new DataInputStream(new BufferedInputStream(new FileInputStream(this.file))));
+        } catch (IOException e) {
+            throw new DbException("could not read spill file: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Remove the file. It cannot be used afterwards.
+     */
+    public void delete() {
+        try {
+            if (this.out != null) {
+                this.out.close();
+                this.out = null;
+            }
+        } catch (IOException e) {
+            // the file is going away anyway
+        }
+        this.file.delete();
+    }
+
+    /**
+     * Reads the tuples of a SpillFile in the order they were added.
+     */
+    public class Reader implements Closeable {
+        private final DataInputStream in;
+        private int remaining = SpillFile.this.size;
+
+        private Reader(DataInputStream in) {
+            this.in = in;
+        }
+
+        /**
+         * @return the next tuple, or null if all of them have been read
+         */
+        public Tuple next() throws DbException {
+            if (this.remaining == 0) {
+                return null;
+            }
+            Tuple t = new Tuple(td);
+            try {
+                for (int i = 0; i < td.numFields(); i++) {
+                    if (td.getFieldType(i) == Type.INT_TYPE) {
+                        t.setInt(i, this.in.readInt());
+                    } else {
+                        byte[] bytes = new byte[this.in.readInt()];
+                        this.in.readFully(bytes);
+                        t.setString(i, new String(bytes));
+                    }
+                }
+            } catch (IOException e) {
+                throw new DbException("could not read spill file: " + e.getMessage());
+            }
+            this.remaining--;
+            return t;
+        }
+
+        public void close() {
+            try {
+                this.in.close();
+            } catch (IOException e) {
+                // nothing was written through this stream
+            }
+        }
+    }
+}
@@ -56,6 +56,24 @@ public class StringAggregator implements Aggregator {
         }
     }
 
+    public void mergeAggregator(Aggregator other) {
+        if (!(other instanceof StringAggregator)) {
+            throw new IllegalArgumentException("cannot merge a " + other.getClass().getSimpleName());
+        }
+        StringAggregator o = (StringAggregator) other;
+        if (o.groupByFieldId != this.groupByFieldId || o.aggFieldId != this.aggFieldId
+                || o.aggOp != this.aggOp) {
+            throw new IllegalArgumentException("cannot merge a different aggregate");
+        }
+
+        for (Map.Entry<Field, Integer> e : o.aggedCounts.entrySet()) {
+            this.aggedCounts.merge(e.getKey(), e.getValue(), Integer::sum);
+        }
+        for (Map.Entry<Field, Object> e : o.aggedFields.entrySet()) {
+            this.aggedFields.merge(e.getKey(), e.getValue(), (a, b) -> (int) a + (int) b);
+        }
+    }
+
     /**
      * Create a OpIterator over group aggregate results.
      *
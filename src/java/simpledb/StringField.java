@@ -1,6 +1,7 @@
 package simpledb;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 
 /**
  * Instance of Field that stores a single String of a fixed length.
@@ -66,6 +67,20 @@ public class StringField implements Field {
 			dos.write((byte) 0);
 	}
 
+	public void serialize(ByteBuffer buf) {
+		String s = value;
+		int overflow = maxSize - s.length();
+		if (overflow < 0) {
+			String news = s.substring(0, maxSize);
+			s = news;
+		}
+		buf.putInt(s.length());
+		for (int i = 0; i < s.length(); i++)
+			buf.put((byte) s.charAt(i));
+		while (overflow-- > 0)
+			buf.put((byte) 0);
+	}
+
 	/**
 	 * Compare the specified field to the value of this Field. Return semantics
 	 * are as specified by Field.compare
@@ -0,0 +1,121 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * TopN is an operator that implements an ORDER BY followed by a LIMIT: it
+ * returns the first n tuples of its child in sort order. Rather than sorting
+ * the whole child, it keeps the best n tuples seen so far in a heap whose
+ * root is the worst of them, so it needs memory for n tuples and O(log n)
+ * time per tuple of the child.
+ */
+public class TopN extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    private OpIterator child;
+    private final int[] orderByFields;
+    private final boolean[] ascs;
+    private final int n;
+    private transient Tuple[] top;
+    private transient int pos;
+
+    /**
+     * Constructor.
+     *
+     * @param orderbyFields
+     *            the fields to which the sort is applied, most significant
+     *            first.
+     * @param ascs
+     *            for each field, true if its sort order is ascending.
+     * @param n
+     *            the number of tuples to return
+     * @param child
+     *            the tuples to sort.
+     */
+    public TopN(int[] orderbyFields, boolean[] ascs, int n, OpIterator child) {
+        if (orderbyFields.length == 0 || orderbyFields.length != ascs.length) {
+            throw new IllegalArgumentException("need one sort order per sort field");
+        }
+        if (n < 0) {
+            throw new IllegalArgumentException("n cannot be negative");
+        }
+        this.orderByFields = orderbyFields;
+        this.ascs = ascs;
+        this.n = n;
+        this.child = child;
+    }
+
+    public int getN() {
+        return this.n;
+    }
+
+    public int getOrderByField() {
+        return this.orderByFields[0];
+    }
+
+    public boolean isASC() {
+        return this.ascs[0];
+    }
+
+    public TupleDesc getTupleDesc() {
+        return this.child.getTupleDesc();
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        this.child.open();
+        final Comparator<Tuple> cmp = new TupleComparator(this.orderByFields, this.ascs);
+        PriorityQueue<Tuple> heap = new PriorityQueue<Tuple>(Math.max(1, this.n),
+                new Comparator<Tuple>() {
+                    public int compare(Tuple a, Tuple b) {
+                        return cmp.compare(b, a);
+                    }
+                });
+        if (this.n > 0) {
+            while (this.child.hasNext()) {
+                Tuple t = this.child.next();
+                if (heap.size() < this.n) {
+                    heap.add(t);
+                } else if (cmp.compare(t, heap.peek()) < 0) {
+                    heap.poll();
+                    heap.add(t);
+                }
+            }
+        }
+        this.top = new Tuple[heap.size()];
+        for (int i = this.top.length - 1; i >= 0; i--) {
+            this.top[i] = heap.poll();
+        }
+        this.pos = 0;
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        this.child.close();
+        this.top = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        this.pos = 0;
+    }
+
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        if (this.top != null && this.pos < this.top.length) {
+            return this.top[this.pos++];
+        }
+        return null;
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[] { this.child };
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        this.child = children[0];
+    }
+
+}
@@ -2,22 +2,33 @@ package simpledb;
 
 import java.io.Serializable;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
-import java.util.stream.Collectors;
 
 /**
  * Tuple maintains information about the contents of a tuple. Tuples have a
  * specified schema specified by a TupleDesc object and contain Field objects
  * with the data for each field.
+ * <p>
+ * The values are kept unboxed: INT_TYPE fields in an int[] and STRING_TYPE
+ * fields in a String[], at the slots given by {@link TupleDesc#fieldSlot}.
+ * Field objects are only created when asked for with {@link #getField}; hot
+ * paths should use {@link #getInt}, {@link #getString} and
+ * {@link #copyField} instead.
  */
 public class Tuple implements Serializable {
 
     private static final long serialVersionUID = 1L;
     private TupleDesc td;
     private RecordId rid = null;
-    private List<Field> fields = new ArrayList<>();
+    /**
+     * the INT_TYPE fields, followed by one bit per INT_TYPE field recording
+     * whether it has been set
+     */
+    private int[] ints;
+    /** the STRING_TYPE fields; null until set */
+    private String[] strings;
+
     /**
      * Create a new tuple with the specified schema (type).
      *
@@ -28,6 +39,9 @@ public class Tuple implements Serializable {
     public Tuple(TupleDesc td) {
         // some code goes here
         this.td = td;
+        int numInts = td.numIntFields();
+        this.ints = new int[numInts + (numInts + 31) / 32];
+        this.strings = td.numStringFields() == 0 ? null : new String[td.numStringFields()];
     }
 
     /**
@@ -64,14 +78,17 @@ public class Tuple implements Serializable {
      * @param i
      *            index of the field to change. It must be a valid index.
      * @param f
-     *            new value for the field.
+     *            new value for the field, of the field's type.
      */
     public void setField(int i, Field f) {
         // some code goes here
-        if (this.fields.size() == i)
-            this.fields.add(f);
-        else
-            this.fields.set(i, f);
+        if (f == null) {
+            this.clearField(i);
+        } else if (this.td.getFieldType(i) == Type.INT_TYPE) {
+            this.setInt(i, ((IntField) f).getValue());
+        } else {
+            this.setString(i, ((StringField) f).getValue());
+        }
     }
 
     /**
@@ -82,7 +99,75 @@ public class Tuple implements Serializable {
      */
     public Field getField(int i) {
         // some code goes here
-        return this.fields.get(i);
+        if (!this.isSet(i)) {
+            return null;
+        }
+        if (this.td.getFieldType(i) == Type.INT_TYPE) {
+            return new IntField(this.ints[this.td.fieldSlot(i)]);
+        }
+        return new StringField(this.strings[this.td.fieldSlot(i)], Type.STRING_LEN);
+    }
+
+    /**
+     * @return the value of the ith field, which must be an INT_TYPE field
+     */
+    public int getInt(int i) {
+        return this.ints[this.td.fieldSlot(i)];
+    }
+
+    /**
+     * Change the value of the ith field, which must be an INT_TYPE field.
+     */
+    public void setInt(int i, int value) {
+        int slot = this.td.fieldSlot(i);
+        this.ints[slot] = value;
+        this.ints[this.td.numIntFields() + slot / 32] |= 1 << (slot % 32);
+    }
+
+    /**
+     * @return the value of the ith field, which must be a STRING_TYPE field,
+     *         or null if it has not been set
+     */
+    public String getString(int i) {
+        return this.strings[this.td.fieldSlot(i)];
+    }
+
+    /**
+     * Change the value of the ith field, which must be a STRING_TYPE field.
+     */
+    public void setString(int i, String value) {
+        this.strings[this.td.fieldSlot(i)] = value;
+    }
+
+    /**
+     * Set the ith field of this tuple to the jth field of another, without
+     * creating a Field. The two fields must have the same type.
+     */
+    public void copyField(int i, Tuple src, int j) {
+        if (!src.isSet(j)) {
+            this.clearField(i);
+        } else if (this.td.getFieldType(i) == Type.INT_TYPE) {
+            this.setInt(i, src.getInt(j));
+        } else {
+            this.setString(i, src.getString(j));
+        }
+    }
+
+    private boolean isSet(int i) {
+        int slot = this.td.fieldSlot(i);
+        if (this.td.getFieldType(i) == Type.INT_TYPE) {
+            return (this.ints[this.td.numIntFields() + slot / 32] & 1 << (slot % 32)) != 0;
+        }
+        return this.strings[slot] != null;
+    }
+
+    private void clearField(int i) {
+        int slot = this.td.fieldSlot(i);
+        if (this.td.getFieldType(i) == Type.INT_TYPE) {
+            this.ints[this.td.numIntFields() + slot / 32] &= ~(1 << (slot % 32));
+        } else {
+            this.strings[slot] = null;
+        }
     }
 
     /**
@@ -95,8 +180,20 @@ public class Tuple implements Serializable {
      */
     public String toString() {
         // some code goes here
-        List<String> fs = this.fields.stream().map(Field::toString).collect(Collectors.toList());
-        return String.join("\t", fs);
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < this.td.numFields(); i++) {
+            if (i > 0) {
+                sb.append('\t');
+            }
+            if (!this.isSet(i)) {
+                sb.append("null");
+            } else if (this.td.getFieldType(i) == Type.INT_TYPE) {
+                sb.append(this.getInt(i));
+            } else {
+                sb.append(this.getString(i));
+            }
+        }
+        return sb.toString();
     }
 
     /**
@@ -106,7 +203,11 @@ public class Tuple implements Serializable {
     public Iterator<Field> fields()
     {
         // some code goes here
-        return this.fields.iterator();
+        List<Field> fields = new ArrayList<>(this.td.numFields());
+        for (int i = 0; i < this.td.numFields(); i++) {
+            fields.add(this.getField(i));
+        }
+        return fields.iterator();
     }
 
     /**
@@ -115,6 +216,17 @@ public class Tuple implements Serializable {
     public void resetTupleDesc(TupleDesc td)
     {
         // some code goes here
+        if (td.equals(this.td)) {
+            // same types, so the same layout
+            this.td = td;
+            return;
+        }
+        Tuple repacked = new Tuple(td);
+        for (int i = 0; i < Math.min(td.numFields(), this.td.numFields()); i++) {
+            repacked.setField(i, this.getField(i));
+        }
         this.td = td;
+        this.ints = repacked.ints;
+        this.strings = repacked.strings;
     }
 }
@@ -0,0 +1,230 @@
+package simpledb;
+
+import java.util.NoSuchElementException;
+
+/**
+ * TupleBatch holds up to a fixed number of rows of a {@link TupleDesc} in
+ * column vectors: an <code>int[]</code> for each INT_TYPE column and a
+ * <code>String[]</code> for each STRING_TYPE column. Operators working on
+ * batches ({@link BatchIterator}) read and write the vectors directly instead
+ * of going through a {@link Tuple} and its {@link Field}s per row.
+ * <p>
+ * A batch has a physical number of rows, {@link #numRows()}, and a selection
+ * vector naming the rows that are part of the batch, in order. Until a
+ * selection is set every physical row is selected. Filters narrow the
+ * selection instead of moving values around, so consumers should go through
+ * {@link #row(int)} to find the i-th row of the batch.
+ * <p>
+ * Producers reuse their batches: a batch returned by
+ * {@link BatchIterator#nextBatch()} is only valid until the next call.
+ */
+public class TupleBatch {
+
+    /** The number of rows batch operators put in a batch by default */
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    private final TupleDesc td;
+    private final int capacity;
+    private final int[][] ints;
+    private final String[][] strings;
+    private int numRows;
+    /** the selected rows, or null if every row is selected */
+    private int[] selection;
+    private int numSelected;
+
+    /**
+     * Create an empty batch.
+     *
+     * @param td the schema of the rows in the batch
+     * @param capacity the number of rows the batch can hold
+     */
+    public TupleBatch(TupleDesc td, int capacity) {
+        this.td = td;
+        this.capacity = capacity;
+        this.ints = new int[td.numFields()][];
+        this.strings = new String[td.numFields()][];
+        for (int i = 0; i < td.numFields(); i++) {
+            if (td.getFieldType(i) == Type.INT_TYPE) {
+                this.ints[i] = new int[capacity];
+            } else {
+                this.strings[i] = new String[capacity];
+            }
+        }
+    }
+
+    private TupleBatch(TupleDesc td, int capacity, int[][] ints, String[][] strings) {
+        this.td = td;
+        this.capacity = capacity;
+        this.ints = ints;
+        this.strings = strings;
+    }
+
+    /**
+     * @return the schema of the rows in this batch
+     */
+    public TupleDesc getTupleDesc() {
+        return this.td;
+    }
+
+    /**
+     * @return the number of rows this batch can hold
+     */
+    public int capacity() {
+        return this.capacity;
+    }
+
+    /**
+     * @return the number of physical rows in this batch, selected or not
+     */
+    public int numRows() {
+        return this.numRows;
+    }
+
+    /**
+     * @return true if no more rows can be added to this batch
+     */
+    public boolean isFull() {
+        return this.numRows == this.capacity;
+    }
+
+    /**
+     * @return the number of selected rows
+     */
+    public int size() {
+        return this.selection == null ? this.numRows : this.numSelected;
+    }
+
+    /**
+     * @return the physical row that is the i-th selected row of the batch
+     */
+    public int row(int i) {
+        return this.selection == null ? i : this.selection[i];
+    }
+
+    /**
+     * @return the selection vector, or null if every row is selected. Only
+     *         the first {@link #size()} entries are meaningful.
+     */
+    public int[] getSelection() {
+        return this.selection;
+    }
+
+    /**
+     * Select the given physical rows, which must be in ascending order.
+     *
+     * @param selection the rows to select, or null to select every row
+     * @param count the number of entries of selection to use
+     */
+    public void setSelection(int[] selection, int count) {
+        this.selection = selection;
+        this.numSelected = selection == null ? 0 : count;
+    }
+
+    /**
+     * Remove every row and the selection from this batch.
+     */
+    public void clear() {
+        this.numRows = 0;
+        this.selection = null;
+        this.numSelected = 0;
+    }
+
+    /**
+     * @return the vector holding the values of an INT_TYPE column
+     */
+    public int[] intColumn(int col) {
+        if (this.ints[col] == null) {
+            throw new IllegalArgumentException("column " + col + " is not an INT_TYPE column");
+        }
+        return this.ints[col];
+    }
+
+    /**
+     * @return the vector holding the values of a STRING_TYPE column
+     */
+    public String[] stringColumn(int col) {
+        if (this.strings[col] == null) {
+            throw new IllegalArgumentException("column " + col + " is not a STRING_TYPE column");
+        }
+        return this.strings[col];
+    }
+
+    /**
+     * Add a row whose values the caller writes into the column vectors.
+     *
+     * @return the physical index of the new row
+     * @throws IllegalStateException if the batch is full or has a selection
+     */
+    public int addRow() {
+        if (this.isFull()) {
+            throw new IllegalStateException("batch is full");
+        }
+        if (this.selection != null) {
+            throw new IllegalStateException("cannot add rows to a batch with a selection");
+        }
+        return this.numRows++;
+    }
+
+    /**
+     * Copy the fields of a tuple into a new row of this batch.
+     *
+     * @throws IllegalStateException if the batch is full or has a selection
+     */
+    public void addTuple(Tuple t) {
+        int row = this.addRow();
+        for (int i = 0; i < this.ints.length; i++) {
+            if (this.ints[i] != null) {
+                this.ints[i][row] = ((IntField) t.getField(i)).getValue();
+            } else {
+                this.strings[i][row] = ((StringField) t.getField(i)).getValue();
+            }
+        }
+    }
+
+    /**
+     * @return the value of a column in the given physical row as a Field
+     */
+    public Field getField(int row, int col) {
+        if (this.ints[col] != null) {
+            return new IntField(this.ints[col][row]);
+        }
+        return new StringField(this.strings[col][row], Type.STRING_LEN);
+    }
+
+    /**
+     * @return the i-th selected row of this batch as a new Tuple
+     * @throws NoSuchElementException if there is no such row
+     */
+    public Tuple getTuple(int i) {
+        if (i < 0 || i >= this.size()) {
+            throw new NoSuchElementException();
+        }
+        int row = this.row(i);
+        Tuple t = new Tuple(this.td);
+        for (int col = 0; col < this.ints.length; col++) {
+            t.setField(col, this.getField(row, col));
+        }
+        return t;
+    }
+
+    /**
+     * Create a view of some of the columns of this batch. The view shares the
+     * column vectors and the selection of this batch as they are now.
+     *
+     * @param td the schema of the view
+     * @param cols the columns of this batch that make up the view, in order
+     */
+    public TupleBatch project(TupleDesc td, int[] cols) {
+        int[][] projectedInts = new int[cols.length][];
+        String[][] projectedStrings = new String[cols.length][];
+        for (int i = 0; i < cols.length; i++) {
+            projectedInts[i] = this.ints[cols[i]];
+            projectedStrings[i] = this.strings[cols[i]];
+        }
+        TupleBatch view = new TupleBatch(td, this.capacity, projectedInts, projectedStrings);
+        view.numRows = this.numRows;
+        view.selection = this.selection;
+        view.numSelected = this.numSelected;
+        return view;
+    }
+}
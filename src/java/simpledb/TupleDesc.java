@@ -50,7 +50,18 @@ public class TupleDesc implements Serializable {
         }
     }
 
-    private List<TDItem> tupleDescItems = new LinkedList<>();
+    private final List<TDItem> tupleDescItems = new ArrayList<>();
+
+    /*
+     * Layout of tuples, computed once: a Tuple packs its INT_TYPE fields into
+     * an int[] and its STRING_TYPE fields into a String[], and fieldSlots[i]
+     * is the index of field i in the array for its type. fieldOffsets[i] is
+     * the byte offset of field i in a tuple on a page.
+     */
+    private final int[] fieldSlots;
+    private final int[] fieldOffsets;
+    private final int numIntFields;
+    private final int size;
 
     /**
      * @return An iterator which iterates over all the field TDItems that are
@@ -81,6 +92,17 @@ public class TupleDesc implements Serializable {
             tdItem = new TDItem(typeAr[i], fieldAr[i]);
             this.tupleDescItems.add(tdItem);
         }
+
+        this.fieldSlots = new int[length];
+        this.fieldOffsets = new int[length];
+        int ints = 0, strings = 0, offset = 0;
+        for (int i = 0; i < length; i++) {
+            this.fieldSlots[i] = typeAr[i] == Type.INT_TYPE ? ints++ : strings++;
+            this.fieldOffsets[i] = offset;
+            offset += typeAr[i].getLen();
+        }
+        this.numIntFields = ints;
+        this.size = offset;
     }
 
     /**
@@ -162,10 +184,39 @@ public class TupleDesc implements Serializable {
      */
     public int getSize() {
         // some code goes here
-        return tupleDescItems.stream().map(tdItem -> tdItem.fieldType.getLen()).mapToInt(Integer::valueOf).sum();
+        return this.size;
         // return 0;
     }
 
+    /**
+     * @return the byte offset of the ith field in a tuple on a page
+     */
+    public int getFieldOffset(int i) {
+        return this.fieldOffsets[i];
+    }
+
+    /**
+     * @return the index of the ith field among the fields of its type, which
+     *         is where a Tuple keeps its value
+     */
+    int fieldSlot(int i) {
+        return this.fieldSlots[i];
+    }
+
+    /**
+     * @return the number of INT_TYPE fields in this TupleDesc
+     */
+    int numIntFields() {
+        return this.numIntFields;
+    }
+
+    /**
+     * @return the number of STRING_TYPE fields in this TupleDesc
+     */
+    int numStringFields() {
+        return this.fieldSlots.length - this.numIntFields;
+    }
+
     /**
      * Merge two TupleDescs into one, with td1.numFields + td2.numFields fields,
      * with the first td1.numFields coming from td1 and the remaining from td2.
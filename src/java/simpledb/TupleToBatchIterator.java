@@ -0,0 +1,52 @@
+package simpledb;
+
+/**
+ * TupleToBatchIterator gathers the tuples of an {@link OpIterator} into
+ * batches, so that any tuple operator can feed a batch operator.
+ */
+public class TupleToBatchIterator implements BatchIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final OpIterator child;
+    private final int batchSize;
+    private transient TupleBatch batch;
+
+    public TupleToBatchIterator(OpIterator child, int batchSize) {
+        this.child = child;
+        this.batchSize = batchSize;
+    }
+
+    public TupleToBatchIterator(OpIterator child) {
+        this(child, TupleBatch.DEFAULT_CAPACITY);
+    }
+
+    public TupleDesc getTupleDesc() {
+        return this.child.getTupleDesc();
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        this.child.open();
+        this.batch = new TupleBatch(this.getTupleDesc(), this.batchSize);
+    }
+
+    public void close() {
+        this.child.close();
+        this.batch = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        this.child.rewind();
+    }
+
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+        if (this.batch == null) {
+            throw new IllegalStateException("Operator not yet open");
+        }
+        this.batch.clear();
+        while (!this.batch.isFull() && this.child.hasNext()) {
+            this.batch.addTuple(this.child.next());
+        }
+        return this.batch.size() > 0 ? this.batch : null;
+    }
+}
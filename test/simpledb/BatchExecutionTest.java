@@ -0,0 +1,124 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class BatchExecutionTest extends SimpleDbTestBase {
+
+    /**
+     * @return the rows of the iterator, as strings in sorted order
+     */
+    private static List<String> rows(OpIterator it) throws Exception {
+        List<String> rows = new ArrayList<String>();
+        it.open();
+        while (it.hasNext()) {
+            rows.add(it.next().toString());
+        }
+        it.close();
+        Collections.sort(rows);
+        return rows;
+    }
+
+    /**
+     * A batch scan, filter and project return the same tuples as the tuple
+     * operators, with batches that end in the middle of a page
+     */
+    @Test public void scanFilterProject() throws Exception {
+        HeapFile table = SystemTestUtil.createRandomHeapFile(3, 3000, null, null);
+        TransactionId tid = new TransactionId();
+        Predicate p = new Predicate(1, Predicate.Op.GREATER_THAN, new IntField(20000));
+        ArrayList<Integer> fields = new ArrayList<Integer>(Arrays.asList(2, 0));
+        Type[] types = { Type.INT_TYPE, Type.INT_TYPE };
+
+        OpIterator expected = new Project(fields, types,
+                new Filter(p, new SeqScan(tid, table.getId(), "t")));
+        BatchIterator batches = new BatchProject(fields, types,
+                new BatchFilter(p, new BatchSeqScan(tid, table.getId(), "t", 7)));
+        OpIterator actual = new BatchToTupleIterator(batches);
+
+        List<String> expectedRows = rows(expected);
+        assertEquals(expectedRows, rows(actual));
+        assertEquals(expected.getTupleDesc(), actual.getTupleDesc());
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * A batch aggregate over a filtered scan matches Aggregate, with and
+     * without grouping
+     */
+    @Test public void scanFilterAggregate() throws Exception {
+        HeapFile table = SystemTestUtil.createRandomHeapFile(2, 5000, 50, null, null);
+        TransactionId tid = new TransactionId();
+        Predicate p = new Predicate(1, Predicate.Op.LESS_THAN_OR_EQ, new IntField(40));
+
+        for (Aggregator.Op op : new Aggregator.Op[] { Aggregator.Op.MIN, Aggregator.Op.MAX,
+                Aggregator.Op.SUM, Aggregator.Op.AVG, Aggregator.Op.COUNT }) {
+            for (int gfield : new int[] { Aggregator.NO_GROUPING, 0 }) {
+                OpIterator expected = new Aggregate(
+                        new Filter(p, new SeqScan(tid, table.getId(), "t")), 1, gfield, op);
+                OpIterator actual = new BatchToTupleIterator(new BatchAggregate(
+                        new BatchFilter(p, new BatchSeqScan(tid, table.getId(), "t")), 1, gfield, op));
+                assertEquals(op + " " + gfield, rows(expected), rows(actual));
+            }
+        }
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * BatchHashEquiJoin returns the same tuples as HashEquiJoin
+     */
+    @Test public void hashEquiJoin() throws Exception {
+        HeapFile left = SystemTestUtil.createRandomHeapFile(2, 2000, 300, null, null);
+        HeapFile right = SystemTestUtil.createRandomHeapFile(3, 1500, 300, null, null);
+        TransactionId tid = new TransactionId();
+        JoinPredicate p = new JoinPredicate(0, Predicate.Op.EQUALS, 1);
+
+        OpIterator expected = new HashEquiJoin(p, new SeqScan(tid, left.getId(), "l"),
+                new SeqScan(tid, right.getId(), "r"));
+        OpIterator actual = new BatchToTupleIterator(new BatchHashEquiJoin(p,
+                new BatchSeqScan(tid, left.getId(), "l"), new BatchSeqScan(tid, right.getId(), "r", 100)));
+        List<String> expectedRows = rows(expected);
+        assertEquals(expectedRows, rows(actual));
+        assertEquals(expected.getTupleDesc(), actual.getTupleDesc());
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Tuple operators and batch operators can be mixed in one plan through
+     * the adapters, including string columns
+     */
+    @Test public void adapters() throws Exception {
+        OpIterator scan = TestUtil.createTupleList(2,
+                new Object[] { 1, "apple", 2, "banana", 3, "cherry", 4, "apricot", 5, "date" });
+        BatchIterator batches = new TupleToBatchIterator(scan, 2);
+        Predicate p = new Predicate(1, Predicate.Op.LIKE, new StringField("ap", Type.STRING_LEN));
+        BatchAggregate count = new BatchAggregate(new BatchFilter(p, batches), 0, 1, Aggregator.Op.SUM);
+        OpIterator actual = new BatchToTupleIterator(count);
+
+        assertEquals(Arrays.asList("apple\t1", "apricot\t4"), rows(actual));
+
+        count.open();
+        assertEquals(2, count.nextBatch().size());
+        assertNull(count.nextBatch());
+        count.close();
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BatchExecutionTest.class);
+    }
+}
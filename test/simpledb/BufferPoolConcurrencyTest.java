@@ -0,0 +1,111 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class BufferPoolConcurrencyTest extends SimpleDbTestBase {
+
+    private static final int POOL_PAGES = 8;
+    private static final int THREADS = 8;
+
+    private HeapFile hf;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        // about 20 pages, more than fit in the pool
+        hf = SystemTestUtil.createRandomHeapFile(2, 504 * 20, null, null);
+        Database.resetBufferPool(POOL_PAGES);
+    }
+
+    private int countTuples(TransactionId tid) throws Exception {
+        DbFileIterator it = hf.iterator(tid);
+        it.open();
+        int count = 0;
+        while (it.hasNext()) {
+            it.next();
+            count++;
+        }
+        it.close();
+        return count;
+    }
+
+    /**
+     * Unit test for BufferPool.getPage(): many readers scanning a table larger
+     * than the pool at the same time all see every tuple.
+     */
+    @Test public void concurrentScans() throws Exception {
+        final int expected = countTuples(new TransactionId());
+        final AtomicReference<Throwable> error = new AtomicReference<>();
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < THREADS; i++) {
+            Thread t = new Thread(() -> {
+                try {
+                    TransactionId tid = new TransactionId();
+                    for (int round = 0; round < 3; round++) {
+                        assertEquals(expected, countTuples(tid));
+                    }
+                    Database.getBufferPool().transactionComplete(tid);
+                } catch (Throwable e) {
+                    error.compareAndSet(null, e);
+                }
+            });
+            threads.add(t);
+            t.start();
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+        assertNull(error.get());
+    }
+
+    /**
+     * Unit test for BufferPool.discardPage(): a discarded page is read again
+     * from disk, and its frame can be reused.
+     */
+    @Test public void discardAndReload() throws Exception {
+        TransactionId tid = new TransactionId();
+        BufferPool bp = Database.getBufferPool();
+        HeapPageId pid = new HeapPageId(hf.getId(), 0);
+        Page first = bp.getPage(tid, pid, Permissions.READ_ONLY);
+        assertSame(first, bp.getPage(tid, pid, Permissions.READ_ONLY));
+
+        bp.discardPage(pid);
+        Page second = bp.getPage(tid, pid, Permissions.READ_ONLY);
+        assertSame(second, bp.getPage(tid, pid, Permissions.READ_ONLY));
+        assertEquals(((HeapPage) first).getNumEmptySlots(), ((HeapPage) second).getNumEmptySlots());
+
+        // the recycled frame does not disturb the rest of the table
+        assertEquals(hf.numPages() * 504 - countEmptySlots(tid), countTuples(tid));
+        bp.transactionComplete(tid);
+    }
+
+    private int countEmptySlots(TransactionId tid) throws Exception {
+        int empty = 0;
+        for (int i = 0; i < hf.numPages(); i++) {
+            HeapPage p = (HeapPage) Database.getBufferPool().getPage(tid,
+                    new HeapPageId(hf.getId(), i), Permissions.READ_ONLY);
+            empty += p.getNumEmptySlots();
+        }
+        return empty;
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BufferPoolConcurrencyTest.class);
+    }
+}
@@ -0,0 +1,120 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class DeadlockDetectorTest extends SimpleDbTestBase {
+
+    private TransactionId t1, t2, t3;
+    private PageId p0, p1, p2;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        t1 = new TransactionId();
+        t2 = new TransactionId();
+        t3 = new TransactionId();
+        p0 = new HeapPageId(1, 0);
+        p1 = new HeapPageId(1, 1);
+        p2 = new HeapPageId(1, 2);
+    }
+
+    /**
+     * Unit test for DeadlockDetector.findCycle()
+     */
+    @Test public void findCycle() {
+        DeadlockDetector detector = new DeadlockDetector();
+        detector.setEdges(t1, Collections.singletonList(t2));
+        detector.setEdges(t2, Collections.singletonList(t3));
+        assertNull(detector.findCycle(t1));
+
+        detector.setEdges(t3, Collections.singletonList(t1));
+        List<TransactionId> cycle = detector.findCycle(t1);
+        assertNotNull(cycle);
+        assertEquals(3, cycle.size());
+        assertTrue(cycle.containsAll(Arrays.asList(t1, t2, t3)));
+        assertEquals(1, detector.findCycles().size());
+
+        // t3 got its lock
+        detector.removeWaiter(t3);
+        assertNull(detector.findCycle(t1));
+        assertTrue(detector.findCycles().isEmpty());
+    }
+
+    /**
+     * Unit test for DeadlockDetector.VictimPolicy
+     */
+    @Test public void victimPolicies() throws Exception {
+        LockManager lm = new LockManager();
+        lm.acquire(t1, p0, Permissions.READ_ONLY);
+        lm.acquire(t1, p1, Permissions.READ_ONLY);
+        lm.acquire(t2, p2, Permissions.READ_ONLY);
+        List<TransactionId> cycle = Arrays.asList(t1, t2, t3);
+
+        assertEquals(t3, DeadlockDetector.VictimPolicy.YOUNGEST.chooseVictim(cycle, lm));
+        // t3 holds no locks at all
+        assertEquals(t3, DeadlockDetector.VictimPolicy.FEWEST_LOCKS.chooseVictim(cycle, lm));
+        assertEquals(t2, DeadlockDetector.VictimPolicy.FEWEST_LOCKS.chooseVictim(Arrays.asList(t1, t2), lm));
+    }
+
+    private Thread acquireLater(LockManager lm, TransactionId tid, PageId pid,
+            AtomicReference<Exception> error) {
+        Thread t = new Thread(() -> {
+            try {
+                lm.acquire(tid, pid, Permissions.READ_WRITE);
+            } catch (TransactionAbortedException e) {
+                error.set(e);
+            }
+        });
+        t.start();
+        return t;
+    }
+
+    /**
+     * Unit test for LockManager.startPeriodicDetection(): a deadlock is broken
+     * by the background thread, aborting the victim the policy picks.
+     */
+    @Test public void periodicDetection() throws Exception {
+        LockManager lm = new LockManager();
+        lm.setVictimPolicy(DeadlockDetector.VictimPolicy.FEWEST_LOCKS);
+        lm.startPeriodicDetection(10);
+
+        lm.acquire(t1, p0, Permissions.READ_WRITE);
+        lm.acquire(t1, p2, Permissions.READ_WRITE);
+        lm.acquire(t2, p1, Permissions.READ_WRITE);
+
+        AtomicReference<Exception> error1 = new AtomicReference<>();
+        AtomicReference<Exception> error2 = new AtomicReference<>();
+        Thread w1 = acquireLater(lm, t1, p1, error1);
+        Thread w2 = acquireLater(lm, t2, p0, error2);
+
+        // t2 holds fewer locks, so it is the victim
+        w2.join(5000);
+        assertNotNull(error2.get());
+        lm.release(t2, p1);
+        w1.join(5000);
+        assertNull(error1.get());
+        assertTrue(lm.holdsLock(t1, p1));
+        lm.stopPeriodicDetection();
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(DeadlockDetectorTest.class);
+    }
+}
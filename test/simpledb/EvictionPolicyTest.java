@@ -0,0 +1,121 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class EvictionPolicyTest extends SimpleDbTestBase {
+
+    private static final int POOL_PAGES = 8;
+
+    private static PageId pid(int pgNo) {
+        return new HeapPageId(1, pgNo);
+    }
+
+    /**
+     * Fill a pool with POOL_PAGES pages, re-reference the "hot" ones, then
+     * stream many single-use pages through it, evicting whatever the policy
+     * picks. Returns how many hot pages were evicted by the scan.
+     */
+    private static int hotPagesLostToScan(EvictionPolicy policy, int numHot) {
+        Set<PageId> resident = new HashSet<>();
+        for (int i = 0; i < POOL_PAGES; i++) {
+            policy.pageLoaded(pid(i));
+            resident.add(pid(i));
+        }
+        for (int round = 0; round < 3; round++) {
+            for (int i = 0; i < numHot; i++) {
+                policy.pageAccessed(pid(i));
+            }
+        }
+
+        int lost = 0;
+        for (int i = POOL_PAGES; i < POOL_PAGES + 10 * POOL_PAGES; i++) {
+            PageId victim = policy.chooseVictim(p -> true);
+            resident.remove(victim);
+            if (victim.getPageNumber() < numHot) {
+                lost++;
+            }
+            policy.pageLoaded(pid(i));
+            resident.add(pid(i));
+            // hot pages keep being used while the scan is running
+            for (int h = 0; h < numHot; h++) {
+                if (resident.contains(pid(h))) {
+                    policy.pageAccessed(pid(h));
+                }
+            }
+        }
+        return lost;
+    }
+
+    /**
+     * Unit test for LruKEvictionPolicy: a scan does not evict re-referenced
+     * pages.
+     */
+    @Test public void lruKScanResistance() {
+        assertEquals(0, hotPagesLostToScan(new LruKEvictionPolicy(POOL_PAGES), 3));
+    }
+
+    /**
+     * Unit test for ClockProEvictionPolicy: a scan does not evict
+     * re-referenced pages.
+     */
+    @Test public void clockProScanResistance() {
+        assertEquals(0, hotPagesLostToScan(new ClockProEvictionPolicy(POOL_PAGES), 3));
+    }
+
+    private static void checkPinnedPagesSkipped(EvictionPolicy policy) {
+        for (int i = 0; i < POOL_PAGES; i++) {
+            policy.pageLoaded(pid(i));
+        }
+        PageId only = pid(5);
+        assertEquals(only, policy.chooseVictim(p -> p.equals(only)));
+        assertNull(policy.chooseVictim(p -> p.equals(only)));
+        assertNull(policy.chooseVictim(p -> false));
+        assertNotNull(policy.chooseVictim(p -> true));
+    }
+
+    /**
+     * Unit test for EvictionPolicy.chooseVictim() with pages that may not be
+     * evicted.
+     */
+    @Test public void pinnedPagesSkipped() {
+        checkPinnedPagesSkipped(new LruKEvictionPolicy(POOL_PAGES));
+        checkPinnedPagesSkipped(new ClockProEvictionPolicy(POOL_PAGES));
+    }
+
+    private static void checkRemovedPagesForgotten(EvictionPolicy policy) {
+        for (int i = 0; i < POOL_PAGES; i++) {
+            policy.pageLoaded(pid(i));
+        }
+        for (int i = 0; i < POOL_PAGES - 1; i++) {
+            policy.pageRemoved(pid(i));
+        }
+        assertEquals(pid(POOL_PAGES - 1), policy.chooseVictim(p -> true));
+        assertNull(policy.chooseVictim(p -> true));
+    }
+
+    /**
+     * Unit test for EvictionPolicy.pageRemoved()
+     */
+    @Test public void removedPagesForgotten() {
+        checkRemovedPagesForgotten(new LruKEvictionPolicy(POOL_PAGES));
+        checkRemovedPagesForgotten(new ClockProEvictionPolicy(POOL_PAGES));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(EvictionPolicyTest.class);
+    }
+}
@@ -0,0 +1,121 @@
+package simpledb;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class FileChannelPoolTest extends SimpleDbTestBase {
+
+    private File file;
+    private FileChannelPool pool;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        file = File.createTempFile("channels", ".dat");
+        file.deleteOnExit();
+        pool = new FileChannelPool();
+    }
+
+    /**
+     * Unit test for FileChannelPool.write() and read() at arbitrary offsets
+     */
+    @Test public void positionalReadWrite() throws Exception {
+        pool.write(1, file, ByteBuffer.wrap(new byte[] { 1, 2, 3 }), 10);
+        assertEquals(13, file.length());
+
+        byte[] buf = new byte[3];
+        assertEquals(3, pool.read(1, file, ByteBuffer.wrap(buf), 10));
+        assertArrayEquals(new byte[] { 1, 2, 3 }, buf);
+
+        // short read at the end of the file
+        assertEquals(1, pool.read(1, file, ByteBuffer.wrap(buf), 12));
+        assertEquals(0, pool.read(1, file, ByteBuffer.wrap(buf), 13));
+    }
+
+    /**
+     * Unit test for FileChannelPool.close(): a closed channel is reopened on
+     * the next access
+     */
+    @Test public void reopenAfterClose() throws Exception {
+        pool.write(1, file, ByteBuffer.wrap(new byte[] { 7 }), 0);
+        pool.close(1);
+        pool.closeAll();
+
+        byte[] buf = new byte[1];
+        assertEquals(1, pool.read(1, file, ByteBuffer.wrap(buf), 0));
+        assertEquals(7, buf[0]);
+    }
+
+    /**
+     * HeapFile pages go through the catalog's pool, which reopens the file
+     * after the catalog has been cleared and reloaded
+     */
+    @Test public void heapFileThroughCatalog() throws Exception {
+        HeapFile hf = new HeapFile(file, Utility.getTupleDesc(2));
+        Database.getCatalog().addTable(hf);
+        HeapPage page = new HeapPage(new HeapPageId(hf.getId(), 0), HeapPage.createEmptyPageData());
+        page.insertTuple(Utility.getHeapTuple(42, 2));
+        hf.writePage(page);
+
+        Database.getCatalog().clear();
+        Database.getCatalog().addTable(hf);
+        HeapPage read = (HeapPage) hf.readPage(new HeapPageId(hf.getId(), 0));
+        assertEquals(42, ((IntField) read.iterator().next().getField(0)).getValue());
+    }
+
+    /**
+     * Unit test for FileChannelPool.mapPage(): pages appended after the file
+     * was mapped are picked up by remapping
+     */
+    @Test public void mapPageRemapsOnGrowth() throws Exception {
+        int pageSize = 16;
+        pool.write(1, file, ByteBuffer.wrap(new byte[] { 5 }), 0);
+        assertEquals(null, pool.mapPage(1, file, 0, pageSize));
+
+        pool.write(1, file, ByteBuffer.wrap(new byte[2 * pageSize]), 0);
+        assertEquals(0, pool.mapPage(1, file, 1, pageSize).get(0));
+        assertEquals(null, pool.mapPage(1, file, 2, pageSize));
+
+        byte[] third = new byte[pageSize];
+        third[3] = 9;
+        pool.write(1, file, ByteBuffer.wrap(third), 2 * pageSize);
+        ByteBuffer page = pool.mapPage(1, file, 2, pageSize);
+        assertEquals(pageSize, page.remaining());
+        assertEquals(9, page.get(3));
+    }
+
+    /**
+     * A memory-mapped HeapFile reads the same tuples as a regular one
+     */
+    @Test public void memoryMappedHeapFile() throws Exception {
+        HeapFile hf = new HeapFile(file, Utility.getTupleDesc(2));
+        Database.getCatalog().addTable(hf);
+        Database.getCatalog().setMemoryMapped(hf.getId(), true);
+        assertEquals(true, Database.getCatalog().isMemoryMapped(hf.getId()));
+
+        for (int i = 0; i < 2; i++) {
+            HeapPage page = new HeapPage(new HeapPageId(hf.getId(), i), HeapPage.createEmptyPageData());
+            page.insertTuple(Utility.getHeapTuple(i, 2));
+            hf.writePage(page);
+            HeapPage read = (HeapPage) hf.readPage(new HeapPageId(hf.getId(), i));
+            assertEquals(i, ((IntField) read.iterator().next().getField(0)).getValue());
+            assertEquals(page.getNumEmptySlots(), read.getNumEmptySlots());
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(FileChannelPoolTest.class);
+    }
+}
@@ -0,0 +1,145 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class FreeSpaceMapTest extends TestUtil.CreateHeapFile {
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+    }
+
+    /**
+     * Unit test for FreeSpaceMap.nextFree(), save() and load()
+     */
+    @Test public void markAndReload() throws Exception {
+        File table = File.createTempFile("fsm", ".dat");
+        table.deleteOnExit();
+        FreeSpaceMap.fileFor(table).deleteOnExit();
+        FreeSpaceMap fsm = FreeSpaceMap.load(table);
+        assertEquals(0, fsm.numPages());
+        assertEquals(-1, fsm.nextFree());
+
+        fsm.setFree(3, true);
+        fsm.setFree(9, true);
+        assertEquals(10, fsm.numPages());
+        assertEquals(3, fsm.nextFree());
+        fsm.setFree(3, false);
+        assertEquals(9, fsm.nextFree());
+        fsm.setFree(1, true);
+        assertEquals(1, fsm.nextFree());
+        fsm.save();
+
+        FreeSpaceMap reloaded = FreeSpaceMap.load(table);
+        assertEquals(10, reloaded.numPages());
+        assertEquals(1, reloaded.nextFree());
+        reloaded.setFree(1, false);
+        assertEquals(9, reloaded.nextFree());
+    }
+
+    /**
+     * Inserts fill the pages freed by deletes before the file is extended
+     */
+    @Test public void insertReusesFreedSlots() throws Exception {
+        TransactionId tid = new TransactionId();
+        // 504 tuples fit on a page
+        for (int i = 0; i < 1008; ++i) {
+            empty.insertTuple(tid, Utility.getHeapTuple(i, 2));
+        }
+        assertEquals(2, empty.numPages());
+
+        HeapPage first = (HeapPage) Database.getBufferPool().getPage(tid,
+                new HeapPageId(empty.getId(), 0), Permissions.READ_WRITE);
+        Tuple victim = first.iterator().next();
+        empty.deleteTuple(tid, victim);
+        assertEquals(1, first.getNumEmptySlots());
+
+        empty.insertTuple(tid, Utility.getHeapTuple(2000, 2));
+        assertEquals(0, first.getNumEmptySlots());
+        assertEquals(2, empty.numPages());
+
+        empty.insertTuple(tid, Utility.getHeapTuple(2001, 2));
+        assertEquals(3, empty.numPages());
+    }
+
+    /**
+     * An insert that finds a page suggested by the map full does not keep
+     * the page locked
+     */
+    @Test public void fullPageReleased() throws Exception {
+        BufferPool pool = Database.getBufferPool();
+        TransactionId filler = new TransactionId();
+        for (int i = 0; i < 1008; ++i) {
+            pool.insertTuple(filler, empty.getId(), Utility.getHeapTuple(i, 2));
+        }
+        pool.transactionComplete(filler);
+
+        // the aborted delete leaves the first page full, but marked free
+        TransactionId deleter = new TransactionId();
+        HeapPageId first = new HeapPageId(empty.getId(), 0);
+        HeapPage page = (HeapPage) pool.getPage(deleter, first, Permissions.READ_ONLY);
+        pool.deleteTuple(deleter, page.iterator().next());
+        pool.transactionComplete(deleter, false);
+
+        TransactionId inserter = new TransactionId();
+        pool.insertTuple(inserter, empty.getId(), Utility.getHeapTuple(2000, 2));
+        assertEquals(3, empty.numPages());
+        assertFalse(pool.holdsLock(inserter, first));
+        pool.transactionComplete(inserter);
+    }
+
+    /**
+     * The map is saved when a transaction commits, not with every page
+     */
+    @Test public void savedAtCommit() throws Exception {
+        BufferPool pool = Database.getBufferPool();
+        File file = FreeSpaceMap.fileFor(empty.getFile());
+        file.delete();
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 600; ++i) {
+            pool.insertTuple(tid, empty.getId(), Utility.getHeapTuple(i, 2));
+        }
+        pool.flushPages(tid);
+        assertFalse(file.exists());
+        pool.transactionComplete(tid);
+        assertEquals(2, FreeSpaceMap.load(empty.getFile()).numPages());
+    }
+
+    /**
+     * A map saved for a table file is ignored once the file is rewritten,
+     * and is deleted when a file is created at its path
+     */
+    @Test public void staleMapIgnored() throws Exception {
+        File table = File.createTempFile("fsm", ".dat");
+        table.deleteOnExit();
+        FreeSpaceMap.fileFor(table).deleteOnExit();
+        FreeSpaceMap fsm = FreeSpaceMap.load(table);
+        fsm.setFree(0, true);
+        fsm.save();
+        assertEquals(1, FreeSpaceMap.load(table).numPages());
+
+        table.setLastModified(table.lastModified() - 10000);
+        assertEquals(0, FreeSpaceMap.load(table).numPages());
+
+        FreeSpaceMap.load(table).save();
+        assertTrue(FreeSpaceMap.fileFor(table).exists());
+        HeapFileEncoder.convert(new ArrayList<ArrayList<Integer>>(), table, BufferPool.getPageSize(), 2);
+        assertFalse(FreeSpaceMap.fileFor(table).exists());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(FreeSpaceMapTest.class);
+    }
+}
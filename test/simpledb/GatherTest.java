@@ -0,0 +1,203 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class GatherTest extends SimpleDbTestBase {
+
+    private static final int ROWS = 20000;
+
+    private HeapFile table;
+    private ArrayList<ArrayList<Integer>> tuples;
+    private TransactionId tid;
+
+    /**
+     * Create a table spanning many morsels
+     */
+    @Before public void createTable() throws Exception {
+        this.tuples = new ArrayList<ArrayList<Integer>>();
+        this.table = SystemTestUtil.createRandomHeapFile(3, ROWS, 100, null, this.tuples, "c");
+        Database.getCatalog().addTable(this.table, "gather_test");
+        assertTrue(this.table.numPages() > 2 * Gather.MORSEL_PAGES);
+        this.tid = new TransactionId();
+    }
+
+    /**
+     * @return the tuples with c1 < 30, projected to c2, c0
+     */
+    private ArrayList<ArrayList<Integer>> expected() {
+        ArrayList<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>();
+        for (ArrayList<Integer> t : this.tuples) {
+            if (t.get(1) < 30) {
+                expected.add(new ArrayList<Integer>(Arrays.asList(t.get(2), t.get(0))));
+            }
+        }
+        return expected;
+    }
+
+    private OpIterator pipeline() {
+        Filter filter = new Filter(new Predicate(1, Predicate.Op.LESS_THAN, new IntField(30)),
+                new SeqScan(this.tid, this.table.getId(), "t"));
+        return new Project(new ArrayList<Integer>(Arrays.asList(2, 0)),
+                new Type[] { Type.INT_TYPE, Type.INT_TYPE }, filter);
+    }
+
+    /**
+     * Unit test for Gather running a filter and a projection in its
+     * workers, with more and fewer workers than there are morsels
+     */
+    @Test public void filterAndProject() throws Exception {
+        for (int parallelism : new int[] { 1, 4, 1000 }) {
+            Gather op = new Gather(pipeline(), parallelism);
+            assertEquals(2, op.getTupleDesc().numFields());
+            SystemTestUtil.matchTuples(op, expected());
+        }
+        SystemTestUtil.matchTuples(new Gather(new SeqScan(this.tid, this.table.getId(), "t"), 3),
+                this.tuples);
+        Database.getBufferPool().transactionComplete(this.tid);
+    }
+
+    /**
+     * Unit test for Gather closed before its workers are done, and rewound
+     */
+    @Test public void closeAndRewind() throws Exception {
+        Gather op = new Gather(new SeqScan(this.tid, this.table.getId(), "t"), 4);
+        op.open();
+        for (int i = 0; i < 10; i++) {
+            op.next();
+        }
+        op.close();
+
+        op.open();
+        for (int i = 0; i < 10; i++) {
+            op.next();
+        }
+        op.rewind();
+        int count = 0;
+        while (op.hasNext()) {
+            op.next();
+            count++;
+        }
+        assertEquals(ROWS, count);
+        op.close();
+        Database.getBufferPool().transactionComplete(this.tid);
+    }
+
+    /**
+     * A Gather that deadlocks with another transaction is aborted on the
+     * consumer thread, and none of its workers is left waiting for a lock
+     */
+    @Test(timeout = 30000) public void deadlock() throws Exception {
+        HeapFile other = SystemTestUtil.createRandomHeapFile(3, 100, null, null);
+        final BufferPool bp = Database.getBufferPool();
+        // the Gather's transaction is the younger one, the victim
+        final TransactionId older = new TransactionId();
+        final TransactionId younger = new TransactionId();
+        bp.getPage(younger, new HeapPageId(other.getId(), 0), Permissions.READ_WRITE);
+        for (int m = 0; m < this.table.numPages(); m += Gather.MORSEL_PAGES) {
+            bp.getPage(older, new HeapPageId(this.table.getId(), m), Permissions.READ_WRITE);
+        }
+
+        final Exception[] failure = new Exception[1];
+        Thread consumer = new Thread() {
+            public void run() {
+                Gather op = new Gather(new SeqScan(younger, table.getId(), "t"), 4);
+                try {
+                    op.open();
+                } catch (Exception e) {
+                    failure[0] = e;
+                } finally {
+                    op.close();
+                }
+                try {
+                    bp.transactionComplete(younger, false);
+                } catch (java.io.IOException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        };
+        consumer.start();
+        Thread.sleep(100);
+        bp.getPage(older, new HeapPageId(other.getId(), 0), Permissions.READ_ONLY);
+        consumer.join();
+        assertTrue(failure[0] instanceof TransactionAbortedException);
+        bp.transactionComplete(older, false);
+        Database.getBufferPool().transactionComplete(this.tid);
+    }
+
+    /**
+     * Only scan pipelines over heap files can be run by a Gather
+     */
+    @Test(expected = IllegalArgumentException.class) public void notParallelizable() {
+        new Gather(TestUtil.createTupleList(1, new int[] { 1, 2 }), 2);
+    }
+
+    /**
+     * Plan a query with a degree of parallelism: the scan, filter and
+     * projection run under a Gather
+     */
+    @Test public void parallelPlan() throws Exception {
+        HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+        stats.put("gather_test", new TableStats(this.table.getId(), 1000));
+        Parser p = new Parser();
+        p.setParallelism(4);
+        OpIterator plan = p.generateLogicalPlan(this.tid,
+                "SELECT t.c2, t.c0 FROM gather_test t WHERE t.c1 < 30;")
+                .physicalPlan(this.tid, stats, false);
+        assertTrue(plan instanceof Gather);
+        assertEquals(4, ((Gather) plan).getParallelism());
+        SystemTestUtil.matchTuples(plan, expected());
+
+        p.setParallelism(1);
+        plan = p.generateLogicalPlan(this.tid,
+                "SELECT t.c2, t.c0 FROM gather_test t WHERE t.c1 < 30;")
+                .physicalPlan(this.tid, stats, false);
+        assertTrue(plan instanceof Project);
+        Database.getBufferPool().transactionComplete(this.tid);
+    }
+
+    /**
+     * An aggregate over a scan is computed by up to the query's degree of
+     * parallelism of threads, and serially with a degree of 1
+     */
+    @Test public void parallelAggregatePlan() throws Exception {
+        HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+        stats.put("gather_test", new TableStats(this.table.getId(), 1000));
+        Parser p = new Parser();
+        p.setParallelism(1);
+        OpIterator plan = p.generateLogicalPlan(this.tid, "SELECT COUNT(t.c0) FROM gather_test t;")
+                .physicalPlan(this.tid, stats, false);
+        // the aggregate is under the projection of the select list
+        assertTrue(((Operator) plan).getChildren()[0] instanceof HashAggregate);
+
+        p.setParallelism(2);
+        plan = p.generateLogicalPlan(this.tid, "SELECT COUNT(t.c0) FROM gather_test t;")
+                .physicalPlan(this.tid, stats, false);
+        OpIterator agg = ((Operator) plan).getChildren()[0];
+        assertTrue(agg instanceof Aggregate);
+        assertEquals(2, ((Aggregate) agg).workers());
+        plan.open();
+        assertEquals(ROWS, ((IntField) plan.next().getField(0)).getValue());
+        plan.close();
+        Database.getBufferPool().transactionComplete(this.tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(GatherTest.class);
+    }
+}
@@ -0,0 +1,178 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class HashAggregateTest extends SimpleDbTestBase {
+
+    private static final Aggregator.Op[] OPS = new Aggregator.Op[] {
+            Aggregator.Op.SUM, Aggregator.Op.MIN, Aggregator.Op.MAX,
+            Aggregator.Op.AVG, Aggregator.Op.COUNT };
+
+    /**
+     * Compute group by fields 0 and 1, SUM(2), MIN(2), MAX(3), AVG(3),
+     * COUNT(2) over tuples of width 4 by brute force.
+     */
+    private static List<ArrayList<Integer>> expected(int[] data) {
+        Map<List<Integer>, long[]> groups = new HashMap<List<Integer>, long[]>();
+        for (int i = 0; i < data.length; i += 4) {
+            List<Integer> key = Arrays.asList(data[i], data[i + 1]);
+            long[] s = groups.get(key);
+            if (s == null) {
+                s = new long[] { 0, Long.MAX_VALUE, Long.MIN_VALUE, 0, 0 };
+                groups.put(key, s);
+            }
+            s[0] += data[i + 2];
+            s[1] = Math.min(s[1], data[i + 2]);
+            s[2] = Math.max(s[2], data[i + 3]);
+            s[3] += data[i + 3];
+            s[4]++;
+        }
+        List<ArrayList<Integer>> result = new ArrayList<ArrayList<Integer>>();
+        for (Map.Entry<List<Integer>, long[]> e : groups.entrySet()) {
+            long[] s = e.getValue();
+            result.add(new ArrayList<Integer>(Arrays.asList(e.getKey().get(0),
+                    e.getKey().get(1), (int) s[0], (int) s[1], (int) s[2],
+                    (int) (s[3] / s[4]), (int) s[4])));
+        }
+        return result;
+    }
+
+    private static int[] randomTuples(Random rand, int rows, int groups) {
+        int[] data = new int[4 * rows];
+        for (int i = 0; i < data.length; i += 4) {
+            data[i] = rand.nextInt(groups);
+            data[i + 1] = rand.nextInt(3);
+            data[i + 2] = rand.nextInt(1000) - 500;
+            data[i + 3] = rand.nextInt(1000);
+        }
+        return data;
+    }
+
+    /**
+     * Unit test for HashAggregate computing five aggregates grouped by two
+     * fields, in memory
+     */
+    @Test public void multipleAggregates() throws Exception {
+        int[] data = randomTuples(new Random(21), 3000, 50);
+        HashAggregate op = new HashAggregate(TestUtil.createTupleList(4, data),
+                new int[] { 0, 1 }, new int[] { 2, 2, 3, 3, 2 }, OPS);
+        op.open();
+        SystemTestUtil.matchTuples(op, expected(data));
+        assertEquals(0, op.numSpills());
+        op.rewind();
+        SystemTestUtil.matchTuples(op, expected(data));
+        op.close();
+    }
+
+    /**
+     * Unit test for HashAggregate with far more groups than fit in memory,
+     * so that groups are spilled to partitions, and partitions spilled again
+     */
+    @Test public void spilled() throws Exception {
+        int[] data = randomTuples(new Random(22), 20000, 3000);
+        HashAggregate op = new HashAggregate(TestUtil.createTupleList(4, data),
+                new int[] { 0, 1 }, new int[] { 2, 2, 3, 3, 2 }, OPS, 100);
+        op.open();
+        SystemTestUtil.matchTuples(op, expected(data));
+        assertTrue(op.numSpills() > 1 << HashAggregate.PARTITION_BITS);
+        op.close();
+    }
+
+    /**
+     * Unit test for HashAggregate over string fields, and without grouping
+     */
+    @Test public void stringsAndNoGrouping() throws Exception {
+        OpIterator strings = TestUtil.createTupleList(2, new Object[] {
+                "a", 1, "b", 2, "a", 3, "c", 4, "b", 5, "a", 6 });
+        HashAggregate op = new HashAggregate(strings, new int[] { 0 },
+                new int[] { 0, 1 }, new Aggregator.Op[] { Aggregator.Op.COUNT,
+                        Aggregator.Op.SUM }, 1);
+        op.open();
+        Map<String, String> groups = new HashMap<String, String>();
+        while (op.hasNext()) {
+            Tuple t = op.next();
+            groups.put(t.getString(0), t.getInt(1) + " " + t.getInt(2));
+        }
+        op.close();
+        assertEquals(3, groups.size());
+        assertEquals("3 10", groups.get("a"));
+        assertEquals("2 7", groups.get("b"));
+        assertEquals("1 4", groups.get("c"));
+
+        op = new HashAggregate(TestUtil.createTupleList(2, new int[] { 1, 2, 3, 4 }),
+                new int[0], new int[] { 0, 1 }, new Aggregator.Op[] {
+                        Aggregator.Op.MAX, Aggregator.Op.AVG });
+        op.open();
+        TestUtil.matchAllTuples(TestUtil.createTupleList(2, new int[] { 3, 3 }), op);
+        op.close();
+    }
+
+    /**
+     * Unit test for HashAggregate output names, and rejection of aggregates
+     * that cannot be computed over strings
+     */
+    @Test public void tupleDesc() throws Exception {
+        OpIterator child = TestUtil.createTupleList(2, new Object[] { "a", 1 });
+        TupleDesc td = new HashAggregate(child, new int[] { 0 }, new int[] { 1 },
+                new Aggregator.Op[] { Aggregator.Op.SUM }).getTupleDesc();
+        assertEquals(Type.STRING_TYPE, td.getFieldType(0));
+        assertEquals(Type.INT_TYPE, td.getFieldType(1));
+        assertEquals("sum(" + child.getTupleDesc().getFieldName(1) + ")",
+                td.getFieldName(1));
+        try {
+            new HashAggregate(child, new int[0], new int[] { 0 },
+                    new Aggregator.Op[] { Aggregator.Op.SUM });
+            throw new AssertionError("SUM over a string field");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    /**
+     * Parse a query with several aggregates and GROUP BY fields
+     */
+    @Test public void parseAggregates() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(4, 2000, 10, null, tuples, "c");
+        Database.getCatalog().addTable(f, "hash_aggregate_test");
+        int[] data = new int[4 * tuples.size()];
+        for (int i = 0; i < tuples.size(); i++) {
+            for (int j = 0; j < 4; j++) {
+                data[4 * i + j] = tuples.get(i).get(j);
+            }
+        }
+
+        TransactionId tid = new TransactionId();
+        OpIterator plan = new Parser().generateLogicalPlan(tid,
+                "SELECT t.c0, t.c1, SUM(t.c2), MIN(t.c2), MAX(t.c3), AVG(t.c3), COUNT(t.c2) "
+                        + "FROM hash_aggregate_test t GROUP BY t.c0, t.c1;")
+                .physicalPlan(tid, new HashMap<String, TableStats>(), false);
+        assertTrue(((Operator) plan).getChildren()[0] instanceof HashAggregate);
+        plan.open();
+        SystemTestUtil.matchTuples(plan, expected(data));
+        plan.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(HashAggregateTest.class);
+    }
+}
@@ -43,6 +43,31 @@ public class HeapFileWriteTest extends TestUtil.CreateHeapFile {
         assertEquals(3, empty.numPages());
     }
 
+    /**
+     * Unit test for HeapFile.insertTuples()
+     */
+    @Test public void addTuples() throws Exception {
+        java.util.List<Tuple> tuples = new java.util.ArrayList<Tuple>();
+        for (int i = 0; i < 504 * 4 + 1; ++i) {
+            tuples.add(Utility.getHeapTuple(i, 2));
+        }
+        java.util.List<Page> pages = empty.insertTuples(tid, tuples.iterator());
+
+        // the existing page, then extents of 1, 2 and 4 pages
+        assertEquals(8, empty.numPages());
+        assertEquals(5, pages.size());
+        for (Page page : pages) {
+            assertEquals(tid, page.isDirty());
+        }
+        assertEquals(0, ((HeapPage) pages.get(3)).getNumEmptySlots());
+        assertEquals(503, ((HeapPage) pages.get(4)).getNumEmptySlots());
+
+        // the rest of the last extent is used before the file grows again
+        empty.insertTuple(tid, Utility.getHeapTuple(0, 2));
+        assertEquals(8, empty.numPages());
+        assertEquals(502, ((HeapPage) pages.get(4)).getNumEmptySlots());
+    }
+
     /**
      * JUnit suite target
      */
@@ -126,6 +126,89 @@ public class HeapPageWriteTest extends SimpleDbTestBase {
         }
     }
 
+    /**
+     * Unit test for HeapPage writes in place: the buffer the page was created
+     * from and its before image are left untouched, and getPageData() round
+     * trips.
+     */
+    @Test public void writeInPlace() throws Exception {
+        byte[] data = HeapPageReadTest.EXAMPLE_DATA.clone();
+        HeapPage page = new HeapPage(pid, data);
+        Tuple first = page.iterator().next();
+        int slot = first.getRecordId().getTupleNumber();
+        assertTrue(TestUtil.compareTuples(first, page.getTuple(slot)));
+
+        page.deleteTuple(first);
+        Tuple addition = Utility.getHeapTuple(new int[] { 7, 8 });
+        page.insertTuple(addition);
+        assertEquals(slot, addition.getRecordId().getTupleNumber());
+        assertTrue(TestUtil.compareTuples(addition, page.getTuple(slot)));
+
+        assertTrue(java.util.Arrays.equals(HeapPageReadTest.EXAMPLE_DATA, data));
+        assertTrue(TestUtil.compareTuples(first, page.getBeforeImage().getTuple(slot)));
+
+        HeapPage copy = new HeapPage(pid, page.getPageData());
+        assertTrue(TestUtil.compareTuples(addition, copy.getTuple(slot)));
+        assertEquals(page.getNumEmptySlots(), copy.getNumEmptySlots());
+    }
+
+    /**
+     * The before image does not change with the buffer a page was created
+     * from, and an iterator keeps returning the tuples the page had when it
+     * was created
+     */
+    @Test public void snapshots() throws Exception {
+        byte[] data = HeapPageReadTest.EXAMPLE_DATA.clone();
+        HeapPage page = new HeapPage(pid, data);
+        Iterator<Tuple> it = page.iterator();
+        Tuple first = it.next();
+        page.deleteTuple(page.getTuple(1));
+        int count = 1;
+        while (it.hasNext()) {
+            it.next();
+            count++;
+        }
+        assertEquals(HeapPageReadTest.EXAMPLE_VALUES.length, count);
+
+        java.util.Arrays.fill(data, (byte) 0);
+        assertTrue(TestUtil.compareTuples(first, page.getBeforeImage().getTuple(0)));
+    }
+
+    /**
+     * A page built from a borrowed buffer does not copy it until the first
+     * write, and its before image is taken from the bytes before that write
+     */
+    @Test public void lazyBeforeImage() throws Exception {
+        byte[] data = HeapPageReadTest.EXAMPLE_DATA.clone();
+        HeapPage page = new HeapPage(pid, data);
+        assertTrue(page.oldData.array() == data);
+        Tuple first = page.getTuple(0);
+        page.deleteTuple(first);
+        assertTrue(page.oldData.array() != data);
+        java.util.Arrays.fill(data, (byte) 0);
+        assertTrue(TestUtil.compareTuples(first, page.getBeforeImage().getTuple(0)));
+    }
+
+    /**
+     * A tuple inserted into a slot ahead of a live iterator, after the page
+     * has been written to, is not returned by the iterator
+     */
+    @Test public void insertWhileIterating() throws Exception {
+        HeapPage page = new HeapPage(pid, HeapPageReadTest.EXAMPLE_DATA);
+        page.deleteTuple(page.getTuple(3));
+        int used = page.numSlots - page.getNumEmptySlots();
+
+        Iterator<Tuple> it = page.iterator();
+        it.next();
+        page.insertTuple(Utility.getHeapTuple(new int[] { 7, 8 }));
+        int count = 1;
+        while (it.hasNext()) {
+            it.next();
+            count++;
+        }
+        assertEquals(used, count);
+    }
+
     /**
      * JUnit suite target
      */
@@ -126,6 +126,38 @@ public class IntegerAggregatorTest extends SimpleDbTestBase {
     }
   }
 
+  /**
+   * Test IntegerAggregator.mergeAggregator(): partial aggregates over two
+   * halves of scan1 merge into the aggregate of all of it
+   */
+  @Test public void mergePartials() throws Exception {
+    Aggregator.Op[] ops = { Aggregator.Op.SUM, Aggregator.Op.MIN,
+        Aggregator.Op.MAX, Aggregator.Op.AVG, Aggregator.Op.COUNT };
+    int[][] expected = {
+      { 1, 12, 3, 12, 5, 7 },
+      { 1, 2, 3, 2, 5, 7 },
+      { 1, 6, 3, 6, 5, 7 },
+      { 1, 4, 3, 4, 5, 7 },
+      { 1, 3, 3, 3, 5, 1 }
+    };
+    for (int i = 0; i < ops.length; i++) {
+      scan1.open();
+      IntegerAggregator agg = new IntegerAggregator(0, Type.INT_TYPE, 1, ops[i]);
+      IntegerAggregator partial = new IntegerAggregator(0, Type.INT_TYPE, 1, ops[i]);
+      // the first half ends in the middle of group 3
+      for (int j = 0; j < 4; j++)
+        agg.mergeTupleIntoGroup(scan1.next());
+      while (scan1.hasNext())
+        partial.mergeTupleIntoGroup(scan1.next());
+      scan1.close();
+
+      agg.mergeAggregator(partial);
+      OpIterator it = agg.iterator();
+      it.open();
+      TestUtil.matchAllTuples(TestUtil.createTupleList(width1, expected[i]), it);
+    }
+  }
+
   /**
    * Test IntegerAggregator.iterator() for OpIterator behaviour
    */
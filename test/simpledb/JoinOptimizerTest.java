@@ -38,6 +38,7 @@ public class JoinOptimizerTest extends SimpleDbTestBase {
             throws IOException {
         File temp = File.createTempFile("table", ".dat");
         temp.deleteOnExit();
+        FreeSpaceMap.fileFor(temp).deleteOnExit();
         HeapFileEncoder.convert(tuples, temp, BufferPool.getPageSize(), columns);
         return Utility.openHeapFile(columns, colPrefix, temp);
     }
@@ -621,4 +622,52 @@ public class JoinOptimizerTest extends SimpleDbTestBase {
         Assert.assertTrue(result.get(result.size() - 1).t2Alias.equals("a")
                 || result.get(result.size() - 1).t1Alias.equals("a"));
     }
+
+    /**
+     * Verify that instantiateJoin() picks the cheapest join algorithm that
+     * supports the join predicate
+     */
+    @Test
+    public void instantiateJoinTest() throws ParsingException {
+        TransactionId tid = new TransactionId();
+        Parser p = new Parser();
+        JoinOptimizer jo = new JoinOptimizer(p.generateLogicalPlan(tid,
+                "SELECT * FROM " + tableName1 + " t1, " + tableName2
+                        + " t2 WHERE t1.c1 = t2.c2;"),
+                new Vector<LogicalJoinNode>());
+        LogicalJoinNode equals = new LogicalJoinNode("t1", "t2", "c1", "c2",
+                Predicate.Op.EQUALS);
+        LogicalJoinNode lessThan = new LogicalJoinNode("t1", "t2", "c1",
+                "c2", Predicate.Op.LESS_THAN);
+
+        // hashing beats every other algorithm on an equality predicate
+        double hash = jo.estimateJoinCost(equals, JoinAlgorithm.HASH, 1000,
+                10000, 10.0, 100.0);
+        Assert.assertTrue(hash < jo.estimateJoinCost(equals,
+                JoinAlgorithm.SORT_MERGE, 1000, 10000, 10.0, 100.0));
+        Assert.assertTrue(hash < jo.estimateJoinCost(equals,
+                JoinAlgorithm.BLOCK_NESTED_LOOP, 1000, 10000, 10.0, 100.0));
+        Assert.assertEquals(hash, jo.estimateJoinCost(equals, 1000, 10000,
+                10.0, 100.0), 0.0);
+
+        // but cannot compute a range join, and neither can a missing index
+        Assert.assertEquals(-1.0, jo.estimateJoinCost(lessThan,
+                JoinAlgorithm.HASH, 1000, 10000, 10.0, 100.0), 0.0);
+        Assert.assertEquals(-1.0, jo.estimateJoinCost(equals,
+                JoinAlgorithm.INDEX_NESTED_LOOP, 1000, 10000, 10.0, 100.0), 0.0);
+        Assert.assertTrue(jo.estimateJoinCost(lessThan,
+                JoinAlgorithm.BLOCK_NESTED_LOOP, 1000, 10000, 10.0, 100.0)
+                < jo.estimateJoinCost(lessThan, JoinAlgorithm.NESTED_LOOP,
+                        1000, 10000, 10.0, 100.0));
+
+        HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+        stats.put(tableName1, stats1);
+        stats.put(tableName2, stats2);
+        OpIterator j = jo.instantiateJoin(equals, new SeqScan(tid, tableId1,
+                "t1"), new SeqScan(tid, tableId2, "t2"), stats, false);
+        Assert.assertTrue(j instanceof HashEquiJoin);
+        j = jo.instantiateJoin(lessThan, new SeqScan(tid, tableId1, "t1"),
+                new SeqScan(tid, tableId2, "t2"), stats, false);
+        Assert.assertTrue(j instanceof Join);
+    }
 }
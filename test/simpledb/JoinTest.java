@@ -3,6 +3,12 @@ package simpledb;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
 import junit.framework.JUnit4TestAdapter;
 
 import org.junit.Before;
@@ -105,6 +111,196 @@ public class JoinTest extends SimpleDbTestBase {
     TestUtil.matchAllTuples(eqJoin, op);
   }
 
+  /**
+   * @return the tuples of the iterator, as strings in sorted order
+   */
+  private static List<String> rows(OpIterator it) throws Exception {
+    List<String> rows = new ArrayList<String>();
+    it.open();
+    while (it.hasNext()) {
+      rows.add(it.next().toString());
+    }
+    it.close();
+    Collections.sort(rows);
+    return rows;
+  }
+
+  private static int[] randomTuples(Random rand, int width, int rows, int maxKey) {
+    int[] data = new int[width * rows];
+    for (int i = 0; i < data.length; i++) {
+      data[i] = rand.nextInt(maxKey);
+    }
+    return data;
+  }
+
+  /**
+   * HashEquiJoin gives the same result as Join when the left child is too
+   * large for its memory budget and the inputs are partitioned to disk,
+   * including after a rewind
+   */
+  @Test public void hashJoinSpills() throws Exception {
+    Random rand = new Random(14);
+    int[] left = randomTuples(rand, width1, 2000, 300);
+    int[] right = randomTuples(rand, width2, 1500, 300);
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 1);
+
+    List<String> expected = rows(new Join(pred, TestUtil.createTupleList(width1, left),
+        TestUtil.createTupleList(width2, right)));
+    HashEquiJoin op = new HashEquiJoin(pred, TestUtil.createTupleList(width1, left),
+        TestUtil.createTupleList(width2, right), 50);
+    assertEquals(expected, rows(op));
+
+    op.open();
+    while (op.hasNext()) {
+      op.next();
+    }
+    op.rewind();
+    int count = 0;
+    while (op.hasNext()) {
+      op.next();
+      count++;
+    }
+    op.close();
+    assertEquals(expected.size(), count);
+  }
+
+  /**
+   * HashEquiJoin handles a partition that stays too large however often it
+   * is split, because every left tuple has the same key
+   */
+  @Test public void hashJoinSkewed() throws Exception {
+    int[] left = new int[width1 * 200];
+    for (int i = 0; i < 200; i++) {
+      left[i * width1] = 7;
+      left[i * width1 + 1] = i;
+    }
+    int[] right = { 7, 1, 1,
+                    8, 2, 2,
+                    7, 3, 3 };
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+
+    List<String> expected = rows(new Join(pred, TestUtil.createTupleList(width1, left),
+        TestUtil.createTupleList(width2, right)));
+    assertEquals(400, expected.size());
+    assertEquals(expected, rows(new HashEquiJoin(pred, TestUtil.createTupleList(width1, left),
+        TestUtil.createTupleList(width2, right), 30)));
+  }
+
+  /**
+   * A block nested-loop Join gives the same result as a tuple-at-a-time one
+   * on a range predicate, and scans its inner child once per block
+   */
+  @Test public void blockJoin() throws Exception {
+    Random rand = new Random(16);
+    int[] left = randomTuples(rand, width1, 250, 100);
+    int[] right = randomTuples(rand, width2, 40, 100);
+    JoinPredicate pred = new JoinPredicate(1, Predicate.Op.LESS_THAN, 2);
+
+    List<String> expected = rows(new Join(pred, TestUtil.createTupleList(width1, left),
+        TestUtil.createTupleList(width2, right)));
+    List<Tuple> rightTuples = new ArrayList<Tuple>();
+    TupleIterator it = TestUtil.createTupleList(width2, right);
+    while (it.hasNext()) {
+      rightTuples.add(it.next());
+    }
+    for (int blockSize : new int[] { 1, 7, 100, 250, 1000 }) {
+      final int[] rewinds = new int[1];
+      TupleIterator inner = new TupleIterator(Utility.getTupleDesc(width2), rightTuples) {
+        public void rewind() {
+          rewinds[0]++;
+          super.rewind();
+        }
+      };
+      Join op = new Join(pred, TestUtil.createTupleList(width1, left), inner, blockSize);
+      assertEquals(expected, rows(op));
+      assertEquals((250 + blockSize - 1) / blockSize - 1, rewinds[0]);
+    }
+  }
+
+  /**
+   * SortMergeJoin gives the same result as Join on equality and range
+   * predicates over inputs with duplicate keys, including after a rewind
+   */
+  @Test public void sortMergeJoin() throws Exception {
+    Random rand = new Random(17);
+    int[] left = randomTuples(rand, width1, 300, 40);
+    int[] right = randomTuples(rand, width2, 200, 40);
+    for (Predicate.Op op : new Predicate.Op[] { Predicate.Op.EQUALS,
+        Predicate.Op.LESS_THAN, Predicate.Op.LESS_THAN_OR_EQ,
+        Predicate.Op.GREATER_THAN, Predicate.Op.GREATER_THAN_OR_EQ }) {
+      JoinPredicate pred = new JoinPredicate(0, op, 2);
+      List<String> expected = rows(new Join(pred, TestUtil.createTupleList(width1, left),
+          TestUtil.createTupleList(width2, right)));
+      SortMergeJoin op2 = new SortMergeJoin(pred, TestUtil.createTupleList(width1, left),
+          TestUtil.createTupleList(width2, right));
+      assertEquals(expected, rows(op2));
+
+      op2.open();
+      op2.next();
+      op2.rewind();
+      int count = 0;
+      while (op2.hasNext()) {
+        op2.next();
+        count++;
+      }
+      op2.close();
+      assertEquals(expected.size(), count);
+    }
+  }
+
+  /**
+   * SortMergeJoin reads a scan of a B+ tree keyed on the join field without
+   * sorting it
+   */
+  @Test public void sortMergeJoinIndexed() throws Exception {
+    BTreeFile bf = BTreeUtility.createRandomBTreeFile(width2, 500, 100, null, null, 1);
+    TransactionId tid = new TransactionId();
+    assertTrue(SortMergeJoin.isOrderedOn(new SeqScan(tid, bf.getId(), "b"), 1));
+    assertTrue(!SortMergeJoin.isOrderedOn(new SeqScan(tid, bf.getId(), "b"), 0));
+    assertTrue(SortMergeJoin.isOrderedOn(new OrderBy(0, true, scan1), 0));
+
+    int[] left = randomTuples(new Random(18), width1, 100, 100);
+    JoinPredicate pred = new JoinPredicate(1, Predicate.Op.EQUALS, 1);
+    List<String> expected = rows(new Join(pred, TestUtil.createTupleList(width1, left),
+        new SeqScan(tid, bf.getId(), "b")));
+    assertEquals(expected, rows(new SortMergeJoin(pred, TestUtil.createTupleList(width1, left),
+        new SeqScan(tid, bf.getId(), "b"))));
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  /**
+   * IndexNestedLoopJoin gives the same result as Join on equality and range
+   * predicates when probing a B+ tree keyed on the join field, with left
+   * batches that repeat keys and span several batches, including after a
+   * rewind
+   */
+  @Test public void indexNestedLoopJoin() throws Exception {
+    BTreeFile bf = BTreeUtility.createRandomBTreeFile(width2, 500, 100, null, null, 1);
+    TransactionId tid = new TransactionId();
+    int[] left = randomTuples(new Random(19), width1, 60, 100);
+    for (Predicate.Op op : new Predicate.Op[] { Predicate.Op.EQUALS,
+        Predicate.Op.LESS_THAN, Predicate.Op.GREATER_THAN_OR_EQ }) {
+      JoinPredicate pred = new JoinPredicate(0, op, 1);
+      List<String> expected = rows(new Join(pred, TestUtil.createTupleList(width1, left),
+          new SeqScan(tid, bf.getId(), "b")));
+      IndexNestedLoopJoin op2 = new IndexNestedLoopJoin(pred, TestUtil.createTupleList(width1, left),
+          new SeqScan(tid, bf.getId(), "b"), 7);
+      assertEquals(expected, rows(op2));
+
+      op2.open();
+      op2.next();
+      op2.rewind();
+      int count = 0;
+      while (op2.hasNext()) {
+        op2.next();
+        count++;
+      }
+      op2.close();
+      assertEquals(expected.size(), count);
+    }
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
   /**
    * JUnit suite target
    */
@@ -0,0 +1,187 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class LimitTest extends SimpleDbTestBase {
+
+    private static List<Tuple> drain(OpIterator it) throws Exception {
+        List<Tuple> tuples = new ArrayList<Tuple>();
+        while (it.hasNext()) {
+            tuples.add(it.next());
+        }
+        return tuples;
+    }
+
+    /**
+     * Unit test for Limit: the offset is skipped, at most limit tuples are
+     * returned, and the child is not read past them
+     */
+    @Test public void limitOffset() throws Exception {
+        final int[] pulled = new int[1];
+        List<Tuple> input = new ArrayList<Tuple>();
+        for (int i = 0; i < 10; i++) {
+            input.add(Utility.getHeapTuple(i, 1));
+        }
+        OpIterator child = new TupleIterator(Utility.getTupleDesc(1), input) {
+            private static final long serialVersionUID = 1L;
+
+            public Tuple next() {
+                pulled[0]++;
+                return super.next();
+            }
+        };
+        Limit op = new Limit(3, 2, child);
+        op.open();
+        List<Tuple> tuples = drain(op);
+        assertEquals(3, tuples.size());
+        for (int i = 0; i < 3; i++) {
+            assertEquals(i + 2, tuples.get(i).getInt(0));
+        }
+        assertEquals(5, pulled[0]);
+
+        op.rewind();
+        assertEquals(tuples.toString(), drain(op).toString());
+        op.close();
+
+        // an offset past the end returns nothing
+        op = new Limit(3, 20, TestUtil.createTupleList(1, new int[] { 0, 1, 2 }));
+        op.open();
+        assertEquals(0, drain(op).size());
+        op.close();
+    }
+
+    /**
+     * Unit test for TopN: it returns the same tuples as the first n of a full
+     * sort, with ties on the sort fields broken by the later fields
+     */
+    @Test public void topN() throws Exception {
+        Random rand = new Random(20);
+        int[] data = new int[2 * 2000];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = rand.nextInt(100);
+        }
+        int[] fields = new int[] { 1, 0 };
+        boolean[] ascs = new boolean[] { false, true };
+
+        OrderBy sorted = new OrderBy(fields, ascs, TestUtil.createTupleList(2, data));
+        sorted.open();
+        List<Tuple> expected = drain(sorted);
+        sorted.close();
+
+        for (int n : new int[] { 0, 1, 50, 2000, 3000 }) {
+            TopN op = new TopN(fields, ascs, n, TestUtil.createTupleList(2, data));
+            op.open();
+            List<Tuple> top = drain(op);
+            assertEquals(expected.subList(0, Math.min(n, expected.size())).toString(),
+                    top.toString());
+            op.rewind();
+            assertEquals(top.toString(), drain(op).toString());
+            op.close();
+        }
+    }
+
+    /**
+     * Parse queries with a LIMIT clause, with and without an ORDER BY
+     */
+    @Test public void parseLimit() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 300, 1000, null, tuples, "c");
+        Database.getCatalog().addTable(f, "limit_test");
+        List<Integer> values = new ArrayList<Integer>();
+        for (ArrayList<Integer> t : tuples) {
+            values.add(t.get(0));
+        }
+        Collections.sort(values);
+
+        TransactionId tid = new TransactionId();
+        Parser p = new Parser();
+        HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+
+        OpIterator plan = p.generateLogicalPlan(tid,
+                "SELECT * FROM limit_test t ORDER BY t.c0 LIMIT 5 OFFSET 2;")
+                .physicalPlan(tid, stats, false);
+        plan.open();
+        List<Tuple> result = drain(plan);
+        plan.close();
+        assertEquals(5, result.size());
+        for (int i = 0; i < 5; i++) {
+            assertEquals((int) values.get(i + 2), result.get(i).getInt(0));
+        }
+        assertTrue(((Operator) plan).getChildren()[0] instanceof Limit);
+        assertTrue(((Operator) ((Operator) plan).getChildren()[0]).getChildren()[0] instanceof TopN);
+
+        // MySQL style offset, count
+        plan = p.generateLogicalPlan(tid,
+                "select * from limit_test t order by t.c0 desc limit 3, 4;")
+                .physicalPlan(tid, stats, false);
+        plan.open();
+        result = drain(plan);
+        plan.close();
+        assertEquals(4, result.size());
+        for (int i = 0; i < 4; i++) {
+            assertEquals((int) values.get(values.size() - 4 - i), result.get(i).getInt(0));
+        }
+
+        plan = p.generateLogicalPlan(tid, "SELECT * FROM limit_test t LIMIT 7;")
+                .physicalPlan(tid, stats, false);
+        plan.open();
+        assertEquals(7, drain(plan).size());
+        plan.close();
+
+        // the LIMIT is not remembered for the next query
+        plan = p.generateLogicalPlan(tid, "SELECT * FROM limit_test t;")
+                .physicalPlan(tid, stats, false);
+        plan.open();
+        assertEquals(300, drain(plan).size());
+        plan.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * A script is split into statements before LIMIT clauses are looked for,
+     * and a LIMIT on a statement that cannot have one is rejected
+     */
+    @Test public void scripts() throws Exception {
+        List<String> statements = Parser.splitStatements(
+                "SELECT * FROM t LIMIT 2;\nSELECT * FROM t WHERE t.s = 'a;b';\n ; ");
+        assertEquals(2, statements.size());
+        assertEquals("\nSELECT * FROM t WHERE t.s = 'a;b';", statements.get(1));
+
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 300, 1000, null, null, "c");
+        Database.getCatalog().addTable(f, "limit_test");
+        HeapFile copy = SystemTestUtil.createRandomHeapFile(2, 0, 1000, null, null, "c");
+        Database.getCatalog().addTable(copy, "limit_copy");
+        new Parser().processNextStatement(
+                "INSERT INTO limit_copy SELECT * FROM limit_test t LIMIT 5;\n"
+                + "DELETE FROM limit_copy LIMIT 1;\n"
+                + "INSERT INTO limit_copy SELECT * FROM limit_test t LIMIT 2;\n");
+
+        TransactionId tid = new TransactionId();
+        SeqScan scan = new SeqScan(tid, copy.getId(), "c");
+        scan.open();
+        assertEquals(7, drain(scan).size());
+        scan.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(LimitTest.class);
+    }
+}
@@ -3,7 +3,9 @@ package simpledb;
 import org.junit.Before;
 import org.junit.Test;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 import junit.framework.JUnit4TestAdapter;
 
 public class LockingTest extends TestUtil.CreateHeapFile {
@@ -186,6 +188,68 @@ public class LockingTest extends TestUtil.CreateHeapFile {
     bp.getPage(tid1, p1, Permissions.READ_WRITE);
   }
 
+  /**
+   * Unit test for BufferPool.getPage() and BufferPool.transactionComplete()
+   * assuming locking.
+   * A blocked request does not give up, and is granted once the conflicting
+   * lock is released.
+   */
+  @Test public void blockedRequestGrantedOnRelease() throws Exception {
+    bp.getPage(tid1, p0, Permissions.READ_WRITE);
+    TestUtil.LockGrabber t = new TestUtil.LockGrabber(tid2, p0, Permissions.READ_ONLY);
+    t.start();
+
+    // waiting for a lock that is not part of a deadlock never times out
+    Thread.sleep(10 * TIMEOUT);
+    assertFalse(t.acquired());
+    assertNull(t.getError());
+
+    bp.transactionComplete(tid1);
+    t.join(10 * TIMEOUT);
+    assertTrue(t.acquired());
+    assertNull(t.getError());
+  }
+
+  /**
+   * Unit test for BufferPool.getPage() assuming multi-granularity locking.
+   * Page locks take intention locks on their table, which do not conflict
+   * with each other.
+   */
+  @Test public void intentionLocks() throws Exception {
+    bp.getPage(tid1, p0, Permissions.READ_ONLY);
+    bp.getPage(tid2, p1, Permissions.READ_WRITE);
+    LockManager lm = bp.getLockManager();
+    assertEquals(LockMode.IS, lm.tableLockMode(tid1, empty.getId()));
+    assertEquals(LockMode.IX, lm.tableLockMode(tid2, empty.getId()));
+    assertEquals(2, lm.numLocksHeld(tid1));
+  }
+
+  /**
+   * Unit test for LockManager lock escalation: past the threshold, a
+   * transaction's page locks become one table lock, which conflicts with
+   * writers of any page of the table.
+   */
+  @Test public void escalateToTableLock() throws Exception {
+    LockManager lm = bp.getLockManager();
+    lm.setEscalationThreshold(2);
+    bp.getPage(tid1, p0, Permissions.READ_ONLY);
+    bp.getPage(tid1, p1, Permissions.READ_ONLY);
+    assertEquals(LockMode.IS, lm.tableLockMode(tid1, empty.getId()));
+
+    bp.getPage(tid1, p2, Permissions.READ_ONLY);
+    assertEquals(LockMode.S, lm.tableLockMode(tid1, empty.getId()));
+    // only the table lock is left
+    assertEquals(1, lm.numLocksHeld(tid1));
+    assertTrue(bp.holdsLock(tid1, p1));
+
+    grabLock(tid2, p1, Permissions.READ_ONLY, true);
+    grabLock(tid2, p2, Permissions.READ_WRITE, false);
+
+    bp.transactionComplete(tid1);
+    assertEquals(0, lm.numLocksHeld(tid1));
+    assertFalse(bp.holdsLock(tid1, p1));
+  }
+
   /**
    * JUnit suite target
    */
@@ -0,0 +1,159 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class OrderByTest extends SimpleDbTestBase {
+
+    private static int[] randomTuples(Random rand, int width, int rows, int maxValue) {
+        int[] data = new int[width * rows];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = rand.nextInt(maxValue);
+        }
+        return data;
+    }
+
+    private static List<Tuple> drain(OpIterator it) throws Exception {
+        List<Tuple> tuples = new ArrayList<Tuple>();
+        while (it.hasNext()) {
+            tuples.add(it.next());
+        }
+        return tuples;
+    }
+
+    /**
+     * Check that tuples are ordered on field 1 descending, then field 0
+     * ascending, and that they are the tuples of data.
+     */
+    private static void checkSorted(int[] data, List<Tuple> tuples) {
+        assertEquals(data.length / 2, tuples.size());
+        long sum = 0;
+        for (int i = 0; i < data.length; i++) {
+            sum += data[i];
+        }
+        for (int i = 0; i < tuples.size(); i++) {
+            Tuple t = tuples.get(i);
+            sum -= t.getInt(0) + t.getInt(1);
+            if (i > 0) {
+                Tuple prev = tuples.get(i - 1);
+                boolean ordered = prev.getInt(1) > t.getInt(1)
+                        || (prev.getInt(1) == t.getInt(1) && prev.getInt(0) <= t.getInt(0));
+                assertEquals("tuples " + (i - 1) + " and " + i, true, ordered);
+            }
+        }
+        assertEquals(0, sum);
+    }
+
+    /**
+     * Unit test for OrderBy on two fields, sorted in memory
+     */
+    @Test public void multiColumnInMemory() throws Exception {
+        int[] data = randomTuples(new Random(19), 2, 500, 20);
+        OrderBy op = new OrderBy(new int[] { 1, 0 }, new boolean[] { false, true },
+                TestUtil.createTupleList(2, data));
+        op.open();
+        checkSorted(data, drain(op));
+        op.close();
+    }
+
+    /**
+     * Unit test for OrderBy with a memory budget far smaller than its input,
+     * so that runs are spilled and merged in several passes; the result is
+     * the same after a rewind and after reopening
+     */
+    @Test public void spilled() throws Exception {
+        int[] data = randomTuples(new Random(20), 2, 5000, 1000);
+        OrderBy op = new OrderBy(new int[] { 1, 0 }, new boolean[] { false, true },
+                TestUtil.createTupleList(2, data), 10);
+        op.open();
+        List<Tuple> first = drain(op);
+        checkSorted(data, first);
+
+        op.rewind();
+        assertEquals(first.toString(), drain(op).toString());
+        op.close();
+
+        op.open();
+        assertEquals(first.toString(), drain(op).toString());
+        op.close();
+    }
+
+    private static int spillFiles() {
+        String[] names = new File(System.getProperty("java.io.tmpdir")).list();
+        int n = 0;
+        for (String name : names) {
+            if (name.startsWith("spill") && name.endsWith(".tmp")) {
+                n++;
+            }
+        }
+        return n;
+    }
+
+    /**
+     * Unit test for OrderBy opened again without a close: the runs of the
+     * first sort are removed
+     */
+    @Test public void reopened() throws Exception {
+        int[] data = randomTuples(new Random(21), 2, 5000, 1000);
+        OrderBy op = new OrderBy(new int[] { 1, 0 }, new boolean[] { false, true },
+                TestUtil.createTupleList(2, data), 10);
+        int before = spillFiles();
+        op.open();
+        op.open();
+        checkSorted(data, drain(op));
+        op.close();
+        assertEquals(before, spillFiles());
+    }
+
+    /**
+     * Unit test for ExternalSort: replacement selection writes a presorted
+     * input as one run, and runs about twice the memory budget otherwise
+     */
+    @Test public void replacementSelection() throws Exception {
+        TupleDesc td = Utility.getTupleDesc(1);
+        ExternalSort sorted = new ExternalSort(td, new TupleComparator(0, true), 100);
+        for (int i = 0; i < 10000; i++) {
+            sorted.add(Utility.getHeapTuple(i, 1));
+        }
+        sorted.sort();
+        assertEquals(1, sorted.numRuns());
+        for (int i = 0; i < 10000; i++) {
+            assertEquals(i, sorted.next().getInt(0));
+        }
+        assertEquals(null, sorted.next());
+        sorted.close();
+
+        Random rand = new Random(21);
+        ExternalSort random = new ExternalSort(td, new TupleComparator(0, true), 100);
+        for (int i = 0; i < 10000; i++) {
+            random.add(Utility.getHeapTuple(rand.nextInt(1000000), 1));
+        }
+        random.sort();
+        assertEquals(true, random.numRuns() < 10000 / 150);
+        int prev = -1;
+        for (int i = 0; i < 10000; i++) {
+            int v = random.next().getInt(0);
+            assertEquals(true, v >= prev);
+            prev = v;
+        }
+        assertEquals(null, random.next());
+        random.close();
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(OrderByTest.class);
+    }
+}
@@ -0,0 +1,160 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class ReadAheadTest extends SimpleDbTestBase {
+
+    private TransactionId tid;
+    private BufferPool pool;
+
+    @Before public void setUp() throws Exception {
+        this.tid = new TransactionId();
+        this.pool = Database.resetBufferPool(1000);
+    }
+
+    private HeapPageId page(HeapFile f, int pgNo) {
+        return new HeapPageId(f.getId(), pgNo);
+    }
+
+    /**
+     * Unit test for ReadAhead over a HeapFile: after two pages in a row, the
+     * following pages are read, up to the window
+     */
+    @Test public void heapScan() throws Exception {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 20000, null, null);
+        assertTrue(f.numPages() > 20);
+        ReadAhead ra = ReadAhead.heapScan(f, -1, null);
+
+        ra.advance(page(f, 0));
+        this.pool.getPage(this.tid, page(f, 0), Permissions.READ_ONLY);
+        ra.await();
+        assertFalse(this.pool.isResident(page(f, 1)));
+
+        ra.advance(page(f, 1));
+        this.pool.getPage(this.tid, page(f, 1), Permissions.READ_ONLY);
+        ra.await();
+        for (int i = 2; i <= 1 + ReadAhead.MIN_WINDOW; i++) {
+            assertTrue(this.pool.isResident(page(f, i)));
+        }
+        assertFalse(this.pool.isResident(page(f, 2 + ReadAhead.MIN_WINDOW)));
+        ra.close();
+        Database.getBufferPool().transactionComplete(this.tid);
+    }
+
+    /**
+     * Unit test for ReadAhead: pages visited out of order, and pages past the
+     * end of a ranged scan, are not read
+     */
+    @Test public void notSequential() throws Exception {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 20000, null, null);
+        ReadAhead ra = ReadAhead.heapScan(f, 6, null);
+        for (int pgNo : new int[] { 0, 2, 4, 8 }) {
+            ra.advance(page(f, pgNo));
+            ra.await();
+        }
+        assertFalse(this.pool.isResident(page(f, 9)));
+
+        ra.advance(page(f, 3));
+        ra.advance(page(f, 4));
+        ra.await();
+        assertTrue(this.pool.isResident(page(f, 5)));
+        assertFalse(this.pool.isResident(page(f, 6)));
+        ra.close();
+    }
+
+    /**
+     * Unit test for read-ahead in a BTreeFile scan: the leaves to the right
+     * of the scan are read by following the sibling pointers
+     */
+    @Test public void leafScan() throws Exception {
+        BTreeFile f = BTreeUtility.createRandomBTreeFile(2, 20000, null, null, 0);
+        this.pool = Database.resetBufferPool(1000);
+        BTreeFileIterator it = new BTreeFileIterator(f, this.tid);
+        it.open();
+        BTreeLeafPage first = it.curp;
+        while (it.hasNext() && it.curp.getId().equals(first.getId())) {
+            it.next();
+        }
+        // the scan is on its second leaf; go to the third
+        BTreePageId second = it.curp.getId();
+        while (it.hasNext() && it.curp.getId().equals(second)) {
+            it.next();
+        }
+        it.readAhead.await();
+        BTreeLeafPage leaf = it.curp;
+        for (int i = 0; i < ReadAhead.MIN_WINDOW; i++) {
+            BTreePageId next = leaf.getRightSiblingId();
+            assertTrue(this.pool.isResident(next));
+            leaf = (BTreeLeafPage) this.pool.getPage(this.tid, next, Permissions.READ_ONLY);
+        }
+
+        int count = 0;
+        it.rewind();
+        while (it.hasNext()) {
+            it.next();
+            count++;
+        }
+        assertEquals(20000, count);
+        it.close();
+        Database.getBufferPool().transactionComplete(this.tid);
+    }
+
+    /**
+     * A page read ahead is reported to the eviction policy as loaded, and the
+     * scan's first request for it is not reported as a hit
+     */
+    @Test public void firstRequestIsNotAHit() throws Exception {
+        final ArrayList<String> calls = new ArrayList<String>();
+        EvictionPolicy policy = new LruKEvictionPolicy(100) {
+            public void pageLoaded(PageId pid) {
+                calls.add("load " + pid.getPageNumber());
+                super.pageLoaded(pid);
+            }
+
+            public void pageAccessed(PageId pid) {
+                calls.add("hit " + pid.getPageNumber());
+                super.pageAccessed(pid);
+            }
+        };
+        BufferPool pool = new BufferPool(100, policy);
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 2000, null, null);
+        pool.prefetchPage(page(f, 3), null);
+        pool.getPage(this.tid, page(f, 3), Permissions.READ_ONLY);
+        pool.getPage(this.tid, page(f, 3), Permissions.READ_ONLY);
+        // hits are buffered until the next load
+        pool.getPage(this.tid, page(f, 4), Permissions.READ_ONLY);
+        assertEquals("[load 3, hit 3, load 4]", calls.toString());
+        pool.transactionComplete(this.tid);
+    }
+
+    /**
+     * Full scans with read-ahead in a pool too small for the table
+     */
+    @Test public void smallPool() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 20000, null, tuples);
+        Database.resetBufferPool(8);
+        for (int i = 0; i < 3; i++) {
+            SystemTestUtil.matchTuples(f, tuples);
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ReadAheadTest.class);
+    }
+}
@@ -0,0 +1,180 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class ScanRingTest extends SimpleDbTestBase {
+
+    private static final int POOL_PAGES = 40;
+
+    private HeapFile hot;
+    private HeapFile big;
+    private ArrayList<ArrayList<Integer>> bigTuples;
+    private BufferPool pool;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        this.hot = SystemTestUtil.createRandomHeapFile(2, 504 * 5, null, null);
+        this.bigTuples = new ArrayList<ArrayList<Integer>>();
+        this.big = SystemTestUtil.createRandomHeapFile(2, 504 * 100, null, this.bigTuples);
+        this.pool = Database.resetBufferPool(POOL_PAGES);
+    }
+
+    private HeapPageId page(HeapFile f, int pgNo) {
+        return new HeapPageId(f.getId(), pgNo);
+    }
+
+    /**
+     * Only scans of more pages than the pool holds get a ring
+     */
+    @Test public void ringSize() {
+        assertNull(this.pool.newScanRing(POOL_PAGES));
+        assertEquals(POOL_PAGES / 8, this.pool.newScanRing(POOL_PAGES + 1).size());
+        assertEquals(BufferPool.SCAN_RING_PAGES, new BufferPool(10000).newScanRing(10001).size());
+    }
+
+    /**
+     * A scan of a table far larger than the pool leaves the pages read by
+     * others resident
+     */
+    @Test public void scanKeepsWorkingSet() throws Exception {
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < this.hot.numPages(); i++) {
+            this.pool.getPage(tid, page(this.hot, i), Permissions.READ_ONLY);
+        }
+
+        DbFileIterator it = this.big.iterator(tid);
+        it.open();
+        int count = 0;
+        while (it.hasNext()) {
+            it.next();
+            count++;
+        }
+        assertEquals(this.bigTuples.size(), count);
+        int resident = 0;
+        for (int i = 0; i < this.big.numPages(); i++) {
+            if (this.pool.isResident(page(this.big, i))) {
+                resident++;
+            }
+        }
+        assertTrue(resident <= POOL_PAGES / 8);
+        it.close();
+
+        for (int i = 0; i < this.hot.numPages(); i++) {
+            assertTrue(this.pool.isResident(page(this.hot, i)));
+        }
+        // the ring's pages are dropped with it
+        for (int i = 0; i < this.big.numPages(); i++) {
+            assertFalse(this.pool.isResident(page(this.big, i)));
+        }
+        this.pool.transactionComplete(tid);
+    }
+
+    /**
+     * A page in a ring that is also requested outside the scan is handed
+     * over to the pool, and stays resident after the scan
+     */
+    @Test public void sharedPageHandedOver() throws Exception {
+        TransactionId tid = new TransactionId();
+        BufferPool.ScanRing ring = this.pool.newScanRing(this.big.numPages());
+        this.pool.getPage(tid, page(this.big, 0), Permissions.READ_ONLY, ring);
+        this.pool.getPage(tid, page(this.big, 1), Permissions.READ_ONLY, ring);
+        this.pool.getPage(tid, page(this.big, 0), Permissions.READ_ONLY);
+        for (int i = 2; i < 20; i++) {
+            this.pool.getPage(tid, page(this.big, i), Permissions.READ_ONLY, ring);
+        }
+        assertTrue(this.pool.isResident(page(this.big, 0)));
+        assertFalse(this.pool.isResident(page(this.big, 1)));
+        this.pool.releaseScanRing(ring);
+        assertTrue(this.pool.isResident(page(this.big, 0)));
+        assertFalse(this.pool.isResident(page(this.big, 19)));
+        this.pool.transactionComplete(tid);
+    }
+
+    /**
+     * A scan of a range of pages that fits in the pool does not read through
+     * a ring, however large the table
+     */
+    @Test public void rangedScan() throws Exception {
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = this.big.iterator(tid, 0, POOL_PAGES / 2);
+        it.open();
+        while (it.hasNext()) {
+            it.next();
+        }
+        it.close();
+        for (int i = 0; i < POOL_PAGES / 2; i++) {
+            assertTrue(this.pool.isResident(page(this.big, i)));
+        }
+        this.pool.transactionComplete(tid);
+    }
+
+    /**
+     * The pages of rings that are never released are evicted once the pool
+     * has nothing else to evict
+     */
+    @Test public void abandonedRings() throws Exception {
+        TransactionId tid = new TransactionId();
+        // fill the pool with rings
+        for (int i = 0; i < 8; i++) {
+            BufferPool.ScanRing ring = this.pool.newScanRing(this.big.numPages());
+            for (int j = 0; j < ring.size(); j++) {
+                this.pool.getPage(tid, page(this.big, i * ring.size() + j), Permissions.READ_ONLY, ring);
+            }
+        }
+        for (int i = 0; i < this.hot.numPages(); i++) {
+            this.pool.getPage(tid, page(this.hot, i), Permissions.READ_ONLY);
+            assertTrue(this.pool.isResident(page(this.hot, i)));
+        }
+        this.pool.transactionComplete(tid);
+    }
+
+    /**
+     * Concurrent scans through rings in a pool shared with writers
+     */
+    @Test public void scansAndWriters() throws Exception {
+        final TransactionId writer = new TransactionId();
+        for (int i = 0; i < 3; i++) {
+            this.pool.insertTuple(writer, this.hot.getId(), Utility.getHeapTuple(new int[] { i, i }));
+        }
+        SystemTestUtil.matchTuples(this.big, this.bigTuples);
+        Thread[] scans = new Thread[4];
+        final Throwable[] error = new Throwable[1];
+        for (int i = 0; i < scans.length; i++) {
+            scans[i] = new Thread() {
+                public void run() {
+                    try {
+                        SystemTestUtil.matchTuples(big, bigTuples);
+                    } catch (Throwable e) {
+                        error[0] = e;
+                    }
+                }
+            };
+            scans[i].start();
+        }
+        for (Thread t : scans) {
+            t.join();
+        }
+        assertNull(error[0]);
+        this.pool.transactionComplete(writer);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ScanRingTest.class);
+    }
+}
@@ -112,6 +112,43 @@ public class TransactionTest extends TestUtil.CreateHeapFile {
     testTransactionComplete(false);
   }
 
+  /**
+   * Unit test for BufferPool.transactionComplete().
+   * Locks on pages that have been evicted since they were read are released
+   * too.
+   */
+  @Test public void releaseLocksOfEvictedPages() throws Exception {
+    bp = Database.resetBufferPool(2);
+    bp.getPage(tid1, p0, Permissions.READ_ONLY);
+    bp.getPage(tid1, p1, Permissions.READ_ONLY);
+    bp.getPage(tid1, p2, Permissions.READ_ONLY);
+    bp.transactionComplete(tid1, true);
+
+    bp.getPage(tid2, p0, Permissions.READ_WRITE);
+    bp.getPage(tid2, p1, Permissions.READ_WRITE);
+    bp.getPage(tid2, p2, Permissions.READ_WRITE);
+  }
+
+  /**
+   * Unit test for BufferPool.flushPages().
+   * Only pages dirtied by the given transaction are written out.
+   */
+  @Test public void flushPagesOfTransaction() throws Exception {
+    HeapPage p = (HeapPage) bp.getPage(tid1, p2, Permissions.READ_WRITE);
+    Tuple t = Utility.getHeapTuple(new int[] { 6, 830 });
+    p.insertTuple(t);
+    p.markDirty(true, tid1);
+
+    bp.flushPages(tid2);
+    assertEquals(tid1, p.isDirty());
+    bp.flushPages(tid1);
+    assertEquals(null, p.isDirty());
+
+    HeapPage onDisk = (HeapPage) empty.readPage(p2);
+    assertEquals(p.getNumEmptySlots(), onDisk.getNumEmptySlots());
+    bp.transactionComplete(tid1, true);
+  }
+
   /**
    * JUnit suite target
    */
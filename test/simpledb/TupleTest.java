@@ -29,6 +29,32 @@ public class TupleTest extends SimpleDbTestBase {
         assertEquals(new IntField(37), tup.getField(1));
     }
 
+    /**
+     * Unit test for the typed accessors Tuple.getInt(), getString() and
+     * copyField() on a tuple mixing INT_TYPE and STRING_TYPE fields
+     */
+    @Test public void typedFields() {
+        TupleDesc td = new TupleDesc(new Type[] { Type.INT_TYPE, Type.STRING_TYPE, Type.INT_TYPE });
+        Tuple tup = new Tuple(td);
+        assertEquals(null, tup.getField(0));
+        assertEquals(null, tup.getField(1));
+
+        tup.setInt(0, 7);
+        tup.setField(1, new StringField("abc", Type.STRING_LEN));
+        tup.setField(2, new IntField(-3));
+        assertEquals(7, tup.getInt(0));
+        assertEquals("abc", tup.getString(1));
+        assertEquals(new IntField(-3), tup.getField(2));
+        assertEquals("7\tabc\t-3", tup.toString());
+
+        Tuple copy = new Tuple(td);
+        copy.copyField(0, tup, 2);
+        copy.copyField(1, tup, 1);
+        assertEquals(-3, copy.getInt(0));
+        assertEquals(new StringField("abc", Type.STRING_LEN), copy.getField(1));
+        assertEquals(null, copy.getField(2));
+    }
+
     /**
      * Unit test for Tuple.getTupleDesc()
      */
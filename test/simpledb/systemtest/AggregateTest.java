@@ -9,6 +9,9 @@ import simpledb.*;
 
 import org.junit.Test;
 
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
 public class AggregateTest extends SimpleDbTestBase {
     public void validateAggregate(DbFile table, Aggregator.Op operation, int aggregateColumn, int groupColumn, ArrayList<ArrayList<Integer>> expectedResult)
             throws DbException, TransactionAbortedException, IOException {
@@ -113,6 +116,79 @@ public class AggregateTest extends SimpleDbTestBase {
         doAggregate(Aggregator.Op.AVG, Aggregator.NO_GROUPING);
     }
 
+    /**
+     * Aggregate a table spread over many pages with several workers, each
+     * one aggregating a range of pages
+     */
+    @Test public void testParallel() throws IOException, DbException, TransactionAbortedException {
+        ArrayList<ArrayList<Integer>> createdTuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile table = SystemTestUtil.createRandomHeapFile(
+                COLUMNS, ROWS * 20, MAX_VALUE, null, createdTuples);
+        assertTrue(table.numPages() > 4);
+
+        for (Aggregator.Op operation : new Aggregator.Op[] { Aggregator.Op.SUM,
+                Aggregator.Op.AVG, Aggregator.Op.COUNT, Aggregator.Op.MIN }) {
+            for (int groupColumn : new int[] { 0, Aggregator.NO_GROUPING }) {
+                TransactionId tid = new TransactionId();
+                Aggregate ag = new Aggregate(new SeqScan(tid, table.getId(), ""), 1,
+                        groupColumn, operation, 4);
+                SystemTestUtil.matchTuples(ag, aggregate(createdTuples, operation, 1, groupColumn));
+                Database.getBufferPool().transactionComplete(tid);
+            }
+        }
+    }
+
+    /**
+     * A parallel aggregate that deadlocks with another transaction on pages
+     * in several workers' ranges either is aborted or goes on once the other
+     * transaction is, instead of hanging
+     */
+    @Test(timeout = 30000) public void testParallelDeadlock() throws Exception {
+        final HeapFile table = SystemTestUtil.createRandomHeapFile(
+                COLUMNS, ROWS * 20, MAX_VALUE, null, null);
+        HeapFile other = SystemTestUtil.createRandomHeapFile(COLUMNS, ROWS, MAX_VALUE, null, null);
+        final BufferPool bp = Database.getBufferPool();
+        // the aggregate's transaction is the younger one, the victim
+        TransactionId tid2 = new TransactionId();
+        final TransactionId tid1 = new TransactionId();
+        bp.getPage(tid1, new HeapPageId(other.getId(), 0), Permissions.READ_WRITE);
+        bp.getPage(tid2, new HeapPageId(table.getId(), 0), Permissions.READ_WRITE);
+        bp.getPage(tid2, new HeapPageId(table.getId(), table.numPages() - 1), Permissions.READ_WRITE);
+
+        final Exception[] failure = new Exception[1];
+        Thread aggregate = new Thread() {
+            public void run() {
+                try {
+                    Aggregate ag = new Aggregate(new SeqScan(tid1, table.getId(), ""), 1,
+                            Aggregator.NO_GROUPING, Aggregator.Op.COUNT, 4);
+                    ag.open();
+                    ag.close();
+                    bp.transactionComplete(tid1);
+                } catch (Exception e) {
+                    failure[0] = e;
+                    try {
+                        bp.transactionComplete(tid1, false);
+                    } catch (IOException e2) {
+                        throw new RuntimeException(e2);
+                    }
+                }
+            }
+        };
+        aggregate.start();
+        Thread.sleep(100);
+        boolean aborted = false;
+        try {
+            bp.getPage(tid2, new HeapPageId(other.getId(), 0), Permissions.READ_ONLY);
+        } catch (TransactionAbortedException e) {
+            aborted = true;
+        }
+        bp.transactionComplete(tid2, !aborted);
+        aggregate.join(10000);
+        assertFalse(aggregate.isAlive());
+        assertTrue(aborted == (failure[0] == null));
+        assertTrue(failure[0] == null || failure[0] instanceof TransactionAbortedException);
+    }
+
     /** Make test compatible with older version of ant. */
     public static junit.framework.Test suite() {
         return new junit.framework.JUnit4TestAdapter(AggregateTest.class);